@@ -0,0 +1,361 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.common;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Bounded pool of worker threads for network requests and other blocking
+ * I/O. At most maxThreads requests run at the same time, and at most
+ * maxPerHost of them for the same host. Waiting requests are started in
+ * order of priority (documents before style sheets before scripts before
+ * images) and in submission order within a priority; a request whose host
+ * is at its limit does not block requests for other hosts.
+ *
+ * Worker threads are started on demand and terminate after being idle for
+ * KEEP_ALIVE milliseconds.
+ */
+public class RequestPool {
+
+  public static final int PRIORITY_DOCUMENT = 0;
+  public static final int PRIORITY_STYLESHEET = 1;
+  public static final int PRIORITY_SCRIPT = 2;
+  public static final int PRIORITY_IMAGE = 3;
+
+  static final int PRIORITY_COUNT = 4;
+
+  /** Milliseconds an idle worker waits for a new request before terminating. */
+  static final int KEEP_ALIVE = 10000;
+
+  static final int STATE_NEW = 0;
+  static final int STATE_QUEUED = 1;
+  static final int STATE_RUNNING = 2;
+  static final int STATE_DONE = 3;
+
+  private static RequestPool defaultPool;
+
+  /**
+   * A request to be run by a pool. Subclasses implement run(), which is
+   * called on a worker thread.
+   */
+  public abstract static class Request implements Runnable {
+    final String host;
+    final int priority;
+    RequestPool pool;
+    int state;
+    private boolean cancelled;
+
+    /**
+     * Creates a request.
+     *
+     * @param url the URL to be requested; the per host limit applies to its host
+     * @param priority one of the PRIORITY_* constants
+     */
+    protected Request(String url, int priority) {
+      this.host = url == null ? "" : Util.getHost(url);
+      this.priority = Math.max(PRIORITY_DOCUMENT, Math.min(priority, PRIORITY_COUNT - 1));
+    }
+
+    /**
+     * Cancels this request. A waiting request is removed from the queue;
+     * for a running request, abort() is called.
+     *
+     * @return false if the request has already completed or was cancelled before
+     */
+    public boolean cancel() {
+      RequestPool p;
+      synchronized (this) {
+        if (pool == null) {
+          if (cancelled) {
+            return false;
+          }
+          cancelled = true;
+          return true;
+        }
+        p = pool;
+      }
+      return p.cancel(this);
+    }
+
+    /**
+     * Returns true if cancel() has been called. Implementations of run()
+     * should check this while transferring data and stop early.
+     */
+    public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    synchronized void setCancelled() {
+      cancelled = true;
+    }
+
+    /**
+     * Called from cancel() if the request is running, on the cancelling
+     * thread. Implementations typically close their connection here, so
+     * blocked reads in run() return. Does nothing by default.
+     */
+    protected void abort() {
+    }
+  }
+
+  private final int maxThreads;
+  private final int maxPerHost;
+  private final Vector[] queues = new Vector[PRIORITY_COUNT];
+  /** Maps hosts to the number of running requests, stored in an int[1]. */
+  private final Hashtable running = new Hashtable();
+
+  private int threadCount;
+  private int idleCount;
+  private int queueDepth;
+  private int maxQueueDepth;
+  private int activeCount;
+  private int completedCount;
+  private int cancelledCount;
+  private boolean shutdown;
+
+  /**
+   * Returns the pool shared by the browser and XMLHttpRequest, running up to
+   * four requests concurrently, two per host.
+   */
+  public static synchronized RequestPool getDefault() {
+    if (defaultPool == null) {
+      defaultPool = new RequestPool(4, 2);
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Creates a pool running at most maxThreads requests concurrently, and at
+   * most maxPerHost requests for the same host.
+   */
+  public RequestPool(int maxThreads, int maxPerHost) {
+    if (maxThreads < 1 || maxPerHost < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.maxThreads = maxThreads;
+    this.maxPerHost = maxPerHost;
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      queues[i] = new Vector();
+    }
+  }
+
+  /**
+   * Queues the given request. A request can only be submitted once; a
+   * request cancelled before submission is ignored.
+   */
+  public synchronized void submit(Request request) {
+    if (shutdown) {
+      throw new IllegalStateException("shut down");
+    }
+    synchronized (request) {
+      if (request.pool != null) {
+        throw new IllegalArgumentException("already submitted");
+      }
+      request.pool = this;
+      if (request.isCancelled()) {
+        request.state = STATE_DONE;
+        return;
+      }
+      request.state = STATE_QUEUED;
+    }
+    queues[request.priority].addElement(request);
+    queueDepth++;
+    maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+
+    if (queueDepth > idleCount && threadCount < maxThreads) {
+      threadCount++;
+      new Thread() {
+        public void run() {
+          work();
+        }
+      }.start();
+    }
+    if (idleCount > 0) {
+      notifyAll();
+    }
+  }
+
+  boolean cancel(Request request) {
+    synchronized (this) {
+      switch (request.state) {
+        case STATE_QUEUED:
+          queues[request.priority].removeElement(request);
+          queueDepth--;
+          request.state = STATE_DONE;
+          request.setCancelled();
+          cancelledCount++;
+          return true;
+        case STATE_RUNNING:
+          if (request.isCancelled()) {
+            return false;
+          }
+          request.setCancelled();
+          cancelledCount++;
+          break;
+        default:
+          return false;
+      }
+    }
+    // outside of the lock: abort() may block while closing a connection
+    request.abort();
+    return true;
+  }
+
+  /**
+   * Cancels all waiting requests and lets the worker threads terminate when
+   * the running requests have completed. No requests can be submitted
+   * afterwards.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      Vector queue = queues[i];
+      for (int j = 0; j < queue.size(); j++) {
+        Request request = (Request) queue.elementAt(j);
+        request.state = STATE_DONE;
+        request.setCancelled();
+        cancelledCount++;
+      }
+      queue.removeAllElements();
+    }
+    queueDepth = 0;
+    notifyAll();
+  }
+
+  /** Returns the number of requests waiting to be started. */
+  public synchronized int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /** Returns the number of requests of the given priority waiting to be started. */
+  public synchronized int getQueueDepth(int priority) {
+    return queues[priority].size();
+  }
+
+  /** Returns the highest number of waiting requests observed so far. */
+  public synchronized int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /** Returns the number of running requests. */
+  public synchronized int getActiveCount() {
+    return activeCount;
+  }
+
+  /** Returns the number of running requests for the given host. */
+  public synchronized int getActiveCount(String host) {
+    int[] count = (int[]) running.get(host);
+    return count == null ? 0 : count[0];
+  }
+
+  /** Returns the number of requests that have run to completion. */
+  public synchronized int getCompletedCount() {
+    return completedCount;
+  }
+
+  /** Returns the number of cancelled requests. */
+  public synchronized int getCancelledCount() {
+    return cancelledCount;
+  }
+
+  /** Returns the number of worker threads, including idle ones. */
+  public synchronized int getThreadCount() {
+    return threadCount;
+  }
+
+  /**
+   * Removes and returns the first waiting request with the highest priority
+   * whose host is below its limit, or null if there is none. Marks the
+   * returned request as running.
+   */
+  private Request take() {
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      Vector queue = queues[i];
+      for (int j = 0; j < queue.size(); j++) {
+        Request request = (Request) queue.elementAt(j);
+        int[] count = (int[]) running.get(request.host);
+        if (count == null) {
+          count = new int[1];
+          running.put(request.host, count);
+        } else if (count[0] >= maxPerHost) {
+          continue;
+        }
+        count[0]++;
+        queue.removeElementAt(j);
+        queueDepth--;
+        activeCount++;
+        request.state = STATE_RUNNING;
+        return request;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Waits for a request to run. Returns null if the calling worker should
+   * terminate, after removing it from the thread count.
+   */
+  private synchronized Request awaitRequest() {
+    long idleSince = System.currentTimeMillis();
+    while (true) {
+      Request request = take();
+      if (request != null) {
+        return request;
+      }
+      long remaining = idleSince + KEEP_ALIVE - System.currentTimeMillis();
+      if (shutdown || remaining <= 0) {
+        threadCount--;
+        return null;
+      }
+      idleCount++;
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        threadCount--;
+        return null;
+      } finally {
+        idleCount--;
+      }
+    }
+  }
+
+  private synchronized void finished(Request request) {
+    request.state = STATE_DONE;
+    activeCount--;
+    completedCount++;
+    int[] count = (int[]) running.get(request.host);
+    if (--count[0] == 0) {
+      running.remove(request.host);
+    }
+    // a request waiting for this host may be taken by an idle worker
+    if (idleCount > 0 && queueDepth > 0) {
+      notifyAll();
+    }
+  }
+
+  void work() {
+    Request request;
+    while ((request = awaitRequest()) != null) {
+      try {
+        request.run();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      } finally {
+        finished(request);
+      }
+    }
+  }
+}
@@ -127,6 +127,29 @@ public class Util {
     return baseUrl + '/' + relative;
   }
 
+  /**
+   * Returns the host of the given absolute URL in lower case, including the
+   * port if present, e.g. "acme.com:8080" for "http://Acme.com:8080/index.html".
+   * Returns an empty string if the URL does not contain a host.
+   */
+  public static String getHost(String url) {
+    int start = url.indexOf("://");
+    if (start == -1) {
+      return "";
+    }
+    start += 3;
+    int end = start;
+    while (end < url.length() && "/?#".indexOf(url.charAt(end)) == -1) {
+      end++;
+    }
+    // skip user info
+    int at = url.lastIndexOf('@', end - 1);
+    if (at >= start) {
+      start = at + 1;
+    }
+    return url.substring(start, end).toLowerCase();
+  }
+
   /**
    * Find the index of the given object in the given array.
    */
@@ -21,7 +21,9 @@ import com.google.minijoe.compiler.visitor.RoundtripVisitor;
 import com.google.minijoe.sys.JsArray;
 import com.google.minijoe.sys.JsFunction;
 import com.google.minijoe.sys.JsObject;
+import com.google.minijoe.sys.JsRealm;
 import com.google.minijoe.sys.JsSystem;
+import com.google.minijoe.sys.JsTerminationException;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -48,6 +50,16 @@ public class Eval extends JsObject {
     addVar("eval", new JsFunction(ID_EVAL, 2));
   }
 
+  /**
+   * Creates an evaluation context for the given realm, using the global
+   * object of the realm as scope.
+   */
+  public Eval(JsRealm realm) {
+    super(realm.getObjectPrototype());
+    scopeChain = realm.getGlobal();
+    addVar("eval", realm.adopt(new JsFunction(ID_EVAL, 2)));
+  }
+
   public static JsObject createGlobal() {
     return new Eval();
   }
@@ -61,8 +73,11 @@ public class Eval extends JsObject {
           stack.setObject(
               sp,
               eval(stack.getString(sp + 2),
-              stack.isNull(sp + 3) ? stack.getJsObject(sp) : stack.getJsObject(sp + 3))
+              stack.isNull(sp + 3) ? stack.getJsObject(sp) : stack.getJsObject(sp + 3),
+              JsRealm.get(stack))
           );
+        } catch (JsTerminationException e) {
+          throw e;
         } catch (Exception e) {
           throw new RuntimeException("" + e);
         }
@@ -94,7 +109,27 @@ public class Eval extends JsObject {
     dos.flush();
   }
   
+  /**
+   * Compiles the given program to a function running it in the given
+   * context, so it can be called as a coroutine (see JsEventLoop.call()).
+   */
+  public static JsFunction load(String input, JsObject context)
+      throws CompilerException, IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    compile(input, baos);
+    return JsFunction.load(new DataInputStream(
+        new ByteArrayInputStream(baos.toByteArray())), context);
+  }
+
   public static Object eval(String input, JsObject context) throws CompilerException, IOException {
+    return eval(input, context, JsRealm.DEFAULT);
+  }
+
+  /**
+   * Compiles the given source code and runs it in the given realm.
+   */
+  public static Object eval(String input, JsObject context, JsRealm realm) 
+      throws CompilerException, IOException {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     compile(input, baos);
     byte[] code = baos.toByteArray();
@@ -103,6 +138,6 @@ public class Eval extends JsObject {
       new Disassembler(new DataInputStream(new ByteArrayInputStream(code))).dump();
     }
 
-    return JsFunction.exec(new DataInputStream(new ByteArrayInputStream(code)), context);
+    return realm.exec(new DataInputStream(new ByteArrayInputStream(code)), context);
   }
 }
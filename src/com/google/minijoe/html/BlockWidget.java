@@ -16,15 +16,14 @@ package com.google.minijoe.html;
 
 import com.google.minijoe.common.Util;
 import com.google.minijoe.html.css.Style;
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.Graphics;
+import com.google.minijoe.html.gfx.Image;
 import com.google.minijoe.html.uibase.GraphicsUtils;
 import com.google.minijoe.html.uibase.Widget;
 
 import java.util.Vector;
 
-import javax.microedition.lcdui.Font;
-import javax.microedition.lcdui.Graphics;
-import javax.microedition.lcdui.Image;
-
 /**
  * Widget for rendering HTML block elements. For text content and for inline
  * elements without block content, TextFragmentWidgets are created.
@@ -57,6 +56,13 @@ public class BlockWidget extends Widget {
    */
   protected boolean layoutValid;
 
+  /**
+   * If false, the layout of at least one descendant is invalid. Unless 
+   * layoutValid is false, too, doLayout() tries to update the affected 
+   * children in place.
+   */
+  protected boolean childLayoutValid;
+
   /**
    * If false, a call to calculateWidth() is required before the minWidth and
    * maxWidth values can be used. Used internally in getMinWidth() and 
@@ -64,11 +70,36 @@ public class BlockWidget extends Widget {
    */
   protected boolean widthValid;
 
+  /**
+   * The container width minimumWidth and maximumWidth were calculated for.
+   */
+  protected int widthContainerWidth;
+
   /**
    * Width base value for percentages, set in doLayout
    */
   protected int containingWidth;
 
+  /** Viewport width of the last layout, set in doLayout */
+  protected int layoutViewportWidth;
+
+  /** 
+   * True if the last layout took place in the layout context of the parent, 
+   * set in doLayout 
+   */
+  protected boolean layoutInFlow;
+
+  /** The shrinkWrap value of the last layout, set in doLayout */
+  protected boolean layoutShrinkWrap;
+
+  /**
+   * True if the layout context of the parent did not contain floating 
+   * elements before and after the last layout. In this case, the layout
+   * did not depend on the position in the parent, and its only effect on the
+   * parent layout context was advancing by the box height.
+   */
+  protected boolean floatFree;
+
   /**
    * Left margin including adjustment for AUTO values
    */
@@ -113,6 +144,12 @@ public class BlockWidget extends Widget {
   /** The image if this block represents an image. */
   protected Image image;
 
+  /** 
+   * True if the children were built from the element by addChildren(), so 
+   * they can be rebuilt by rebuild().
+   */
+  protected boolean rebuildable;
+
   /**
    * Constructs a new BlockWidget for the given element. Does not recurse.
    * Used only in constructors for subclasses.
@@ -120,6 +157,9 @@ public class BlockWidget extends Widget {
   protected BlockWidget(Element element, boolean traversable) {
     this.element = element;
     this.focusable = traversable;
+    if (element != null) {
+      element.widget = this;
+    }
     if (traversable) {
       element.setFocused();
     }
@@ -147,9 +187,22 @@ public class BlockWidget extends Widget {
       }
     } else {
       addChildren(element, flags);
+      rebuildable = true;
     }
   }
 
+  /**
+   * Replaces the child widgets by widgets built for the current computed 
+   * styles of the descendants of the element, e.g. when the display type of
+   * a child element has changed. Only called if rebuildable is set.
+   */
+  void rebuild() {
+    element.clearDescendantWidgets();
+    children = new Vector();
+    addChildren(element, new boolean[]{false, true});
+    invalidate(true);
+  }
+
   /**
    * Add widgets for the given child element to this block widget. 
    * 
@@ -317,16 +370,36 @@ public class BlockWidget extends Widget {
   }   
 
   /**
-   * Mark this widget and all parent block widgets as invalid (needing a call to
-   * doLayout()).
+   * Mark this widget as invalid (needing a call to doLayout()) and all parent 
+   * block widgets as containing an invalid child.
    */
   public void invalidate(boolean layout) {
     if (layout) {
       layoutValid = false;
       widthValid = false;
     }
-    if (getParent() != null) {
-      getParent().invalidate(layout);
+    invalidateParent(layout);
+  }
+
+  /**
+   * Marks this widget and all parent block widgets as containing a child with
+   * invalid layout. The intrinsic widths need to be recalculated, but the 
+   * layout of the other children may remain valid.
+   */
+  void invalidateChild(boolean layout) {
+    if (layout) {
+      childLayoutValid = false;
+      widthValid = false;
+    }
+    invalidateParent(layout);
+  }
+
+  private void invalidateParent(boolean layout) {
+    Widget parent = getParent();
+    if (parent instanceof BlockWidget) {
+      ((BlockWidget) parent).invalidateChild(layout);
+    } else if (parent != null) {
+      parent.invalidate(layout);
     }
   }
 
@@ -369,16 +442,28 @@ public class BlockWidget extends Widget {
   public void doLayout(int outerMaxWidth, final int viewportWidth, 
       LayoutContext parentLayoutContext, boolean shrinkWrap) {
 
-    // If the with did not change and none of the children changed and the
-    // layout is not influenced by flow objects of the parent, we do not
-    // need to re-layout
-    if (HtmlWidget.OPTIMIZE && layoutValid && parentLayoutContext == null 
-        && containingWidth == outerMaxWidth) {
+    // If the width did not change and the layout is not influenced by flow 
+    // objects of the parent, we do not need to re-layout. If only children 
+    // changed, they are laid out in place if their size remains the same.
+    if (HtmlWidget.OPTIMIZE && layoutValid && containingWidth == outerMaxWidth
+        && layoutViewportWidth == viewportWidth && layoutShrinkWrap == shrinkWrap
+        && (parentLayoutContext == null 
+            || (floatFree && !parentLayoutContext.hasFloats()))
+        && (childLayoutValid || layoutChildrenInPlace(viewportWidth))) {
+      if (parentLayoutContext != null) {
+        // the net effect of a float free layout on the parent layout context
+        parentLayoutContext.advance(boxHeight);
+      }
       return;
     }
 
     layoutValid = true;
+    childLayoutValid = true;
     containingWidth = outerMaxWidth;
+    layoutViewportWidth = viewportWidth;
+    layoutInFlow = parentLayoutContext != null;
+    layoutShrinkWrap = shrinkWrap;
+    floatFree = parentLayoutContext == null || !parentLayoutContext.hasFloats();
     BlockWidget previousBlock = null;
 
     removeAllChildren();
@@ -465,6 +550,7 @@ public class BlockWidget extends Widget {
       setHeight(boxHeight);
       if (parentLayoutContext != null) {
         parentLayoutContext.advance(boxHeight);
+        floatFree = floatFree && !parentLayoutContext.hasFloats();
       }
       return;
     }
@@ -684,6 +770,7 @@ public class BlockWidget extends Widget {
       parentLayoutContext.adjustCurrentY(layoutContext.getCurrentY());
       parentLayoutContext.advance(
           boxHeight - layoutContext.getCurrentY() - top);
+      floatFree = floatFree && !parentLayoutContext.hasFloats();
     }
 
     // adjust dimensions and box coordinates for the case where children are 
@@ -691,6 +778,58 @@ public class BlockWidget extends Widget {
     adjustDimensions();
   }
 
+  /**
+   * Lays out the children with invalid layout at their current position, 
+   * assuming the containing width did not change. Returns false if the 
+   * dimensions of one of these children have changed, or if a child cannot 
+   * be laid out in place; a full layout is required in this case.
+   */
+  private boolean layoutChildrenInPlace(int viewportWidth) {
+    int cnt = getChildCount();
+    for (int i = 0; i < cnt; i++) {
+      Widget child = getChild(i);
+      if (!(child instanceof BlockWidget)) {
+        continue;
+      }
+      BlockWidget block = (BlockWidget) child;
+      if (block.layoutValid && block.childLayoutValid) {
+        continue;
+      }
+      // blocks in the regular flow can be laid out in a separate layout
+      // context only if they neither depend on nor add floating elements. 
+      // A viewport width mismatch indicates that the last layout was not 
+      // performed by BlockWidget.doLayout().
+      if (block.layoutViewportWidth != viewportWidth
+          || (block.layoutInFlow && !block.floatFree)) {
+        return false;
+      }
+      int x = block.getX() + block.boxX;
+      int y = block.getY() + block.boxY;
+      int bx = block.boxX;
+      int by = block.boxY;
+      int boxW = block.boxWidth;
+      int boxH = block.boxHeight;
+      int w = block.getWidth();
+      int h = block.getHeight();
+
+      LayoutContext context = block.layoutInFlow ? new LayoutContext(
+          block.containingWidth, element.getComputedStyle(), null, 0, 0) : null;
+      block.doLayout(block.containingWidth, viewportWidth, context, 
+          block.layoutShrinkWrap);
+      block.setX(x - block.boxX);
+      block.setY(y - block.boxY);
+
+      if (block.boxX != bx || block.boxY != by 
+          || block.boxWidth != boxW || block.boxHeight != boxH 
+          || block.getWidth() != w || block.getHeight() != h 
+          || (context != null && context.hasFloats())) {
+        return false;
+      }
+    }
+    childLayoutValid = true;
+    return true;
+  }
+
   /**
    * Adjust dimensions to include all child widgets and adjust 
    * boxX, boxY, boxW, and boxH to reflect the original position and dimensions
@@ -810,8 +949,9 @@ public class BlockWidget extends Widget {
    * @param containerWidth the width of the container
    */
   public int getMinimumWidth(final int containerWidth) {
-    if (!widthValid) {
+    if (!widthValid || containerWidth != widthContainerWidth) {
       calculateWidth(containerWidth);
+      widthContainerWidth = containerWidth;
     }
     return minimumWidth;
   }
@@ -822,8 +962,9 @@ public class BlockWidget extends Widget {
    * @param containerWidth the width of the container
    */
   public int getMaximumWidth(final int containerWidth) {
-    if (!widthValid) {
+    if (!widthValid || containerWidth != widthContainerWidth) {
       calculateWidth(containerWidth);
+      widthContainerWidth = containerWidth;
     }
     return maximumWidth;    
   }
@@ -879,31 +1020,30 @@ public class BlockWidget extends Widget {
         Widget child = (Widget) children.elementAt(i);
         if (child instanceof TextFragmentWidget) {
           TextFragmentWidget fragment = (TextFragmentWidget) child;
-          int[] widths = fragment.element.getComputedStyle().getCharWidths();
-          Font font = fragment.getFont();
+          int[] widths = fragment.getPrefixWidths();
+          int[] breaks = fragment.getBreakPositions();
           String text = fragment.text;
-
-          char c = 160;
-          int wordWidth = 0;
-          for (int j = 0; j < text.length(); j++) {
-            char d = text.charAt(j);
-            if (Util.canBreak(c, d)) {
-              minW = Math.max(minW, wordWidth);
-              currentLineWidth += wordWidth;
-              if (c == '\n') {
-                maxW = Math.max(maxW, currentLineWidth);
-                currentLineWidth = 0;
-              }
-              wordWidth = 0;
+          int len = text.length();
+
+          // words end at break positions
+          int wordStart = 0;
+          for (int j = 0; j < breaks.length; j++) {
+            int wordEnd = breaks[j];
+            int wordWidth = widths[wordEnd] - widths[wordStart];
+            minW = Math.max(minW, wordWidth);
+            currentLineWidth += wordWidth;
+            if (text.charAt(wordEnd - 1) == '\n') {
+              maxW = Math.max(maxW, currentLineWidth);
+              currentLineWidth = 0;
             }
-            c = d;
-            wordWidth += c < widths.length ? widths[c] : font.charWidth(c);
+            wordStart = wordEnd;
           }
-          if (c == '\n') {
+          if (len > 0 && text.charAt(len - 1) == '\n') {
             maxW = Math.max(maxW, currentLineWidth);
             currentLineWidth = 0;
           }
 
+          int wordWidth = widths[len] - widths[wordStart];
           minW = Math.max(minW, wordWidth);
           currentLineWidth += wordWidth;
         } else {
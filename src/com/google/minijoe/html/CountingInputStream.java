@@ -0,0 +1,59 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream keeping track of the number of bytes read from the wrapped
+ * stream. Used by HtmlWidget to determine the progress of loading a
+ * document (CLDC does not provide FilterInputStream).
+ */
+class CountingInputStream extends InputStream {
+
+  private InputStream in;
+
+  /** Number of bytes read so far. */
+  int count;
+
+  CountingInputStream(InputStream in) {
+    this.in = in;
+  }
+
+  public int read() throws IOException {
+    int b = in.read();
+    if (b != -1) {
+      count++;
+    }
+    return b;
+  }
+
+  public int read(byte[] buf, int off, int len) throws IOException {
+    int n = in.read(buf, off, len);
+    if (n > 0) {
+      count += n;
+    }
+    return n;
+  }
+
+  public int available() throws IOException {
+    return in.available();
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -15,13 +15,13 @@
 package com.google.minijoe.html;
 
 import java.io.IOException;
-import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
 
 import org.kxml2.io.KXmlParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import com.google.minijoe.common.Util;
 import com.google.minijoe.html.css.Style;
 import com.google.minijoe.html.css.StyleSheet;
 
@@ -61,6 +61,32 @@ public class Element {
   private static final int TAG_TITLE = 0x0050000;
   private static final int TAG_BASE = 0x0060000;
 
+  /** Style flag: the computed style of this element needs to be updated. */
+  static final int STYLE_DIRTY = 1;
+
+  /** 
+   * Style flag: the computed styles of this element and all descendants need
+   * to be updated, e.g. because an attribute that may be matched by 
+   * descendant selectors has changed.
+   */
+  static final int STYLE_DIRTY_TREE = 2;
+
+  /** Style flag: a descendant of this element has dirty style flags. */
+  static final int STYLE_DIRTY_CHILD = 4;
+
+  /** 
+   * Attributes evaluated by applyHtmlAttributes() and style.read(); their 
+   * values are part of the style cache key.
+   */
+  private static final String[] STYLE_ATTRIBUTES = {
+    "style", "align", "halign", "width", "height", "bgcolor", "color", "vspace", "hspace"
+  };
+
+  /** Table attributes evaluated by applyHtmlAttributes() for table elements. */
+  private static final String[] TABLE_STYLE_ATTRIBUTES = {
+    "valign", "border", "cellpadding", "cellspacing"
+  };
+
   /**
    * Hashtable mapping tag names to flags and tag name constants.
    */
@@ -117,11 +143,45 @@ public class Element {
 
   HtmlWidget htmlWidget;
   private Element parent;
+
+  /** The element name, interned so all elements with the same name share it. */
   private String name;
-  private Hashtable attributes;
-  private Vector content;  
+
+  /** 
+   * Attribute names and values, alternating. The names are interned. Unused
+   * entries at the end are null. 
+   */
+  private String[] attributes;
+
+  /** Child nodes (Element or String); only the first childCount are used. */
+  private Object[] children;
+  private int childCount;
   private Style computedStyle;
 
+  /** The block widget rendering this element, if any; set by BlockWidget. */
+  BlockWidget widget;
+
+  /** 
+   * Combination of the STYLE_DIRTY flags. If a flag is set, STYLE_DIRTY_CHILD
+   * is set for all ancestors, so apply() can skip clean subtrees.
+   */
+  private int styleFlags;
+
+  /** Class names, split from the class attribute on demand. */
+  private String[] classNames;
+
+  /** 
+   * Bloom filter of the names, ids and class names of this element and all
+   * descendants. May contain stale bits after attribute changes or removals.
+   */
+  private long subtreeBloomFilter;
+
+  /** True if this element is registered in the element index of the document. */
+  boolean indexed;
+
+  /** The object representing this element in scripts, created on demand. */
+  private Object scriptObject;
+
   /**
    * Create a new element with the given name. 
    * 
@@ -130,7 +190,8 @@ public class Element {
    */
   public Element(HtmlWidget htmlWidget, String name) {
     this.htmlWidget = htmlWidget;
-    this.name = name;
+    this.name = name.intern();
+    subtreeBloomFilter = StyleSheet.getBloomFilterBit(name);
   }
 
   /**
@@ -139,11 +200,85 @@ public class Element {
    * @param element child element to be added.
    */
   public void addElement(Element element) {
-    if (content == null) {
-      content = new Vector();
-    }
-    content.addElement(element);
+    addChild(element);
     element.parent = this;
+    addToBloomFilter(element.subtreeBloomFilter);
+    element.invalidateStyle(STYLE_DIRTY_TREE);
+    if (indexed && !element.indexed) {
+      element.addToIndex();
+    }
+  }
+
+  /**
+   * Registers this element and all descendants in the element index.
+   */
+  void addToIndex() {
+    indexed = true;
+    htmlWidget.elementIndex.add(this, ElementIndex.ALL);
+    for (int i = 0; i < childCount; i++) {
+      if (children[i] instanceof Element) {
+        ((Element) children[i]).addToIndex();
+      }
+    }
+  }
+
+  /**
+   * Removes this element and all descendants from the element index.
+   */
+  void removeFromIndex() {
+    if (indexed) {
+      indexed = false;
+      htmlWidget.elementIndex.remove(this, ElementIndex.ALL);
+      for (int i = 0; i < childCount; i++) {
+        if (children[i] instanceof Element) {
+          ((Element) children[i]).removeFromIndex();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a negative number if a precedes b in document order, a positive
+   * number if a follows b, and 0 if a and b are the same element. Both
+   * elements must be part of the same tree.
+   */
+  static int compareDocumentOrder(Element a, Element b) {
+    int depthA = a.getDepth();
+    int depthB = b.getDepth();
+    for (int i = depthA; i > depthB; i--) {
+      a = a.parent;
+    }
+    for (int i = depthB; i > depthA; i--) {
+      b = b.parent;
+    }
+    if (a == b) {
+      // one element contains the other one
+      return depthA - depthB;
+    }
+    while (a.parent != b.parent) {
+      a = a.parent;
+      b = b.parent;
+    }
+    Element p = a.parent;
+    if (p == null) {
+      return 0;
+    }
+    for (int i = 0; i < p.childCount; i++) {
+      if (p.children[i] == a) {
+        return -1;
+      } else if (p.children[i] == b) {
+        return 1;
+      }
+    }
+    return 0;
+  }
+
+  private int getDepth() {
+    int depth = 0;
+    for (Element e = parent; e != null; e = e.parent) {
+      depth++;
+    }
+    return depth;
   }
 
   /**
@@ -152,10 +287,30 @@ public class Element {
    * @param text the text to add.
    */
   public void addText(String text) {
-    if (content == null) {
-      content = new Vector();
+    addChild(text);
+  }
+
+  private void addChild(Object child) {
+    if (children == null) {
+      children = new Object[2];
+    } else if (childCount == children.length) {
+      Object[] newChildren = new Object[childCount * 2];
+      System.arraycopy(children, 0, newChildren, 0, childCount);
+      children = newChildren;
+    }
+    children[childCount++] = child;
+  }
+
+  /**
+   * Shrinks the child array to the number of children. Called when parsing
+   * of the element is completed.
+   */
+  private void trimChildren() {
+    if (children != null && childCount < children.length) {
+      Object[] newChildren = new Object[childCount];
+      System.arraycopy(children, 0, newChildren, 0, childCount);
+      children = newChildren;
     }
-    content.addElement(text);
   }
 
   /**
@@ -165,13 +320,113 @@ public class Element {
    * @param value attribute value
    */
   public void setAttribute(String attrName, String value) {
-    if (attributes == null) {
-      attributes = new Hashtable();
+    int indexKey = !indexed ? 0 : "id".equals(attrName) ? ElementIndex.ID 
+        : "class".equals(attrName) ? ElementIndex.CLASS : 0;
+    if (indexKey != 0) {
+      htmlWidget.elementIndex.remove(this, indexKey);
     }
+    int index = indexOfAttribute(attrName);
     if (value == null) {
-      attributes.remove(attrName);
+      if (index != -1) {
+        // move the last attribute into the gap
+        int last = attributes.length - 2;
+        while (attributes[last] == null) {
+          last -= 2;
+        }
+        attributes[index] = attributes[last];
+        attributes[index + 1] = attributes[last + 1];
+        attributes[last] = null;
+        attributes[last + 1] = null;
+      }
+    } else if (index != -1) {
+      attributes[index + 1] = value;
     } else {
-      attributes.put(attrName, value);
+      if (attributes == null) {
+        attributes = new String[2];
+        index = 0;
+      } else {
+        index = attributes.length;
+        while (index > 0 && attributes[index - 2] == null) {
+          index -= 2;
+        }
+        if (index == attributes.length) {
+          String[] newAttributes = new String[index + 4];
+          System.arraycopy(attributes, 0, newAttributes, 0, index);
+          attributes = newAttributes;
+        }
+      }
+      attributes[index] = attrName.intern();
+      attributes[index + 1] = value;
+    }
+    if ("class".equals(attrName)) {
+      classNames = null;
+      if (value != null) {
+        String[] names = getClassNames();
+        for (int i = 0; i < names.length; i++) {
+          addToBloomFilter(StyleSheet.getBloomFilterBit(names[i]));
+        }
+      }
+    } else if ("id".equals(attrName) && value != null) {
+      addToBloomFilter(StyleSheet.getBloomFilterBit(value));
+    }
+    if (indexKey != 0) {
+      htmlWidget.elementIndex.add(this, indexKey);
+    }
+    // selectors may refer to any attribute except for the style attribute
+    invalidateStyle("style".equals(attrName) ? STYLE_DIRTY : STYLE_DIRTY_TREE);
+  }
+
+  /**
+   * Returns the class names from the class attribute. The result is cached
+   * until the attribute is changed and must not be modified.
+   */
+  public String[] getClassNames() {
+    String[] result = classNames;
+    if (result == null) {
+      String value = getAttributeValue("class");
+      result = value == null ? new String[0] : Util.split(value, ' ');
+      classNames = result;
+    }
+    return result;
+  }
+
+  /**
+   * Returns a bloom filter of the names, ids and class names of this element
+   * and all its descendants (see StyleSheet.getBloomFilterBit()). 
+   */
+  public long getSubtreeBloomFilter() {
+    return subtreeBloomFilter;
+  }
+
+  /**
+   * Adds the given bits to the subtree bloom filter of this element and all
+   * ancestors.
+   */
+  private void addToBloomFilter(long bits) {
+    Element e = this;
+    while (e != null && (e.subtreeBloomFilter | bits) != e.subtreeBloomFilter) {
+      e.subtreeBloomFilter |= bits;
+      e = e.parent;
+    }
+  }
+
+  /**
+   * Marks the style of this element (and, for STYLE_DIRTY_TREE, of all 
+   * descendants) as outdated, so it is recomputed by the next apply() call 
+   * on the root element.
+   * 
+   * @param flags STYLE_DIRTY or STYLE_DIRTY_TREE
+   */
+  void invalidateStyle(int flags) {
+    if ((styleFlags & flags) == flags 
+        && (parent == null || (parent.styleFlags & STYLE_DIRTY_CHILD) != 0)) {
+      return;
+    }
+    styleFlags |= flags;
+    Element p = parent;
+    while (p != null && (p.styleFlags & STYLE_DIRTY_CHILD) == 0) {
+      p.styleFlags |= STYLE_DIRTY_CHILD;
+      p = p.parent;
     }
   }
 
@@ -182,7 +437,7 @@ public class Element {
    * @return ELEMENT or TEXT
    */
   public int getChildType(int index) {
-    return content.elementAt(index) instanceof Element ? ELEMENT : TEXT;
+    return children[checkIndex(index)] instanceof Element ? ELEMENT : TEXT;
   }
 
   /**
@@ -191,7 +446,14 @@ public class Element {
    * @return number of child nodes.
    */
   public int getChildCount() {
-    return content == null ? 0 : content.size();
+    return childCount;
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= childCount) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return index;
   }
 
   /**
@@ -200,7 +462,7 @@ public class Element {
    * will be thrown. Use getChildType() to ensure the correct type.
    */
   public Element getElement(int index) {
-    return (Element) content.elementAt(index);
+    return (Element) children[checkIndex(index)];
   }
 
   /**
@@ -208,12 +470,10 @@ public class Element {
    * such element.
    */
   public Element getElement(String childName) {
-    if (content != null) {
-      for (int i = 0; i < getChildCount(); i++) {
-        if (getChildType(i) == ELEMENT
-            && getElement(i).getName().equals(childName)) {
-          return getElement(i);
-        }
+    for (int i = 0; i < childCount; i++) {
+      if (children[i] instanceof Element 
+          && ((Element) children[i]).name.equals(childName)) {
+        return (Element) children[i];
       }
     }
     return null;
@@ -232,32 +492,42 @@ public class Element {
    * exception will be thrown.
    */
   public String getText(int index) {
-    return (String) content.elementAt(index);
+    return (String) children[checkIndex(index)];
   }
   
   /**
-   * Returns the first child which has a matching id attribute.
-   * Searches recursively through all children.
+   * Returns the first descendant in document order which has a matching id 
+   * attribute, or null if there is none. Uses the element index of the 
+   * document if this element is part of the document.
    * 
-   * @param id
-   * @return First child with matching id attribute
+   * @param id the id to look for
+   * @return First descendant with matching id attribute
    */
   public Element getChildById(String id) {
-	 int childCount = this.getChildCount();
-	  Element currChild = null;
-	  for (int i=0; i < childCount; i++) {
-		  if (this.getChildType(i) == this.ELEMENT) {
-			  currChild = this.getElement(i);			  
-			  if (currChild != null && 
-					  id.equals(currChild.getAttributeValue("id"))
-					  ) {
-				  break;
-			  } else if (currChild.getChildCount() > 0) {
-				  currChild.getChildById(id);
-			  }				  
-		  }
-	  }
-	  return currChild;
+    if (indexed) {
+      Element[] candidates = htmlWidget.elementIndex.get(ElementIndex.ID, id);
+      for (int i = 0; i < candidates.length; i++) {
+        for (Element e = candidates[i].parent; e != null; e = e.parent) {
+          if (e == this) {
+            return candidates[i];
+          }
+        }
+      }
+      return null;
+    }
+    for (int i = 0; i < childCount; i++) {
+      if (children[i] instanceof Element) {
+        Element child = (Element) children[i];
+        if (id.equals(child.getAttributeValue("id"))) {
+          return child;
+        }
+        Element result = child.getChildById(id);
+        if (result != null) {
+          return result;
+        }
+      }
+    }
+    return null;
   }
 
 
@@ -282,7 +552,23 @@ public class Element {
    * @return attribute value or null
    */
   public String getAttributeValue(String attrName) {
-    return attributes == null ? null : (String) attributes.get(attrName);
+    int i = indexOfAttribute(attrName);
+    return i == -1 ? null : attributes[i + 1];
+  }
+
+  /**
+   * Returns the index of the given attribute name in the attributes array, 
+   * or -1 if the attribute is not set.
+   */
+  private int indexOfAttribute(String attrName) {
+    if (attributes != null) {
+      for (int i = 0; i < attributes.length && attributes[i] != null; i += 2) {
+        if (attributes[i] == attrName || attributes[i].equals(attrName)) {
+          return i;
+        }
+      }
+    }
+    return -1;
   }
 
   /**
@@ -407,13 +693,29 @@ public class Element {
    * @throws IOException for underlying IO exceptions
    */
   void parseContent(KXmlParser parser) 
+  throws XmlPullParserException, IOException {
+    parseContent(parser, getFlags(name));
+  }
+
+  /**
+   * Returns the parsing flags for the element name, or 0 if there are none.
+   */
+  private static int getFlags(String name) {
+    Integer flagObject = (Integer) flagMap.get(name);
+    return flagObject == null ? 0 : flagObject.intValue();
+  }
+
+  /**
+   * Parses the contents of an element with the given flags.
+   */
+  private void parseContent(KXmlParser parser, int flags) 
   throws XmlPullParserException, IOException {
 
     int autoClose = 0;
-    int flags = 0;
-    Integer flagObject = (Integer) flagMap.get(name);
-    if (flagObject != null) {
-      flags = flagObject.intValue();
+    // consecutive text events (text, entity references, CDATA) are 
+    // collected into a single text node
+    StringBuffer text = null;
+    if (flags != 0) {
       if ((flags & FLAG_TABLE_ROW) != 0) {
         autoClose = FLAG_TABLE_ROW;
       } else if ((flags & FLAG_LIST_ITEM) != 0) {
@@ -429,12 +731,17 @@ public class Element {
 
     if ((flags & FLAG_EMPTY) == 0) {
       loop : while (true) {
-        switch (parser.getEventType()) {
+        int eventType = parser.getEventType();
+        if (text != null && eventType != KXmlParser.TEXT 
+            && eventType != KXmlParser.ENTITY_REF && eventType != KXmlParser.CDSECT) {
+          addText(text.toString());
+          text = null;
+        }
+        switch (eventType) {
           case KXmlParser.START_TAG:
             String childName = parser.getName().toLowerCase();
             Element child;
-            Integer childFlagObject = (Integer) flagMap.get(childName);
-            int childFlags = childFlagObject == null ? 0 : childFlagObject.intValue();
+            int childFlags = getFlags(childName);
 
             if ((autoClose & childFlags) != 0) {
               // closing <name> implied by <childName>
@@ -442,6 +749,7 @@ public class Element {
             } else {
               if ((childFlags & FLAG_TABLE_CELL) != 0 && (flags & FLAG_TABLE_ROW) == 0) {
                 child = new Element(htmlWidget, "tr");
+                childFlags = getFlags("tr");
                 addElement(child);
               } else {
                 child = new Element(htmlWidget, childName);
@@ -452,7 +760,8 @@ public class Element {
                 }
                 parser.nextToken();
               }
-              child.parseContent(parser);
+              child.parseContent(parser, childFlags);
+              htmlWidget.checkProgress();
             }
             break;
 
@@ -460,7 +769,10 @@ public class Element {
           case KXmlParser.ENTITY_REF:
           case KXmlParser.TEXT:
             if ((flags & FLAG_IGNORE_CONTENT) == 0) {
-              addText(parser.getText());
+              if (text == null) {
+                text = new StringBuffer();
+              }
+              text.append(parser.getText());
             }
             parser.nextToken();
             break;
@@ -501,14 +813,18 @@ public class Element {
             parser.nextToken();
         }
       }
+      trimChildren();
     }
 
     // perform action on element 
     switch (flags & 0xffff0000) {
       case TAG_STYLE:
         if (htmlWidget.checkMediaType(getAttributeValue("media"))) {
-          htmlWidget.styleSheet.read(htmlWidget, 
-              htmlWidget.getBaseURL() + "#" + position, getText());
+          synchronized (htmlWidget.styleSheet) {
+            htmlWidget.styleSheet.read(htmlWidget, 
+                htmlWidget.getBaseURL() + "#" + position, getText());
+            htmlWidget.progressStyleChanged = true;
+          }
         }
         break;
       case TAG_TITLE:
@@ -531,21 +847,30 @@ public class Element {
           htmlWidget.baseURL = href;
         }
       case TAG_SCRIPT:
-  		String srcAttr = getAttributeValue("src");
-  		if (srcAttr != null && !"".equals(srcAttr.trim())) {
-  			String srcUrl = htmlWidget.getAbsoluteUrl(srcAttr);
-  			if (srcAttr != null) {
-  				this.htmlWidget.getResource(srcUrl,
-  						SystemRequestHandler.TYPE_SCRIPT, this);
-  			}
+        if (htmlWidget.deferredScripts != null) {
+          // loading; scripts must not run while parsing
+          htmlWidget.deferredScripts.addElement(this);
+        } else {
+          executeScript();
+        }
+        break;
+    }
+  }
 
-  		} else {
-  			String jsText = getText();
-  			if (jsText != null && jsText.trim() != "") {
-  				this.htmlWidget.evalJS(jsText);
-  			}
-  		}
-  		break;
+  /**
+   * Executes the script of this script element, or requests it if the src
+   * attribute is set.
+   */
+  void executeScript() {
+    String srcAttr = getAttributeValue("src");
+    if (srcAttr != null && !"".equals(srcAttr.trim())) {
+      String srcUrl = htmlWidget.getAbsoluteUrl(srcAttr);
+      htmlWidget.getResource(srcUrl, SystemRequestHandler.TYPE_SCRIPT, this);
+    } else {
+      String jsText = getText();
+      if (jsText != null && jsText.trim() != "") {
+        htmlWidget.evalJS(jsText);
+      }
     }
   }
 
@@ -567,62 +892,196 @@ public class Element {
    * @param queue style queue used internally, must be set to new Vector()
    */
   public void apply(Vector applyHere, Vector applyAnywhere) {
+    apply(applyHere, applyAnywhere, STYLE_DIRTY_TREE, new Vector(), htmlWidget.styleCache);
+  }
+
+  /**
+   * Incremental version of apply(). Only the styles of elements marked by 
+   * invalidateStyle() (or by the dirty parameter) are recomputed. Selectors 
+   * are still matched along the path to dirty elements, since the matches
+   * determine the style sheets applicable to their descendants. If the
+   * recomputed style of an element is unchanged, its children are only 
+   * visited if they are dirty themselves.
+   * <p>
+   * Computed styles are shared between elements via the given style cache 
+   * (the cache of the HtmlWidget, or a cache per thread, see StylePass), and
+   * the temporary vectors are taken from the given pool and returned after
+   * use, so a style pass over a large document only allocates a few objects.
+   * 
+   * @param dirty additional STYLE_DIRTY flags for this element
+   * @param pool stack of empty vectors for temporary use
+   * @param cache cache for sharing computed styles
+   */
+  void apply(Vector applyHere, Vector applyAnywhere, int dirty, Vector pool,
+      StyleCache cache) {
+    Vector childStyles = obtainVector(pool);
+    Vector descendantStyles = obtainVector(pool);
+
+    int childDirty = applySelf(applyHere, applyAnywhere, dirty, pool, cache,
+        childStyles, descendantStyles);
+
+    // recurse....
+
+    if (childDirty != -1) {
+      for (int i = 0; i < getChildCount(); i++) {
+        if (getChildType(i) == Element.ELEMENT) {
+          getElement(i).apply(childStyles, descendantStyles, childDirty, pool, cache);
+        }
+      }
+    }
+    releaseVector(pool, childStyles);
+    releaseVector(pool, descendantStyles);
+  }
+
+  /**
+   * Updates the computed style of this element without recursing, filling 
+   * childStyles and descendantStyles with the style sheets to be applied to 
+   * the child elements. Used by apply() and by StylePass to distribute the 
+   * child elements to several threads.
+   * 
+   * @return the STYLE_DIRTY flags to be passed to the child elements, or -1
+   *     if the child elements don't need to be visited
+   */
+  int applySelf(Vector applyHere, Vector applyAnywhere, int dirty, Vector pool,
+      StyleCache cache, Vector childStyles, Vector descendantStyles) {
 
     if (htmlWidget.styleOutdated) {
-      return;
+      return -1;
+    }
+
+    // Clear the flags first, so concurrent invalidations are not lost
+    int flags = styleFlags | dirty;
+    styleFlags = 0;
+    if (computedStyle == null) {
+      flags |= STYLE_DIRTY;
+    }
+    if (flags == 0) {
+      return -1;
     }
+    boolean restyle = (flags & (STYLE_DIRTY | STYLE_DIRTY_TREE)) != 0;
 
     Style previousStyle = computedStyle;
-    Style style = new Style();
 
-    Vector queue = new Vector();
-    Vector childStyles = new Vector();
-    Vector descendantStyles = new Vector();
+    Vector queue = obtainVector(pool);
 
+    // style sheet nodes that cannot match anything in this subtree are 
+    // neither applied here nor passed on to the descendants
     int size = applyHere.size();
     for (int i = 0; i < size; i++) {
       StyleSheet styleSheet = (StyleSheet) applyHere.elementAt(i);
-      styleSheet.collectStyles(this, queue, childStyles, descendantStyles);
+      if (styleSheet.mayMatch(subtreeBloomFilter)) {
+        styleSheet.collectStyles(this, queue, childStyles, descendantStyles);
+      }
     }
     size = applyAnywhere.size();
     for (int i = 0; i < size; i++) {
       StyleSheet styleSheet = (StyleSheet) applyAnywhere.elementAt(i);
-      descendantStyles.addElement(styleSheet);
-      styleSheet.collectStyles(this, queue, childStyles, descendantStyles);
+      if (styleSheet.mayMatch(subtreeBloomFilter)) {
+        if (!descendantStyles.contains(styleSheet)) {
+          descendantStyles.addElement(styleSheet);
+        }
+        styleSheet.collectStyles(this, queue, childStyles, descendantStyles);
+      }
     }
 
-    for (int i = 0; i < queue.size(); i++) {
-      style.set(((Style) queue.elementAt(i)));
-    }
+    boolean changed = false;
+    if (restyle) {
+      Style parentStyle = parent == null ? null : parent.computedStyle;
+      String styleAttributes = getStyleAttributes();
+      Style style = cache.get(parentStyle, name, styleAttributes, queue);
 
-    String styleAttr = getAttributeValue("style");
-    if (styleAttr != null) {
-      style.read(htmlWidget, styleAttr);
-    }
+      if (style == null) {
+        style = new Style();
+        for (int i = 0; i < queue.size(); i++) {
+          style.set(((Style) queue.elementAt(i)));
+        }
 
-    if (parent != null) {
-      style.inherit(parent.computedStyle);
+        String styleAttr = getAttributeValue("style");
+        if (styleAttr != null) {
+          style.read(htmlWidget, styleAttr);
+        }
+
+        if (parent != null) {
+          style.inherit(parentStyle);
+        }
+
+        // handle legacy stuff 
+
+        applyHtmlAttributes(style);
+        cache.put(parentStyle, name, styleAttributes, queue, style);
+      }
+
+      // keep the previous style object if nothing has changed, preserving
+      // cached values such as the font
+      changed = style != previousStyle && !style.equalValues(previousStyle);
+      if (changed) {
+        computedStyle = style;
+      }
+    }
+    releaseVector(pool, queue);
+
+    // record the change for updating the widgets; the vectors are 
+    // synchronized, since several threads may add to them
+    if (changed && !htmlWidget.needsBuild) {
+      if (previousStyle == null || 
+          previousStyle.getEnum(Style.DISPLAY) != 
+            computedStyle.getEnum(Style.DISPLAY) || 
+          previousStyle.isBlock(false) != computedStyle.isBlock(false)) {
+        htmlWidget.rebuildElements.addElement(this);
+      } else {
+        htmlWidget.restyledElements.addElement(this);
+      }
     }
 
-    // handle legacy stuff 
+    return (flags & STYLE_DIRTY_TREE) != 0 
+        ? STYLE_DIRTY_TREE : changed ? STYLE_DIRTY : 0;
+  }
 
-    applyHtmlAttributes(style);
-    computedStyle = style;
+  private static Vector obtainVector(Vector pool) {
+    int size = pool.size();
+    if (size == 0) {
+      return new Vector();
+    }
+    Vector v = (Vector) pool.elementAt(size - 1);
+    pool.removeElementAt(size - 1);
+    return v;
+  }
 
-    // recurse....
+  private static void releaseVector(Vector pool, Vector v) {
+    v.removeAllElements();
+    pool.addElement(v);
+  }
 
-    for (int i = 0; i < getChildCount(); i++) {
-      if (getChildType(i) == Element.ELEMENT) {
-        getElement(i).apply(childStyles, descendantStyles);
+  /**
+   * Returns the values of the attributes influencing the computed style 
+   * (see STYLE_ATTRIBUTES) as a single string for the style cache key, or 
+   * null if none of them is set.
+   */
+  private String getStyleAttributes() {
+    StringBuffer sb = null;
+    if (attributes != null) {
+      for (int i = 0; i < STYLE_ATTRIBUTES.length; i++) {
+        sb = appendStyleAttribute(sb, i, getAttributeValue(STYLE_ATTRIBUTES[i]));
       }
     }
+    if ("table".equals(name) || "td".equals(name) || "th".equals(name)) {
+      for (int i = 0; i < TABLE_STYLE_ATTRIBUTES.length; i++) {
+        sb = appendStyleAttribute(sb, STYLE_ATTRIBUTES.length + i, 
+            getTableAttributeValue(TABLE_STYLE_ATTRIBUTES[i]));
+      }
+    }
+    return sb == null ? null : sb.toString();
+  }
 
-    if (!htmlWidget.needsBuild) {
-      htmlWidget.needsBuild = previousStyle == null || 
-      previousStyle.getEnum(Style.DISPLAY) != 
-        computedStyle.getEnum(Style.DISPLAY) || 
-        previousStyle.isBlock(false) != computedStyle.isBlock(false);
+  private static StringBuffer appendStyleAttribute(StringBuffer sb, int index, String value) {
+    if (value != null) {
+      if (sb == null) {
+        sb = new StringBuffer();
+      }
+      sb.append((char) index);
+      sb.append(value);
     }
+    return sb;
   }
 
   /**
@@ -792,22 +1251,40 @@ public class Element {
     String indent = (parent != null) ? parent.dumpPath() : "";
     System.out.print(indent + "<" + name);
     if (attributes != null) {
-      for (Enumeration e = attributes.keys(); e.hasMoreElements();) {
-        Object key = e.nextElement();
-        System.out.print(" " + key + "='" + attributes.get(key) + "'");
+      for (int i = 0; i < attributes.length && attributes[i] != null; i += 2) {
+        System.out.print(" " + attributes[i] + "='" + attributes[i + 1] + "'");
       }
     }
     System.out.println("> ");
     return indent + "  ";
   }
 
+  /**
+   * Clears the widget references of all descendants, before their widgets 
+   * are rebuilt.
+   */
+  void clearDescendantWidgets() {
+    for (int i = 0; i < childCount; i++) {
+      if (children[i] instanceof Element) {
+        Element child = (Element) children[i];
+        child.widget = null;
+        child.clearDescendantWidgets();
+      }
+    }
+  }
+
   /**
    * Remove the child node with the given index.
    * 
    * @param i index of the child node to be removed
    */
   public void remove(int i) {
-    content.removeElementAt(i);
+    checkIndex(i);
+    if (children[i] instanceof Element) {
+      ((Element) children[i]).removeFromIndex();
+    }
+    System.arraycopy(children, i + 1, children, i, childCount - i - 1);
+    children[--childCount] = null;
   }
 
   /**
@@ -825,4 +1302,20 @@ public class Element {
        return htmlWidget;
   }
 
+  /**
+   * Returns the object representing this element in scripts, or null if
+   * none has been set.
+   */
+  public Object getScriptObject() {
+    return scriptObject;
+  }
+
+  /**
+   * Sets the object representing this element in scripts, so that all
+   * lookups of the element return the same object.
+   */
+  public void setScriptObject(Object scriptObject) {
+    this.scriptObject = scriptObject;
+  }
+
 }
@@ -0,0 +1,171 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Index of the elements of a document by id, class name and tag name. Each
+ * key is mapped to a vector of the matching elements in document order. The
+ * index is maintained by Element when elements are parsed, added or removed,
+ * or when their id or class attributes change.
+ */
+class ElementIndex {
+
+  static final int ID = 1;
+  static final int CLASS = 2;
+  static final int TAG = 4;
+  static final int ALL = ID | CLASS | TAG;
+
+  private static final Element[] NO_ELEMENTS = new Element[0];
+
+  private Hashtable ids = new Hashtable();
+  private Hashtable classes = new Hashtable();
+  private Hashtable tags = new Hashtable();
+
+  /**
+   * If true, elements are known to be added in document order (while a
+   * document is parsed), so the insertion position does not need to be
+   * determined.
+   */
+  boolean appending;
+
+  /**
+   * Adds the given element under the keys selected by the given flags.
+   */
+  synchronized void add(Element e, int what) {
+    if ((what & TAG) != 0) {
+      insert(tags, e.getName(), e);
+    }
+    if ((what & ID) != 0) {
+      String id = e.getAttributeValue("id");
+      if (id != null) {
+        insert(ids, id, e);
+      }
+    }
+    if ((what & CLASS) != 0) {
+      String[] names = e.getClassNames();
+      for (int i = 0; i < names.length; i++) {
+        insert(classes, names[i], e);
+      }
+    }
+  }
+
+  /**
+   * Removes the given element from the keys selected by the given flags. Must
+   * be called before the corresponding attribute values are changed.
+   */
+  synchronized void remove(Element e, int what) {
+    if ((what & TAG) != 0) {
+      remove(tags, e.getName(), e);
+    }
+    if ((what & ID) != 0) {
+      String id = e.getAttributeValue("id");
+      if (id != null) {
+        remove(ids, id, e);
+      }
+    }
+    if ((what & CLASS) != 0) {
+      String[] names = e.getClassNames();
+      for (int i = 0; i < names.length; i++) {
+        remove(classes, names[i], e);
+      }
+    }
+  }
+
+  /**
+   * Returns the first element in document order with the given id, or null
+   * if there is none.
+   */
+  synchronized Element getFirst(String id) {
+    Vector v = (Vector) ids.get(id);
+    return v == null ? null : (Element) v.elementAt(0);
+  }
+
+  /**
+   * Returns the elements with the given key (ID, CLASS or TAG) in document
+   * order.
+   */
+  synchronized Element[] get(int what, String key) {
+    Vector v = (Vector) getMap(what).get(key);
+    if (v == null) {
+      return NO_ELEMENTS;
+    }
+    Element[] result = new Element[v.size()];
+    v.copyInto(result);
+    return result;
+  }
+
+  /**
+   * Returns the number of elements with the given key (ID, CLASS or TAG).
+   */
+  synchronized int count(int what, String key) {
+    Vector v = (Vector) getMap(what).get(key);
+    return v == null ? 0 : v.size();
+  }
+
+  private Hashtable getMap(int what) {
+    switch (what) {
+      case ID:
+        return ids;
+      case CLASS:
+        return classes;
+      default:
+        return tags;
+    }
+  }
+
+  private void insert(Hashtable map, String key, Element e) {
+    if (key.length() == 0) {
+      return;
+    }
+    Vector v = (Vector) map.get(key);
+    if (v == null) {
+      v = new Vector(1);
+      map.put(key, v);
+    }
+    int size = v.size();
+    if (appending || size == 0
+        || Element.compareDocumentOrder((Element) v.elementAt(size - 1), e) < 0) {
+      v.addElement(e);
+      return;
+    }
+    // binary search for the position in document order
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      int mid = (low + high) / 2;
+      if (Element.compareDocumentOrder((Element) v.elementAt(mid), e) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (v.elementAt(low) != e) {
+      v.insertElementAt(e, low);
+    }
+  }
+
+  private void remove(Hashtable map, String key, Element e) {
+    Vector v = (Vector) map.get(key);
+    if (v != null) {
+      v.removeElement(e);
+      if (v.size() == 0) {
+        map.remove(key);
+      }
+    }
+  }
+}
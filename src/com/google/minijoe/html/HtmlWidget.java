@@ -16,12 +16,11 @@ package com.google.minijoe.html;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
 
 import javax.microedition.lcdui.Canvas;
-import javax.microedition.lcdui.Graphics;
-import javax.microedition.lcdui.Image;
 
 import org.kxml2.io.KXmlParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -29,8 +28,11 @@ import org.xmlpull.v1.XmlPullParserException;
 import com.google.minijoe.common.Util;
 import com.google.minijoe.compiler.Eval;
 import com.google.minijoe.html.css.StyleSheet;
+import com.google.minijoe.html.gfx.Graphics;
+import com.google.minijoe.html.gfx.Image;
 import com.google.minijoe.html.uibase.Widget;
 import com.google.minijoe.html5.js.JsWindow;
+import com.google.minijoe.sys.JsCoroutine;
 import com.google.minijoe.sys.JsFunction;
 
 /**
@@ -99,6 +101,9 @@ public class HtmlWidget extends BlockWidget  {
   /** Maps labels to widgets */
   Hashtable labels = new Hashtable();
 
+  /** Index of the elements of the document by id, class name and tag name. */
+  ElementIndex elementIndex = new ElementIndex();
+
   /** Map for access keys */
   Hashtable accesskeys = new Hashtable();
 
@@ -111,15 +116,76 @@ public class HtmlWidget extends BlockWidget  {
    */
   Element focusedElement;
 
+  /** Computed styles shared between elements. */
+  StyleCache styleCache = new StyleCache();
+
+  /** Number of threads used to compute styles; see setStyleThreadCount(). */
+  private int styleThreadCount = 1;
+
   /** True if a new style sheet is arriving; stops style processing. */
   boolean styleOutdated = false;
 
-  /** True if the widget tree needs to be rebuilt. */
+  /** True if the whole widget tree needs to be rebuilt. */
   boolean needsBuild = true;
 
+  /** Elements whose display type has changed in the last style pass. */
+  final Vector rebuildElements = new Vector();
+
+  /** Elements whose other computed style values changed in the last pass. */
+  final Vector restyledElements = new Vector();
+
   /** Enable desktop rendering for CSS debugging purposes. */
   private boolean desktopRendering;
 
+  /** Byte interval for progressive rendering; see setProgressiveRendering(). */
+  private int progressByteInterval;
+
+  /** Time interval for progressive rendering; see setProgressiveRendering(). */
+  private int progressTimeInterval;
+
+  /** The stream of the document being loaded progressively, null otherwise. */
+  private CountingInputStream progressStream;
+
+  /** Root of the document being loaded progressively. */
+  private Element progressRoot;
+
+  /** Byte count and time of the next progressive rendering step. */
+  private int nextProgressCount;
+  private long nextProgressTime;
+
+  /** 
+   * True if the style sheet was extended while loading the document. Guarded
+   * by the lock of the style sheet.
+   */
+  boolean progressStyleChanged;
+
+  /** 
+   * True while load() builds the element tree. Style sheets arriving in the
+   * meantime are applied by load(). Guarded by the lock of the style sheet.
+   */
+  private boolean loading;
+
+  /** 
+   * Script elements found while loading. They are executed after the 
+   * document has been parsed, styled and built completely.
+   */
+  Vector deferredScripts;
+
+  /** Source texts of the scripts waiting to be run, see evalJS(). */
+  private Vector pendingScripts = new Vector();
+
+  /** 
+   * The script that was suspended while running (e.g. by a synchronous
+   * XMLHttpRequest). Only accessed on the event loop thread.
+   */
+  private JsCoroutine suspendedScript;
+
+  private final Runnable scriptRunner = new Runnable() {
+    public void run() {
+      runScripts();
+    }
+  };
+
   public JsWindow globalScope;
   
   /** 
@@ -175,29 +241,92 @@ public class HtmlWidget extends BlockWidget  {
       return;
     }
 
-    if (!layoutValid || viewportWidth != getWidth()) {
-      layoutValid = false;
-      
-      if (desktopRendering) {
-        int minWidth = getMinimumWidth(HIGH_VIEWPORT_WIDTH);
-        if (minWidth > viewportWidth) {
-          viewportWidth = minWidth > MEDIUM_VIEWPORT_WIDTH ? 
-            HIGH_VIEWPORT_WIDTH : MEDIUM_VIEWPORT_WIDTH;
-        } 
-        setWidth(viewportWidth);
-        doLayout(viewportWidth, viewportWidth, null, false);
-      } else {
-        int minW = getMinimumWidth(viewportWidth);
-        int w = Math.max(minW, viewportWidth);
-        setWidth(w);
-        // TODO(haustein) We may need to make the viewport width available to calculations...
-        doLayout(w, viewportWidth, null, false);
+    // the widgets may be rebuilt while a document is loaded progressively
+    synchronized (this) {
+      if (!layoutValid || !childLayoutValid || viewportWidth != getWidth()) {
+        if (desktopRendering) {
+          int minWidth = getMinimumWidth(HIGH_VIEWPORT_WIDTH);
+          if (minWidth > viewportWidth) {
+            viewportWidth = minWidth > MEDIUM_VIEWPORT_WIDTH ? 
+              HIGH_VIEWPORT_WIDTH : MEDIUM_VIEWPORT_WIDTH;
+          } 
+          setWidth(viewportWidth);
+          doLayout(viewportWidth, viewportWidth, null, false);
+        } else {
+          int minW = getMinimumWidth(viewportWidth);
+          int w = Math.max(minW, viewportWidth);
+          setWidth(w);
+          // TODO(haustein) We may need to make the viewport width available to calculations...
+          doLayout(w, viewportWidth, null, false);
+        }
       }
     }
   }
 
   /**
-   * Loads an HTML document from the given stream. 
+   * Enables progressive rendering: while load() parses a document, the part
+   * parsed so far is styled and laid out, and a repaint is requested, each 
+   * time the given number of bytes has been read or the given time has 
+   * elapsed since the previous step. Values of 0 or less disable the corresponding
+   * criterion; progressive rendering is disabled if both are disabled 
+   * (the default).
+   * 
+   * @param byteInterval number of bytes between two rendering steps
+   * @param timeInterval number of milliseconds between two rendering steps
+   */
+  public void setProgressiveRendering(int byteInterval, int timeInterval) {
+    progressByteInterval = byteInterval;
+    progressTimeInterval = timeInterval;
+  }
+
+  /**
+   * Called by the parser when an element has been completed. Styles and 
+   * rebuilds the body parsed so far if a progressive rendering step is due.
+   */
+  void checkProgress() {
+    if (progressStream == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (progressStream.count < nextProgressCount && now < nextProgressTime) {
+      return;
+    }
+    nextProgressCount = progressByteInterval > 0 
+        ? progressStream.count + progressByteInterval : Integer.MAX_VALUE;
+    nextProgressTime = progressTimeInterval > 0 
+        ? now + progressTimeInterval : Long.MAX_VALUE;
+
+    Element htmlElement = progressRoot.getElement("html");
+    Element body = htmlElement == null ? null : htmlElement.getElement("body");
+    if (body != null) {
+      element = body;
+      applyProgressStyle();
+      invalidate(true);
+    }
+  }
+
+  /**
+   * Restyles the body completely if style elements were read while loading
+   * the document, since parts of it may have been styled progressively 
+   * already; otherwise, the style is updated incrementally.
+   */
+  private void applyProgressStyle() {
+    boolean changed;
+    synchronized (styleSheet) {
+      changed = progressStyleChanged;
+      progressStyleChanged = false;
+    }
+    if (changed) {
+      styleCache.clear();
+      element.invalidateStyle(Element.STYLE_DIRTY_TREE);
+    }
+    applyStyle();
+  }
+
+  /**
+   * Loads an HTML document from the given stream. The scripts of the 
+   * document are executed on the event loop of the window when the document 
+   * has been loaded.
    * 
    * @param is The stream to read the document from
    * @throws IOException Thrown if an IO exception occurs while reading from the
@@ -210,10 +339,28 @@ public class HtmlWidget extends BlockWidget  {
 
     try {
       Element dummy = new Element(this, "");
+      elementIndex = new ElementIndex();
+      elementIndex.appending = true;
+      dummy.indexed = true;
       KXmlParser parser = new KXmlParser();
       if (encoding != null && encoding.trim().length() == 0) {
         encoding = "UTF-8";
       }
+      synchronized (styleSheet) {
+        loading = true;
+        progressStyleChanged = false;
+      }
+      // scripts run on the event loop thread, so they must not see the
+      // element tree before it has been completed, styled and built here
+      deferredScripts = new Vector();
+      if (progressByteInterval > 0 || progressTimeInterval > 0) {
+        is = progressStream = new CountingInputStream(is);
+        progressRoot = dummy;
+        nextProgressCount = progressByteInterval > 0 
+            ? progressByteInterval : Integer.MAX_VALUE;
+        nextProgressTime = progressTimeInterval > 0 
+            ? System.currentTimeMillis() + progressTimeInterval : Long.MAX_VALUE;
+      }
       parser.setInput(is, encoding);
       parser.setFeature("http://xmlpull.org/v1/doc/features.html#relaxed", true);
 
@@ -224,13 +371,16 @@ public class HtmlWidget extends BlockWidget  {
       dummy.parseContent(parser);
 
       htmlElement = dummy.getElement("html");
+      boolean reindex = false;
 
       if (htmlElement == null) {
         htmlElement = new Element(this, "html");
+        reindex = true;
       }
       
       element = htmlElement.getElement("body");
       if (element == null) {
+        reindex = true;
         element = new Element(this, "body");
         htmlElement.addElement(element);
 
@@ -247,20 +397,48 @@ public class HtmlWidget extends BlockWidget  {
           }
         }
       }
+
+      // Elements outside of the html element are not part of the document
+      for (int i = 0; i < dummy.getChildCount(); i++) {
+        if (dummy.getChildType(i) == Element.ELEMENT && dummy.getElement(i) != htmlElement) {
+          reindex = true;
+        }
+      }
+      if (reindex) {
+        dummy.removeFromIndex();
+        htmlElement.addToIndex();
+      }
     } catch (XmlPullParserException e) {
       // this cannot happen since the pull parser must not throw exceptions in
       // relaxed mode
       e.printStackTrace();
       throw new IOException(e.toString());
+    } finally {
+      progressStream = null;
+      progressRoot = null;
+      elementIndex.appending = false;
+      synchronized (styleSheet) {
+        loading = false;
+      }
     }
 
     // Remove reference to dummy element that was created to simplify parsing
     htmlElement.setParent(null);
 
     // Apply the default style sheet and style info collected while building
-    // the element three.
-    applyStyle();
+    // the element three. Text may have been added to elements rendered 
+    // progressively, so all widgets are rebuilt.
+    needsBuild = true;
+    applyProgressStyle();
     invalidate(true);
+
+    if (deferredScripts != null) {
+      Vector scripts = deferredScripts;
+      deferredScripts = null;
+      for (int i = 0; i < scripts.size(); i++) {
+        ((Element) scripts.elementAt(i)).executeScript();
+      }
+    }
   }
 
   /**
@@ -328,6 +506,92 @@ public class HtmlWidget extends BlockWidget  {
 	  return (Widget) labels.get(label);
   }
 
+  /**
+   * Returns the first element of the document in document order with the 
+   * given id, or null if there is none.
+   */
+  public Element getElementById(String id) {
+    return elementIndex.getFirst(id);
+  }
+
+  /**
+   * Returns the elements of the document with the given tag name in 
+   * document order. The name "*" matches all elements.
+   */
+  public Element[] getElementsByTagName(String name) {
+    if (!"*".equals(name)) {
+      return elementIndex.get(ElementIndex.TAG, name.toLowerCase());
+    }
+    Vector all = new Vector();
+    Element root = element;
+    if (root != null) {
+      while (root.getParent() != null) {
+        root = root.getParent();
+      }
+      collectElements(root, all);
+    }
+    Element[] result = new Element[all.size()];
+    all.copyInto(result);
+    return result;
+  }
+
+  /**
+   * Adds the given element and its descendants to the given vector in
+   * document order, skipping the nameless pseudo element used while parsing.
+   */
+  private static void collectElements(Element e, Vector result) {
+    if (e.getName().length() > 0) {
+      result.addElement(e);
+    }
+    for (int i = 0; i < e.getChildCount(); i++) {
+      if (e.getChildType(i) == Element.ELEMENT) {
+        collectElements(e.getElement(i), result);
+      }
+    }
+  }
+
+  /**
+   * Returns the elements of the document in document order that have all
+   * the given space separated class names.
+   */
+  public Element[] getElementsByClassName(String classNames) {
+    String[] names = Util.split(classNames.trim(), ' ');
+    // start with the class matching the smallest number of elements
+    String first = names[0];
+    for (int i = 1; i < names.length; i++) {
+      if (names[i].length() > 0 && elementIndex.count(ElementIndex.CLASS, names[i]) 
+          < elementIndex.count(ElementIndex.CLASS, first)) {
+        first = names[i];
+      }
+    }
+    Element[] candidates = elementIndex.get(ElementIndex.CLASS, first);
+    if (names.length == 1) {
+      return candidates;
+    }
+    Vector result = new Vector();
+    for (int i = 0; i < candidates.length; i++) {
+      String[] candidateNames = candidates[i].getClassNames();
+      boolean match = true;
+      for (int j = 0; j < names.length && match; j++) {
+        if (names[j].length() > 0) {
+          match = false;
+          for (int k = 0; k < candidateNames.length; k++) {
+            if (names[j].equals(candidateNames[k])) {
+              match = true;
+              break;
+            }
+          }
+        }
+      }
+      if (match) {
+        result.addElement(candidates[i]);
+      }
+    }
+    Element[] array = new Element[result.size()];
+    result.copyInto(array);
+    return array;
+  }
+
   /**
    * Converts a URL to an absolute URL, using the document base URL. If the URL
    * is already absolute, it is returned unchanged.
@@ -344,7 +608,11 @@ public class HtmlWidget extends BlockWidget  {
   }
 
   /**
-   * Applies the style sheet to the document. 
+   * Applies the style sheet to the document. Only the styles of elements 
+   * marked as dirty (see Element.invalidateStyle()) are recomputed. If the 
+   * display type of an element has changed, the widget of its parent element
+   * is rebuilt; for other changes, only the layout of the widgets rendering 
+   * the changed elements is invalidated.
    */
   void applyStyle() {
     if (element == null) {
@@ -354,16 +622,98 @@ public class HtmlWidget extends BlockWidget  {
       styleOutdated = false;
       Vector applyAnywhere = new Vector();
       applyAnywhere.addElement(styleSheet);
-      element.apply(new Vector(), applyAnywhere);
+      int dirty = OPTIMIZE ? 0 : Element.STYLE_DIRTY_TREE;
+      if (styleThreadCount > 1) {
+        StylePass.apply(element, new Vector(), applyAnywhere, dirty, styleThreadCount,
+            styleCache);
+      } else {
+        element.apply(new Vector(), applyAnywhere, dirty, new Vector(), styleCache);
+      }
     }
-    if (!OPTIMIZE || needsBuild) {
-      synchronized (this) {
+    synchronized (this) {
+      if (!OPTIMIZE || needsBuild || !rebuildWidgets()) {
         needsBuild = false;
+        element.clearDescendantWidgets();
+        element.widget = this;
         children = new Vector();
         addChildren(element, new boolean[]{false, true});
         invalidate(true);
+      } else {
+        invalidateWidgets();
+      }
+      rebuildElements.removeAllElements();
+      restyledElements.removeAllElements();
+    }
+  }
+
+  /**
+   * Rebuilds the widgets of the parent elements of the elements in 
+   * rebuildElements. If a parent widget cannot be rebuilt, the widget of the
+   * next ancestor is rebuilt instead. Returns false if the whole widget 
+   * tree needs to be rebuilt.
+   */
+  private boolean rebuildWidgets() {
+    Hashtable targets = new Hashtable();
+    for (int i = 0; i < rebuildElements.size(); i++) {
+      BlockWidget target = getWidget(
+          ((Element) rebuildElements.elementAt(i)).getParent());
+      while (target != this && !target.rebuildable) {
+        target = getWidget(target.element.getParent());
       }
+      if (target == this) {
+        return false;
+      }
+      targets.put(target, target);
     }
+
+    // widgets inside of other rebuilt widgets are replaced anyway
+    for (Enumeration e = targets.elements(); e.hasMoreElements();) {
+      BlockWidget target = (BlockWidget) e.nextElement();
+      BlockWidget ancestor = target;
+      do {
+        ancestor = getWidget(ancestor.element.getParent());
+      } while (ancestor != this && targets.get(ancestor) == null);
+      if (ancestor == this) {
+        target.rebuild();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Invalidates the layout of the widgets rendering the elements in
+   * restyledElements. If an element has its own widget, the widget of the 
+   * parent is invalidated, too, since the position of the element may have 
+   * changed.
+   */
+  private void invalidateWidgets() {
+    for (int i = 0; i < restyledElements.size(); i++) {
+      Element e = (Element) restyledElements.elementAt(i);
+      getWidget(e).invalidate(true);
+      if (e.widget != null && e != element) {
+        getWidget(e.getParent()).invalidate(true);
+      }
+    }
+  }
+
+  /**
+   * Returns the widget of the given element or, if it does not have one 
+   * (e.g. inline elements), the widget of the closest ancestor.
+   */
+  private BlockWidget getWidget(Element e) {
+    while (e != element && e != null && e.widget == null) {
+      e = e.getParent();
+    }
+    return e == element || e == null ? this : e.widget;
+  }
+
+  /**
+   * Sets the number of threads used to compute the styles of the document. 
+   * The default is 1 (styles are computed on the calling thread); larger 
+   * values speed up styling large documents on multi-core devices.
+   */
+  public void setStyleThreadCount(int count) {
+    styleThreadCount = Math.max(1, count);
   }
 
   /**
@@ -381,16 +731,28 @@ public class HtmlWidget extends BlockWidget  {
     	 this.evalJS((String)resource);    	 
       } else {
 	      styleOutdated = OPTIMIZE;
+	      boolean restyle;
 	      synchronized (styleSheet) {
 	        styleSheet.read(this, resUrl, (String) resource);
+	        styleCache.clear();
+	        // the tree is only restyled by the parser thread while loading
+	        restyle = !loading;
+	        progressStyleChanged |= loading;
+	      }
+	      if (restyle) {
+	        if (element != null) {
+	          element.invalidateStyle(Element.STYLE_DIRTY_TREE);
+	        }
+	        applyStyle();
 	      }
-	      applyStyle();
       }
     } else if (resource instanceof Image) {
-      Vector targets = (Vector) pendingResourceRequests.get(resUrl);
+      Vector targets;
+      synchronized (pendingResourceRequests) {
+        targets = (Vector) pendingResourceRequests.remove(resUrl);
+      }
       if (targets != null) {
         Image image = (Image) resource;
-        pendingResourceRequests.remove(resUrl);
 
         for (int i = 0; i < targets.size(); i++) {
           Object t = targets.elementAt(i);
@@ -426,13 +788,18 @@ public class HtmlWidget extends BlockWidget  {
 
     Object res = resources.get(url);
     if (res == null && notify != null) {
-      Vector dependencies = (Vector) pendingResourceRequests.get(url);
-      if (dependencies == null) {
-        dependencies = new Vector();
-        pendingResourceRequests.put(url, dependencies);
+      // may be called from several style threads (background images)
+      boolean first;
+      synchronized (pendingResourceRequests) {
+        Vector dependencies = (Vector) pendingResourceRequests.get(url);
+        if (dependencies == null) {
+          dependencies = new Vector();
+          pendingResourceRequests.put(url, dependencies);
+        }
+        dependencies.addElement(notify);
+        first = dependencies.size() == 1;
       }
-      dependencies.addElement(notify);
-      if (dependencies.size() == 1) {
+      if (first) {
         requestHandler.requestResource(this, SystemRequestHandler.METHOD_GET, url,
             type, null);
       }
@@ -469,18 +836,66 @@ public class HtmlWidget extends BlockWidget  {
   }
 
   /**
-   * Evaluates the given js source 
+   * Evaluates the given js source on the event loop of the window. Scripts
+   * run in the order of the calls; a script suspended by a synchronous 
+   * request delays the following scripts until it has completed.
    * 
    * @param jsSourceText
    */
   public void evalJS(String jsSourceText) {
-	  try {
-		  System.out.println("evaljs"+this.globalScope);
-		  Eval.eval((String)jsSourceText, this.globalScope);
-		  this.invalidate(true);
-	  } catch (Exception e) {
-			e.printStackTrace();
-	  }
+    synchronized (pendingScripts) {
+      pendingScripts.addElement(jsSourceText);
+    }
+    this.globalScope.getEventLoop().post(scriptRunner);
+  }
+
+  /**
+   * Called on the event loop thread after each batch of tasks; continues
+   * with the pending scripts when the suspended script has completed.
+   */
+  public void scriptsResumed() {
+    if (suspendedScript != null && !suspendedScript.isSuspended()) {
+      this.globalScope.getEventLoop().post(scriptRunner);
+    }
+  }
+
+  /**
+   * Runs the pending scripts as coroutines of the event loop, so they may
+   * be suspended. Runs on the event loop thread.
+   */
+  void runScripts() {
+    if (suspendedScript != null) {
+      if (suspendedScript.isSuspended()) {
+        return;
+      }
+      suspendedScript = null;
+      // restyle the elements modified after the script was resumed
+      applyStyle();
+      invalidate(true);
+    }
+    while (true) {
+      String jsSourceText;
+      synchronized (pendingScripts) {
+        if (pendingScripts.isEmpty()) {
+          return;
+        }
+        jsSourceText = (String) pendingScripts.elementAt(0);
+        pendingScripts.removeElementAt(0);
+      }
+      try {
+        JsCoroutine script = globalScope.getEventLoop().call(
+            Eval.load(jsSourceText, globalScope), globalScope, new Object[0]);
+        if (script.isSuspended()) {
+          suspendedScript = script;
+          return;
+        }
+        // restyle the elements modified by the script
+        applyStyle();
+        invalidate(true);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
   }
   
   /**
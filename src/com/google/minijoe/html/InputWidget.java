@@ -17,13 +17,13 @@ package com.google.minijoe.html;
 
 import com.google.minijoe.common.Util;
 import com.google.minijoe.html.css.Style;
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.Graphics;
+import com.google.minijoe.html.gfx.Image;
 
 import java.util.*;
 
 import javax.microedition.lcdui.Canvas;
-import javax.microedition.lcdui.Font;
-import javax.microedition.lcdui.Graphics;
-import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.TextField;
 
 /**
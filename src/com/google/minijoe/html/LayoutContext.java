@@ -152,6 +152,14 @@ public class LayoutContext {
   public int getMaxWidth() {
     return maxWidth;
   }
+
+  /**
+   * Returns true if floating elements currently restrict the borders, i.e. 
+   * the layout of a child element may depend on its position.
+   */
+  public boolean hasFloats() {
+    return borders.length() > 0;
+  }
   
   /** 
    * Places a box with the given width and height. If the box is not a floating
@@ -0,0 +1,157 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.google.minijoe.html.css.Style;
+
+/**
+ * Shares computed styles between elements. The computed style of an element
+ * only depends on the computed style of its parent, its name, the style
+ * relevant attributes and the list of matching style sheet rules, so elements
+ * that agree in these properties (typically siblings such as table cells or
+ * list items) can use the same Style object. Shared styles must not be
+ * modified.
+ * <p>
+ * Since parent styles are part of the key, each new style of an element
+ * (e.g. set by a script animating the style attribute) adds entries for the
+ * element and its descendants. The cache is cleared when it reaches 
+ * MAX_SIZE, so such entries cannot accumulate.
+ */
+class StyleCache {
+
+  /** Maximum number of cached styles. */
+  static final int MAX_SIZE = 512;
+
+  /**
+   * Hash key for the cache. The parent style and the rules are compared by
+   * identity.
+   */
+  static class Key {
+    Style parentStyle;
+    String name;
+    String attributes;
+    Object[] rules;
+    int ruleCount;
+    int hashCode;
+
+    void set(Style parentStyle, String name, String attributes, Vector rules) {
+      this.parentStyle = parentStyle;
+      this.name = name;
+      this.attributes = attributes;
+      ruleCount = rules.size();
+      if (this.rules == null || this.rules.length < ruleCount) {
+        this.rules = new Object[ruleCount];
+      }
+      rules.copyInto(this.rules);
+
+      int h = name.hashCode();
+      if (parentStyle != null) {
+        h = h * 31 + parentStyle.hashCode();
+      }
+      if (attributes != null) {
+        h = h * 31 + attributes.hashCode();
+      }
+      for (int i = 0; i < ruleCount; i++) {
+        h = h * 31 + this.rules[i].hashCode();
+      }
+      hashCode = h;
+    }
+
+    public int hashCode() {
+      return hashCode;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      if (k.hashCode != hashCode || k.parentStyle != parentStyle || k.ruleCount != ruleCount
+          || !k.name.equals(name)
+          || (attributes == null ? k.attributes != null : !attributes.equals(k.attributes))) {
+        return false;
+      }
+      for (int i = 0; i < ruleCount; i++) {
+        if (k.rules[i] != rules[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private Hashtable styles = new Hashtable();
+  private Key probe = new Key();
+
+  /**
+   * Returns the cached style for the given properties, or null if there is
+   * no such style.
+   *
+   * @param parentStyle computed style of the parent element
+   * @param name element name
+   * @param attributes concatenated values of the attributes influencing
+   *     the style, or null if none are set
+   * @param rules matching style sheet rules in the order of application
+   */
+  synchronized Style get(Style parentStyle, String name, String attributes, Vector rules) {
+    probe.set(parentStyle, name, attributes, rules);
+    return (Style) styles.get(probe);
+  }
+
+  /**
+   * Adds the given computed style for the given properties to the cache.
+   */
+  synchronized void put(Style parentStyle, String name, String attributes, Vector rules,
+      Style style) {
+    if (styles.size() >= MAX_SIZE) {
+      styles.clear();
+    }
+    Key key = new Key();
+    key.set(parentStyle, name, attributes, rules);
+    styles.put(key, style);
+  }
+
+  /**
+   * Adds the styles of the given cache, which must not be modified 
+   * concurrently, to this cache.
+   */
+  synchronized void putAll(StyleCache other) {
+    for (Enumeration e = other.styles.keys(); e.hasMoreElements();) {
+      if (styles.size() >= MAX_SIZE) {
+        styles.clear();
+      }
+      Object key = e.nextElement();
+      styles.put(key, other.styles.get(key));
+    }
+  }
+
+  /**
+   * Removes all styles from the cache.
+   */
+  synchronized void clear() {
+    styles.clear();
+  }
+
+  /**
+   * Returns the number of cached styles.
+   */
+  synchronized int size() {
+    return styles.size();
+  }
+}
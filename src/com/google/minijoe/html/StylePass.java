@@ -0,0 +1,151 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import java.util.Vector;
+
+/**
+ * Style pass distributing the subtrees of a document to several threads.
+ * <p>
+ * The computed style of an element only depends on the computed style of its
+ * parent and the style sheets passed down by the parent (see
+ * Element.applySelf()), so the subtrees of elements that have been styled
+ * are independent. The elements near the root are styled level by level on
+ * the calling thread until there are enough subtrees to keep all threads
+ * busy; the threads then take subtrees from the list until it is exhausted.
+ * <p>
+ * The style sheet must not be modified during the pass; HtmlWidget holds
+ * its lock. In the parallel phase, each thread shares computed styles via
+ * its own StyleCache, so the threads do not contend for the cache; these
+ * caches are merged into the cache of the document afterwards.
+ */
+class StylePass implements Runnable {
+
+  /** Number of subtrees per thread required to start the parallel phase. */
+  static final int SUBTREES_PER_THREAD = 4;
+
+  private Vector elements = new Vector();
+  private Vector applyHere = new Vector();
+  private Vector applyAnywhere = new Vector();
+  private Vector dirty = new Vector();
+  private int next;
+  private Throwable exception;
+
+  /** The style caches of the threads of the parallel phase. */
+  private StyleCache[] caches;
+  private int cacheCount;
+
+  /**
+   * Applies the style sheets to the given element and its descendants,
+   * using up to threadCount threads (including the calling thread).
+   *
+   * @see Element#apply(Vector, Vector, int, Vector)
+   */
+  static void apply(Element root, Vector applyHere, Vector applyAnywhere, int dirty,
+      int threadCount, StyleCache cache) {
+    StylePass pass = new StylePass();
+    pass.add(root, applyHere, applyAnywhere, dirty);
+
+    Vector pool = new Vector();
+    while (pass.elements.size() > 0
+        && pass.elements.size() < threadCount * SUBTREES_PER_THREAD) {
+      StylePass level = new StylePass();
+      for (int i = 0; i < pass.elements.size(); i++) {
+        Element element = (Element) pass.elements.elementAt(i);
+        Vector childStyles = new Vector();
+        Vector descendantStyles = new Vector();
+        int childDirty = element.applySelf((Vector) pass.applyHere.elementAt(i),
+            (Vector) pass.applyAnywhere.elementAt(i),
+            ((Integer) pass.dirty.elementAt(i)).intValue(), pool, cache,
+            childStyles, descendantStyles);
+        if (childDirty != -1) {
+          for (int j = 0; j < element.getChildCount(); j++) {
+            if (element.getChildType(j) == Element.ELEMENT) {
+              level.add(element.getElement(j), childStyles, descendantStyles, childDirty);
+            }
+          }
+        }
+      }
+      pass = level;
+    }
+
+    Thread[] threads = new Thread[Math.max(0, Math.min(threadCount, pass.elements.size()) - 1)];
+    pass.caches = new StyleCache[threads.length + 1];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(pass);
+      threads[i].start();
+    }
+    pass.run();
+    for (int i = 0; i < threads.length; i++) {
+      while (threads[i].isAlive()) {
+        try {
+          threads[i].join();
+        } catch (InterruptedException e) {
+          // keep waiting; the threads must not outlive the style sheet lock
+        }
+      }
+    }
+    for (int i = 0; i < pass.caches.length; i++) {
+      if (pass.caches[i] != null) {
+        cache.putAll(pass.caches[i]);
+      }
+    }
+
+    if (pass.exception instanceof RuntimeException) {
+      throw (RuntimeException) pass.exception;
+    } else if (pass.exception instanceof Error) {
+      throw (Error) pass.exception;
+    }
+  }
+
+  private void add(Element element, Vector here, Vector anywhere, int flags) {
+    elements.addElement(element);
+    applyHere.addElement(here);
+    applyAnywhere.addElement(anywhere);
+    dirty.addElement(new Integer(flags));
+  }
+
+  /**
+   * Styles subtrees from the list until it is exhausted.
+   */
+  public void run() {
+    Vector pool = new Vector();
+    StyleCache cache = new StyleCache();
+    synchronized (this) {
+      caches[cacheCount++] = cache;
+    }
+    while (true) {
+      int i;
+      synchronized (this) {
+        if (next >= elements.size() || exception != null) {
+          return;
+        }
+        i = next++;
+      }
+      try {
+        ((Element) elements.elementAt(i)).apply((Vector) applyHere.elementAt(i),
+            (Vector) applyAnywhere.elementAt(i), ((Integer) dirty.elementAt(i)).intValue(),
+            pool, cache);
+      } catch (Throwable t) {
+        synchronized (this) {
+          if (exception == null) {
+            exception = t;
+          }
+        }
+        return;
+      }
+    }
+  }
+}
@@ -16,6 +16,8 @@ package com.google.minijoe.html;
 
 import com.google.minijoe.html.css.Style;
 
+import java.util.Vector;
+
 /**
  * Widget representing HTML tables.
  * 
@@ -36,6 +38,18 @@ public class TableWidget extends BlockWidget {
   public TableWidget(Element element) {
     super(element, false);
     build(element);
+    rebuildable = true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  void rebuild() {
+    element.clearDescendantWidgets();
+    children = new Vector();
+    rowCount = 0;
+    build(element);
+    invalidate(true);
   }
   
   /**
@@ -72,11 +86,19 @@ public class TableWidget extends BlockWidget {
    */
   public void doLayout(int containerWidth, int viewportWidth, LayoutContext borders, 
       boolean shrinkWrap) {
-    if (layoutValid && containerWidth == containingWidth && borders == null) {
+    if (layoutValid && childLayoutValid && containerWidth == containingWidth 
+        && borders == null) {
       return;
     }
     layoutValid = true;
+    childLayoutValid = true;
     this.containingWidth = containerWidth;
+    layoutViewportWidth = viewportWidth;
+    layoutInFlow = borders != null;
+    layoutShrinkWrap = shrinkWrap;
+    // cells are laid out in separate layout contexts, so tables do not add
+    // floating elements to the parent layout context
+    floatFree = borders == null || !borders.hasFloats();
     formatTable(containerWidth, viewportWidth, shrinkWrap, false);
     if (borders != null) {
       borders.advance(boxHeight);
@@ -16,16 +16,15 @@ package com.google.minijoe.html;
 
 import com.google.minijoe.common.Util;
 import com.google.minijoe.html.css.Style;
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.Graphics;
 import com.google.minijoe.html.uibase.Widget;
 
-import javax.microedition.lcdui.Font;
-import javax.microedition.lcdui.Graphics;
-
 /**
- * Widget representing a (HTML) text fragment.
- * 
- * TODO: Consider caching all line breaking opportunities in a string
- * buffer or array
+ * Widget representing a (HTML) text fragment. The line break opportunities
+ * of the text and the widths of all prefixes of the text are computed once,
+ * so line breaking and measuring lines does not need to measure the text
+ * character by character again on relayout.
  * 
  * @author Stefan Haustein
  */
@@ -40,6 +39,15 @@ public class TextFragmentWidget extends Widget {
   private int mainYOffset;
   private int lastLineYOffset;
 
+  /** Positions i where a line break before text.charAt(i) is possible. */
+  private int[] breakPositions;
+
+  /** Font the prefixWidths were computed for. */
+  private Font prefixWidthsFont;
+
+  /** Element i is the width of the first i characters of the text. */
+  private int[] prefixWidths;
+
   /**
    * Creates a new TextFragmentWidget
    */
@@ -71,8 +79,63 @@ public class TextFragmentWidget extends Widget {
    * Returns the width of the nth line in pixels.
    */
   public int getLineWidth(int n) {
-    return indices == null ? getFont().stringWidth(text) : 
-      getFont().substringWidth(text, indices[n * 3], indices[n * 3 + 1]);
+    return indices == null ? getTextWidth(0, text.length()) : 
+      getTextWidth(indices[n * 3], indices[n * 3 + 1]);
+  }
+
+  /**
+   * Returns the width of the given substring of the text, without kerning.
+   */
+  int getTextWidth(int start, int len) {
+    int[] widths = getPrefixWidths();
+    return widths[start + len] - widths[start];
+  }
+
+  /**
+   * Returns the widths of all prefixes of the text: element i is the width of 
+   * the first i characters. Recalculated if the font changes.
+   */
+  int[] getPrefixWidths() {
+    Font font = getFont();
+    if (prefixWidthsFont != font) {
+      int len = text.length();
+      int[] widths = new int[len + 1];
+      int w = 0;
+      for (int i = 0; i < len; i++) {
+        w += font.getAdvance(text.charAt(i));
+        widths[i + 1] = w;
+      }
+      prefixWidths = widths;
+      prefixWidthsFont = font;
+    }
+    return prefixWidths;
+  }
+
+  /**
+   * Returns the positions i in (0, text.length()) where Util.canBreak() 
+   * permits a line break between the characters at i - 1 and i, in ascending 
+   * order. Breaks at position 0 depend on the preceding text fragment and 
+   * are not included.
+   */
+  int[] getBreakPositions() {
+    if (breakPositions == null) {
+      int len = text.length();
+      int count = 0;
+      for (int i = 1; i < len; i++) {
+        if (Util.canBreak(text.charAt(i - 1), text.charAt(i))) {
+          count++;
+        }
+      }
+      int[] positions = new int[count];
+      count = 0;
+      for (int i = 1; i < len; i++) {
+        if (Util.canBreak(text.charAt(i - 1), text.charAt(i))) {
+          positions[count++] = i;
+        }
+      }
+      breakPositions = positions;
+    }
+    return breakPositions;
   }
 
   /**
@@ -118,7 +181,7 @@ public class TextFragmentWidget extends Widget {
     int len = text.length();
     
     if (breakPos > len) {
-      int w = Math.min(font.stringWidth(text), maxWidth);
+      int w = Math.min(getTextWidth(0, len), maxWidth);
       borders.placeBox(w, fontHeight, Style.NONE, 0);
       
       indices = null;
@@ -145,7 +208,7 @@ public class TextFragmentWidget extends Widget {
       buf.append((char) lastBreak);
       buf.append((char) (end - lastBreak));
       
-      int w = Math.min(font.substringWidth(text, lastBreak, end - lastBreak),  maxWidth);
+      int w = Math.min(getTextWidth(lastBreak, end - lastBreak),  maxWidth);
       
       if (lineStartIndex != insertionIndex) {
         ((BlockWidget) getParent()).adjustLine(lineStartIndex, 
@@ -169,8 +232,8 @@ public class TextFragmentWidget extends Widget {
 
     buf.append((char) lastBreak);
     buf.append((char) (text.length() - lastBreak));
-    int w = Math.min(font.substringWidth(text, lastBreak, 
-        text.length() - lastBreak), borders.getHorizontalSpace(fontHeight));
+    int w = Math.min(getTextWidth(lastBreak, text.length() - lastBreak), 
+        borders.getHorizontalSpace(fontHeight));
     
     borders.placeBox(w, fontHeight, Style.NONE, 0);
     buf.append((char) borders.getBoxX());
@@ -201,7 +264,7 @@ public class TextFragmentWidget extends Widget {
     if (indices == null) {
       if (focus) {
     	Skin.get().fillFocusRect(g, dx, dy, 
-            font.stringWidth(text), font.getHeight());
+            getTextWidth(0, text.length()), font.getHeight());
       }
       g.setColor(textColor);
       g.setFont(font);
@@ -219,7 +282,7 @@ public class TextFragmentWidget extends Widget {
 
           if (focus) {
             Skin.get().fillFocusRect(g, dx + indices[i + 2], y, 
-                font.substringWidth(text, start, len), font.getHeight());
+                getTextWidth(start, len), font.getHeight());
           }
           g.setColor(textColor);
           g.setFont(font);
@@ -249,7 +312,7 @@ public class TextFragmentWidget extends Widget {
         for (int i = 0; i < indices.length; i += 3) {
           g.setColor(0x0000ff);
           g.drawRect(dx + indices[i + 2], y, 
-              font.substringWidth(text, indices[i], indices[i + 1]), fh - 1);
+              getTextWidth(indices[i], indices[i + 1]), fh - 1);
           y += fh;
           if (i == 0) {
             g.setColor(0x0ff0000);
@@ -298,44 +361,60 @@ public class TextFragmentWidget extends Widget {
       return result > Integer.MIN_VALUE && result < Integer.MAX_VALUE 
           ? result + len : result;
     }
-    char startChar = text.charAt(startCharIndex);
-    return findBreakPosition(parent, myIndex, startChar, startCharIndex + 1, 
-        getFont().charWidth(startChar),  
+    return findBreakPosition(parent, myIndex, text.charAt(startCharIndex), 
+        startCharIndex + 1, getTextWidth(startCharIndex, 1),  
         force ? Integer.MAX_VALUE : Integer.MIN_VALUE, maxWidth);
   }
   
   /** 
    * Internal helper method for the package visible method with the same name.
    * Delegates break position search to next sibling if necessary.
+   * 
+   * Only the break positions need to be inspected: a newline is always 
+   * followed by a break position (or the end of the text), and the width 
+   * of the line up to a position is obtained from the prefix widths. 
    */
   private final int findBreakPosition(BlockWidget parent, int myIndex, 
       char currentChar, int nextCharIndex, int w, int bestPos, int maxWidth) {
-    int[] widths = element.getComputedStyle().getCharWidths();
-    Font font = getFont();
+    int[] widths = getPrefixWidths();
+    int[] breaks = getBreakPositions();
     int len = text.length();
-    
+
+    // line width up to position i is base + widths[i]
+    int base = w - widths[nextCharIndex];
+
+    // index of the first break position after nextCharIndex
+    int breakIndex = 0;
+    while (breakIndex < breaks.length && breaks[breakIndex] <= nextCharIndex) {
+      breakIndex++;
+    }
+
     while (true) {
       if (currentChar == '\n') {
         return nextCharIndex;
       }
-      if (w > maxWidth && bestPos != Integer.MAX_VALUE) {
+      if (base + widths[nextCharIndex] > maxWidth && bestPos != Integer.MAX_VALUE) {
         return bestPos;
       }
       if (nextCharIndex >= len) {
         break;
       }
-      char nextChar = text.charAt(nextCharIndex);
-      if (Util.canBreak(currentChar, nextChar)) {
+      if (nextCharIndex == 0 ? Util.canBreak(currentChar, text.charAt(0)) 
+          : breakIndex > 0 && breaks[breakIndex - 1] == nextCharIndex) {
         bestPos = nextCharIndex;
       }
-      nextCharIndex++;
-      currentChar = nextChar;
-      // we do not consider kerning for performance reasons. This may result in 
-      // breaking the line slightly too early, which should be fine.
-      // TODO(haustein) consider summing up word lengths instead
-      w += currentChar < widths.length ? widths[currentChar] : 
-        font.charWidth(currentChar);
+
+      // skip to the next break position; the line width may exceed the 
+      // maximum width before
+      int next = breakIndex < breaks.length ? breaks[breakIndex++] : len;
+      if (next - 1 > nextCharIndex && base + widths[next - 1] > maxWidth 
+          && bestPos != Integer.MAX_VALUE) {
+        return bestPos;
+      }
+      nextCharIndex = next;
+      currentChar = text.charAt(next - 1);
     }
+    w = base + widths[len];
 
     TextFragmentWidget next = getNextSibling(parent, myIndex);
     if (next == null) {
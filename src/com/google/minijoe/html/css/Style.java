@@ -18,12 +18,11 @@ package com.google.minijoe.html.css;
 import com.google.minijoe.common.Util;
 import com.google.minijoe.html.HtmlWidget;
 import com.google.minijoe.html.SystemRequestHandler;
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.Image;
 
 import java.util.*;
 
-import javax.microedition.lcdui.Font;
-import javax.microedition.lcdui.Image;
-
 /**
  * Class to representing a set of CSS properties (e.g. a CSS style attribute).
  * 
@@ -276,8 +275,6 @@ public class Style {
   private static final Hashtable ID_TO_VALUE_MAP;
 
   private static Font[] FONT_CACHE;
-  private static final Object[] CHAR_WIDTHS = new Object[4];
-  private static final int CHAR_WIDTH_CACHE_SIZE = 128;
 
   /**
    * Bit field, keeping track of which fields have explicitly been set for this
@@ -551,6 +548,24 @@ public class Style {
     }
   }
 
+  /**
+   * Returns true if the given style sets the same properties to the same
+   * values as this style. Used to determine whether a change of the computed
+   * style needs to be propagated to child elements.
+   */
+  public boolean equalValues(Style other) {
+    if (other == null || valuesSet != other.valuesSet
+        || backgroundImage != other.backgroundImage) {
+      return false;
+    }
+    for (int id = firstSet; id <= lastSet; id++) {
+      if (isSet(id) && (values[id] != other.values[id] || units[id] != other.units[id])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Returns true if the given property is set to a value
    */
@@ -942,27 +957,6 @@ public class Style {
     return font;
   }
 
-  /**
-   * Returns the char widths for the first 128 characters of the font 
-   * associated wit this style. The actual number of characters may change,
-   * please use the length of the returned array to determine the number of
-   * widths available.
-   */
-  public int[] getCharWidths() {
-    int id = (getValue(FONT_WEIGHT) > (NORMAL + BOLD) / 2 ? 1 : 0)
-    | (getEnum(TEXT_DECORATION) == UNDERLINE ? 2 : 0);
-
-    int[] widths = (int[]) CHAR_WIDTHS[id];
-    if (widths == null) {
-      widths = new int[CHAR_WIDTH_CACHE_SIZE];
-      for (int i = 0; i < CHAR_WIDTH_CACHE_SIZE; i++) {
-        widths[i] = getFont().charWidth((char) i);
-      }
-      CHAR_WIDTHS[id] = widths;
-    }
-    return widths;
-  }
-
   /**
    * Reads a style declaration from a string.
    */
@@ -16,12 +16,11 @@ package com.google.minijoe.html.css;
 
 import java.util.*; 
 
-import javax.microedition.lcdui.Font;
-
 import com.google.minijoe.common.Util;
 import com.google.minijoe.html.Element;
 import com.google.minijoe.html.HtmlWidget;
 import com.google.minijoe.html.SystemRequestHandler;
+import com.google.minijoe.html.gfx.Font;
 
 /**
  * This class represents a CSS style sheet. It is also used to represent parts
@@ -44,6 +43,12 @@ import com.google.minijoe.html.SystemRequestHandler;
  * <p>
  * Note that child and descendant selectors are inverted, so the evaluation of a
  * style sheet can always start at the element it is applied to.
+ * <p>
+ * Each node keeps a bloom filter of the element names, ids and class names 
+ * it can match directly. Elements keep a corresponding filter of their 
+ * subtree (see Element.getSubtreeBloomFilter()), so pending descendant 
+ * selectors that cannot match anything in a subtree are skipped without 
+ * visiting the subtree (see mayMatch()).
  * 
  * @author Stefan Haustein
  */
@@ -131,6 +136,19 @@ public class StyleSheet {
    */
   private Vector properties;
 
+  /**
+   * Bloom filter of the element names, ids and class names that are the 
+   * only way to match a rule of this node; see mayMatch().
+   */
+  private long keyBloomFilter;
+
+  /**
+   * True if this node may match elements that don't contain any of the keys
+   * in keyBloomFilter, e.g. because of properties for *, pseudo classes or
+   * general attribute selectors.
+   */
+  private boolean unfiltered;
+
   /**
    * Creates a new style sheet with default rules for HTML.
    * 
@@ -420,7 +438,9 @@ public class StyleSheet {
           if (result.selectElementName == null) {
             result.selectElementName = new Hashtable();
           }
-          result = descend(result.selectElementName, ct.sval.toLowerCase());
+          String name = ct.sval.toLowerCase();
+          result.addKey(name);
+          result = descend(result.selectElementName, name);
           specificity += SPECIFICITY_D;
           ct.nextToken(true);
           break;
@@ -488,6 +508,7 @@ public class StyleSheet {
           if (result.selectPseudoclass == null) {
             result.selectPseudoclass = new Hashtable();
           }
+          result.unfiltered = true;
           result = descend(result.selectPseudoclass, ct.sval);
           specificity += SPECIFICITY_C;
           ct.nextToken(true);
@@ -498,6 +519,7 @@ public class StyleSheet {
           if (ct.ttype == '{' || ct.ttype == ',' || ct.ttype == -1) {
             break loop;
           }
+          result.unfiltered = true;
           if (ct.ttype == '>') {
             if (result.selectChild == null) {
               result.selectChild = new StyleSheet(false);
@@ -513,6 +535,7 @@ public class StyleSheet {
           break;
 
         case '>':
+          result.unfiltered = true;
           if (result.selectChild == null) {
             result.selectChild = new StyleSheet(false);
           }
@@ -542,6 +565,7 @@ public class StyleSheet {
       result.properties = new Vector();
     }
     result.properties.addElement(style);
+    result.unfiltered = true;
     
     return style;
   }
@@ -568,6 +592,13 @@ public class StyleSheet {
       }
     }
 
+    if ((type == SELECT_ATTRIBUTE_VALUE && "id".equals(name)) 
+        || (type == SELECT_ATTRIBUTE_INCLUDES && "class".equals(name))) {
+      addKey(value);
+    } else {
+      unfiltered = true;
+    }
+
     if (type == SELECT_ATTRIBUTE_NAME) {
       if (index == -1) {
         index = selectAttributeOperation.length();
@@ -672,8 +703,9 @@ public class StyleSheet {
           if (type == SELECT_ATTRIBUTE_VALUE) {
             collectStyles(element, valueMap, value, queue, children, descendants);
           } else {
-            String[] values = Util.split(value,
-                type == SELECT_ATTRIBUTE_INCLUDES ? ' ' : ',');
+            String[] values = type == SELECT_ATTRIBUTE_INCLUDES && "class".equals(name)
+                ? element.getClassNames()
+                : Util.split(value, type == SELECT_ATTRIBUTE_INCLUDES ? ' ' : ',');
             for (int j = 0; j < values.length; j++) {
               collectStyles(element, valueMap, values[j], queue, children, descendants);
             }
@@ -686,7 +718,7 @@ public class StyleSheet {
       collectStyles(element, selectElementName, element.getName(), queue, children, descendants);
     }
 
-    if (selectChild != null) {
+    if (selectChild != null && !children.contains(selectChild)) {
       children.addElement(selectChild);
     }
 
@@ -694,11 +726,34 @@ public class StyleSheet {
       collectStyles(element, selectPseudoclass, "link", queue, children, descendants);
     }
     
-    if (selectDescendants != null) {
+    if (selectDescendants != null && !descendants.contains(selectDescendants)) {
       descendants.addElement(selectDescendants);
     }
   }
 
+  /**
+   * Returns the bloom filter bit for the given element name, id or class
+   * name.
+   */
+  public static long getBloomFilterBit(String key) {
+    return 1L << (key.hashCode() & 63);
+  }
+
+  /**
+   * Returns false if no rule reachable from this node can match an element
+   * in a subtree with the given bloom filter (see 
+   * Element.getSubtreeBloomFilter()). In this case, the node does not need 
+   * to be applied to the root of the subtree or passed on to its 
+   * descendants.
+   */
+  public boolean mayMatch(long subtreeBloomFilter) {
+    return unfiltered || (keyBloomFilter & subtreeBloomFilter) != 0;
+  }
+
+  private void addKey(String key) {
+    keyBloomFilter |= getBloomFilterBit(key);
+  }
+
   /**
    * Internal method used to simplify building the default style sheet.
    * 
@@ -726,6 +781,7 @@ public class StyleSheet {
       s.properties.addElement(style);
       style.specificity = SPECIFICITY_D - SPECIFICITY_IMPORTANT;
       selectElementName.put(selector, s);
+      addKey(selector);
     } else {
       CssTokenizer ct = new CssTokenizer(null, null, selector + "{");
       Style target = parseSelector(ct);
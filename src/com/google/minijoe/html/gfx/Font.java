@@ -0,0 +1,151 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Font used for measuring and drawing text, mirroring the subset of
+ * javax.microedition.lcdui.Font used by the widgets, including the values
+ * of the face, style and size constants. Fonts are obtained from the
+ * current Toolkit with getFont().
+ */
+public abstract class Font {
+
+  public static final int FACE_SYSTEM = 0;
+  public static final int FACE_MONOSPACE = 32;
+  public static final int FACE_PROPORTIONAL = 64;
+
+  public static final int STYLE_PLAIN = 0;
+  public static final int STYLE_BOLD = 1;
+  public static final int STYLE_ITALIC = 2;
+  public static final int STYLE_UNDERLINED = 4;
+
+  public static final int SIZE_SMALL = 8;
+  public static final int SIZE_MEDIUM = 0;
+  public static final int SIZE_LARGE = 16;
+
+  private final int face;
+  private final int style;
+  private final int size;
+
+  /**
+   * Cached character advances for the Unicode BMP, in pages of 256 characters
+   * that are filled on first use. See getAdvance().
+   */
+  private final int[][] advancePages = new int[256][];
+
+  protected Font(int face, int style, int size) {
+    this.face = face;
+    this.style = style;
+    this.size = size;
+  }
+
+  /**
+   * Returns the font with the given attributes from the current toolkit.
+   */
+  public static Font getFont(int face, int style, int size) {
+    return Toolkit.getInstance().getFont(face, style, size);
+  }
+
+  public static Font getDefaultFont() {
+    return getFont(FACE_SYSTEM, STYLE_PLAIN, SIZE_MEDIUM);
+  }
+
+  public int getFace() {
+    return face;
+  }
+
+  public int getStyle() {
+    return style;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public boolean isBold() {
+    return (style & STYLE_BOLD) != 0;
+  }
+
+  public boolean isItalic() {
+    return (style & STYLE_ITALIC) != 0;
+  }
+
+  public boolean isUnderlined() {
+    return (style & STYLE_UNDERLINED) != 0;
+  }
+
+  /**
+   * Returns the height of a line of text, including the leading.
+   */
+  public abstract int getHeight();
+
+  /**
+   * Returns the distance from the top of a line to the baseline.
+   */
+  public abstract int getBaselinePosition();
+
+  /**
+   * Returns the advance of the given character.
+   */
+  public abstract int charWidth(char c);
+
+  /**
+   * Returns the advance of the given character like charWidth(), but from
+   * a per font cache. The cache is filled for the page of 256 characters
+   * containing c on first use, so text measurement does not call into the
+   * platform font for each character. Summing up advances does not take 
+   * kerning into account.
+   * <p>
+   * Thread safety: pages are looked up and published under the lock of the
+   * cache, so a thread never sees a partially filled page and each page is
+   * filled only once.
+   */
+  public final int getAdvance(char c) {
+    int[] page;
+    synchronized (advancePages) {
+      page = advancePages[c >> 8];
+      if (page == null) {
+        int[] newPage = new int[256];
+        char base = (char) (c & 0xff00);
+        for (int i = 0; i < 256; i++) {
+          newPage[i] = charWidth((char) (base + i));
+        }
+        advancePages[c >> 8] = page = newPage;
+      }
+    }
+    return page[c & 0xff];
+  }
+
+  public int charsWidth(char[] ch, int offset, int length) {
+    int w = 0;
+    for (int i = 0; i < length; i++) {
+      w += charWidth(ch[offset + i]);
+    }
+    return w;
+  }
+
+  public int stringWidth(String str) {
+    return substringWidth(str, 0, str.length());
+  }
+
+  public int substringWidth(String str, int offset, int len) {
+    int w = 0;
+    for (int i = 0; i < len; i++) {
+      w += charWidth(str.charAt(offset + i));
+    }
+    return w;
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Drawing surface of the widgets. This is the subset of
+ * javax.microedition.lcdui.Graphics used for rendering, with the same
+ * method semantics and constant values, so the html and html5 packages
+ * do not depend on a particular platform. Instances are obtained from
+ * Image.getGraphics() or, on MIDP, by wrapping the graphics object passed
+ * to Canvas.paint() in a MidpGraphics.
+ */
+public abstract class Graphics {
+
+  public static final int HCENTER = 1;
+  public static final int VCENTER = 2;
+  public static final int LEFT = 4;
+  public static final int RIGHT = 8;
+  public static final int TOP = 16;
+  public static final int BOTTOM = 32;
+  public static final int BASELINE = 64;
+
+  public static final int SOLID = 0;
+  public static final int DOTTED = 1;
+
+  /**
+   * Sets the current color to the given 0xRRGGBB value.
+   */
+  public abstract void setColor(int rgb);
+
+  public void setColor(int red, int green, int blue) {
+    setColor(((red & 255) << 16) | ((green & 255) << 8) | (blue & 255));
+  }
+
+  /**
+   * Returns the current color as 0xRRGGBB value.
+   */
+  public abstract int getColor();
+
+  public abstract void setFont(Font font);
+
+  public abstract Font getFont();
+
+  public abstract void translate(int x, int y);
+
+  public abstract int getTranslateX();
+
+  public abstract int getTranslateY();
+
+  public abstract int getClipX();
+
+  public abstract int getClipY();
+
+  public abstract int getClipWidth();
+
+  public abstract int getClipHeight();
+
+  /**
+   * Intersects the clip area with the given rectangle.
+   */
+  public abstract void clipRect(int x, int y, int width, int height);
+
+  public abstract void setClip(int x, int y, int width, int height);
+
+  public abstract void drawLine(int x1, int y1, int x2, int y2);
+
+  public abstract void fillRect(int x, int y, int width, int height);
+
+  /**
+   * Draws the outline of the given rectangle, covering width + 1 by
+   * height + 1 pixels.
+   */
+  public abstract void drawRect(int x, int y, int width, int height);
+
+  public abstract void drawRoundRect(int x, int y, int width, int height,
+      int arcWidth, int arcHeight);
+
+  public abstract void fillRoundRect(int x, int y, int width, int height,
+      int arcWidth, int arcHeight);
+
+  public abstract void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3);
+
+  /**
+   * Draws the given string with the current font and color. The anchor is
+   * a combination of LEFT, HCENTER or RIGHT and TOP, BASELINE or BOTTOM.
+   */
+  public abstract void drawString(String str, int x, int y, int anchor);
+
+  public void drawSubstring(String str, int offset, int len, int x, int y, int anchor) {
+    drawString(str.substring(offset, offset + len), x, y, anchor);
+  }
+
+  /**
+   * Draws the given image. The anchor is a combination of LEFT, HCENTER or
+   * RIGHT and TOP, VCENTER or BOTTOM.
+   */
+  public abstract void drawImage(Image image, int x, int y, int anchor);
+
+  /**
+   * Draws the given 0xAARRGGBB pixels. If processAlpha is false, all
+   * pixels are treated as opaque.
+   */
+  public abstract void drawRGB(int[] rgbData, int offset, int scanlength, int x, int y,
+      int width, int height, boolean processAlpha);
+}
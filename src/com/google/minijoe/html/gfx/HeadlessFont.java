@@ -0,0 +1,80 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Font with fixed metrics, independent of the platform. The advance of a
+ * character depends on its class only (narrow, regular, wide, uppercase,
+ * ideographic), the size and boldness, so layouts computed headless are
+ * reproducible.
+ */
+public class HeadlessFont extends Font {
+
+  private final int height;
+  private final int ascent;
+  /** Advance of regular characters. */
+  private final int advance;
+  private final int bold;
+
+  public HeadlessFont(int face, int style, int size) {
+    super(face, style, size);
+    switch (size) {
+      case SIZE_SMALL:
+        height = 12;
+        break;
+      case SIZE_LARGE:
+        height = 18;
+        break;
+      default:
+        height = 14;
+    }
+    ascent = height * 3 / 4;
+    advance = height / 2;
+    bold = isBold() ? 1 : 0;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getBaselinePosition() {
+    return ascent;
+  }
+
+  public int charWidth(char c) {
+    if (c < ' ') {
+      return 0;
+    }
+    if (getFace() == FACE_MONOSPACE) {
+      return advance + bold;
+    }
+    if (c >= 0x2e80) {
+      // CJK and other ideographic scripts
+      return height + bold;
+    }
+    switch (c) {
+      case ' ': case '.': case ',': case ':': case ';': case '!': case '\'':
+      case '|': case 'i': case 'j': case 'l': case 'I':
+        return advance / 2 + bold;
+      case 'f': case 't': case 'r': case '(': case ')': case '[': case ']':
+        return advance * 3 / 4 + bold;
+      case 'm': case 'w': case 'M': case 'W': case '@':
+        return advance * 3 / 2 + bold;
+      default:
+        return (c >= 'A' && c <= 'Z' ? advance + 1 : advance) + bold;
+    }
+  }
+}
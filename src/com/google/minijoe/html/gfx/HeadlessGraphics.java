@@ -0,0 +1,294 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Graphics drawing into a HeadlessImage. Rectangles, lines, triangles and
+ * images are rendered exactly; rounded rectangles are drawn as plain
+ * rectangles, and text is drawn as one filled box per visible character,
+ * using the metrics of the font. This is sufficient for checking layout
+ * and paint coverage and for benchmarks.
+ */
+public class HeadlessGraphics extends Graphics {
+
+  private final int[] pixels;
+  private final int width;
+  private final int height;
+
+  /** Current color, always opaque. */
+  private int color = 0xff000000;
+  private Font font = Font.getDefaultFont();
+  private int translateX;
+  private int translateY;
+  // clip area in untranslated coordinates; x1 and y1 are exclusive
+  private int clipX0;
+  private int clipY0;
+  private int clipX1;
+  private int clipY1;
+
+  public HeadlessGraphics(HeadlessImage image) {
+    pixels = image.pixels;
+    width = image.width;
+    height = image.height;
+    clipX1 = width;
+    clipY1 = height;
+  }
+
+  public void setColor(int rgb) {
+    color = 0xff000000 | rgb;
+  }
+
+  public int getColor() {
+    return color & 0xffffff;
+  }
+
+  public void setFont(Font font) {
+    this.font = font == null ? Font.getDefaultFont() : font;
+  }
+
+  public Font getFont() {
+    return font;
+  }
+
+  public void translate(int x, int y) {
+    translateX += x;
+    translateY += y;
+  }
+
+  public int getTranslateX() {
+    return translateX;
+  }
+
+  public int getTranslateY() {
+    return translateY;
+  }
+
+  public int getClipX() {
+    return clipX0 - translateX;
+  }
+
+  public int getClipY() {
+    return clipY0 - translateY;
+  }
+
+  public int getClipWidth() {
+    return clipX1 - clipX0;
+  }
+
+  public int getClipHeight() {
+    return clipY1 - clipY0;
+  }
+
+  public void clipRect(int x, int y, int w, int h) {
+    x += translateX;
+    y += translateY;
+    clipX0 = Math.max(clipX0, x);
+    clipY0 = Math.max(clipY0, y);
+    clipX1 = Math.max(clipX0, Math.min(clipX1, x + w));
+    clipY1 = Math.max(clipY0, Math.min(clipY1, y + h));
+  }
+
+  public void setClip(int x, int y, int w, int h) {
+    clipX0 = 0;
+    clipY0 = 0;
+    clipX1 = width;
+    clipY1 = height;
+    clipRect(x, y, w, h);
+  }
+
+  public void drawLine(int x1, int y1, int x2, int y2) {
+    x1 += translateX;
+    y1 += translateY;
+    x2 += translateX;
+    y2 += translateY;
+    int dx = Math.abs(x2 - x1);
+    int dy = -Math.abs(y2 - y1);
+    int sx = x1 < x2 ? 1 : -1;
+    int sy = y1 < y2 ? 1 : -1;
+    int err = dx + dy;
+    while (true) {
+      if (x1 >= clipX0 && x1 < clipX1 && y1 >= clipY0 && y1 < clipY1) {
+        pixels[y1 * width + x1] = color;
+      }
+      if (x1 == x2 && y1 == y2) {
+        break;
+      }
+      int e2 = 2 * err;
+      if (e2 >= dy) {
+        err += dy;
+        x1 += sx;
+      }
+      if (e2 <= dx) {
+        err += dx;
+        y1 += sy;
+      }
+    }
+  }
+
+  public void fillRect(int x, int y, int w, int h) {
+    x += translateX;
+    y += translateY;
+    int x0 = Math.max(x, clipX0);
+    int x1 = Math.min(x + w, clipX1);
+    int y0 = Math.max(y, clipY0);
+    int y1 = Math.min(y + h, clipY1);
+    for (int j = y0; j < y1; j++) {
+      int row = j * width;
+      for (int i = x0; i < x1; i++) {
+        pixels[row + i] = color;
+      }
+    }
+  }
+
+  public void drawRect(int x, int y, int w, int h) {
+    if (w < 0 || h < 0) {
+      return;
+    }
+    fillRect(x, y, w + 1, 1);
+    fillRect(x, y + h, w + 1, 1);
+    fillRect(x, y + 1, 1, h - 1);
+    fillRect(x + w, y + 1, 1, h - 1);
+  }
+
+  public void drawRoundRect(int x, int y, int w, int h, int arcWidth, int arcHeight) {
+    drawRect(x, y, w, h);
+  }
+
+  public void fillRoundRect(int x, int y, int w, int h, int arcWidth, int arcHeight) {
+    fillRect(x, y, w, h);
+  }
+
+  public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+    x1 += translateX;
+    y1 += translateY;
+    x2 += translateX;
+    y2 += translateY;
+    x3 += translateX;
+    y3 += translateY;
+    int x0 = Math.max(clipX0, Math.min(x1, Math.min(x2, x3)));
+    int xe = Math.min(clipX1 - 1, Math.max(x1, Math.max(x2, x3)));
+    int y0 = Math.max(clipY0, Math.min(y1, Math.min(y2, y3)));
+    int ye = Math.min(clipY1 - 1, Math.max(y1, Math.max(y2, y3)));
+    // orientation, so the edge functions are non-negative inside
+    int area = (x2 - x1) * (y3 - y1) - (y2 - y1) * (x3 - x1);
+    int sign = area < 0 ? -1 : 1;
+    for (int y = y0; y <= ye; y++) {
+      for (int x = x0; x <= xe; x++) {
+        if (sign * ((x2 - x1) * (y - y1) - (y2 - y1) * (x - x1)) >= 0
+            && sign * ((x3 - x2) * (y - y2) - (y3 - y2) * (x - x2)) >= 0
+            && sign * ((x1 - x3) * (y - y3) - (y1 - y3) * (x - x3)) >= 0) {
+          pixels[y * width + x] = color;
+        }
+      }
+    }
+  }
+
+  public void drawString(String str, int x, int y, int anchor) {
+    int w = font.stringWidth(str);
+    if ((anchor & HCENTER) != 0) {
+      x -= w / 2;
+    } else if ((anchor & RIGHT) != 0) {
+      x -= w;
+    }
+    int ascent = font.getBaselinePosition();
+    int baseline;
+    if ((anchor & BASELINE) != 0) {
+      baseline = y;
+    } else if ((anchor & BOTTOM) != 0) {
+      baseline = y - font.getHeight() + ascent;
+    } else {
+      baseline = y + ascent;
+    }
+    int glyphHeight = Math.max(1, ascent - 2);
+    int len = str.length();
+    for (int i = 0; i < len; i++) {
+      char c = str.charAt(i);
+      int advance = font.charWidth(c);
+      if (c > ' ') {
+        fillRect(x, baseline - glyphHeight, Math.max(1, advance - 1), glyphHeight);
+      }
+      x += advance;
+    }
+    if (font.isUnderlined()) {
+      fillRect(x - w, baseline + 1, w, 1);
+    }
+  }
+
+  public void drawImage(Image image, int x, int y, int anchor) {
+    int w = image.getWidth();
+    int h = image.getHeight();
+    int[] rgb;
+    if (image instanceof HeadlessImage) {
+      rgb = ((HeadlessImage) image).pixels;
+    } else {
+      rgb = new int[w * h];
+      image.getRGB(rgb, 0, w, 0, 0, w, h);
+    }
+    if ((anchor & HCENTER) != 0) {
+      x -= w / 2;
+    } else if ((anchor & RIGHT) != 0) {
+      x -= w;
+    }
+    if ((anchor & VCENTER) != 0) {
+      y -= h / 2;
+    } else if ((anchor & BOTTOM) != 0) {
+      y -= h;
+    }
+    drawRGB(rgb, 0, w, x, y, w, h, true);
+  }
+
+  public void drawRGB(int[] rgbData, int offset, int scanlength, int x, int y,
+      int w, int h, boolean processAlpha) {
+    x += translateX;
+    y += translateY;
+    int x0 = Math.max(x, clipX0);
+    int x1 = Math.min(x + w, clipX1);
+    int y0 = Math.max(y, clipY0);
+    int y1 = Math.min(y + h, clipY1);
+    for (int j = y0; j < y1; j++) {
+      int src = offset + (j - y) * scanlength - x;
+      int row = j * width;
+      for (int i = x0; i < x1; i++) {
+        int argb = rgbData[src + i];
+        if (!processAlpha) {
+          pixels[row + i] = argb | 0xff000000;
+        } else {
+          pixels[row + i] = blend(pixels[row + i], argb);
+        }
+      }
+    }
+  }
+
+  /**
+   * Composes src over dst.
+   */
+  static int blend(int dst, int src) {
+    int a = src >>> 24;
+    if (a == 255) {
+      return src;
+    }
+    if (a == 0) {
+      return dst;
+    }
+    int na = 255 - a;
+    int da = dst >>> 24;
+    int outA = a + da * na / 255;
+    int r = (((src >> 16) & 255) * a + ((dst >> 16) & 255) * na) / 255;
+    int g = (((src >> 8) & 255) * a + ((dst >> 8) & 255) * na) / 255;
+    int b = ((src & 255) * a + (dst & 255) * na) / 255;
+    return (outA << 24) | (r << 16) | (g << 8) | b;
+  }
+}
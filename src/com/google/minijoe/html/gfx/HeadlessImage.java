@@ -0,0 +1,70 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Image backed by an int[] of 0xAARRGGBB pixels.
+ */
+public class HeadlessImage extends Image {
+
+  final int[] pixels;
+  final int width;
+  final int height;
+  private final boolean mutable;
+
+  HeadlessImage(int[] pixels, int width, int height, boolean mutable) {
+    this.pixels = pixels;
+    this.width = width;
+    this.height = height;
+    this.mutable = mutable;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public boolean isMutable() {
+    return mutable;
+  }
+
+  public Graphics getGraphics() {
+    if (!mutable) {
+      throw new IllegalStateException("immutable");
+    }
+    return new HeadlessGraphics(this);
+  }
+
+  public void getRGB(int[] rgbData, int offset, int scanlength, int x, int y,
+      int width, int height) {
+    if (x < 0 || y < 0 || x + width > this.width || y + height > this.height) {
+      throw new IllegalArgumentException();
+    }
+    for (int i = 0; i < height; i++) {
+      System.arraycopy(pixels, (y + i) * this.width + x, rgbData, offset + i * scanlength, width);
+    }
+  }
+
+  /**
+   * Returns the pixel at the given position as 0xAARRGGBB value.
+   */
+  public int getPixel(int x, int y) {
+    return pixels[y * width + x];
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Toolkit for a Java VM without display. Images are int[] ARGB framebuffers
+ * (HeadlessImage), and fonts have fixed, platform independent metrics
+ * (HeadlessFont), so layout results are the same on every VM.
+ *
+ * Encoded images are not decoded: createImage(byte[], int, int) reads the
+ * size from the PNG, GIF or JPEG header and returns a transparent image of
+ * that size, which is sufficient for layout.
+ */
+public class HeadlessToolkit extends Toolkit {
+
+  protected Font createFont(int face, int style, int size) {
+    return new HeadlessFont(face, style, size);
+  }
+
+  public Image createImage(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException();
+    }
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = 0xffffffff;
+    }
+    return new HeadlessImage(pixels, width, height, true);
+  }
+
+  public Image createImage(byte[] data, int offset, int length) {
+    int[] size = readImageSize(data, offset, length);
+    if (size == null) {
+      throw new IllegalArgumentException("Unsupported image format");
+    }
+    return new HeadlessImage(new int[size[0] * size[1]], size[0], size[1], false);
+  }
+
+  public Image createRGBImage(int[] rgb, int width, int height, boolean processAlpha) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException();
+    }
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = processAlpha ? rgb[i] : rgb[i] | 0xff000000;
+    }
+    return new HeadlessImage(pixels, width, height, false);
+  }
+
+  /**
+   * Returns {width, height} from the header of a PNG, GIF or JPEG image,
+   * or null if the format is not recognized.
+   */
+  static int[] readImageSize(byte[] data, int offset, int length) {
+    int end = offset + length;
+    if (length >= 24 && (data[offset] & 255) == 0x89 && data[offset + 1] == 'P'
+        && data[offset + 2] == 'N' && data[offset + 3] == 'G') {
+      // IHDR is the first chunk
+      return checkSize(readInt(data, offset + 16, 4, true), readInt(data, offset + 20, 4, true));
+    }
+    if (length >= 10 && data[offset] == 'G' && data[offset + 1] == 'I'
+        && data[offset + 2] == 'F') {
+      return checkSize(readInt(data, offset + 6, 2, false), readInt(data, offset + 8, 2, false));
+    }
+    if (length >= 4 && (data[offset] & 255) == 0xff && (data[offset + 1] & 255) == 0xd8) {
+      // walk the segments up to the first start of frame marker
+      int pos = offset + 2;
+      while (pos + 9 <= end && (data[pos] & 255) == 0xff) {
+        int marker = data[pos + 1] & 255;
+        if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8
+            && marker != 0xcc) {
+          return checkSize(readInt(data, pos + 7, 2, true), readInt(data, pos + 5, 2, true));
+        }
+        pos += 2 + readInt(data, pos + 2, 2, true);
+      }
+    }
+    return null;
+  }
+
+  private static int[] checkSize(int width, int height) {
+    return width > 0 && height > 0 && (long) width * height <= 1 << 26
+        ? new int[] {width, height} : null;
+  }
+
+  private static int readInt(byte[] data, int pos, int count, boolean bigEndian) {
+    int value = 0;
+    for (int i = 0; i < count; i++) {
+      int b = data[bigEndian ? pos + i : pos + count - 1 - i] & 255;
+      value = (value << 8) | b;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Image, mirroring the subset of javax.microedition.lcdui.Image used by the
+ * widgets. Images are created by the current Toolkit.
+ */
+public abstract class Image {
+
+  /**
+   * Creates a mutable image of the given size, filled with white.
+   */
+  public static Image createImage(int width, int height) {
+    return Toolkit.getInstance().createImage(width, height);
+  }
+
+  /**
+   * Decodes the given image data.
+   *
+   * @throws IllegalArgumentException if the data cannot be decoded
+   */
+  public static Image createImage(byte[] data, int offset, int length) {
+    return Toolkit.getInstance().createImage(data, offset, length);
+  }
+
+  /**
+   * Creates an immutable image from 0xAARRGGBB pixels. If processAlpha is
+   * false, all pixels are opaque.
+   */
+  public static Image createRGBImage(int[] rgb, int width, int height, boolean processAlpha) {
+    return Toolkit.getInstance().createRGBImage(rgb, width, height, processAlpha);
+  }
+
+  public abstract int getWidth();
+
+  public abstract int getHeight();
+
+  public abstract boolean isMutable();
+
+  /**
+   * Returns a graphics object drawing into this image.
+   *
+   * @throws IllegalStateException if the image is immutable
+   */
+  public abstract Graphics getGraphics();
+
+  /**
+   * Copies the pixels of the given region as 0xAARRGGBB values.
+   */
+  public abstract void getRGB(int[] rgbData, int offset, int scanlength, int x, int y,
+      int width, int height);
+}
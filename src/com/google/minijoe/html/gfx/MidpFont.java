@@ -0,0 +1,60 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Font delegating to a javax.microedition.lcdui.Font.
+ */
+public class MidpFont extends Font {
+
+  final javax.microedition.lcdui.Font font;
+
+  public MidpFont(javax.microedition.lcdui.Font font) {
+    super(font.getFace(), font.getStyle(), font.getSize());
+    this.font = font;
+  }
+
+  /**
+   * Returns the wrapped MIDP font.
+   */
+  public javax.microedition.lcdui.Font getNative() {
+    return font;
+  }
+
+  public int getHeight() {
+    return font.getHeight();
+  }
+
+  public int getBaselinePosition() {
+    return font.getBaselinePosition();
+  }
+
+  public int charWidth(char c) {
+    return font.charWidth(c);
+  }
+
+  public int charsWidth(char[] ch, int offset, int length) {
+    return font.charsWidth(ch, offset, length);
+  }
+
+  public int stringWidth(String str) {
+    return font.stringWidth(str);
+  }
+
+  public int substringWidth(String str, int offset, int len) {
+    return font.substringWidth(str, offset, len);
+  }
+}
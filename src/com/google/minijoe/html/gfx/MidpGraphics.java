@@ -0,0 +1,147 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Graphics delegating to a javax.microedition.lcdui.Graphics, e.g. the one
+ * passed to Canvas.paint().
+ */
+public class MidpGraphics extends Graphics {
+
+  final javax.microedition.lcdui.Graphics g;
+  private Font font;
+
+  public MidpGraphics(javax.microedition.lcdui.Graphics g) {
+    this.g = g;
+  }
+
+  public void setColor(int rgb) {
+    g.setColor(rgb);
+  }
+
+  public int getColor() {
+    return g.getColor();
+  }
+
+  public void setFont(Font font) {
+    this.font = font;
+    g.setFont(((MidpFont) font).font);
+  }
+
+  public Font getFont() {
+    if (font == null) {
+      font = new MidpFont(g.getFont());
+    }
+    return font;
+  }
+
+  public void translate(int x, int y) {
+    g.translate(x, y);
+  }
+
+  public int getTranslateX() {
+    return g.getTranslateX();
+  }
+
+  public int getTranslateY() {
+    return g.getTranslateY();
+  }
+
+  public int getClipX() {
+    return g.getClipX();
+  }
+
+  public int getClipY() {
+    return g.getClipY();
+  }
+
+  public int getClipWidth() {
+    return g.getClipWidth();
+  }
+
+  public int getClipHeight() {
+    return g.getClipHeight();
+  }
+
+  public void clipRect(int x, int y, int width, int height) {
+    g.clipRect(x, y, width, height);
+  }
+
+  public void setClip(int x, int y, int width, int height) {
+    g.setClip(x, y, width, height);
+  }
+
+  public void drawLine(int x1, int y1, int x2, int y2) {
+    g.drawLine(x1, y1, x2, y2);
+  }
+
+  public void fillRect(int x, int y, int width, int height) {
+    g.fillRect(x, y, width, height);
+  }
+
+  public void drawRect(int x, int y, int width, int height) {
+    g.drawRect(x, y, width, height);
+  }
+
+  public void drawRoundRect(int x, int y, int width, int height,
+      int arcWidth, int arcHeight) {
+    g.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+  }
+
+  public void fillRoundRect(int x, int y, int width, int height,
+      int arcWidth, int arcHeight) {
+    g.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+  }
+
+  public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+    g.fillTriangle(x1, y1, x2, y2, x3, y3);
+  }
+
+  public void drawString(String str, int x, int y, int anchor) {
+    g.drawString(str, x, y, anchor);
+  }
+
+  public void drawSubstring(String str, int offset, int len, int x, int y, int anchor) {
+    g.drawSubstring(str, offset, len, x, y, anchor);
+  }
+
+  public void drawImage(Image image, int x, int y, int anchor) {
+    if (image instanceof MidpImage) {
+      g.drawImage(((MidpImage) image).image, x, y, anchor);
+      return;
+    }
+    int w = image.getWidth();
+    int h = image.getHeight();
+    int[] rgb = new int[w * h];
+    image.getRGB(rgb, 0, w, 0, 0, w, h);
+    if ((anchor & HCENTER) != 0) {
+      x -= w / 2;
+    } else if ((anchor & RIGHT) != 0) {
+      x -= w;
+    }
+    if ((anchor & VCENTER) != 0) {
+      y -= h / 2;
+    } else if ((anchor & BOTTOM) != 0) {
+      y -= h;
+    }
+    g.drawRGB(rgb, 0, w, x, y, w, h, true);
+  }
+
+  public void drawRGB(int[] rgbData, int offset, int scanlength, int x, int y,
+      int width, int height, boolean processAlpha) {
+    g.drawRGB(rgbData, offset, scanlength, x, y, width, height, processAlpha);
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Image delegating to a javax.microedition.lcdui.Image.
+ */
+public class MidpImage extends Image {
+
+  final javax.microedition.lcdui.Image image;
+
+  public MidpImage(javax.microedition.lcdui.Image image) {
+    this.image = image;
+  }
+
+  /**
+   * Returns the wrapped MIDP image.
+   */
+  public javax.microedition.lcdui.Image getNative() {
+    return image;
+  }
+
+  public int getWidth() {
+    return image.getWidth();
+  }
+
+  public int getHeight() {
+    return image.getHeight();
+  }
+
+  public boolean isMutable() {
+    return image.isMutable();
+  }
+
+  public Graphics getGraphics() {
+    return new MidpGraphics(image.getGraphics());
+  }
+
+  public void getRGB(int[] rgbData, int offset, int scanlength, int x, int y,
+      int width, int height) {
+    image.getRGB(rgbData, offset, scanlength, x, y, width, height);
+  }
+}
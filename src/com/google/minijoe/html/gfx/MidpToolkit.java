@@ -0,0 +1,48 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+/**
+ * Toolkit for MIDP, backed by javax.microedition.lcdui. MIDP applications
+ * install it with Toolkit.setInstance(); other code must not reference it
+ * directly, since it does not link without MIDP.
+ */
+public class MidpToolkit extends Toolkit {
+
+  /**
+   * Creates a new instance. Throws an Error if MIDP is not available.
+   */
+  public MidpToolkit() {
+    javax.microedition.lcdui.Font.getDefaultFont();
+  }
+
+  protected Font createFont(int face, int style, int size) {
+    return new MidpFont(javax.microedition.lcdui.Font.getFont(face, style, size));
+  }
+
+  public Image createImage(int width, int height) {
+    return new MidpImage(javax.microedition.lcdui.Image.createImage(width, height));
+  }
+
+  public Image createImage(byte[] data, int offset, int length) {
+    return new MidpImage(javax.microedition.lcdui.Image.createImage(data, offset, length));
+  }
+
+  public Image createRGBImage(int[] rgb, int width, int height, boolean processAlpha) {
+    return new MidpImage(javax.microedition.lcdui.Image.createRGBImage(
+        rgb, width, height, processAlpha));
+  }
+}
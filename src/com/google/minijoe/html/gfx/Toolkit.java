@@ -0,0 +1,89 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.minijoe.html.gfx;
+
+import java.util.Hashtable;
+
+/**
+ * Creates the fonts and images of a rendering backend. The html and html5
+ * packages only use the classes of this package, so layout and rendering
+ * can run on MIDP (MidpToolkit) as well as on a plain Java VM without a
+ * display, e.g. for pre-rendering pages on a server or for benchmarks
+ * (HeadlessToolkit).
+ *
+ * MIDP applications install MidpToolkit with setInstance() before creating
+ * any widgets (see HtmlBrowser), since MidpGraphics can only draw MidpFonts.
+ * Without such a setup, getInstance() falls back to a MidpToolkit if
+ * javax.microedition.lcdui is available and a HeadlessToolkit otherwise;
+ * MidpToolkit is only loaded by name there, so it can be left out of builds
+ * for platforms without MIDP.
+ */
+public abstract class Toolkit {
+
+  private static final String MIDP_TOOLKIT_CLASS =
+      "com.google.minijoe.html.gfx.MidpToolkit";
+
+  private static Toolkit instance;
+
+  private final Hashtable fonts = new Hashtable();
+
+  /**
+   * Returns the toolkit set with setInstance() or the best available one
+   * for the current platform.
+   */
+  public static synchronized Toolkit getInstance() {
+    if (instance == null) {
+      try {
+        instance = (Toolkit) Class.forName(MIDP_TOOLKIT_CLASS).newInstance();
+      } catch (Throwable t) {
+        // MidpToolkit or MIDP not available
+        instance = new HeadlessToolkit();
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Sets the toolkit used by the static factory methods of Font and Image.
+   * Must be called before any fonts or images are created.
+   */
+  public static synchronized void setInstance(Toolkit toolkit) {
+    instance = toolkit;
+  }
+
+  /**
+   * Returns the font with the given attributes, creating it on first use.
+   */
+  public Font getFont(int face, int style, int size) {
+    Integer key = new Integer((face << 16) | (style << 8) | size);
+    synchronized (fonts) {
+      Font font = (Font) fonts.get(key);
+      if (font == null) {
+        font = createFont(face, style, size);
+        fonts.put(key, font);
+      }
+      return font;
+    }
+  }
+
+  protected abstract Font createFont(int face, int style, int size);
+
+  public abstract Image createImage(int width, int height);
+
+  public abstract Image createImage(byte[] data, int offset, int length);
+
+  public abstract Image createRGBImage(int[] rgb, int width, int height, boolean processAlpha);
+}
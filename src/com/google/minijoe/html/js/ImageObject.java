@@ -4,6 +4,7 @@ import com.google.minijoe.html.BlockWidget;
 import com.google.minijoe.html.Element;
 import com.google.minijoe.html.HtmlWidget;
 import com.google.minijoe.sys.JsArray;
+import com.google.minijoe.sys.JsEventLoop;
 import com.google.minijoe.sys.JsFunction;
 import com.google.minijoe.sys.JsObject;
 
@@ -19,16 +20,16 @@ public class ImageObject extends JsObject {
 
 	private HtmlWidget root;
 
-	private static Object callbackEventLock;
+	private JsEventLoop eventLoop;
 
 	public static final int ID_INIT_IMAGE = 2001;
 
-	public ImageObject(JsObject scope, Object lock, HtmlWidget root) {
+	public ImageObject(JsObject scope, JsEventLoop loop, HtmlWidget root) {
 		super(IMAGE_PROTOTYPE);
 
 		this.root = root;
 		this.callBackScope = scope;
-		this.callbackEventLock = lock;
+		this.eventLoop = loop;
 
 		addVar("onLoad", null);
 		addVar("src", null);
@@ -63,6 +64,7 @@ public class ImageObject extends JsObject {
 	}
 
 	//Callback from blockwidget notifying us that its finsihed loading the img data
+	//Must be called on the event loop thread
 	private void onLoadCallBack(JsFunction callBack) {
 		System.out.println("finished loading img");
 		addVar("width", new Integer(this.imgWidget.getWidth()));
@@ -70,13 +72,7 @@ public class ImageObject extends JsObject {
 		
 		JsFunction onLoadCallBack = (JsFunction) this.getObject("onLoad");
 		if (onLoadCallBack != null) {
-			synchronized (callbackEventLock) {
-				JsArray callBackStack = new JsArray();
-				callBackStack.setObject(0, this.callBackScope);
-				callBackStack.setObject(1, callBack);
-
-				callBack.eval(callBackStack, 0, 1);
-			}
+			eventLoop.call(callBack, this.callBackScope, new Object[0]);
 		}
 	}
 }
@@ -16,12 +16,11 @@ package com.google.minijoe.html.js;
 
 import com.google.minijoe.html.HtmlWidget;
 import com.google.minijoe.sys.JsArray;
+import com.google.minijoe.sys.JsEventLoop;
 import com.google.minijoe.sys.JsFunction;
 import com.google.minijoe.sys.JsObject;
 import com.google.minijoe.sys.JsSystem;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Alert;
 import javax.microedition.lcdui.AlertType;
 import javax.microedition.lcdui.Canvas;
@@ -34,29 +33,31 @@ import javax.microedition.lcdui.Display;
  * 
  * @author Stefan Haustein
  */
-public class JsWindow extends JsObject implements Runnable {
+public class JsWindow extends JsObject implements Runnable, JsEventLoop.Listener {
 
   static final int ID_GET_ELEMENT_BY_ID = 1000;
   static final int ID_WRITE = 1001;
   static final int ID_SET_TIMEOUT = 1003;
   static final int ID_SET_INTERVAL = 1004;
+  static final int ID_CLEAR_TIMEOUT = 1008;
+  static final int ID_CLEAR_INTERVAL = 1009;
   
   static int scheduleId;
   
   static final JsObject PROTOTYPE = new JsObject(OBJECT_PROTOTYPE);
-  /** 
-   * entries are Object[] containing execution time, method, interval
-   */
-  Vector schedule = new Vector();
-  static int timerId;
-  JsArray stack = new JsArray();
-  boolean stop = false;
-  Object eventLock = new Object();
+  JsEventLoop loop = new JsEventLoop(this);
   HtmlWidget rootDocument;
   
   
+  /**
+   * Returns the event loop running all callbacks of this window.
+   */
+  public JsEventLoop getEventLoop() {
+    return loop;
+  }
+
   public Object getEventLock() {
-	return eventLock;
+	return loop.getLock();
 }
 
 /**
@@ -74,6 +75,8 @@ public class JsWindow extends JsObject implements Runnable {
    
     addVar("setTimeout", new JsFunction(ID_SET_TIMEOUT, 2));
     addVar("setInterval", new JsFunction(ID_SET_INTERVAL, 2));
+    addVar("clearTimeout", new JsFunction(ID_CLEAR_TIMEOUT, 1));
+    addVar("clearInterval", new JsFunction(ID_CLEAR_INTERVAL, 1));
     addVar("document", this);
     addVar("window", this);
     
@@ -85,7 +88,7 @@ public class JsWindow extends JsObject implements Runnable {
     } else {
     	System.out.println("null doc root passed to JsWIndow");
     }
-    stack.setObject(0, this);
+    loop.setListener(this);
   }
 
   /**
@@ -103,12 +106,17 @@ public class JsWindow extends JsObject implements Runnable {
         
       case ID_SET_TIMEOUT:
         stack.setNumber(sp, 
-            schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), false)); 
+            loop.getTimers().schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), false)); 
         break;
 
       case ID_SET_INTERVAL:
         stack.setNumber(sp, 
-            schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), true)); 
+            loop.getTimers().schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), true)); 
+        break;
+
+      case ID_CLEAR_TIMEOUT:
+      case ID_CLEAR_INTERVAL:
+        loop.getTimers().cancel(stack.getInt(sp + 2));
         break;
 
     default:
@@ -124,77 +132,26 @@ private void write(String string) {
     System.out.println("document.write: " + string);
   }
 
+  /** 
+   * Runs the event loop.
+   */
+  public void run() {
+    loop.run();
+  }
+
   /**
-   * Schedule a callback
-   * 
-   * @param function function to be called
-   * @param dt time interval
-   * @param repeat if true, calls are rescheduled automatically 
-   * @return a id that can be used to terminate an interval
+   * Called by the event loop after running a batch of callbacks.
    */
-  private int schedule(JsFunction function, int dt, boolean repeat) {
-    // this should be binary search but if there should not be more than 1-3 entries anyway...
-    
-    long t0 = System.currentTimeMillis() + dt;
-    
-    synchronized (schedule) {
-      int i = schedule.size() - 1;
-      while (i >= 0 && ((Long) ((Object[]) schedule.elementAt(i))[1]).longValue() > t0) {
-        i--;
-      }
-      
-      if (repeat) {
-        schedule.insertElementAt(new Object[]{
-            new Integer(++timerId), 
-            new Long(t0), 
-            function, 
-            new Integer(dt)}, i + 1);
-      } else {
-        schedule.insertElementAt(new Object[]{
-            new Integer(++timerId), 
-            new Long(t0), 
-            function}, i + 1);
-      }
-      return timerId;
-    }
+  public void tasksDone() {
+    //screen.drawTree(g, dx, dy, clipX, clipY, clipW, clipH); //FIXME: need to get hold of g
   }
 
-  /** 
-   * Runs the scheduler.
+  /**
+   * Called by the event loop if a callback throws an exception.
    */
-  public void run() {
-    try {
-      while (!stop) {
-        if (schedule.size() == 0) {
-          synchronized (eventLock) {
-            eventLock.wait(20);
-          }
-          continue;
-        }
-        
-        Object[] next;
-        synchronized (schedule) {
-          next = (Object[]) schedule.elementAt(0);
-          schedule.removeElementAt(0);
-        }
-        long time = ((Long) next[1]).longValue();
-        JsFunction call = (JsFunction) next[2];
-        synchronized (eventLock) {
-          eventLock.wait (Math.max(5, time - System.currentTimeMillis()));
-          // Note: stack[0] is filled with 'this' in the constructor 
-          stack.setObject(1, this);
-          stack.setObject(2, call);
-          call.eval(stack, 1, 0);
-        }
-        //screen.drawTree(g, dx, dy, clipX, clipY, clipW, clipH); //FIXME: need to get hold of g
-        if (next.length == 4) {
-          schedule(call, ((Integer) next[3]).intValue(), true);
-        }
-      }
-    } catch (Exception e) {
-    	//FIXME need to handle exception better then just swallowing with err mesg
-    	System.out.println(e);
-    }
+  public void taskFailed(Exception e) {
+  	//FIXME need to handle exception better then just swallowing with err mesg
+  	System.out.println(e);
   }
   
   /**
@@ -207,7 +164,8 @@ private void write(String string) {
   
 
   /**
-   * Calls the given JavaScript function with the given key event. 
+   * Posts a call of the given JavaScript function with the given key event
+   * to the event loop. 
    * Google internal cursor  key codes are converted to PC key codes.
    * 
    * @param f the function to be called
@@ -232,12 +190,7 @@ private void write(String string) {
     }
    
     event.addVar("keyCode", new Double(code));
-    synchronized (eventLock) {
-      stack.setObject(1, this);
-      stack.setObject(2, f);
-      stack.setObject(3, event);
-      f.eval(stack, 1, 1);
-    }
+    loop.post(f, this, new Object[] {event});
   }
   
   public String toString(){
@@ -28,13 +28,24 @@ import javax.microedition.io.Connector;
 import javax.microedition.io.ContentConnection;
 import javax.microedition.io.HttpConnection;
 
+import com.google.minijoe.common.RequestPool;
 import com.google.minijoe.sys.JsArray;
+import com.google.minijoe.sys.JsCoroutine;
+import com.google.minijoe.sys.JsEventLoop;
 import com.google.minijoe.sys.JsFunction;
 import com.google.minijoe.sys.JsObject;
 
-public class XMLHttpRequestObject extends JsObject implements Runnable {
-
-	private static Object callbackEventLock;
+/**
+ * The request is performed by a worker of the shared RequestPool, which only
+ * reads the response into Java fields. The script visible state is updated
+ * and onReadyStateChange is called by an I/O completion on the event loop of
+ * the global object.
+ *
+ * For synchronous requests (open() with async set to false), send()
+ * suspends the calling script (see JsCoroutine) until the response has
+ * arrived, so no thread is blocked while waiting.
+ */
+public class XMLHttpRequestObject extends JsObject {
 
 	private static final JsObject XMLHTTPREQUEST_PROTOTYPE = new JsObject(
 			JsFunction.OBJECT_PROTOTYPE);
@@ -55,21 +66,138 @@ public class XMLHttpRequestObject extends JsObject implements Runnable {
 	private String username;
 	private String password;
 	private Hashtable headers = new Hashtable();
-	private StringBuffer responseText = new StringBuffer();
-	private byte[] responseBody;
-	private String requestData;
+	private boolean async = true;
 
 	private JsObject callBackScope;
+	private JsEventLoop eventLoop;
+	private RequestPool pool;
+
+	/** The request in progress; only accessed on the event loop thread. */
+	private Send pending;
+
+	/**
+	 * Performs a request on a worker thread. The response is kept in the
+	 * request, so an aborted request cannot interfere with a later one.
+	 */
+	class Send extends RequestPool.Request {
+		private final String sendUrl;
+		private final String sendMethod;
+		private final Hashtable sendHeaders;
+		private HttpConnection connection;
+		private int status;
+		private byte[] responseBody;
+		private StringBuffer responseText = new StringBuffer();
+		/** The suspended script of a synchronous request. */
+		private JsCoroutine coroutine;
+
+		Send(String url, String method, Hashtable headers) {
+			super(url, RequestPool.PRIORITY_SCRIPT);
+			this.sendUrl = url;
+			this.sendMethod = method;
+			this.sendHeaders = headers;
+		}
+
+		public void run() {
+			readHttp();
+			if (!isCancelled()) {
+				eventLoop.postCompletion(new Runnable() {
+					public void run() {
+						done(Send.this);
+					}
+				});
+			}
+		}
+
+		protected void abort() {
+			HttpConnection c;
+			synchronized (this) {
+				c = connection;
+			}
+			if (c != null) {
+				try {
+					c.close();
+				} catch (IOException e) {
+					// ignore, the request is cancelled anyway
+				}
+			}
+		}
+
+		private void readHttp() {
+			HttpConnection c = null;
+			DataInputStream dis = null;
+
+			try {
+				c = (HttpConnection) Connector.open(this.sendUrl);
+				synchronized (this) {
+					this.connection = c;
+				}
+				if (isCancelled()) {
+					return;
+				}
+
+				c.setRequestMethod(this.sendMethod);
+
+				Enumeration keys = this.sendHeaders.keys();
+				while (keys.hasMoreElements()) {
+					Object key = keys.nextElement();
+					c.setRequestProperty((String) key,
+							(String) sendHeaders.get(key));
+				}
+
+				this.status = c.getResponseCode();
+
+				int len = (int) c.getLength();
+				dis = c.openDataInputStream();
+				if (len > 0) {
+					this.responseBody = new byte[len];
+					dis.readFully(this.responseBody);
+					for (int i = 0; i < this.responseBody.length; i++) {
+						// TODO: check MIME-type and handle charset correctly
+						this.responseText.append((char) this.responseBody[i]);
+					}
+				} else {
+					int ch;
+					while (!isCancelled() && (ch = dis.read()) != -1) {
+						// TODO: check MIME-type and handle charset correctly
+						this.responseText.append((char) ch);
+					}
+				}
+			} catch (IOException e) {
+				// swallow exception as XHR open() method cannot throw error
+				if (!isCancelled()) {
+					e.printStackTrace();
+				}
+			} finally {
+				try {
+					if (dis != null) {
+						dis.close();
+					}
+					if (c != null) {
+						c.close();
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	public XMLHttpRequestObject(JsObject scope, JsEventLoop loop) {
+		this(scope, loop, RequestPool.getDefault());
+	}
 
-	public XMLHttpRequestObject(JsObject scope, Object lock) {
+	public XMLHttpRequestObject(JsObject scope, JsEventLoop loop,
+			RequestPool pool) {
 
 		super(XMLHTTPREQUEST_PROTOTYPE);
 		this.callBackScope = scope;
-		this.callbackEventLock = lock;
+		this.eventLoop = loop;
+		this.pool = pool;
 
 		addNative("open", XHR_OPEN_METHOD_ID, 5);
 		addNative("send", XHR_SEND_METHOD_ID, 1);
 		addNative("setRequestHeader", XHR_SET_REQUEST_HEADER_METHOD_ID, 2);
+		addNative("abort", XHR_ABORT_METHOD_ID, 0);
 
 		addVar("status", null);
 		addVar("readyState", READY_STATE_UNSENT);
@@ -81,106 +209,116 @@ public class XMLHttpRequestObject extends JsObject implements Runnable {
 	public void evalNative(int id, JsArray stack, int sp, int parCount) {
 		switch (id) {
 		case XHR_OPEN_METHOD_ID:
+			abort(false);
 			this.httpMethod = stack.getString(sp + 2);
 			this.url = stack.getString(sp + 3);
-			// if we get a 3rd param setting sync, just ignore as we always
-			// async to not block gui thread
+			this.async = parCount < 3 || stack.getBoolean(sp + 4);
 			this.username = stack.getString(sp + 5);
 			this.password = stack.getString(sp + 6);
+			this.headers = new Hashtable();
 			addVar("readyState", READY_STATE_OPENED);
 			break;
 		case XHR_SEND_METHOD_ID:
-			this.requestData = stack.getString(sp + 2);
-			Thread t = new Thread(this);
-			t.start();
+			if (this.pending != null) {
+				throw new IllegalStateException("send() already called");
+			}
+			final Send send = new Send(this.url, this.httpMethod, this.headers);
+			if (this.async) {
+				this.pool.submit(send);
+				this.pending = send;
+				break;
+			}
+			// submitted when the script is suspended, so the response cannot
+			// arrive before; if the script cannot be suspended, the request
+			// is never pending
+			JsCoroutine.suspend(stack, sp, new JsCoroutine.Wait() {
+				protected void start(JsCoroutine coroutine) {
+					send.coroutine = coroutine;
+					pending = send;
+					try {
+						pool.submit(send);
+					} catch (IllegalStateException e) {
+						pending = null;
+						coroutine.resumeWithError(e);
+					}
+				}
+			});
 			break;
 		case XHR_SET_REQUEST_HEADER_METHOD_ID:
 			this.headers.put(stack.getString(sp + 2), stack.getString(sp + 3));
 			break;
 		case XHR_ABORT_METHOD_ID:
-			// Todo:
+			abort(true);
 			break;
 		}
 	}
 
-	public void run() {
-		readHttp();
+	/**
+	 * Cancels the pending request, if any. If notify is true, the request
+	 * is reported as completed with status 0 before the state is reset to
+	 * UNSENT, as required for abort().
+	 */
+	private void abort(boolean notify) {
+		Send send = this.pending;
+		if (send == null) {
+			return;
+		}
+		this.pending = null;
+		send.cancel();
+		addVar("status", new Double(0));
+		addVar("responseText", "");
+		if (notify) {
+			addVar("readyState", READY_STATE_DONE);
+			callOnReadyStateChange();
+		}
+		addVar("readyState", READY_STATE_UNSENT);
+		final JsCoroutine coroutine = send.coroutine;
+		if (coroutine != null) {
+			// the script waiting in send() gets an exception, in a separate task
+			eventLoop.postCompletion(new Runnable() {
+				public void run() {
+					coroutine.resumeWithError("NetworkError: request aborted");
+				}
+			});
+		}
 	}
 
-	private void readHttp() {
-		HttpConnection c = null;
-		DataInputStream dis = null;
-
-		try {
-			c = (HttpConnection) Connector.open(this.url);
-
-			c.setRequestMethod(this.httpMethod);
-
-			Enumeration keys = this.headers.keys();
-			while (keys.hasMoreElements()) {
-				Object key = keys.nextElement();
-				c.setRequestProperty((String) key, (String) headers.get(key));
-			}
-
-			addVar("readyState", READY_STATE_LOADING);
-			addVar("status", new Double(c.getResponseCode()));
-
-			int len = (int) c.getLength();
-			dis = c.openDataInputStream();
-			if (len > 0) {
-				this.responseBody = new byte[len];
-				dis.readFully(this.responseBody);
-				addVar("resBytes", this.responseBody);
-				for (int i = 0; i < this.responseBody.length; i++) {
-					// TODO: check MIME-type and handle charset correctly
-					this.responseText.append((char) this.responseBody[i]);
-				}
-			} else {
-				int ch;
-				while ((ch = dis.read()) != -1) {
-					// TODO: check MIME-type and handle charset correctly
-					this.responseText.append(ch);
-				}
-			}
-		} catch (IOException e) {
-			// swallow exception as XHR open() method cannot throw error
-			e.printStackTrace();
-		} finally {
-			if (dis != null)
-				try {
-					dis.close();
-					if (c != null) {
-						c.close();
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+	/**
+	 * Publishes the response to scripts and calls onReadyStateChange. Runs on
+	 * the event loop thread.
+	 */
+	private void done(Send send) {
+		if (send != this.pending) {
+			// aborted in the meantime
+			return;
+		}
+		this.pending = null;
+		if (send.status != 0) {
+			addVar("status", new Double(send.status));
 		}
-		addVar("responseText", responseText.toString());
+		if (send.responseBody != null) {
+			addVar("resBytes", send.responseBody);
+		}
+		addVar("responseText", send.responseText.toString());
 		addVar("readyState", READY_STATE_DONE);
-		JsFunction onReadyStateChangeCallBack = (JsFunction) this
-				.getObject("onReadyStateChange");
-		if (onReadyStateChangeCallBack != null) {
-			doCallBack(onReadyStateChangeCallBack);
-		} else {
-			// System.out.println("NO callback:" + onReadyStateChangeCallBack);
+		callOnReadyStateChange();
+		if (send.coroutine != null) {
+			// continue the script waiting in send()
+			send.coroutine.resume(null);
 		}
 	}
 
-	private void doCallBack(JsFunction callBack) {
-		JsObject event = new JsObject(JsObject.OBJECT_PROTOTYPE);
-
-		synchronized (callbackEventLock) {
-			JsArray callBackStack = new JsArray();
-			callBackStack.setObject(0, this.callBackScope);
-			callBackStack.setObject(1, callBack);
-			callBackStack.setObject(2, event);
-
-			callBack.eval(callBackStack, 0, 1);
+	private void callOnReadyStateChange() {
+		JsFunction onReadyStateChangeCallBack = (JsFunction) this
+				.getObject("onReadyStateChange");
+		if (onReadyStateChangeCallBack != null) {
+			JsObject event = new JsObject(JsObject.OBJECT_PROTOTYPE);
+			eventLoop.call(onReadyStateChangeCallBack, this.callBackScope,
+					new Object[] { event });
 		}
 	}
 
 	public String toString() {
 		return "[XMLHttpRequest]";
 	}
-}
\ No newline at end of file
+}
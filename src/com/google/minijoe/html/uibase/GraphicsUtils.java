@@ -16,11 +16,10 @@ package com.google.minijoe.html.uibase;
 
 import java.util.Vector;
 
-import javax.microedition.lcdui.Font;
-import javax.microedition.lcdui.Graphics;
-import javax.microedition.lcdui.Image;
-
 import com.google.minijoe.common.Util;
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.Graphics;
+import com.google.minijoe.html.gfx.Image;
 
 /**
  * Graphics related static helper methods.
@@ -17,7 +17,8 @@ package com.google.minijoe.html.uibase;
 import java.util.Vector;
 
 import javax.microedition.lcdui.Canvas;
-import javax.microedition.lcdui.Graphics;
+
+import com.google.minijoe.html.gfx.Graphics;
 
 public class ScrollWidget extends Widget {
 
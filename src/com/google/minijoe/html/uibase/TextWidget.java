@@ -14,8 +14,8 @@
 
 package com.google.minijoe.html.uibase;
 
-import javax.microedition.lcdui.Font;
-import javax.microedition.lcdui.Graphics;
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.Graphics;
 
 public class TextWidget extends Widget {
 
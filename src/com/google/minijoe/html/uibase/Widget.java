@@ -17,9 +17,9 @@ package com.google.minijoe.html.uibase;
 import java.util.Vector;
 
 import javax.microedition.lcdui.Canvas;
-import javax.microedition.lcdui.Graphics;
 
 import com.google.minijoe.html.HtmlWidget;
+import com.google.minijoe.html.gfx.Graphics;
 
 public class Widget {
   public static final int KEY_PRESSED = 0;
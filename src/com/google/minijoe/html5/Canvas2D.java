@@ -14,11 +14,10 @@
 
 package com.google.minijoe.html5;
 
-import javax.microedition.lcdui.Graphics;
-import javax.microedition.lcdui.Image;
-
 import com.google.minijoe.html.BlockWidget;
 import com.google.minijoe.html.Element;
+import com.google.minijoe.html.gfx.Graphics;
+import com.google.minijoe.html.gfx.Image;
 import com.google.minijoe.html.uibase.Widget;
 import com.google.minijoe.html5.js.CanvasObject;
 import com.google.minijoe.html5.js.Html5JsFactory;
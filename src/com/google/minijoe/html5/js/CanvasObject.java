@@ -1,10 +1,9 @@
 package com.google.minijoe.html5.js;
 
-import javax.microedition.lcdui.Image;
-
 import com.google.minijoe.html.BlockWidget;
 import com.google.minijoe.html.Element;
 import com.google.minijoe.html.HtmlWidget;
+import com.google.minijoe.html.gfx.Image;
 import com.google.minijoe.sys.JsArray;
 import com.google.minijoe.sys.JsFunction;
 import com.google.minijoe.sys.JsObject;
@@ -14,16 +14,15 @@
 
 package com.google.minijoe.html5.js;
 
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.Graphics;
+import com.google.minijoe.html.gfx.Image;
 import com.google.minijoe.sys.JsArray;
 import com.google.minijoe.sys.JsObject;
 
 import java.util.Hashtable;
 import java.util.Vector;
 
-import javax.microedition.lcdui.Font;
-import javax.microedition.lcdui.Graphics;
-import javax.microedition.lcdui.Image;
-
 /** 
  * Graphics context: partial implementation of Javascript Context2D. 
  * Provides drawing methods. 
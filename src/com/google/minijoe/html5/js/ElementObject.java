@@ -0,0 +1,113 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html5.js;
+
+import com.google.minijoe.html.Element;
+import com.google.minijoe.sys.JsArray;
+import com.google.minijoe.sys.JsFunction;
+import com.google.minijoe.sys.JsObject;
+import com.google.minijoe.sys.JsSystem;
+
+/**
+ * Minimal JavaScript representation of a document element, as returned by
+ * the element lookup functions of JsWindow.
+ */
+public class ElementObject extends JsObject {
+
+  static final int ID_ID = 4000;
+  static final int ID_ID_SET = 4001;
+  static final int ID_TAG_NAME = 4002;
+  static final int ID_TAG_NAME_SET = 4003;
+  static final int ID_CLASS_NAME = 4004;
+  static final int ID_CLASS_NAME_SET = 4005;
+  static final int ID_GET_ATTRIBUTE = 4006;
+  static final int ID_SET_ATTRIBUTE = 4007;
+  static final int ID_REMOVE_ATTRIBUTE = 4008;
+
+  static final JsObject ELEMENT_PROTOTYPE = new JsObject(OBJECT_PROTOTYPE)
+      .addVar("id", new JsFunction(ID_ID, -1))
+      .addVar("tagName", new JsFunction(ID_TAG_NAME, -1))
+      .addVar("className", new JsFunction(ID_CLASS_NAME, -1))
+      .addVar("getAttribute", new JsFunction(ID_GET_ATTRIBUTE, 1))
+      .addVar("setAttribute", new JsFunction(ID_SET_ATTRIBUTE, 2))
+      .addVar("removeAttribute", new JsFunction(ID_REMOVE_ATTRIBUTE, 1));
+
+  private Element element;
+
+  public ElementObject(Element element) {
+    super(ELEMENT_PROTOTYPE);
+    this.element = element;
+  }
+
+  /**
+   * Returns the element represented by this object.
+   */
+  public Element getElement() {
+    return element;
+  }
+
+  public void evalNative(int index, JsArray stack, int sp, int parCount) {
+    switch (index) {
+      case ID_ID:
+        stack.setObject(sp, getAttribute("id"));
+        break;
+
+      case ID_CLASS_NAME:
+        stack.setObject(sp, getAttribute("class"));
+        break;
+
+      case ID_TAG_NAME:
+        stack.setObject(sp, element.getName().toUpperCase());
+        break;
+
+      case ID_ID_SET:
+        element.setAttribute("id", stack.getString(sp));
+        break;
+
+      case ID_CLASS_NAME_SET:
+        element.setAttribute("class", stack.getString(sp));
+        break;
+
+      case ID_TAG_NAME_SET:
+        // read only
+        break;
+
+      case ID_GET_ATTRIBUTE:
+        String value = element.getAttributeValue(stack.getString(sp + 2).toLowerCase());
+        stack.setObject(sp, value == null ? JsSystem.JS_NULL : value);
+        break;
+
+      case ID_SET_ATTRIBUTE:
+        element.setAttribute(stack.getString(sp + 2).toLowerCase(), stack.getString(sp + 3));
+        break;
+
+      case ID_REMOVE_ATTRIBUTE:
+        element.setAttribute(stack.getString(sp + 2).toLowerCase(), null);
+        break;
+
+      default:
+        super.evalNative(index, stack, sp, parCount);
+    }
+  }
+
+  private String getAttribute(String name) {
+    String value = element.getAttributeValue(name);
+    return value == null ? "" : value;
+  }
+
+  public String toString() {
+    return "[object HTMLElement]";
+  }
+}
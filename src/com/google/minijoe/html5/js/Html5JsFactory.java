@@ -33,7 +33,7 @@ public class Html5JsFactory implements JsObjectFactory {
 		switch(type){
 	      case HTML5_XHR_TYPE: 
 	    	  return new XMLHttpRequestObject(environment, 
-	    			  environment.getEventLock());
+	    			  environment.getEventLoop());
 	    	  
 	      case HTML5_CANVAS_TYPE: 
 	    	  return new CanvasObject(environment, 
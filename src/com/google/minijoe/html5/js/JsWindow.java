@@ -19,12 +19,11 @@ import com.google.minijoe.html.HtmlWidget;
 import com.google.minijoe.html.uibase.Widget;
 import com.google.minijoe.html5.Canvas2D;
 import com.google.minijoe.sys.JsArray;
+import com.google.minijoe.sys.JsEventLoop;
 import com.google.minijoe.sys.JsFunction;
 import com.google.minijoe.sys.JsObject;
 import com.google.minijoe.sys.JsSystem;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Alert;
 import javax.microedition.lcdui.AlertType;
 import javax.microedition.lcdui.Canvas;
@@ -35,7 +34,7 @@ import javax.microedition.lcdui.Display;
  * 
  * @author Stefan Haustein
  */
-public class JsWindow extends JsObject implements Runnable {
+public class JsWindow extends JsObject implements Runnable, JsEventLoop.Listener {
 
   static final int ID_GET_ELEMENT_BY_ID = 1000;
   static final int ID_WRITE = 1001;
@@ -44,25 +43,29 @@ public class JsWindow extends JsObject implements Runnable {
   static final int ID_DEBUG = 1005; //console.debug()
   static final int ID_WIDTH = 1006;
   static final int ID_HEIGHT = 1007;
+  static final int ID_CLEAR_TIMEOUT = 1008;
+  static final int ID_CLEAR_INTERVAL = 1009;
+  static final int ID_GET_ELEMENTS_BY_CLASS_NAME = 1010;
+  static final int ID_GET_ELEMENTS_BY_TAG_NAME = 1011;
   
   
   static int scheduleId;
   
   static final JsObject PROTOTYPE = new JsObject(OBJECT_PROTOTYPE);
-  /** 
-   * entries are Object[] containing execution time, method, interval
-   */
-  Vector schedule = new Vector();
-  static int timerId;
-  JsArray stack = new JsArray();
-  boolean stop = false;
-  Object eventLock = new Object();
+  JsEventLoop loop = new JsEventLoop(this);
   HtmlWidget rootDocument;
 
   
   
+  /**
+   * Returns the event loop running all callbacks of this window.
+   */
+  public JsEventLoop getEventLoop() {
+    return loop;
+  }
+
   public Object getEventLock() {
-	return eventLock;
+	return loop.getLock();
 }
 
 /**
@@ -76,10 +79,14 @@ public class JsWindow extends JsObject implements Runnable {
     scopeChain = JsSystem.createGlobal();
     
     addVar("getElementById", new JsFunction(ID_GET_ELEMENT_BY_ID, 1));
+    addVar("getElementsByClassName", new JsFunction(ID_GET_ELEMENTS_BY_CLASS_NAME, 1));
+    addVar("getElementsByTagName", new JsFunction(ID_GET_ELEMENTS_BY_TAG_NAME, 1));
     addVar("write", new JsFunction(ID_WRITE, 1));
        
     addVar("setTimeout", new JsFunction(ID_SET_TIMEOUT, 2));
     addVar("setInterval", new JsFunction(ID_SET_INTERVAL, 2));
+    addVar("clearTimeout", new JsFunction(ID_CLEAR_TIMEOUT, 1));
+    addVar("clearInterval", new JsFunction(ID_CLEAR_INTERVAL, 1));
     addVar("document", this);
     addVar("window", this);
     addVar("console", this);
@@ -95,7 +102,7 @@ public class JsWindow extends JsObject implements Runnable {
     } else {
     	System.out.println("null doc root passed to JsWindow"); //FIXME: need proper err handling
     }
-    stack.setObject(0, this);
+    loop.setListener(this);
   }
 
   /**
@@ -104,11 +111,18 @@ public class JsWindow extends JsObject implements Runnable {
   public void evalNative(int id, JsArray stack, int sp, int parCount){
     switch(id){
       case ID_GET_ELEMENT_BY_ID:
-    	String elemId = (String)(stack.getObject(sp + 2));
-        Element result  = rootDocument.getElement().getChildById((String)(stack.getObject(sp + 2)));
-        Widget w = this.rootDocument.getWidgetForLabel(elemId);
-        
-        stack.setObject(sp, ((Canvas2D)w).getCanvasObject());
+        Element result = rootDocument.getElementById(stack.getString(sp + 2));
+        stack.setObject(sp, result == null ? JsSystem.JS_NULL : getJsObject(result));
+        break;
+
+      case ID_GET_ELEMENTS_BY_CLASS_NAME:
+        stack.setObject(sp, 
+            getJsArray(rootDocument.getElementsByClassName(stack.getString(sp + 2))));
+        break;
+
+      case ID_GET_ELEMENTS_BY_TAG_NAME:
+        stack.setObject(sp, 
+            getJsArray(rootDocument.getElementsByTagName(stack.getString(sp + 2))));
         break;
         
       case ID_WRITE:
@@ -117,12 +131,17 @@ public class JsWindow extends JsObject implements Runnable {
         
       case ID_SET_TIMEOUT:
         stack.setNumber(sp, 
-            schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), false)); 
+            loop.getTimers().schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), false)); 
         break;
 
       case ID_SET_INTERVAL:
         stack.setNumber(sp, 
-            schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), true)); 
+            loop.getTimers().schedule((JsFunction) stack.getObject(sp + 2), stack.getInt(sp + 3), true)); 
+        break;
+
+      case ID_CLEAR_TIMEOUT:
+      case ID_CLEAR_INTERVAL:
+        loop.getTimers().cancel(stack.getInt(sp + 2));
         break;
         
       case ID_DEBUG:
@@ -146,6 +165,34 @@ public class JsWindow extends JsObject implements Runnable {
 	return rootDocument;
   }
 
+  /**
+   * Returns the JavaScript object for the given element: the canvas object 
+   * for canvas elements, an ElementObject otherwise. The ElementObject is 
+   * created on first use and kept in the element, so each lookup returns
+   * the same object.
+   */
+  private JsObject getJsObject(Element element) {
+    String id = element.getAttributeValue("id");
+    Widget w = id == null ? null : rootDocument.getWidgetForLabel(id);
+    if (w instanceof Canvas2D && ((Canvas2D) w).getElement() == element) {
+      return ((Canvas2D) w).getCanvasObject();
+    }
+    JsObject object = (JsObject) element.getScriptObject();
+    if (object == null) {
+      object = new ElementObject(element);
+      element.setScriptObject(object);
+    }
+    return object;
+  }
+
+  private JsArray getJsArray(Element[] elements) {
+    JsArray array = new JsArray();
+    for (int i = 0; i < elements.length; i++) {
+      array.setObject(i, getJsObject(elements[i]));
+    }
+    return array;
+  }
+
   private void write(String string) {
     System.out.println("document.write: " + string);
   }
@@ -154,78 +201,27 @@ public class JsWindow extends JsObject implements Runnable {
     System.out.println("console.debug: " + string);
   }
 
+  /** 
+   * Runs the event loop.
+   */
+  public void run() {
+    loop.run();
+  }
+
   /**
-   * Schedule a callback
-   * 
-   * @param function function to be called
-   * @param dt time interval
-   * @param repeat if true, calls are rescheduled automatically 
-   * @return a id that can be used to terminate an interval
+   * Called by the event loop after running a batch of callbacks.
    */
-  private int schedule(JsFunction function, int dt, boolean repeat) {
-    // this should be binary search but if there should not be more than 1-3 entries anyway...
-    
-    long t0 = System.currentTimeMillis() + dt;
-    
-    synchronized (schedule) {
-      int i = schedule.size() - 1;
-      while (i >= 0 && ((Long) ((Object[]) schedule.elementAt(i))[1]).longValue() > t0) {
-        i--;
-      }
-      
-      if (repeat) {
-        schedule.insertElementAt(new Object[]{
-            new Integer(++timerId), 
-            new Long(t0), 
-            function, 
-            new Integer(dt)}, i + 1);
-      } else {
-        schedule.insertElementAt(new Object[]{
-            new Integer(++timerId), 
-            new Long(t0), 
-            function}, i + 1);
-      }
-      return timerId;
-    }
+  public void tasksDone() {
+    this.rootDocument.scriptsResumed();
+    this.rootDocument.invalidate(false);//repaint!
   }
 
-  /** 
-   * Runs the scheduler.
+  /**
+   * Called by the event loop if a callback throws an exception.
    */
-  public void run() {
-    try {
-      while (!stop) {
-        if (schedule.size() == 0) {
-          synchronized (eventLock) {
-            eventLock.wait(20);
-          }
-          continue;
-        }
-        
-        Object[] next;
-        synchronized (schedule) {
-          next = (Object[]) schedule.elementAt(0);
-          schedule.removeElementAt(0);
-        }
-        long time = ((Long) next[1]).longValue();
-        JsFunction call = (JsFunction) next[2];
-        synchronized (eventLock) {
-          eventLock.wait (Math.max(5, time - System.currentTimeMillis()));
-          // Note: stack[0] is filled with 'this' in the constructor 
-          stack.setObject(1, this);
-          stack.setObject(2, call);
-          call.eval(stack, 1, 0);
-        }
-        
-        this.rootDocument.invalidate(false);//repaint!
-        if (next.length == 4) {
-          schedule(call, ((Integer) next[3]).intValue(), true);
-        }
-      }
-    } catch (Exception e) {
-    	//FIXME need to handle exception better then just swallowing with err mesg
-    	System.out.println(e);
-    }
+  public void taskFailed(Exception e) {
+  	//FIXME need to handle exception better then just swallowing with err mesg
+  	System.out.println(e);
   }
   
   /**
@@ -238,7 +234,8 @@ public class JsWindow extends JsObject implements Runnable {
   
 
   /**
-   * Calls the given JavaScript function with the given key event. 
+   * Posts a call of the given JavaScript function with the given key event
+   * to the event loop. 
    * Google internal cursor  key codes are converted to PC key codes.
    * 
    * @param f the function to be called
@@ -263,12 +260,7 @@ public class JsWindow extends JsObject implements Runnable {
     }
    
     event.addVar("keyCode", new Double(code));
-    synchronized (eventLock) {
-      stack.setObject(1, this);
-      stack.setObject(2, f);
-      stack.setObject(3, event);
-      f.eval(stack, 1, 1);
-    }
+    loop.post(f, this, new Object[] {event});
   }
   
   public String toString() {
@@ -14,7 +14,7 @@
 
 package com.google.minijoe.html5.js;
 
-import javax.microedition.lcdui.Graphics;
+import com.google.minijoe.html.gfx.Graphics;
 
 /**
  * Polygon filling implementation. Note: The methods in this class 
@@ -36,7 +36,7 @@ import com.google.minijoe.html5.js.JsWindow;
  * @author Maksim Lin
  */
 public class Html5Browser extends HtmlBrowser implements SystemRequestHandler,
-		CommandListener, Runnable {
+		CommandListener {
 
 	private Hashtable elementHandlers = new Hashtable();
 	private JsWindow jsEnv;
@@ -103,35 +103,6 @@ public class Html5Browser extends HtmlBrowser implements SystemRequestHandler,
 				.append("</a></li>");
 	}
 
-	public void run() {
-		try {
-			while (!exit) {
-				if (requestQueue.size() == 0) {
-					synchronized (requestQueue) {
-						try {
-							requestQueue.wait(1000);
-						} catch (InterruptedException e) {
-							break;
-						}
-					}
-				} else {
-					ResourceRequester requester;
-					synchronized (requestQueue) {
-						requester = (ResourceRequester) requestQueue
-								.elementAt(0);
-						requestQueue.removeElementAt(0);
-					}
-					requester.run();
-				}
-			}
-		} catch (Exception exp) {
-			exp.printStackTrace();
-		}		
-		finally {
-			threadCount--;
-		}
-	}
-
 	/**
 	 * Overwrite this in a subclass to support additional elements.
 	 */
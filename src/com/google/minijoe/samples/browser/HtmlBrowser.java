@@ -19,10 +19,13 @@ import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import com.google.minijoe.common.RequestPool;
 import com.google.minijoe.common.Util;
 import com.google.minijoe.html.HtmlWidget;
 import com.google.minijoe.html.InputWidget;
 import com.google.minijoe.html.SystemRequestHandler;
+import com.google.minijoe.html.gfx.MidpToolkit;
+import com.google.minijoe.html.gfx.Toolkit;
 
 import javax.microedition.io.ConnectionNotFoundException;
 import javax.microedition.lcdui.Command;
@@ -39,7 +42,7 @@ import javax.microedition.midlet.MIDletStateChangeException;
  * 
  * @author Stefan Haustein
  */
-public class HtmlBrowser extends MIDlet implements SystemRequestHandler, CommandListener, Runnable {
+public class HtmlBrowser extends MIDlet implements SystemRequestHandler, CommandListener {
 
   static final int COOKIE_NAME = 0;
   static final int COOKIE_VALUE = 1;
@@ -60,10 +63,8 @@ public class HtmlBrowser extends MIDlet implements SystemRequestHandler, Command
 
   Vector screenStack = new Vector();
   Vector cookies = new Vector();
-  Vector requestQueue = new Vector();
+  RequestPool requestPool = RequestPool.getDefault();
   HtmlScreen currentScreen;
-  boolean exit;
-  int threadCount;
   Display display;
   InputWidget currentInput;
 
@@ -72,7 +73,8 @@ public class HtmlBrowser extends MIDlet implements SystemRequestHandler, Command
   private List menu;
   String userAgent;
   
-  public HtmlBrowser() {    
+  public HtmlBrowser() {
+    Toolkit.setInstance(new MidpToolkit());
   }
 
   protected void startApp() throws MIDletStateChangeException {
@@ -139,18 +141,10 @@ public class HtmlBrowser extends MIDlet implements SystemRequestHandler, Command
 	}
 	
 	  
-    if (requestQueue.size() >= threadCount && threadCount < 4) {
-      threadCount++;
-      new Thread(this).start();
-    }
-
     if (expectedContentType == SystemRequestHandler.TYPE_DOCUMENT) {
       showPage(url);
-      synchronized (requestQueue) {
-        requestQueue.insertElementAt(new ResourceRequester(currentScreen, 
-            requestMethod, url, expectedContentType, data), 0);
-        requestQueue.notify();
-      }
+      requestPool.submit(new ResourceRequester(currentScreen, 
+          requestMethod, url, expectedContentType, data));
     } else {
       HtmlScreen screen = currentScreen;
       for (int i = screenStack.size() - 1; i >= 0; i--) {
@@ -164,10 +158,8 @@ public class HtmlBrowser extends MIDlet implements SystemRequestHandler, Command
           return;
         }
       }
-      requestQueue.insertElementAt(new ResourceRequester(screen, 
-          requestMethod, url, expectedContentType, data), 
-          expectedContentType == SystemRequestHandler.TYPE_STYLESHEET 
-          ? 0 : requestQueue.size());
+      requestPool.submit(new ResourceRequester(screen, 
+          requestMethod, url, expectedContentType, data));
     }
   }
 
@@ -258,31 +250,6 @@ public class HtmlBrowser extends MIDlet implements SystemRequestHandler, Command
     cookies.addElement(cookie);
   }
 
-  public void run() {
-    try {
-      while (!exit) {
-        if (requestQueue.size() == 0) {
-          synchronized (requestQueue) {
-            try {
-              requestQueue.wait(1000);
-            } catch (InterruptedException e) {
-              break;
-            }
-          }
-        } else {
-          ResourceRequester requester;
-          synchronized (requestQueue) {
-            requester = (ResourceRequester) requestQueue.elementAt(0);
-            requestQueue.removeElementAt(0);
-          }
-          requester.run();
-        }
-      }
-    } finally {
-      threadCount--;
-    }
-  }
-
   public void requestPopup(InputWidget source, Vector options, int selectedIndex) {
     if (list == null) {
       list = new List("Select", List.EXCLUSIVE);
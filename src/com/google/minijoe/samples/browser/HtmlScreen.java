@@ -15,10 +15,13 @@
 package com.google.minijoe.samples.browser;
 
 import javax.microedition.lcdui.Canvas;
-import javax.microedition.lcdui.Font;
 import javax.microedition.lcdui.Graphics;
 
 import com.google.minijoe.html.HtmlWidget;
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.MidpGraphics;
+import com.google.minijoe.html.gfx.MidpToolkit;
+import com.google.minijoe.html.gfx.Toolkit;
 import com.google.minijoe.html.uibase.ScrollWidget;
 import com.google.minijoe.html.uibase.TextWidget;
 import com.google.minijoe.html.uibase.Widget;
@@ -33,6 +36,11 @@ public class HtmlScreen extends Canvas implements Window {
 
   static final int TITLE_BG = 0x4444444; 
   static final int SOFTKEY_BG = 0x444444;
+
+  static {
+    // paint() uses MidpGraphics, which requires the fonts of MidpToolkit
+    Toolkit.setInstance(new MidpToolkit());
+  }
 	
   ScrollWidget scrollWidget = new ScrollWidget();
   Widget root = new Widget();
@@ -83,6 +91,8 @@ public class HtmlScreen extends Canvas implements Window {
     titleWidget.setText(url);
 
     htmlWidget = new HtmlWidget(browser, url, browser.getElementHandlers(), false);
+    // show the first part of a page after 8k or one second
+    htmlWidget.setProgressiveRendering(8192, 1000);
     
     scrollWidget.addChild(titleWidget);
     scrollWidget.addChild(htmlWidget);
@@ -130,7 +140,8 @@ public class HtmlScreen extends Canvas implements Window {
 	  root.doLayout(getWidth());
 	  layoutValid = true;
 	}
-    root.drawTree(g, 0, 0, g.getClipX(), g.getClipY(), g.getClipWidth(), g.getClipHeight());
+    root.drawTree(new MidpGraphics(g), 0, 0, g.getClipX(), g.getClipY(), g.getClipWidth(), 
+        g.getClipHeight());
   }
   
   protected void keyPressed(int keyCode) {
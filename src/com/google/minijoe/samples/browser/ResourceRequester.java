@@ -14,23 +14,24 @@
 
 package com.google.minijoe.samples.browser;
 
+import com.google.minijoe.common.RequestPool;
 import com.google.minijoe.common.Util;
 import com.google.minijoe.html.SystemRequestHandler;
+import com.google.minijoe.html.gfx.Image;
 
 import java.io.*;
 
 import javax.microedition.io.Connector;
 import javax.microedition.io.HttpConnection;
 import javax.microedition.io.StreamConnection;
-import javax.microedition.lcdui.Image;
 
 /**
  * This is a dumb sample implementation of a resource request helper to illustrate usage of the 
- * interface. 
+ * interface. Requests are run by a RequestPool; their priority is derived from the resource type. 
  * 
  * @author Stefan Haustein
  */
-public class ResourceRequester implements Runnable {
+public class ResourceRequester extends RequestPool.Request {
 
 //  static final String USER_AGENT = 
 //	  
@@ -50,9 +51,11 @@ public class ResourceRequester implements Runnable {
   String url;
   int type;
   byte[] requestData;
+  StreamConnection con;
 
   public ResourceRequester(HtmlScreen screen, int method, String url, int type, 
       byte[] data) {
+    super(url, getPriority(type));
     this.screen = screen;
     this.method = method;
     this.url = url;
@@ -60,6 +63,40 @@ public class ResourceRequester implements Runnable {
     this.requestData = data;
   }
 
+  /**
+   * Returns the RequestPool priority for the given SystemRequestHandler type.
+   */
+  static int getPriority(int type) {
+    switch (type) {
+      case SystemRequestHandler.TYPE_DOCUMENT:
+        return RequestPool.PRIORITY_DOCUMENT;
+      case SystemRequestHandler.TYPE_STYLESHEET:
+        return RequestPool.PRIORITY_STYLESHEET;
+      case SystemRequestHandler.TYPE_SCRIPT:
+        return RequestPool.PRIORITY_SCRIPT;
+      default:
+        return RequestPool.PRIORITY_IMAGE;
+    }
+  }
+
+  /**
+   * Closes the connection, so a cancelled request does not keep its worker
+   * blocked.
+   */
+  protected void abort() {
+    StreamConnection c;
+    synchronized (this) {
+      c = con;
+    }
+    if (c != null) {
+      try {
+        c.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
   public void run() {
     HtmlBrowser browser = screen.browser;
     
@@ -76,6 +113,13 @@ public class ResourceRequester implements Runnable {
       StreamConnection con = (StreamConnection) Connector.open(
           cut == -1 ? url : url.substring(0, cut), 
               post ? Connector.READ_WRITE : Connector.READ);
+      synchronized (this) {
+        this.con = con;
+      }
+      if (isCancelled()) {
+        con.close();
+        return;
+      }
 
       screen.setStatus(type == SystemRequestHandler.TYPE_IMAGE ? "Loading Image" : 
           "Requesting");
@@ -186,6 +230,30 @@ public class ResourceRequester implements Runnable {
       byte [] responseData;
 
       InputStream is = con.openInputStream();
+      if (page && is != null) {
+        // the document is parsed and rendered while it arrives (see
+        // HtmlWidget.setProgressiveRendering()); only the start is buffered
+        // to look for a charset declaration
+        byte[] prefix = new byte[4096];
+        int prefixLength = 0;
+        while (prefixLength < prefix.length && !isCancelled()) {
+          screen.setStatus(total / 1000 + "k");
+          int len = is.read(prefix, prefixLength, prefix.length - prefixLength);
+          if (len <= 0) {
+            break;
+          }
+          prefixLength += len;
+          total += len;
+        }
+        if (isCancelled()) {
+          con.close();
+          return;
+        }
+        encoding = getEncoding(prefix, prefixLength, encoding);
+        screen.htmlWidget.load(new DocumentStream(prefix, prefixLength, is), encoding);
+        con.close();
+        return;
+      }
       if (is == null) {
         responseData = new byte[0];
       } else {
@@ -196,7 +264,7 @@ public class ResourceRequester implements Runnable {
           while (true) {
             screen.setStatus(total / 1000 + "k");
             int len = is.read(buf, 0, 2048);
-            if (len <= 0) {
+            if (len <= 0 || isCancelled()) {
               break;
             }
             total += len;
@@ -210,7 +278,7 @@ public class ResourceRequester implements Runnable {
             screen.setStatus(total / 1000 + "k");
             int len = is.read(responseData, pos, 
                 Math.min(contentLength - pos, 4096));
-            if (len <= 0) {
+            if (len <= 0 || isCancelled()) {
               break;
             }
             pos += len;
@@ -219,29 +287,14 @@ public class ResourceRequester implements Runnable {
         }
       }
       con.close();
+      if (isCancelled()) {
+        return;
+      }
 
       switch (type) {
         case SystemRequestHandler.TYPE_DOCUMENT:
-
-          String tmp = new String(responseData, 0, Math.min(responseData.length,
-              4096), "US-ASCII");
-          int i = tmp.indexOf("harset=");
-
-          if (i != -1) {
-            i += 7;
-            StringBuffer sb = new StringBuffer();
-            while (i < tmp.length()) {
-              char c = tmp.charAt(i);
-              if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z') && 
-                  (c < '0' || c > '9') && c != '-') {
-                break;
-              }
-              sb.append(c);
-              i++;
-            }
-            encoding = sb.toString();
-          }
-
+          encoding = getEncoding(responseData, Math.min(responseData.length, 4096), 
+              encoding);
           screen.setStatus(WAIT_MSGS[msg++ % WAIT_MSGS.length]);
           screen.htmlWidget.load(new ByteArrayInputStream(responseData), 
               encoding);
@@ -272,10 +325,78 @@ public class ResourceRequester implements Runnable {
           break;
       }
     } catch (IOException e) {
-      System.err.println("Failed to request resource: " + url);
-      e.printStackTrace();
+      if (!isCancelled()) {
+        System.err.println("Failed to request resource: " + url);
+        e.printStackTrace();
+      }
     } finally {
       screen.setStatus(null);
     }
   }
+
+  /**
+   * Returns the encoding declared in the first length bytes of the given 
+   * document (e.g. in a meta element), or dflt if there is none.
+   */
+  static String getEncoding(byte[] data, int length, String dflt) 
+      throws UnsupportedEncodingException {
+    String tmp = new String(data, 0, length, "US-ASCII");
+    int i = tmp.indexOf("harset=");
+    if (i == -1) {
+      return dflt;
+    }
+    i += 7;
+    StringBuffer sb = new StringBuffer();
+    while (i < tmp.length()) {
+      char c = tmp.charAt(i);
+      if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z') && 
+          (c < '0' || c > '9') && c != '-') {
+        break;
+      }
+      sb.append(c);
+      i++;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Stream of a document: the buffered start, followed by the rest of the 
+   * connection stream. Shows the number of bytes received in the status line.
+   */
+  class DocumentStream extends InputStream {
+    private byte[] prefix;
+    private int prefixLength;
+    private int pos;
+    private InputStream rest;
+
+    DocumentStream(byte[] prefix, int prefixLength, InputStream rest) {
+      this.prefix = prefix;
+      this.prefixLength = prefixLength;
+      this.rest = rest;
+    }
+
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == 1 ? b[0] & 255 : -1;
+    }
+
+    public int read(byte[] buf, int off, int len) throws IOException {
+      if (pos < prefixLength) {
+        len = Math.min(len, prefixLength - pos);
+        System.arraycopy(prefix, pos, buf, off, len);
+        pos += len;
+        return len;
+      }
+      len = rest.read(buf, off, len);
+      if (len > 0) {
+        total += len;
+        screen.setStatus(total / 1000 + "k");
+      }
+      return len;
+    }
+
+    public void close() throws IOException {
+      rest.close();
+    }
+  }
 }
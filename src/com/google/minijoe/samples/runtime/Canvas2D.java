@@ -38,7 +38,7 @@ public class Canvas2D extends Canvas {
   
   /** Draws the canvas image. */
   public void paint(Graphics g) {
-    synchronized (env.eventLock) {
+    synchronized (env.loop.getLock()) {
       g.drawImage(canvas, 0, 0, Graphics.TOP | Graphics.LEFT);
     }
   }
@@ -0,0 +1,1023 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+/**
+ * Number to string and string to number conversion following the ECMA 262
+ * rules (sections 9.3.1 and 9.8.1).
+ *
+ * Shortest round-trip digits are generated with the Grisu3 algorithm by
+ * Florian Loitsch ("Printing Floating-Point Numbers Quickly and Accurately
+ * with Integers"), using 64 bit integer arithmetic only, so it works on
+ * CLDC 1.1. For the rare cases where Grisu3 cannot guarantee the shortest
+ * result, the digits are generated with exact big integer arithmetic
+ * (Steele and White / Dragon4, in the form given by Burger and Dybvig).
+ * toFixed(), toExponential() and toPrecision() always use the exact
+ * arithmetic, so they round the exact binary value.
+ *
+ * Strings are parsed by hand without throwing exceptions. Numbers with up to
+ * 15 significant digits and a small decimal exponent are converted exactly
+ * using a single multiplication or division; all other syntactically valid
+ * numbers are passed on to Double.parseDouble().
+ */
+final class DoubleConversion {
+
+  /** Maximum number of significant digits of a double. */
+  private static final int MAX_DIGITS = 18;
+
+  /**
+   * Maximum number of digits generated by toFixed (21 integer digits and 20
+   * fraction digits).
+   */
+  private static final int MAX_EXACT_DIGITS = 41;
+
+  /** Number of 32 bit words of a Bignum, sufficient for 10^340 * 2^64. */
+  private static final int BIGNUM_SIZE = 40;
+
+  /** Number of cached string representations of small integers. */
+  private static final int INTEGER_CACHE_SIZE = 1024;
+
+  /** 2^53; integers below this value are represented exactly. */
+  private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+  private static final String[] INTEGER_CACHE = new String[INTEGER_CACHE_SIZE];
+
+  /** Exactly representable powers of ten. */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static final long[] SMALL_POWERS_OF_TEN = {
+    0, 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+    1000000000L, 10000000000L
+  };
+
+  /**
+   * Normalized 64 bit approximations of 10^k for k = -348, -340, ..., 340,
+   * with the corresponding binary exponents below.
+   */
+  private static final long[] CACHED_POWER_SIGNIFICANDS = {
+    0xfa8fd5a0081c0288L, 0xbaaee17fa23ebf76L, 0x8b16fb203055ac76L,
+    0xcf42894a5dce35eaL, 0x9a6bb0aa55653b2dL, 0xe61acf033d1a45dfL,
+    0xab70fe17c79ac6caL, 0xff77b1fcbebcdc4fL, 0xbe5691ef416bd60cL,
+    0x8dd01fad907ffc3cL, 0xd3515c2831559a83L, 0x9d71ac8fada6c9b5L,
+    0xea9c227723ee8bcbL, 0xaecc49914078536dL, 0x823c12795db6ce57L,
+    0xc21094364dfb5637L, 0x9096ea6f3848984fL, 0xd77485cb25823ac7L,
+    0xa086cfcd97bf97f4L, 0xef340a98172aace5L, 0xb23867fb2a35b28eL,
+    0x84c8d4dfd2c63f3bL, 0xc5dd44271ad3cdbaL, 0x936b9fcebb25c996L,
+    0xdbac6c247d62a584L, 0xa3ab66580d5fdaf6L, 0xf3e2f893dec3f126L,
+    0xb5b5ada8aaff80b8L, 0x87625f056c7c4a8bL, 0xc9bcff6034c13053L,
+    0x964e858c91ba2655L, 0xdff9772470297ebdL, 0xa6dfbd9fb8e5b88fL,
+    0xf8a95fcf88747d94L, 0xb94470938fa89bcfL, 0x8a08f0f8bf0f156bL,
+    0xcdb02555653131b6L, 0x993fe2c6d07b7facL, 0xe45c10c42a2b3b06L,
+    0xaa242499697392d3L, 0xfd87b5f28300ca0eL, 0xbce5086492111aebL,
+    0x8cbccc096f5088ccL, 0xd1b71758e219652cL, 0x9c40000000000000L,
+    0xe8d4a51000000000L, 0xad78ebc5ac620000L, 0x813f3978f8940984L,
+    0xc097ce7bc90715b3L, 0x8f7e32ce7bea5c70L, 0xd5d238a4abe98068L,
+    0x9f4f2726179a2245L, 0xed63a231d4c4fb27L, 0xb0de65388cc8ada8L,
+    0x83c7088e1aab65dbL, 0xc45d1df942711d9aL, 0x924d692ca61be758L,
+    0xda01ee641a708deaL, 0xa26da3999aef774aL, 0xf209787bb47d6b85L,
+    0xb454e4a179dd1877L, 0x865b86925b9bc5c2L, 0xc83553c5c8965d3dL,
+    0x952ab45cfa97a0b3L, 0xde469fbd99a05fe3L, 0xa59bc234db398c25L,
+    0xf6c69a72a3989f5cL, 0xb7dcbf5354e9beceL, 0x88fcf317f22241e2L,
+    0xcc20ce9bd35c78a5L, 0x98165af37b2153dfL, 0xe2a0b5dc971f303aL,
+    0xa8d9d1535ce3b396L, 0xfb9b7cd9a4a7443cL, 0xbb764c4ca7a44410L,
+    0x8bab8eefb6409c1aL, 0xd01fef10a657842cL, 0x9b10a4e5e9913129L,
+    0xe7109bfba19c0c9dL, 0xac2820d9623bf429L, 0x80444b5e7aa7cf85L,
+    0xbf21e44003acdd2dL, 0x8e679c2f5e44ff8fL, 0xd433179d9c8cb841L,
+    0x9e19db92b4e31ba9L, 0xeb96bf6ebadf77d9L, 0xaf87023b9bf0ee6bL
+  };
+
+  private static final short[] CACHED_POWER_BINARY_EXPONENTS = {
+    -1220, -1193, -1166, -1140, -1113, -1087, -1060, -1034, -1007, -980,
+    -954, -927, -901, -874, -847, -821, -794, -768, -741, -715,
+    -688, -661, -635, -608, -582, -555, -529, -502, -475, -449,
+    -422, -396, -369, -343, -316, -289, -263, -236, -210, -183,
+    -157, -130, -103, -77, -50, -24, 3, 30, 56, 83,
+    109, 136, 162, 189, 216, 242, 269, 295, 322, 348,
+    375, 402, 428, 455, 481, 508, 534, 561, 588, 614,
+    641, 667, 694, 720, 747, 774, 800, 827, 853, 880,
+    907, 933, 960, 986, 1013, 1039, 1066
+  };
+
+  private static final int CACHED_POWERS_OFFSET = 348;
+  private static final int CACHED_POWERS_DECIMAL_DISTANCE = 8;
+  private static final double D_1_LOG2_10 = 0.30102999566398114;
+
+  private static final int MINIMAL_TARGET_EXPONENT = -60;
+
+  private static final long SIGNIFICAND_MASK = 0x000FFFFFFFFFFFFFL;
+  private static final long HIDDEN_BIT = 0x0010000000000000L;
+  private static final long MASK_32 = 0x0FFFFFFFFL;
+
+  /** Decimal digits (without leading or trailing zeros). */
+  final char[] digits = new char[MAX_EXACT_DIGITS + 1];
+
+  /** Number of valid characters in digits. */
+  int length;
+
+  /**
+   * Position of the decimal point relative to the first digit: the value
+   * is 0.[digits] * 10^point.
+   */
+  int point;
+
+  /** Scratch values for the DIY floating point arithmetic. */
+  private long f;
+  private int e;
+
+  private DoubleConversion() {
+  }
+
+  /**
+   * Converts the given number to a string, following ECMA 262, 9.8.1.
+   */
+  static String toString(double d) {
+    if (d != d) {
+      return "NaN";
+    }
+    if (d == 0) {
+      return "0";
+    }
+    if (d > -MAX_EXACT_INTEGER && d < MAX_EXACT_INTEGER) {
+      long l = (long) d;
+      if (l == d) {
+        if (l >= 0 && l < INTEGER_CACHE_SIZE) {
+          String s = INTEGER_CACHE[(int) l];
+          if (s == null) {
+            s = Long.toString(l);
+            INTEGER_CACHE[(int) l] = s;
+          }
+          return s;
+        }
+        return Long.toString(l);
+      }
+    }
+    if (Double.isInfinite(d)) {
+      return d > 0 ? "Infinity" : "-Infinity";
+    }
+
+    DoubleConversion dc = new DoubleConversion();
+    dc.shortest(Math.abs(d));
+
+    StringBuffer buf = new StringBuffer(24);
+    if (d < 0) {
+      buf.append('-');
+    }
+    int n = dc.point;
+    int k = dc.length;
+
+    if (k <= n && n <= 21) {
+      buf.append(dc.digits, 0, k);
+      dc.appendZeros(buf, n - k);
+    } else if (0 < n && n <= 21) {
+      buf.append(dc.digits, 0, n);
+      buf.append('.');
+      buf.append(dc.digits, n, k - n);
+    } else if (-6 < n && n <= 0) {
+      buf.append("0.");
+      dc.appendZeros(buf, -n);
+      buf.append(dc.digits, 0, k);
+    } else {
+      dc.appendExponential(buf, k - 1);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Implements Number.prototype.toFixed (ECMA 262, 15.7.4.5). fractionDigits
+   * must be in the range 0..20. Rounding is applied to the exact binary 
+   * value, so (1.005).toFixed(2) yields "1.00".
+   */
+  static String toFixed(double d, int fractionDigits) {
+    if (d != d || d >= 1e21 || d <= -1e21) {
+      return toString(d);
+    }
+
+    StringBuffer buf = new StringBuffer();
+    if (d < 0) {
+      buf.append('-');
+      d = -d;
+    }
+
+    DoubleConversion dc = new DoubleConversion();
+    if (d != 0) {
+      dc.exact(d, fractionDigits, true);
+    }
+
+    if (dc.point <= 0 || dc.length == 0) {
+      buf.append('0');
+    } else {
+      dc.appendDigits(buf, 0, dc.point);
+    }
+    if (fractionDigits > 0) {
+      buf.append('.');
+      dc.appendDigits(buf, dc.point, dc.point + fractionDigits);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Implements Number.prototype.toExponential (ECMA 262, 15.7.4.6). If
+   * fractionDigits is negative, as many digits as necessary to represent the
+   * number uniquely are used; otherwise, it must not exceed 20.
+   */
+  static String toExponential(double d, int fractionDigits) {
+    if (d != d || Double.isInfinite(d)) {
+      return toString(d);
+    }
+
+    StringBuffer buf = new StringBuffer();
+    if (d < 0) {
+      buf.append('-');
+      d = -d;
+    }
+
+    DoubleConversion dc = new DoubleConversion();
+    if (d == 0) {
+      dc.point = 1;
+    } else {
+      if (fractionDigits >= 0) {
+        dc.exact(d, fractionDigits + 1, false);
+      } else {
+        dc.shortest(d);
+      }
+    }
+    dc.appendExponential(buf, fractionDigits < 0
+        ? Math.max(dc.length - 1, 0) : fractionDigits);
+    return buf.toString();
+  }
+
+  /**
+   * Implements Number.prototype.toPrecision (ECMA 262, 15.7.4.7). precision
+   * must be in the range 1..21.
+   */
+  static String toPrecision(double d, int precision) {
+    if (d != d || Double.isInfinite(d)) {
+      return toString(d);
+    }
+
+    StringBuffer buf = new StringBuffer();
+    if (d < 0) {
+      buf.append('-');
+      d = -d;
+    }
+
+    DoubleConversion dc = new DoubleConversion();
+    if (d == 0) {
+      dc.point = 1;
+    } else {
+      dc.exact(d, precision, false);
+    }
+
+    int exp = dc.point - 1;
+    if (exp < -6 || exp >= precision) {
+      dc.appendExponential(buf, precision - 1);
+    } else if (exp >= 0) {
+      dc.appendDigits(buf, 0, exp + 1);
+      if (precision > exp + 1) {
+        buf.append('.');
+        dc.appendDigits(buf, exp + 1, precision);
+      }
+    } else {
+      buf.append("0.");
+      dc.appendZeros(buf, -(exp + 1));
+      dc.appendDigits(buf, 0, precision);
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Converts a string to a number as described in ECMA 262, 9.3.1. Returns
+   * NaN if the string is not a valid numeric literal.
+   */
+  static double parse(String s) {
+    return parse(s, false);
+  }
+
+  /**
+   * Parses the longest prefix of s (after leading white space) that is a
+   * decimal literal, as required for the global parseFloat function (ECMA
+   * 262, 15.1.2.3). Returns NaN if there is no such prefix.
+   */
+  static double parsePrefix(String s) {
+    return parse(s, true);
+  }
+
+  private static double parse(String s, boolean prefix) {
+    int end = s.length();
+    int pos = 0;
+    while (pos < end && isWhitespace(s.charAt(pos))) {
+      pos++;
+    }
+    if (!prefix) {
+      while (end > pos && isWhitespace(s.charAt(end - 1))) {
+        end--;
+      }
+      if (pos == end) {
+        return 0;
+      }
+      if (end - pos > 2 && s.charAt(pos) == '0'
+          && (s.charAt(pos + 1) == 'x' || s.charAt(pos + 1) == 'X')) {
+        return parseHex(s, pos + 2, end);
+      }
+    }
+
+    int start = pos;
+    boolean negative = false;
+    if (pos < end) {
+      char c = s.charAt(pos);
+      if (c == '-' || c == '+') {
+        negative = c == '-';
+        pos++;
+      }
+    }
+
+    if (s.startsWith("Infinity", pos)) {
+      if (!prefix && pos + 8 != end) {
+        return Double.NaN;
+      }
+      return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+    }
+
+    long mantissa = 0;
+    int significant = 0;
+    int exp10 = 0;
+    boolean sawDigit = false;
+    boolean truncated = false;
+
+    while (pos < end) {
+      int digit = s.charAt(pos) - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      sawDigit = true;
+      if (significant < MAX_DIGITS) {
+        if (mantissa != 0 || digit != 0) {
+          mantissa = mantissa * 10 + digit;
+          significant++;
+        }
+      } else {
+        truncated |= digit != 0;
+        exp10++;
+      }
+      pos++;
+    }
+
+    if (pos < end && s.charAt(pos) == '.') {
+      pos++;
+      while (pos < end) {
+        int digit = s.charAt(pos) - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        sawDigit = true;
+        if (significant < MAX_DIGITS) {
+          if (mantissa != 0 || digit != 0) {
+            mantissa = mantissa * 10 + digit;
+            significant++;
+          }
+          exp10--;
+        } else {
+          truncated |= digit != 0;
+        }
+        pos++;
+      }
+    }
+
+    if (!sawDigit) {
+      return Double.NaN;
+    }
+
+    if (pos < end && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+      int expStart = pos;
+      pos++;
+      boolean negativeExp = false;
+      if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+        negativeExp = s.charAt(pos) == '-';
+        pos++;
+      }
+      int exp = 0;
+      int expDigitStart = pos;
+      while (pos < end) {
+        int digit = s.charAt(pos) - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        if (exp < 100000) {
+          exp = exp * 10 + digit;
+        }
+        pos++;
+      }
+      if (pos == expDigitStart) {
+        if (!prefix) {
+          return Double.NaN;
+        }
+        pos = expStart;
+      } else {
+        exp10 += negativeExp ? -exp : exp;
+      }
+    }
+
+    if (!prefix && pos != end) {
+      return Double.NaN;
+    }
+
+    double result;
+    if (mantissa == 0) {
+      result = 0;
+    } else if (!truncated && significant <= 15 && exp10 >= -22
+        && exp10 <= 22 + 15 - significant) {
+      result = mantissa;
+      if (exp10 < 0) {
+        result /= POWERS_OF_TEN[-exp10];
+      } else if (exp10 <= 22) {
+        result *= POWERS_OF_TEN[exp10];
+      } else {
+        // mantissa * 10^(exp10 - 22) is still below 10^15 and thus exact
+        result = result * POWERS_OF_TEN[exp10 - 22] * 1e22;
+      }
+    } else {
+      // syntax has been verified above, so this cannot throw
+      return Double.parseDouble(s.substring(start, pos));
+    }
+    return negative ? -result : result;
+  }
+
+  private static double parseHex(String s, int pos, int end) {
+    double result = 0;
+    while (pos < end) {
+      int digit = Character.digit(s.charAt(pos++), 16);
+      if (digit < 0) {
+        return Double.NaN;
+      }
+      result = result * 16 + digit;
+    }
+    return result;
+  }
+
+  /**
+   * White space and line terminators as defined in ECMA 262, 7.2 and 7.3.
+   */
+  static boolean isWhitespace(char c) {
+    switch (c) {
+      case '\t':
+      case '\n':
+      case 0x0b:
+      case '\f':
+      case '\r':
+      case ' ':
+      case 0xa0:
+      case 0x1680:
+      case 0x2028:
+      case 0x2029:
+      case 0x202f:
+      case 0x205f:
+      case 0x3000:
+      case 0xfeff:
+        return true;
+      default:
+        return c >= 0x2000 && c <= 0x200a;
+    }
+  }
+
+  /**
+   * Appends the digits from position start (inclusive) to end (exclusive),
+   * filling up with zeros outside the significant digits.
+   */
+  private void appendDigits(StringBuffer buf, int start, int end) {
+    for (int i = start; i < end; i++) {
+      buf.append(i >= 0 && i < length ? digits[i] : '0');
+    }
+  }
+
+  private void appendZeros(StringBuffer buf, int count) {
+    for (int i = 0; i < count; i++) {
+      buf.append('0');
+    }
+  }
+
+  /**
+   * Appends the digits in exponential notation with the given number of
+   * fraction digits.
+   */
+  private void appendExponential(StringBuffer buf, int fractionDigits) {
+    appendDigits(buf, 0, 1);
+    if (fractionDigits > 0) {
+      buf.append('.');
+      appendDigits(buf, 1, fractionDigits + 1);
+    }
+    int exp = length == 0 ? 0 : point - 1;
+    buf.append(exp < 0 ? "e-" : "e+");
+    buf.append(Math.abs(exp));
+  }
+
+  /**
+   * Generates the shortest digit sequence that reads back to d, which must
+   * be positive and finite.
+   */
+  private void shortest(double d) {
+    if (!grisu3(d)) {
+      bignumShortest(d);
+    }
+  }
+
+  /**
+   * Shortest digit generation using exact arithmetic. The value and the
+   * boundaries of its rounding interval are represented as (r +/- m) / s,
+   * scaled so that d = r / s * 10^point with 0.1 <= r / s < 1.
+   */
+  private void bignumShortest(double d) {
+    long bits = Double.doubleToLongBits(d);
+    boolean unequalGaps = (bits & SIGNIFICAND_MASK) == 0 
+        && ((bits >>> 52) & 0x7ff) > 1;
+    Bignum r = new Bignum();
+    Bignum s = new Bignum();
+    Bignum mPlus = new Bignum();
+    Bignum mMinus = new Bignum();
+    Bignum tmp = new Bignum();
+
+    // the boundaries are half way to the neighboring doubles; the gap 
+    // below a power of two is half as big as the gap above
+    int exp = setup(d, r, s, unequalGaps ? 2 : 1);
+    mMinus.set(1);
+    mPlus.set(unequalGaps ? 2 : 1);
+    if (exp >= 0) {
+      mMinus.shiftLeft(exp);
+      mPlus.shiftLeft(exp);
+    }
+    int k = estimatePoint(d);
+    if (k < 0) {
+      mMinus.multiplyPow10(-k);
+      mPlus.multiplyPow10(-k);
+    }
+    scale(r, s, k);
+
+    // round to even: the boundaries belong to the interval if d is even
+    boolean even = (bits & 1) == 0;
+    while (plusCompare(r, mPlus, s, tmp) >= (even ? 0 : 1)) {
+      s.multiply(10);
+      k++;
+    }
+    point = k;
+
+    length = 0;
+    while (true) {
+      r.multiply(10);
+      mMinus.multiply(10);
+      mPlus.multiply(10);
+      int digit = r.divide(s);
+      boolean low = r.compare(mMinus) < (even ? 1 : 0);
+      boolean high = plusCompare(r, mPlus, s, tmp) >= (even ? 0 : 1);
+      if (!low && !high) {
+        digits[length++] = (char) ('0' + digit);
+        continue;
+      }
+      if (low && high) {
+        // both digit and digit + 1 are in the interval: use the closer one
+        tmp.set(r);
+        tmp.shiftLeft(1);
+        int c = tmp.compare(s);
+        if (c > 0 || (c == 0 && (digit & 1) != 0)) {
+          digit++;
+        }
+      } else if (high) {
+        digit++;
+      }
+      digits[length++] = (char) ('0' + digit);
+      break;
+    }
+    while (length > 0 && digits[length - 1] == '0') {
+      length--;
+    }
+  }
+
+  /**
+   * Generates the digits of the exact value of d, which must be positive and
+   * finite, rounded to the given number of digits (round half up). If fixed 
+   * is true, count is the number of digits after the decimal point, 
+   * otherwise the number of significant digits.
+   */
+  private void exact(double d, int count, boolean fixed) {
+    Bignum r = new Bignum();
+    Bignum s = new Bignum();
+    setup(d, r, s, 0);
+    int k = estimatePoint(d);
+    scale(r, s, k);
+    while (r.compare(s) >= 0) {
+      s.multiply(10);
+      k++;
+    }
+    point = k;
+    if (fixed) {
+      count += k;
+    }
+
+    length = 0;
+    if (count < 0) {
+      // d < 10^point is less than half of 10^(point + 1)
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      r.multiply(10);
+      digits[length++] = (char) ('0' + r.divide(s));
+    }
+
+    // round up if the remainder is at least half of the last unit
+    r.shiftLeft(1);
+    if (r.compare(s) >= 0) {
+      int i = length - 1;
+      while (i >= 0 && digits[i] == '9') {
+        i--;
+      }
+      if (i < 0) {
+        digits[0] = '1';
+        length = 1;
+        point++;
+      } else {
+        digits[i]++;
+        length = i + 1;
+      }
+    }
+    while (length > 0 && digits[length - 1] == '0') {
+      length--;
+    }
+  }
+
+  /**
+   * Sets r / s to the exact value of d, with both multiplied by 2^shift. 
+   * Returns the binary exponent of d.
+   */
+  private static int setup(double d, Bignum r, Bignum s, int shift) {
+    long bits = Double.doubleToLongBits(d);
+    int biasedExp = (int) ((bits >>> 52) & 0x7ff);
+    long significand = bits & SIGNIFICAND_MASK;
+    int exp;
+    if (biasedExp == 0) {
+      exp = -1074;
+    } else {
+      significand |= HIDDEN_BIT;
+      exp = biasedExp - 1075;
+    }
+    r.set(significand);
+    r.shiftLeft(shift);
+    s.set(1);
+    s.shiftLeft(shift);
+    if (exp >= 0) {
+      r.shiftLeft(exp);
+    } else {
+      s.shiftLeft(-exp);
+    }
+    return exp;
+  }
+
+  /**
+   * Returns an estimate for the decimal point position of d, i.e. the 
+   * smallest k with d < 10^k. The estimate may be one too small, but never
+   * too large.
+   */
+  private static int estimatePoint(double d) {
+    long bits = Double.doubleToLongBits(d);
+    int biasedExp = (int) ((bits >>> 52) & 0x7ff);
+    // binary exponent of the highest bit
+    int exp;
+    if (biasedExp == 0) {
+      exp = -1075;
+      for (long f = bits & SIGNIFICAND_MASK; f != 0; f >>>= 1) {
+        exp++;
+      }
+    } else {
+      exp = biasedExp - 1023;
+    }
+    // 2^exp <= d < 2^(exp + 1)
+    return (int) Math.ceil(exp * D_1_LOG2_10 - 1e-10);
+  }
+
+  /**
+   * Scales r / s by 10^-k.
+   */
+  private static void scale(Bignum r, Bignum s, int k) {
+    if (k >= 0) {
+      s.multiplyPow10(k);
+    } else {
+      r.multiplyPow10(-k);
+    }
+  }
+
+  /**
+   * Compares a + b with c, using tmp as scratch space.
+   */
+  private static int plusCompare(Bignum a, Bignum b, Bignum c, Bignum tmp) {
+    tmp.set(a);
+    tmp.add(b);
+    return tmp.compare(c);
+  }
+
+  /**
+   * Grisu3 shortest digit generation. Returns false if the result cannot be
+   * guaranteed to be the shortest correct representation.
+   */
+  private boolean grisu3(double d) {
+    long bits = Double.doubleToLongBits(d);
+    int biasedExp = (int) ((bits >>> 52) & 0x7ff);
+    long significand = bits & SIGNIFICAND_MASK;
+    int exp;
+    if (biasedExp == 0) {
+      exp = -1074;
+    } else {
+      significand |= HIDDEN_BIT;
+      exp = biasedExp - 1075;
+    }
+
+    // upper boundary m+, normalized
+    f = (significand << 1) + 1;
+    e = exp - 1;
+    normalize();
+    long plusF = f;
+    int plusE = e;
+
+    // lower boundary m-, with the same exponent as m+
+    long minusF;
+    int minusE;
+    if ((bits & SIGNIFICAND_MASK) == 0 && biasedExp > 1) {
+      minusF = (significand << 2) - 1;
+      minusE = exp - 2;
+    } else {
+      minusF = (significand << 1) - 1;
+      minusE = exp - 1;
+    }
+    minusF <<= minusE - plusE;
+
+    // w, normalized
+    f = significand;
+    e = exp;
+    normalize();
+    long wF = f;
+    int wE = e;
+
+    // find cached power 10^-k such that the product exponent is in range
+    int minExp = MINIMAL_TARGET_EXPONENT - (wE + 64);
+    int k = (int) Math.ceil((minExp + 63) * D_1_LOG2_10);
+    int index = (CACHED_POWERS_OFFSET + k - 1) / CACHED_POWERS_DECIMAL_DISTANCE
+        + 1;
+    long cF = CACHED_POWER_SIGNIFICANDS[index];
+    int cE = CACHED_POWER_BINARY_EXPONENTS[index];
+    int mk = index * CACHED_POWERS_DECIMAL_DISTANCE - CACHED_POWERS_OFFSET;
+
+    long scaledW = multiply(wF, cF);
+    long scaledMinus = multiply(minusF, cF);
+    long scaledPlus = multiply(plusF, cF);
+    int scaledE = wE + cE + 64;
+
+    // the exponents of all three values are the same after normalization
+    boolean result = digitGen(scaledMinus, scaledW, scaledPlus, scaledE);
+    point += -mk;
+    return result;
+  }
+
+  private boolean digitGen(long low, long w, long high, int exp) {
+    long unit = 1;
+    long tooLow = low - unit;
+    long tooHigh = high + unit;
+    long unsafeInterval = tooHigh - tooLow;
+    int shift = -exp;
+    long one = 1L << shift;
+    long integrals = tooHigh >>> shift;
+    long fractionals = tooHigh & (one - 1);
+
+    int kappa = 64 - shift;
+    kappa = ((kappa + 1) * 1233 >> 12) + 1;
+    if (integrals < SMALL_POWERS_OF_TEN[kappa]) {
+      kappa--;
+    }
+    long divisor = SMALL_POWERS_OF_TEN[kappa];
+
+    length = 0;
+    while (kappa > 0) {
+      digits[length++] = (char) ('0' + integrals / divisor);
+      integrals %= divisor;
+      kappa--;
+      long rest = (integrals << shift) + fractionals;
+      if (lessUnsigned(rest, unsafeInterval)) {
+        point = length + kappa;
+        return roundWeed(tooHigh - w, unsafeInterval, rest, divisor << shift,
+            unit);
+      }
+      divisor /= 10;
+    }
+
+    while (true) {
+      fractionals *= 10;
+      unit *= 10;
+      unsafeInterval *= 10;
+      digits[length++] = (char) ('0' + (int) (fractionals >>> shift));
+      fractionals &= one - 1;
+      kappa--;
+      if (lessUnsigned(fractionals, unsafeInterval)) {
+        point = length + kappa;
+        return roundWeed((tooHigh - w) * unit, unsafeInterval, fractionals,
+            one, unit);
+      }
+      if (length >= digits.length) {
+        return false;
+      }
+    }
+  }
+
+  private boolean roundWeed(long distanceTooHighW, long unsafeInterval,
+      long rest, long tenKappa, long unit) {
+    long smallDistance = distanceTooHighW - unit;
+    long bigDistance = distanceTooHighW + unit;
+
+    while (lessUnsigned(rest, smallDistance)
+        && !lessUnsigned(unsafeInterval - rest, tenKappa)
+        && (lessUnsigned(rest + tenKappa, smallDistance)
+            || !lessUnsigned(smallDistance - rest,
+                rest + tenKappa - smallDistance))) {
+      digits[length - 1]--;
+      rest += tenKappa;
+    }
+
+    if (lessUnsigned(rest, bigDistance)
+        && !lessUnsigned(unsafeInterval - rest, tenKappa)
+        && (lessUnsigned(rest + tenKappa, bigDistance)
+            || lessUnsigned(rest + tenKappa - bigDistance,
+                bigDistance - rest))) {
+      return false;
+    }
+
+    return !lessUnsigned(rest, 2 * unit)
+        && !lessUnsigned(unsafeInterval - 4 * unit, rest);
+  }
+
+  /** Shifts f left until the highest bit is set, adjusting e accordingly. */
+  private void normalize() {
+    while ((f & 0xFFC0000000000000L) == 0) {
+      f <<= 10;
+      e -= 10;
+    }
+    while (f > 0) {
+      f <<= 1;
+      e--;
+    }
+  }
+
+  /**
+   * Returns the upper 64 bits of the unsigned 128 bit product of a and b,
+   * rounded.
+   */
+  private static long multiply(long a, long b) {
+    long aHigh = a >>> 32;
+    long aLow = a & MASK_32;
+    long bHigh = b >>> 32;
+    long bLow = b & MASK_32;
+    long hh = aHigh * bHigh;
+    long lh = aLow * bHigh;
+    long hl = aHigh * bLow;
+    long ll = aLow * bLow;
+    long tmp = (ll >>> 32) + (hl & MASK_32) + (lh & MASK_32) + (1L << 31);
+    return hh + (hl >>> 32) + (lh >>> 32) + (tmp >>> 32);
+  }
+
+  private static boolean lessUnsigned(long a, long b) {
+    return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+  }
+
+  /**
+   * Minimal unsigned big integer, sufficient for the exact conversions.
+   * Words are stored least significant first.
+   */
+  private static final class Bignum {
+    private final int[] words = new int[BIGNUM_SIZE];
+    private int used;
+
+    void set(long value) {
+      used = 0;
+      while (value != 0) {
+        words[used++] = (int) value;
+        value >>>= 32;
+      }
+    }
+
+    void set(Bignum other) {
+      System.arraycopy(other.words, 0, words, 0, other.used);
+      used = other.used;
+    }
+
+    void shiftLeft(int count) {
+      if (used == 0) {
+        return;
+      }
+      int bitShift = count & 31;
+      if (bitShift != 0) {
+        int carry = 0;
+        for (int i = 0; i < used; i++) {
+          int w = words[i];
+          words[i] = (w << bitShift) | carry;
+          carry = w >>> (32 - bitShift);
+        }
+        if (carry != 0) {
+          words[used++] = carry;
+        }
+      }
+      int wordShift = count >>> 5;
+      if (wordShift != 0) {
+        System.arraycopy(words, 0, words, wordShift, used);
+        for (int i = 0; i < wordShift; i++) {
+          words[i] = 0;
+        }
+        used += wordShift;
+      }
+    }
+
+    /** Multiplies this by factor, which must be positive. */
+    void multiply(int factor) {
+      long carry = 0;
+      for (int i = 0; i < used; i++) {
+        long product = (words[i] & MASK_32) * factor + carry;
+        words[i] = (int) product;
+        carry = product >>> 32;
+      }
+      if (carry != 0) {
+        words[used++] = (int) carry;
+      }
+    }
+
+    void multiplyPow10(int exp) {
+      while (exp >= 9) {
+        multiply(1000000000);
+        exp -= 9;
+      }
+      if (exp > 0) {
+        multiply((int) SMALL_POWERS_OF_TEN[exp + 1]);
+      }
+    }
+
+    void add(Bignum other) {
+      int n = Math.max(used, other.used);
+      long carry = 0;
+      for (int i = 0; i < n; i++) {
+        long sum = (i < used ? words[i] & MASK_32 : 0) 
+            + (i < other.used ? other.words[i] & MASK_32 : 0) + carry;
+        words[i] = (int) sum;
+        carry = sum >>> 32;
+      }
+      used = n;
+      if (carry != 0) {
+        words[used++] = 1;
+      }
+    }
+
+    /** Subtracts other, which must not be larger than this. */
+    void subtract(Bignum other) {
+      long borrow = 0;
+      for (int i = 0; i < used; i++) {
+        long diff = (words[i] & MASK_32) 
+            - (i < other.used ? other.words[i] & MASK_32 : 0) - borrow;
+        words[i] = (int) diff;
+        borrow = diff >>> 63;
+      }
+      while (used > 0 && words[used - 1] == 0) {
+        used--;
+      }
+    }
+
+    int compare(Bignum other) {
+      if (used != other.used) {
+        return used < other.used ? -1 : 1;
+      }
+      for (int i = used - 1; i >= 0; i--) {
+        if (words[i] != other.words[i]) {
+          return (words[i] & MASK_32) < (other.words[i] & MASK_32) ? -1 : 1;
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Replaces this by the remainder of the division by divisor and returns
+     * the quotient, which must be less than 10.
+     */
+    int divide(Bignum divisor) {
+      int quotient = 0;
+      while (compare(divisor) >= 0) {
+        subtract(divisor);
+        quotient++;
+      }
+      return quotient;
+    }
+  }
+}
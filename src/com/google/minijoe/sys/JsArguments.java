@@ -21,11 +21,11 @@ package com.google.minijoe.sys;
  */
 public class JsArguments extends JsObject {
 
-  private static final JsObject ARGUMENTS_PROTOTYPE = 
+  static final JsObject ARGUMENTS_PROTOTYPE = 
     new JsObject(JsObject.OBJECT_PROTOTYPE);
   
-  private JsFunction function;
-  private JsObject context;
+  JsFunction function;
+  JsObject context;
   
   /**
    * Creates a new arguments object.
@@ -34,7 +34,14 @@ public class JsArguments extends JsObject {
    * @param context the evaluation context 
    */
   public JsArguments(JsFunction fn, JsObject context) {
-    super(ARGUMENTS_PROTOTYPE);
+    this(ARGUMENTS_PROTOTYPE, fn, context);
+  }
+
+  /**
+   * Creates a new arguments object with the given prototype.
+   */
+  JsArguments(JsObject proto, JsFunction fn, JsObject context) {
+    super(proto);
     this.function = fn;
     this.context = context;
   }
@@ -15,6 +15,7 @@
 package com.google.minijoe.sys;
 
 import java.util.Enumeration;
+import java.util.Random;
 import java.util.Vector;
 
 /**
@@ -27,7 +28,7 @@ import java.util.Vector;
  */
 public class JsArray extends JsObject {
 
-  private static final int INITIAL_SPACE = 16;
+  static final int INITIAL_SPACE = 16;
   
   private static final int ID_JOIN = 405;
   private static final int ID_POP = 406;
@@ -56,23 +57,31 @@ public class JsArray extends JsObject {
    * Marker object, used to indicate that the actual value is contained in
    * the longs array.
    */
-  private static final Object NUMBER_MARKER = new Object();
+  static final Object NUMBER_MARKER = new Object();
 
   /**
    * Objects contained in this array.
    */
-  private Object[] objects = new Object[INITIAL_SPACE];
+  Object[] objects = new Object[INITIAL_SPACE];
 
   /**
    * numeric values contained in this array, represented as 64 bit fixed point
    * value (16 bit fraction).
    */
-  private double[] numbers = new double[INITIAL_SPACE];
+  double[] numbers = new double[INITIAL_SPACE];
 
   /**
    * Active size of this array.
    */
-  private int size;
+  int size;
+
+  /**
+   * Realm this array belongs to if it is used as evaluation stack, or if it
+   * was created while memory accounting was enabled (growth is then charged
+   * to the realm); null for other arrays and stacks of the default realm.
+   * See JsRealm.get().
+   */
+  JsRealm realm;
 
   /**
    * Creates a new empty array.
@@ -81,6 +90,13 @@ public class JsArray extends JsObject {
     super(PROTOTYPE);
   }
 
+  /**
+   * Creates a new empty array with the given prototype.
+   */
+  JsArray(JsObject __proto__) {
+    super(__proto__);
+  }
+
   /**
    * Returns the boolean value at array index i. If the actual value is not
    * boolean, it is converted automatically according to the ECMA conversion
@@ -108,7 +124,7 @@ public class JsArray extends JsObject {
   }
 
   public JsObject getJsObject(int i) {
-    return JsSystem.toJsObject(getObject(i));
+    return JsRealm.get(this).toJsObject(getObject(i));
   }
   
   
@@ -190,6 +206,10 @@ public class JsArray extends JsObject {
     if (i >= size) {
       size = i + 1;
       if (i >= objects.length) {
+        if (realm != null && realm.accounting) {
+          // before allocating, so huge arrays can be rejected
+          realm.charge((long) (i * 3 / 2 - objects.length) * JsRealm.ARRAY_SLOT_SIZE);
+        }
         double[] newNums = new double[i * 3 / 2];
         System.arraycopy(numbers, 0, newNums, 0, numbers.length);
         numbers = newNums;
@@ -379,7 +399,7 @@ public class JsArray extends JsObject {
     switch (index) {
       
       case ID_CONCAT:
-        JsArray array = new JsArray();
+        JsArray array = JsRealm.get(stack).newArray();
         copy(0, array, 0, size);
         stack.copy(sp+2, array, size, parCount);
         stack.setObject(sp, array);
@@ -456,24 +476,26 @@ public class JsArray extends JsObject {
         if(end < start) {
           end = start;
         }
-        array = new JsArray();
+        array = JsRealm.get(stack).newArray();
         copy(start, array, 0, end-start);
         stack.setObject(sp, array);
         break;
         
       case ID_SORT:
         Object compare = stack.getObject(sp + 2);
+        Random random = JsRealm.get(stack).random;
         if(compare instanceof JsFunction) {
-          sort(0, size, (JsFunction) compare, stack.getJsObject(sp), stack, sp);
+          sort(0, size, (JsFunction) compare, stack.getJsObject(sp), stack, sp,
+              random);
         }
         else {
-          sort(0, size);          
+          sort(0, size, random);          
         }
         stack.setObject(sp, this);
         break;
         
       case ID_SPLICE:
-        array = new JsArray();
+        array = JsRealm.get(stack).newArray();
         start = stack.getInt(sp + 2);
         int delCount = stack.getInt(sp + 3);
         if(start < 0){
@@ -502,11 +524,12 @@ public class JsArray extends JsObject {
    * 
    * @param left lower interval border (inclusive)
    * @param right higher interval border (exclusive)
+   * @param random random number generator for pivot selection
    */
-  private void sort(int left, int right) {
+  private void sort(int left, int right, Random random) {
 
     if(right > left + 1){
-       int pivotIndex = left + JsSystem.random.nextInt(right-left);
+       int pivotIndex = left + random.nextInt(right-left);
        String pivotValue = getString(pivotIndex);
        swap(pivotIndex, right-1);
        int storeIndex = left;
@@ -518,8 +541,8 @@ public class JsArray extends JsObject {
        }
        swap(storeIndex, right-1);
        
-       sort(left, storeIndex);
-       sort(storeIndex, right);
+       sort(left, storeIndex, random);
+       sort(storeIndex, right, random);
     }
   }
 
@@ -529,12 +552,13 @@ public class JsArray extends JsObject {
    * 
    * @param left lower interval border (inclusive)
    * @param right higher interval border (exclusive)
+   * @param random random number generator for pivot selection
    */
   private void sort(int left, int right, JsFunction compare, JsObject ctx, 
-      JsArray stack, int sp) {
+      JsArray stack, int sp, Random random) {
 
     if(right > left + 1){
-       int pivotIndex = left + JsSystem.random.nextInt(right-left);
+       int pivotIndex = left + random.nextInt(right-left);
        swap(pivotIndex, right-1);
        int storeIndex = left;
        
@@ -551,8 +575,8 @@ public class JsArray extends JsObject {
        }
        swap(storeIndex, right-1);
        
-       sort(left, storeIndex, compare, ctx, stack, sp);
-       sort(storeIndex, right, compare, ctx, stack, sp);
+       sort(left, storeIndex, compare, ctx, stack, sp, random);
+       sort(storeIndex, right, compare, ctx, stack, sp, random);
     }
   }
   
@@ -0,0 +1,207 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+/**
+ * A call of a Javascript function that can be suspended while waiting for
+ * a result, e.g. the response of a synchronous XMLHttpRequest, and resumed
+ * later without holding a Java thread in the meantime.
+ *
+ * A native function suspends the calling script by returning a Wait
+ * object (see suspend()). The interpreter then saves the frames of the
+ * script in the coroutine and returns from start() or resume(); afterwards,
+ * Wait.start() is called, which typically starts an asynchronous operation
+ * that eventually calls resume() on the thread running the script (e.g.
+ * as an I/O completion of the event loop). For the script, the native
+ * function simply returns the value passed to resume().
+ *
+ * Suspending is only possible if all frames between the coroutine and the
+ * native function are scripted; if a native function (e.g. Array.sort())
+ * calls a script that attempts to suspend, an Error is thrown instead.
+ */
+public class JsCoroutine {
+
+  static final int STATE_NEW = 0;
+  static final int STATE_RUNNING = 1;
+  static final int STATE_SUSPENDED = 2;
+  static final int STATE_DONE = 3;
+
+  /**
+   * Returned by a native function to suspend the calling script.
+   */
+  public abstract static class Wait {
+    /**
+     * Called when the script has been suspended. Implementations arrange
+     * for coroutine.resume() (or resumeWithError()) to be called later on
+     * the thread running the script.
+     */
+    protected abstract void start(JsCoroutine coroutine);
+  }
+
+  private final JsArray stack;
+  private final JsFunction function;
+  private final int parCount;
+  private int state = STATE_NEW;
+  private Object result;
+
+  // saved frames of the suspended script; see JsFunction.run()
+  int[] frameInts;
+  Object[] frameObjects;
+  int depth;
+
+  /**
+   * Creates a coroutine calling the given function with the given this
+   * object and arguments. The stack is owned by the coroutine until it is
+   * done.
+   */
+  public JsCoroutine(JsArray stack, JsFunction function, JsObject thisObject,
+      Object[] args) {
+    this.stack = stack;
+    this.function = function;
+    this.parCount = args.length;
+    stack.setObject(1, thisObject);
+    stack.setObject(2, function);
+    for (int i = 0; i < args.length; i++) {
+      stack.setObject(3 + i, args[i]);
+    }
+  }
+
+  /**
+   * Makes the native function called with the given stack pointer return
+   * the given Wait, suspending the calling script.
+   */
+  public static void suspend(JsArray stack, int sp, Wait wait) {
+    stack.setObject(sp, wait);
+  }
+
+  /**
+   * Runs the function until it returns or is suspended.
+   *
+   * @throws JsException if the function throws an exception
+   */
+  public void start() {
+    if (state != STATE_NEW) {
+      throw new IllegalStateException("started");
+    }
+    state = STATE_RUNNING;
+    boolean ok = false;
+    try {
+      if (function.byteCode == null) {
+        function.eval(stack, 1, parCount);
+        if (stack.getObject(1) instanceof Wait) {
+          suspended((Wait) stack.getObject(1), null, null, 0);
+        }
+      } else {
+        function.run(stack, 1, parCount, this);
+      }
+      ok = true;
+    } finally {
+      finished(ok);
+    }
+  }
+
+  /**
+   * Resumes the suspended script; the native function that has suspended
+   * it returns the given value. Runs until the script returns or is
+   * suspended again.
+   *
+   * @throws JsException if the script throws an exception
+   */
+  public void resume(Object value) {
+    resume(value, null);
+  }
+
+  /**
+   * Resumes the suspended script by throwing the given error from the
+   * native function that has suspended it. Strings are used as the message
+   * of a new Error object.
+   */
+  public void resumeWithError(Object error) {
+    JsRealm realm = JsRealm.get(stack);
+    if (error instanceof String) {
+      error = new JsError(realm.prototypes[JsRealm.ERROR], (String) error);
+    }
+    resume(null, error instanceof JsException
+        ? (JsException) error : new JsException(error, realm));
+  }
+
+  private void resume(Object value, JsException error) {
+    if (state != STATE_SUSPENDED) {
+      throw new IllegalStateException("not suspended");
+    }
+    state = STATE_RUNNING;
+    boolean ok = false;
+    try {
+      if (frameInts == null) {
+        // a native function called directly has suspended
+        if (error != null) {
+          throw error;
+        }
+        stack.setObject(1, value);
+      } else {
+        function.resume(stack, this, value, error);
+      }
+      ok = true;
+    } finally {
+      finished(ok);
+    }
+  }
+
+  /**
+   * Called by the interpreter when the script is suspended.
+   */
+  void suspended(Wait wait, int[] frameInts, Object[] frameObjects, int depth) {
+    this.frameInts = frameInts;
+    this.frameObjects = frameObjects;
+    this.depth = depth;
+    result = wait;
+    state = STATE_SUSPENDED;
+  }
+
+  private void finished(boolean ok) {
+    if (ok && state == STATE_SUSPENDED) {
+      Wait wait = (Wait) result;
+      result = null;
+      wait.start(this);
+    } else {
+      state = STATE_DONE;
+      frameInts = null;
+      frameObjects = null;
+      result = ok ? stack.getObject(1) : null;
+    }
+  }
+
+  /**
+   * Returns true if the script waits for resume() to be called.
+   */
+  public boolean isSuspended() {
+    return state == STATE_SUSPENDED;
+  }
+
+  /**
+   * Returns true if the function has returned or thrown an exception.
+   */
+  public boolean isDone() {
+    return state == STATE_DONE;
+  }
+
+  /**
+   * Returns the return value of the function, or null if it has not
+   * returned (yet).
+   */
+  public Object getResult() {
+    return state == STATE_DONE ? result : null;
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.util.Vector;
+
+/**
+ * Bounded pool of pre-initialized realms. Each borrowed realm is fresh, i.e.
+ * restored from the snapshot (or newly created if there is no snapshot) and
+ * never used before. Since realms are not reset, a returned realm is
+ * discarded and replaced by a fresh one, restored in the thread returning
+ * it, so the cost of the restore is not on the critical path of the next
+ * borrower.
+ */
+public class JsEnginePool {
+
+  private final JsSnapshot snapshot;
+  private final int capacity;
+  private final Vector idle = new Vector();
+  /** The realms currently borrowed. */
+  private final Vector lent = new Vector();
+  /** Number of borrowed realms, including realms still being created. */
+  private int borrowed;
+
+  /**
+   * Creates a new pool.
+   *
+   * @param snapshot snapshot to restore the realms from; if null, realms
+   *     are created with new JsRealm()
+   * @param capacity maximum number of realms borrowed at the same time and
+   *     maximum number of idle realms kept
+   */
+  public JsEnginePool(JsSnapshot snapshot, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1");
+    }
+    this.snapshot = snapshot;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Fills the pool with the given number of idle realms (limited by the
+   * capacity).
+   */
+  public void prewarm(int count) {
+    while (true) {
+      synchronized (this) {
+        if (idle.size() >= Math.min(count, capacity)) {
+          return;
+        }
+      }
+      addIdle(createRealm());
+    }
+  }
+
+  /**
+   * Returns a fresh realm, blocking while the maximum number of realms is
+   * borrowed.
+   */
+  public JsRealm borrow() throws InterruptedException {
+    synchronized (this) {
+      while (borrowed >= capacity) {
+        wait();
+      }
+      borrowed++;
+      if (idle.size() > 0) {
+        JsRealm realm = (JsRealm) idle.lastElement();
+        idle.removeElementAt(idle.size() - 1);
+        lent.addElement(realm);
+        return realm;
+      }
+    }
+    JsRealm realm;
+    try {
+      realm = createRealm();
+    } catch (RuntimeException e) {
+      release();
+      throw e;
+    }
+    synchronized (this) {
+      lent.addElement(realm);
+    }
+    return realm;
+  }
+
+  /**
+   * Returns a realm obtained from borrow() to the pool. The realm must not
+   * be used by the caller afterwards.
+   *
+   * @throws IllegalArgumentException if the realm is not currently borrowed
+   *     from this pool, e.g. because it has been given back already
+   */
+  public void giveBack(JsRealm realm) {
+    synchronized (this) {
+      if (!lent.removeElement(realm)) {
+        throw new IllegalArgumentException("Realm not borrowed from this pool");
+      }
+    }
+    release();
+    synchronized (this) {
+      if (idle.size() + borrowed >= capacity) {
+        return;
+      }
+    }
+    addIdle(createRealm());
+  }
+
+  /**
+   * Returns the number of idle realms.
+   */
+  public synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * Returns the number of borrowed realms.
+   */
+  public synchronized int getBorrowedCount() {
+    return borrowed;
+  }
+
+  private synchronized void release() {
+    borrowed--;
+    notify();
+  }
+
+  private synchronized void addIdle(JsRealm realm) {
+    if (idle.size() < capacity) {
+      idle.addElement(realm);
+    }
+  }
+
+  private JsRealm createRealm() {
+    return snapshot == null ? new JsRealm() : snapshot.restore();
+  }
+}
@@ -56,6 +56,13 @@ public class JsError extends JsObject {
     setObject("message", message);
   }
 
+  /**
+   * Constructs an Error instance without message, used by JsSerializer.
+   */
+  JsError(JsObject proto) {
+    super(proto);
+  }
+
   /**
    * Returns the name and message of this error object.
    */
@@ -68,16 +75,7 @@ public class JsError extends JsObject {
    * Java exception class.
    */
   static JsObject getPrototype(Exception e) {
-    if(e instanceof NullPointerException) {
-      return REFERENCE_ERROR_PROTOTYPE;
-    }
-    if(e instanceof ArrayIndexOutOfBoundsException) {
-      return RANGE_ERROR_PROTOTYPE;
-    }
-    if(e instanceof ClassCastException) {
-      return TYPE_ERROR_PROTOTYPE;
-    }
-    return ERROR_PROTOTYPE;
+    return JsRealm.DEFAULT.getErrorPrototype(e);
   }
   
 }
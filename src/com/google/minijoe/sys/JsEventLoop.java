@@ -0,0 +1,509 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.util.Vector;
+
+/**
+ * Single threaded event loop for a global object. All script code of the
+ * global should run on the thread executing run(); other threads (UI event
+ * handlers, network threads) post tasks instead of calling into the
+ * interpreter directly.
+ *
+ * The loop has four sources: I/O completions, tasks, timers (see
+ * getTimers()) and microtasks. Each iteration takes everything queued so
+ * far as one batch, runs the I/O completions, the tasks and the due timers
+ * in this order, and drains the microtask queue after each of them. After
+ * a batch, the listener is notified once, so the host can repaint.
+ *
+ * The loop holds the lock returned by getLock() while running a batch.
+ * Code that must not observe partially updated state, e.g. painting a canvas
+ * drawn by scripts, can synchronize on it.
+ *
+ * The loop either runs on a thread of its own (see run()), which waits for
+ * tasks while the loop is idle, or on demand (see start()): a thread is
+ * only started when tasks are queued, and terminates when the loop is idle
+ * again. Idle on-demand loops hold no thread, and their threads never wait
+ * on a monitor, so they can be virtual threads; this is meant for servers
+ * running many script instances at the same time.
+ */
+public class JsEventLoop implements Runnable {
+
+  /**
+   * Receives notifications from the loop thread.
+   */
+  public interface Listener {
+    /** Called after a batch of tasks has run, e.g. to repaint. */
+    void tasksDone();
+
+    /**
+     * Called if a task throws an exception. The loop continues with the
+     * next task unless stop() is called.
+     */
+    void taskFailed(Exception e);
+  }
+
+  /**
+   * Maximum number of timer callbacks per batch, so timers cannot starve
+   * the other sources.
+   */
+  static final int MAX_TIMERS_PER_BATCH = 32;
+
+  private static final Object[] NO_ARGS = new Object[0];
+
+  /**
+   * Calls a Javascript function on the loop thread.
+   */
+  static final class Call implements Runnable {
+    final JsEventLoop loop;
+    final JsFunction function;
+    final JsObject thisObject;
+    final Object[] args;
+
+    Call(JsEventLoop loop, JsFunction function, JsObject thisObject, Object[] args) {
+      this.loop = loop;
+      this.function = function;
+      this.thisObject = thisObject;
+      this.args = args;
+    }
+
+    public void run() {
+      loop.call(function, thisObject, args);
+    }
+  }
+
+  private final JsObject context;
+  /** Stack for calls; replaced when a call is suspended (see call()). */
+  private JsArray stack;
+  private boolean stackInUse;
+  private final Object lock = new Object();
+  private final JsTimerQueue timers = new JsTimerQueue() {
+    void deadlineChanged() {
+      wakeUp();
+    }
+  };
+
+  private Vector completions = new Vector();
+  private Vector tasks = new Vector();
+  private Vector microtasks = new Vector();
+  /** Empty vectors, swapped with the queues when a batch is taken. */
+  private Vector spareCompletions = new Vector();
+  private Vector spareTasks = new Vector();
+
+  private Listener listener;
+  private boolean signalled;
+  private boolean stopped;
+  private Thread thread;
+
+  /** Thread factory of an on-demand loop; null if the loop runs in run(). */
+  private JsThreadFactory threadFactory;
+  /** True while an on-demand loop has a thread, which may not be started yet. */
+  private boolean scheduled;
+  /** Id of the pending wake-up of an on-demand loop in wakeUps, or 0. */
+  private int wakeUpId;
+
+  /**
+   * Wakes up idle on-demand loops when their earliest timer is due. A
+   * single regular thread waits for all loops; it terminates when no
+   * wake-up is pending.
+   */
+  private static final JsTimerQueue wakeUps = new JsTimerQueue();
+  private static boolean wakeUpThreadRunning;
+
+  /**
+   * Entry of wakeUps. Only called by the wake-up thread, never by scripts.
+   */
+  static final class WakeUp extends JsFunction {
+    final JsEventLoop loop;
+
+    WakeUp(JsEventLoop loop) {
+      super(0, 0);
+      this.loop = loop;
+    }
+
+    public void eval(JsArray stack, int sp, int parCount) {
+      loop.wakeUp();
+    }
+  }
+
+  /**
+   * Creates an event loop for the given global object, which is used as
+   * context for all calls.
+   */
+  public JsEventLoop(JsObject context) {
+    this.context = context;
+    stack = newStack();
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Returns the timer queue of this loop. Due timers are run as part of the
+   * batches; the loop wakes up at the earliest deadline.
+   */
+  public JsTimerQueue getTimers() {
+    return timers;
+  }
+
+  /**
+   * Returns the lock held while a batch of tasks is running.
+   */
+  public Object getLock() {
+    return lock;
+  }
+
+  /**
+   * Returns true if called from the thread running the loop.
+   */
+  public synchronized boolean isLoopThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Queues a task. May be called from any thread.
+   */
+  public synchronized void post(Runnable task) {
+    tasks.addElement(task);
+    signal();
+  }
+
+  /**
+   * Queues a call of the given Javascript function with the given this
+   * object and arguments. May be called from any thread; the arguments must
+   * not be modified afterwards.
+   */
+  public void post(JsFunction function, JsObject thisObject, Object[] args) {
+    post(new Call(this, function, thisObject, args == null ? NO_ARGS : args));
+  }
+
+  /**
+   * Queues the completion of an I/O operation, e.g. a network thread
+   * delivering the response of an XMLHttpRequest. I/O completions run before
+   * the other tasks of a batch. May be called from any thread.
+   */
+  public synchronized void postCompletion(Runnable completion) {
+    completions.addElement(completion);
+    signal();
+  }
+
+  /**
+   * Queues a microtask, which runs as soon as the current task has
+   * finished, before any other task. If not called on the loop thread, the
+   * microtask is posted as a regular task.
+   */
+  public void queueMicrotask(Runnable microtask) {
+    if (isLoopThread()) {
+      microtasks.addElement(microtask);
+    } else {
+      post(microtask);
+    }
+  }
+
+  /**
+   * Calls the given function immediately. Must be called on the loop thread.
+   * The function runs as a coroutine: if it is suspended (see JsCoroutine),
+   * this method returns and the function continues when it is resumed,
+   * typically by an I/O completion. Returns the coroutine, so callers can
+   * check whether the function has completed.
+   */
+  public JsCoroutine call(JsFunction function, JsObject thisObject, Object[] args) {
+    // a nested call, e.g. from a native function, needs its own stack
+    JsArray callStack = stackInUse ? newStack() : stack;
+    JsCoroutine coroutine = new JsCoroutine(callStack, function,
+        thisObject == null ? context : thisObject, args);
+    if (callStack != stack) {
+      coroutine.start();
+      return coroutine;
+    }
+    stackInUse = true;
+    try {
+      coroutine.start();
+    } finally {
+      stackInUse = false;
+      if (coroutine.isSuspended()) {
+        // the stack belongs to the coroutine until it is done
+        stack = newStack();
+      }
+    }
+    return coroutine;
+  }
+
+  private JsArray newStack() {
+    JsArray newStack = new JsArray();
+    newStack.setObject(0, context);
+    return newStack;
+  }
+
+  /**
+   * Stops the loop and removes all pending timers. Tasks not yet started
+   * are discarded.
+   */
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+      notify();
+    }
+    timers.clear();
+  }
+
+  /**
+   * Runs the loop on demand until stop() is called: whenever tasks are
+   * queued or a timer is due, a thread obtained from the given factory runs
+   * the loop until it is idle again. Returns immediately.
+   */
+  public void start(JsThreadFactory factory) {
+    synchronized (this) {
+      if (thread != null || threadFactory != null) {
+        throw new IllegalStateException("started");
+      }
+      threadFactory = factory;
+    }
+    // for timers scheduled before
+    wakeUp();
+  }
+
+  /**
+   * Returns true if a thread is running the loop. An on-demand loop has no
+   * thread while it is idle.
+   */
+  public synchronized boolean isRunning() {
+    return thread != null || scheduled;
+  }
+
+  /**
+   * Runs the loop until stop() is called.
+   */
+  public void run() {
+    synchronized (this) {
+      if (threadFactory != null) {
+        throw new IllegalStateException("started on demand");
+      }
+      thread = Thread.currentThread();
+    }
+    try {
+      while (true) {
+        // must not be called with the lock of this object held, see wakeUp()
+        long deadline = timers.getNextDeadline();
+
+        Vector batchCompletions;
+        Vector batchTasks;
+        synchronized (this) {
+          if (!signalled && !stopped && tasks.isEmpty() && completions.isEmpty()) {
+            long delay = deadline - System.currentTimeMillis();
+            if (delay > 0) {
+              wait(deadline == Long.MAX_VALUE ? 0 : delay);
+            }
+          }
+          if (stopped) {
+            break;
+          }
+          signalled = false;
+          batchCompletions = completions;
+          completions = spareCompletions;
+          batchTasks = tasks;
+          tasks = spareTasks;
+        }
+
+        runBatchAndRecycle(batchCompletions, batchTasks);
+      }
+    } catch (InterruptedException e) {
+      // terminate
+    }
+    synchronized (this) {
+      thread = null;
+    }
+  }
+
+  /**
+   * Body of the threads of an on-demand loop: runs batches until the loop
+   * is idle, then arranges for a wake-up at the earliest timer deadline and
+   * terminates.
+   */
+  void drain() {
+    synchronized (this) {
+      thread = Thread.currentThread();
+    }
+    while (true) {
+      // must not be called with the lock of this object held, see wakeUp()
+      long deadline = timers.getNextDeadline();
+
+      Vector batchCompletions;
+      Vector batchTasks;
+      synchronized (this) {
+        if (stopped || (!signalled && tasks.isEmpty() && completions.isEmpty()
+            && deadline > System.currentTimeMillis())) {
+          // queued from now on, tasks start a new thread
+          thread = null;
+          scheduled = false;
+          if (!stopped && deadline != Long.MAX_VALUE) {
+            scheduleWakeUp(deadline);
+          }
+          return;
+        }
+        signalled = false;
+        batchCompletions = completions;
+        completions = spareCompletions;
+        batchTasks = tasks;
+        tasks = spareTasks;
+      }
+
+      runBatchAndRecycle(batchCompletions, batchTasks);
+    }
+  }
+
+  private void runBatchAndRecycle(Vector batchCompletions, Vector batchTasks) {
+    boolean ran = runBatch(batchCompletions, batchTasks);
+
+    batchCompletions.removeAllElements();
+    batchTasks.removeAllElements();
+    spareCompletions = batchCompletions;
+    spareTasks = batchTasks;
+
+    if (ran && listener != null) {
+      listener.tasksDone();
+    }
+  }
+
+  private boolean runBatch(Vector batchCompletions, Vector batchTasks) {
+    boolean ran = false;
+    synchronized (lock) {
+      for (int i = 0; i < batchCompletions.size(); i++) {
+        runTask((Runnable) batchCompletions.elementAt(i));
+        ran = true;
+      }
+      for (int i = 0; i < batchTasks.size(); i++) {
+        runTask((Runnable) batchTasks.elementAt(i));
+        ran = true;
+      }
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < MAX_TIMERS_PER_BATCH; i++) {
+        JsFunction function = timers.poll(now);
+        if (function == null) {
+          break;
+        }
+        runTask(new Call(this, function, context, NO_ARGS));
+        ran = true;
+      }
+    }
+    return ran;
+  }
+
+  private void runTask(Runnable task) {
+    try {
+      task.run();
+    } catch (Exception e) {
+      taskFailed(e);
+    }
+    drainMicrotasks();
+  }
+
+  private void drainMicrotasks() {
+    // microtasks queued by microtasks run in the same checkpoint
+    for (int i = 0; i < microtasks.size(); i++) {
+      try {
+        ((Runnable) microtasks.elementAt(i)).run();
+      } catch (Exception e) {
+        taskFailed(e);
+      }
+    }
+    microtasks.removeAllElements();
+  }
+
+  private void taskFailed(Exception e) {
+    if (listener != null) {
+      listener.taskFailed(e);
+    } else {
+      e.printStackTrace();
+    }
+  }
+
+  private synchronized void wakeUp() {
+    signal();
+  }
+
+  /**
+   * Wakes up the thread running the loop or, for an idle on-demand loop,
+   * starts a new one. Called with the lock of this object held.
+   */
+  private void signal() {
+    signalled = true;
+    if (threadFactory == null) {
+      notify();
+    } else if (!scheduled && !stopped) {
+      scheduled = true;
+      threadFactory.newThread(new Runnable() {
+        public void run() {
+          drain();
+        }
+      }).start();
+    }
+  }
+
+  /**
+   * Makes the wake-up thread call wakeUp() at the given time, replacing a
+   * pending wake-up of this loop. Called with the lock of this object held.
+   */
+  private void scheduleWakeUp(long deadline) {
+    long delay = Math.min(deadline - System.currentTimeMillis(), Integer.MAX_VALUE);
+    synchronized (wakeUps) {
+      if (wakeUpId != 0) {
+        wakeUps.cancel(wakeUpId);
+      }
+      wakeUpId = wakeUps.schedule(new WakeUp(this), (int) delay, false);
+      if (!wakeUpThreadRunning) {
+        wakeUpThreadRunning = true;
+        // waits on a monitor, so this must not be a virtual thread
+        new Thread() {
+          public void run() {
+            runWakeUps();
+          }
+        }.start();
+      }
+    }
+  }
+
+  /**
+   * Body of the wake-up thread.
+   */
+  static void runWakeUps() {
+    try {
+      while (true) {
+        JsFunction wakeUp;
+        synchronized (wakeUps) {
+          long now = System.currentTimeMillis();
+          wakeUp = wakeUps.poll(now);
+          if (wakeUp == null) {
+            if (wakeUps.size() == 0) {
+              wakeUpThreadRunning = false;
+              return;
+            }
+            // schedule() notifies if the earliest deadline changes
+            wakeUps.wait(wakeUps.getNextDeadline() - now);
+            continue;
+          }
+        }
+        // outside of the lock: wakeUp() synchronizes on the loop, which
+        // holds it while calling scheduleWakeUp()
+        wakeUp.eval(null, 0, 0);
+      }
+    } catch (InterruptedException e) {
+      synchronized (wakeUps) {
+        wakeUpThreadRunning = false;
+      }
+    }
+  }
+}
@@ -17,33 +17,68 @@ package com.google.minijoe.sys;
 /**
  * Java Exception encapsulating a Javascript object that was thrown.
  * 
+ * Script exceptions are used for control flow and may be thrown and caught
+ * many times, so they do not capture a Java stack trace; instead, the
+ * interpreter records the function names and line numbers of the script
+ * frames the exception is propagated through.
+ * 
  * @author Stefan Haustein
  */
 public class JsException extends RuntimeException {
+  /** Maximum number of script frames recorded. */
+  static final int MAX_STACK_FRAMES = 64;
+
   private JsObject error;
+
+  /** The thrown value, which may be any JavaScript value. */
+  private Object value;
   int pc = -1;
   int lineNumber = -1;
+  private int[] stackLines;
+  private String[] stackNames;
+  private int stackSize;
 
   /**
    * Create a new Java exception for the given object.
    */
   public JsException(Object e) {
+    this(e, JsRealm.DEFAULT);
+  }
+
+  /**
+   * Create a new Java exception for the given object. Java exceptions are
+   * converted to JS errors using the prototypes of the given realm; other
+   * values are thrown as they are.
+   */
+  public JsException(Object e, JsRealm realm) {
     if (e instanceof Exception) {
-      error = new JsError((Exception) e);
-    } else if (e instanceof JsError) {
-      error = (JsError) e;
+      error = realm.newError((Exception) e);
+      value = error;
+    } else if (e instanceof JsObject) {
+      error = (JsObject) e;
+      value = e;
     } else {
-      error = new JsError(JsError.ERROR_PROTOTYPE, "" + e);
+      // primitive value; the error object is only used on the Java side 
+      error = new JsError(realm.prototypes[JsRealm.ERROR], JsSystem.toString(e));
+      value = e;
     }
   }
 
   /**
-   * Returns the encapsulated JavaScript object.
+   * Returns the encapsulated JavaScript object. If a primitive value was
+   * thrown, an Error object with the value as message is returned.
    */
   public JsObject getError() {
     return error;
   }
 
+  /**
+   * Returns the thrown JavaScript value, as seen by a catch clause.
+   */
+  public Object getValue() {
+    return value;
+  }
+
   /**
    * Returns the Javascript line number of the exception, or -1 if unknown.
    */
@@ -58,4 +93,67 @@ public class JsException extends RuntimeException {
     return "Error at line " + lineNumber + " (pc:0x" + 
         Integer.toHexString(pc) + "): " + error;
   }
+
+  /**
+   * Records a script frame the exception was propagated through. The name is
+   * null for anonymous functions and the main program. Frames beyond
+   * MAX_STACK_FRAMES are counted but not stored.
+   */
+  void addStackFrame(String name, int line) {
+    if (stackLines == null) {
+      stackLines = new int[8];
+      stackNames = new String[8];
+    } else if (stackSize == stackLines.length && stackSize < MAX_STACK_FRAMES) {
+      int[] newLines = new int[stackSize * 2];
+      String[] newNames = new String[stackSize * 2];
+      System.arraycopy(stackLines, 0, newLines, 0, stackSize);
+      System.arraycopy(stackNames, 0, newNames, 0, stackSize);
+      stackLines = newLines;
+      stackNames = newNames;
+    }
+    if (stackSize < stackLines.length) {
+      stackLines[stackSize] = line;
+      stackNames[stackSize] = name;
+    }
+    stackSize++;
+  }
+
+  /**
+   * Returns the script frames the exception was thrown through, innermost
+   * first, one per line. Frames of named functions are printed as
+   * "at name (line n)", all others as "at line n".
+   */
+  public String getScriptStackTrace() {
+    StringBuffer buf = new StringBuffer();
+    int count = Math.min(stackSize, stackLines == null ? 0 : stackLines.length);
+    for (int i = 0; i < count; i++) {
+      if (stackNames[i] == null) {
+        buf.append("  at line ").append(stackLines[i]).append('\n');
+      } else {
+        buf.append("  at ").append(stackNames[i]).append(" (line ")
+            .append(stackLines[i]).append(")\n");
+      }
+    }
+    if (count < stackSize) {
+      buf.append("  ... ").append(stackSize - count).append(" more\n");
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Does not capture the Java stack, which is expensive and meaningless for
+   * script errors. This overrides the Throwable method on platforms that
+   * have it.
+   */
+  public Throwable fillInStackTrace() {
+    return this;
+  }
+
+  /**
+   * Prints the message and the script stack trace to System.err.
+   */
+  public void printStackTrace() {
+    System.err.println(getMessage());
+    System.err.print(getScriptStackTrace());
+  }
 }
@@ -106,6 +106,15 @@ public class JsFunction extends JsObject {
 
   static final int END_MARKER = 0x0ff;
 
+  /** Number of ints saved per calling frame: pc, bp, initialSp, sp, parCount, try flag */
+  static final int FRAME_INTS = 6;
+
+  /** Number of objects saved per calling frame: function, context, this */
+  static final int FRAME_OBJECTS = 3;
+
+  /** Maximum nesting depth of scripted function calls. */
+  static final int MAX_CALL_DEPTH = 100000;
+
   static final int ID_PROTOTYPE = 100;
   static final int ID_PROTOTYPE_SET = 101;
   static final int ID_APPLY = 102;
@@ -121,10 +130,10 @@ public class JsFunction extends JsObject {
   int expectedParameterCount;
 
   /** Number of local variables  */
-  private int varCount;
+  int varCount;
 
   /** Byte code containing the implementation of this function */
-  private byte[] byteCode;
+  byte[] byteCode;
 
   /** native method index if this function is implemented in Java */
   int index;
@@ -132,30 +141,33 @@ public class JsFunction extends JsObject {
   String[] localNames;
 
   /** String literal table, used when putting strings on the stack. */
-  private String[] stringLiterals;
+  String[] stringLiterals;
 
   /** function literal table, used when putting strings on the stack. */
-  private JsFunction[] functionLiterals;
+  JsFunction[] functionLiterals;
 
   /** number literal table, used when putting strings on the stack. */
-  private double[] numberLiterals;
+  double[] numberLiterals;
 
   /**
    * Prototype object if this function is a constructor. Currently not used;
    * required to implement the JS prototype property.
    */
-  private JsObject prototype;
+  JsObject prototype;
 
   /** Factory to use if this is a native constructor. */
-  private JsObjectFactory factory;
+  JsObjectFactory factory;
 
   /** Object factory id if this is a native constructor. */
   int factoryTypeId;
 
   /** Evaluation context for this function. */
-  private JsObject context;
+  JsObject context;
 
-  private int[] lineNumbers;
+  int[] lineNumbers;
+
+  /** Name of this function as declared in the source, or null. */
+  String name;
   
   /**
    * Parses the given stream and runs the main function
@@ -163,16 +175,19 @@ public class JsFunction extends JsObject {
    */
   public static Object exec(DataInputStream dis, JsObject context)
       throws IOException{
+    return exec(dis, context, JsRealm.DEFAULT);
+  }
 
-    //TODO check magic
-    for (int i = 0; i < 8; i++){
-      dis.read();
-    }
+  /**
+   * Parses the given stream and runs the main function in the given realm.
+   * @throws IOException
+   */
+  static Object exec(DataInputStream dis, JsObject context, JsRealm realm)
+      throws IOException{
 
-    JsFunction main = new JsFunction(new JsFunction(dis, null), context);
+    JsFunction main = load(dis, context, realm);
 
-    JsArray stack = new JsArray();
-    stack.setObject(0, context);
+    JsArray stack = realm.createStack(context);
     stack.setObject(1, context);
     stack.setObject(2, main);
 
@@ -181,6 +196,27 @@ public class JsFunction extends JsObject {
     return stack.getObject(3);
   }
 
+  /**
+   * Parses the given stream and returns the main function, which runs the
+   * program in the given context when called, e.g. by JsEventLoop.call().
+   * @throws IOException
+   */
+  public static JsFunction load(DataInputStream dis, JsObject context)
+      throws IOException{
+    return load(dis, context, JsRealm.DEFAULT);
+  }
+
+  static JsFunction load(DataInputStream dis, JsObject context, JsRealm realm)
+      throws IOException{
+
+    //TODO check magic
+    for (int i = 0; i < 8; i++){
+      dis.read();
+    }
+
+    return new JsFunction(new JsFunction(dis, null), context, realm);
+  }
+
   /**
    * Constructor for functions implemented in Java.
    */
@@ -194,19 +230,39 @@ public class JsFunction extends JsObject {
    * Creates a new function from the given function literal and context.
    */
   public JsFunction(JsFunction literal, JsObject context){
-    super(literal.__proto__);
-    this.byteCode = literal.byteCode;
+    this(literal, context, JsRealm.DEFAULT);
+  }
+
+  /**
+   * Creates a new function from the given function literal and context in
+   * the given realm. Outside the default realm, each function gets its own
+   * prototype object, so function literals can be shared between realms.
+   */
+  JsFunction(JsFunction literal, JsObject context, JsRealm realm){
+    super(realm == JsRealm.DEFAULT 
+        ? literal.__proto__ : realm.prototypes[JsRealm.FUNCTION]);
+    setCode(literal);
     this.context = context;
+    this.prototype = realm == JsRealm.DEFAULT 
+        ? literal.prototype : new JsObject(realm.prototypes[JsRealm.OBJECT]);
+    this.factory = JsSystem.getInstance();
+    this.factoryTypeId = JsSystem.FACTORY_ID_OBJECT;
+  }
+
+  /**
+   * Copies the byte code and the literal tables of the given function
+   * literal. These are never modified, so they are shared.
+   */
+  void setCode(JsFunction literal) {
+    this.byteCode = literal.byteCode;
     this.functionLiterals = literal.functionLiterals;
     this.localNames = literal.localNames;
     this.numberLiterals = literal.numberLiterals;
     this.expectedParameterCount = literal.expectedParameterCount;
-    this.prototype = literal.prototype;
     this.stringLiterals = literal.stringLiterals;
     this.varCount = literal.varCount;
-    this.factory = JsSystem.getInstance();
-    this.factoryTypeId = JsSystem.FACTORY_ID_OBJECT;
     this.lineNumbers = literal.lineNumbers;
+    this.name = literal.name;
   }
 
 
@@ -242,7 +298,6 @@ public class JsFunction extends JsObject {
     // __proto__ above, prototype below...
     this.prototype = new JsObject(OBJECT_PROTOTYPE);
 
-    byte[] buf = null;
     int flags = 0;
 
     loop:
@@ -251,11 +306,11 @@ public class JsFunction extends JsObject {
       int count;
       switch(blockType){
       case BLOCK_COMMENT:
-        count = dis.readUnsignedShort();
-        if (buf == null || buf.length < count){
-          buf = new byte[count];
+        // the compiler marks named functions with a "function <name>" comment
+        String comment = dis.readUTF();
+        if (comment.startsWith("function ")) {
+          name = comment.substring(9);
         }
-        dis.readFully(buf, 0, count);
         break;
       case BLOCK_GLOBAL_STRING_TABLE:
         count = dis.readUnsignedShort();
@@ -329,548 +384,859 @@ public class JsFunction extends JsObject {
    * Evaluate this function. The this-pointer, function object and parameters
    * must be on stack (sp + 0 = context, sp + 1=function, sp + 2 = first param
    * etc.). The result is expected at sp + 0.
+   *
+   * Calls from one scripted function to another do not recurse on the Java
+   * stack: the state of the caller is saved in a frame record and the
+   * interpreter continues with the callee in the same loop. Only native
+   * functions are called recursively.
    */
   public void eval(JsArray stack, int sp, int actualParameterCount) {
-    for (int i = actualParameterCount; i < expectedParameterCount; i++) {
-      stack.setObject(sp + i + 2, null);
-    }
-
-    JsObject thisPtr = stack.getJsObject(sp);
-
     if (byteCode == null) {
-      thisPtr.evalNative(index, stack, sp, actualParameterCount);
+      for (int i = actualParameterCount; i < expectedParameterCount; i++) {
+        stack.setObject(sp + i + 2, null);
+      }
+      stack.getJsObject(sp).evalNative(index, stack, sp, actualParameterCount);
       return;
     }
+    run(stack, sp, actualParameterCount, null, null, null);
+  }
 
-    // sp initially points to context
-    // bp points to parameter 0. context is at bp-2, lambda at bp-1
+  /**
+   * Evaluates this scripted function as part of the given coroutine, which
+   * may be suspended by native functions (see JsCoroutine).
+   */
+  void run(JsArray stack, int sp, int actualParameterCount, JsCoroutine co) {
+    run(stack, sp, actualParameterCount, co, null, null);
+  }
 
-    sp += 2;
-    int bp = sp;
+  /**
+   * Resumes the script suspended in the given coroutine. The native
+   * function that has suspended it returns the given value or, if error is
+   * not null, throws the error.
+   */
+  void resume(JsArray stack, JsCoroutine co, Object value, JsException error) {
+    run(stack, 0, 0, co, value, error);
+  }
 
-    JsObject context;
+  private void run(JsArray stack, int sp, int actualParameterCount,
+      JsCoroutine co, Object resumeValue, JsException resumeError) {
+    JsRealm realm = JsRealm.get(stack);
 
-    // note: arguments available here only!
-    if (localNames != null){
-      context = new JsObject(JsObject.OBJECT_PROTOTYPE);
-      context.scopeChain = this.context;
-      JsArguments args = new JsArguments(this, context);
-      for (int i = 0; i < expectedParameterCount; i++) {
-        context.addVar(localNames[i], stack.getObject(sp + i));
-        args.addVar("" + i, new Integer(i));
-      }
-      for (int i = expectedParameterCount; i < this.localNames.length; i++) {
-        context.addVar(localNames[i], null);
-      }
-      for (int i = expectedParameterCount; i < actualParameterCount; i++) {
-        args.setObject(""+i, stack.getObject(bp+i));
+    // Saved state of the calling functions, FRAME_INTS and FRAME_OBJECTS
+    // entries per frame; allocated on the first call.
+    int[] frameInts = null;
+    Object[] frameObjects = null;
+    int depth = 0;
+
+    // state of the function currently executing
+    JsFunction fn;
+    int parCount;
+    JsObject thisPtr;
+    JsObject context;
+    int bp;
+    int initialSp;
+    int pc;
+    // exception being unwound to a frame that called XOP_TRY_CALL
+    JsException thrown = null;
+
+    if (co != null && co.frameInts != null) {
+      // the suspended function was saved as the top frame
+      frameInts = co.frameInts;
+      frameObjects = co.frameObjects;
+      depth = co.depth - 1;
+      co.frameInts = null;
+      co.frameObjects = null;
+      int fi = depth * FRAME_INTS;
+      int fo = depth * FRAME_OBJECTS;
+      pc = frameInts[fi];
+      bp = frameInts[fi + 1];
+      initialSp = frameInts[fi + 2];
+      sp = frameInts[fi + 3];
+      parCount = frameInts[fi + 4];
+      fn = (JsFunction) frameObjects[fo];
+      context = (JsObject) frameObjects[fo + 1];
+      thisPtr = (JsObject) frameObjects[fo + 2];
+      clearFrame(frameObjects, depth);
+      boolean tryCall = frameInts[fi + 5] != 0;
+      if (resumeError == null) {
+        stack.setObject(sp++, resumeValue);
+        if (tryCall) {
+          stack.setBoolean(sp++, true);
+        }
+      } else if (tryCall) {
+        stack.setObject(sp++, resumeError.getValue());
+        stack.setBoolean(sp++, false);
+        resumeError = null;
       }
-      args.setNumber("length", actualParameterCount);
-      args.setObject("callee", this);
-      context.addVar("arguments", args);
     } else {
-      context = this.context;
-      sp += expectedParameterCount + varCount;
+      fn = this;
+      parCount = actualParameterCount;
+      thisPtr = stack.getJsObject(sp);
+      context = enter(stack, sp, actualParameterCount, realm);
+
+      // sp initially points to context
+      // bp points to parameter 0. context is at bp-2, lambda at bp-1
+      bp = sp + 2;
+      sp = localNames == null ? bp + expectedParameterCount + varCount : bp;
+      initialSp = sp;
+      pc = 0;
     }
-
-    int initialSp = sp;
-    int opcode;
-    byte[] byteCode = this.byteCode;
-    int pc = 0;
+    byte[] byteCode = fn.byteCode;
     int end = byteCode.length;
+    int opcode;
 
-    try {
-      while (pc < end) {
-        opcode = byteCode[pc++];
+    while (true) {
+      try {
+        if (resumeError != null) {
+          // thrown by the native function that has suspended the script
+          JsException e = resumeError;
+          resumeError = null;
+          throw e;
+        }
+        while (true) {
+          if (pc >= end) {
+            if (thrown != null) {
+              // unwind to the innermost frame that was called by XOP_TRY_CALL
+              while (frameInts[(depth - 1) * FRAME_INTS + 5] == 0) {
+                depth--;
+                JsFunction caller = (JsFunction) frameObjects[depth * FRAME_OBJECTS];
+                thrown.addStackFrame(caller.name,
+                    caller.getLineNumber(frameInts[depth * FRAME_INTS] - 1));
+                clearFrame(frameObjects, depth);
+              }
+            } else if (sp == initialSp + 1) {
+              stack.copy(sp - 1, stack, bp - 2);
+            } else if (sp == initialSp) {
+              stack.setObject(bp - 2, null);
+            } else {
+              throw new RuntimeException("too much or too little on the stack; sp: "
+                  + sp + " bp: " + bp + " varCount: " + fn.varCount + " parCount: "
+                  + parCount);
+            }
+            if (depth == 0) {
+              return;
+            }
+
+            // return to the caller
+            depth--;
+            int fi = depth * FRAME_INTS;
+            int fo = depth * FRAME_OBJECTS;
+            pc = frameInts[fi];
+            bp = frameInts[fi + 1];
+            initialSp = frameInts[fi + 2];
+            sp = frameInts[fi + 3];
+            parCount = frameInts[fi + 4];
+            fn = (JsFunction) frameObjects[fo];
+            context = (JsObject) frameObjects[fo + 1];
+            thisPtr = (JsObject) frameObjects[fo + 2];
+            clearFrame(frameObjects, depth);
+            byteCode = fn.byteCode;
+            end = byteCode.length;
+
+            if (thrown != null) {
+              // called by XOP_TRY_CALL: error, false
+              stack.setObject(sp++, thrown.getValue());
+              stack.setBoolean(sp++, false);
+              thrown = null;
+            } else if (frameInts[fi + 5] != 0) {
+              // called by XOP_TRY_CALL: result, true
+              stack.setBoolean(sp + 1, true);
+              sp += 2;
+            } else {
+              sp++;
+            }
+            continue;
+          }
 
-        if (opcode < 0){
-          int imm;
+          opcode = byteCode[pc++];
 
-          if ((opcode & 1) == 0){
-            imm = byteCode[pc++];
-          } else {
-            imm =  (byteCode[pc] << 8) | (byteCode[pc + 1] & 255);
-            pc += 2;
-          }
 
-          switch ((opcode & 0x0ff) >>> 1) {
-            case XOP_ADD:
-              stack.setNumber(sp - 1, stack.getNumber(sp - 1) + imm);
-              break;
+          if (opcode < 0){
+            int imm;
+
+            if ((opcode & 1) == 0){
+              imm = byteCode[pc++];
+            } else {
+              imm =  (byteCode[pc] << 8) | (byteCode[pc + 1] & 255);
+              pc += 2;
+            }
 
-            case XOP_TRY_CALL:
-              try {
+            switch ((opcode & 0x0ff) >>> 1) {
+              case XOP_ADD:
+                stack.setNumber(sp - 1, stack.getNumber(sp - 1) + imm);
+                break;
+
+              case XOP_TRY_CALL:
+              case XOP_CALL:
+                if (--realm.countdown <= 0) {
+                  realm.checkLimits();
+                }
                 sp = sp - imm - 2; // on stack: context, lambda, params
                 JsFunction m = (JsFunction) stack.getObject(sp + 1);
-                m.eval(stack, sp, imm);
-                stack.setBoolean(sp + 1, true);
-                sp += 2;
-              } catch (JsException e) {
-                stack.setObject(sp++, e.getError());
-                stack.setBoolean(sp++, false); // not successfull
-              } catch (Exception e) {
-                stack.setObject(sp++, new JsError(e));
-                stack.setBoolean(sp++, false); // not successfull
-              }
-              break;
-
-            case XOP_CALL:
-              sp = sp - imm - 2; // on stack: context, lambda, params
-              JsFunction m = (JsFunction) stack.getObject(sp + 1);
-              m.eval(stack, sp++, imm);
-              // System.out.println("Ret val received: "
-              //  + stack.getObject(sp-1)+" sp: "+sp);
-              break;
-
-            case XOP_PUSH_FN:
-              stack.setObject(sp++,
-                  new JsFunction(functionLiterals[imm], context));
-              break;
-
-            case XOP_GO:
-              pc += imm;
-              break;
-
-            case XOP_IF:
-              if (!stack.getBoolean(--sp)) {
-                pc += imm;
-              }
-              break;
-
-            case XOP_PUSH_INT:
-              stack.setNumber(sp++, imm);
-              break;
-
-            case XOP_LCL_GET:
-              stack.copy(bp + imm, stack, sp++);
-              break;
-
-//          case XOP_LOCAL_INC:
-//          stack.setFP(sp - 1, stack.getFP(sp - 1)
-//          + stack.getFP(bp + imm));
-//          // fall-through!
-            case XOP_LCL_SET:
-              stack.copy(sp - 1, stack, bp + imm);
-              break;
-
-            case XOP_NEXT:
-              Enumeration e = (Enumeration) stack.getObject(sp - 1);
-              if (e.hasMoreElements()){
-                stack.setObject(sp++, e.nextElement());
-              } else {
+                boolean tryCall = (opcode & 0x0ff) >>> 1 == XOP_TRY_CALL;
+
+                if (m.byteCode == null) {
+                  JsObject target = null;
+                  int count = 0;
+                  if (realm.accounting && stack.getObject(sp) instanceof JsObject) {
+                    target = (JsObject) stack.getObject(sp);
+                    count = target.getPropertyCount();
+                  }
+                  if (!tryCall) {
+                    m.eval(stack, sp, imm);
+                    if (realm.accounting) {
+                      chargeNativeCall(realm, stack.getObject(sp), target, count);
+                    }
+                  } else {
+                    try {
+                      m.eval(stack, sp, imm);
+                      if (realm.accounting) {
+                        chargeNativeCall(realm, stack.getObject(sp), target, count);
+                      }
+                    } catch (JsTerminationException e) {
+                      throw e;
+                    } catch (JsException e) {
+                      stack.setObject(sp++, e.getValue());
+                      stack.setBoolean(sp++, false); // not successfull
+                      break;
+                    } catch (Exception e) {
+                      stack.setObject(sp++, realm.newError(e));
+                      stack.setBoolean(sp++, false); // not successfull
+                      break;
+                    }
+                  }
+                  if (!(stack.getObject(sp) instanceof JsCoroutine.Wait)) {
+                    if (tryCall) {
+                      stack.setBoolean(sp + 1, true);
+                      sp += 2;
+                    } else {
+                      sp++;
+                    }
+                    break;
+                  }
+                  if (co == null) {
+                    JsError error = new JsError(realm.prototypes[JsRealm.ERROR],
+                        "Cannot suspend a script called by a native function");
+                    if (!tryCall) {
+                      throw new JsException(error);
+                    }
+                    stack.setObject(sp++, error);
+                    stack.setBoolean(sp++, false); // not successfull
+                    break;
+                  }
+                  // save the state of this function below and suspend
+                }
+
+                // save the state of this function and continue with m
+                if (depth == MAX_CALL_DEPTH) {
+                  throw new JsException(new JsError(
+                      realm.prototypes[JsRealm.RANGE_ERROR],
+                      "Maximum call stack size exceeded"));
+                }
+                if (frameInts == null) {
+                  frameInts = new int[8 * FRAME_INTS];
+                  frameObjects = new Object[8 * FRAME_OBJECTS];
+                } else if (depth * FRAME_INTS == frameInts.length) {
+                  int[] newInts = new int[frameInts.length * 2];
+                  System.arraycopy(frameInts, 0, newInts, 0, frameInts.length);
+                  frameInts = newInts;
+                  Object[] newObjects = new Object[frameObjects.length * 2];
+                  System.arraycopy(frameObjects, 0, newObjects, 0,
+                      frameObjects.length);
+                  frameObjects = newObjects;
+                }
+                int fi = depth * FRAME_INTS;
+                int fo = depth * FRAME_OBJECTS;
+                frameInts[fi] = pc;
+                frameInts[fi + 1] = bp;
+                frameInts[fi + 2] = initialSp;
+                frameInts[fi + 3] = sp;
+                frameInts[fi + 4] = parCount;
+                frameInts[fi + 5] = tryCall ? 1 : 0;
+                frameObjects[fo] = fn;
+                frameObjects[fo + 1] = context;
+                frameObjects[fo + 2] = thisPtr;
+                depth++;
+
+                if (m.byteCode == null) {
+                  co.suspended((JsCoroutine.Wait) stack.getObject(sp), frameInts,
+                      frameObjects, depth);
+                  return;
+                }
+
+                fn = m;
+                parCount = imm;
+                thisPtr = stack.getJsObject(sp);
+                context = m.enter(stack, sp, imm, realm);
+                bp = sp + 2;
+                sp = m.localNames == null 
+                    ? bp + m.expectedParameterCount + m.varCount : bp;
+                initialSp = sp;
+                byteCode = m.byteCode;
+                end = byteCode.length;
+                pc = 0;
+                break;
+
+              case XOP_PUSH_FN:
+                if (realm.accounting) {
+                  realm.charge(JsRealm.FUNCTION_SIZE);
+                }
+                stack.setObject(sp++,
+                    new JsFunction(fn.functionLiterals[imm], context, realm));
+                break;
+
+              case XOP_GO:
+                // backward jumps are loop iterations
+                if (imm < 0 && --realm.countdown <= 0) {
+                  realm.checkLimits();
+                }
                 pc += imm;
-              }
-              break;
-            case XOP_PUSH_NUM:
-              stack.setNumber(sp++, numberLiterals[imm]);
-              break;
-
-            case XOP_PUSH_STR:
-              // System.out.println("String:" + stringList[(int)param]);
-              stack.setObject(sp++, stringLiterals[imm]);
-              break;
-
-            default:
-              throw new RuntimeException("Illegal opcode: "
-                  + Integer.toString(opcode&0xff, 16) + " par: " + imm);
-          } // switch
-        } else {
-          switch (opcode) {
+                break;
+
+              case XOP_IF:
+                if (!stack.getBoolean(--sp)) {
+                  if (imm < 0 && --realm.countdown <= 0) {
+                    realm.checkLimits();
+                  }
+                  pc += imm;
+                }
+                break;
+
+              case XOP_PUSH_INT:
+                stack.setNumber(sp++, imm);
+                break;
+
+              case XOP_LCL_GET:
+                stack.copy(bp + imm, stack, sp++);
+                break;
+
+  //          case XOP_LOCAL_INC:
+  //          stack.setFP(sp - 1, stack.getFP(sp - 1)
+  //          + stack.getFP(bp + imm));
+  //          // fall-through!
+              case XOP_LCL_SET:
+                stack.copy(sp - 1, stack, bp + imm);
+                break;
+
+              case XOP_NEXT:
+                Enumeration e = (Enumeration) stack.getObject(sp - 1);
+                if (e.hasMoreElements()){
+                  stack.setObject(sp++, e.nextElement());
+                } else {
+                  pc += imm;
+                }
+                break;
+              case XOP_PUSH_NUM:
+                stack.setNumber(sp++, fn.numberLiterals[imm]);
+                break;
+
+              case XOP_PUSH_STR:
+                // System.out.println("String:" + stringList[(int)param]);
+                stack.setObject(sp++, fn.stringLiterals[imm]);
+                break;
+
+              default:
+                throw new RuntimeException("Illegal opcode: "
+                    + Integer.toString(opcode&0xff, 16) + " par: " + imm);
+            } // switch
+          } else {
+            switch (opcode) {
+
+              case OP_ADD:
+                if (stack.isNumber(sp - 2) && stack.isNumber(sp - 1)) {
+                  stack.setNumber(sp - 2,
+                      stack.getNumber(sp - 2) + stack.getNumber(sp - 1));
+                } else {
+                  stack.setObject(sp - 2,
+                      stack.getString(sp - 2)  +  stack.getString(sp - 1));
+                  if (realm.accounting) {
+                    realm.chargeString(stack.getObject(sp - 2));
+                  }
+                }
+                sp--;
+                break;
+
+              case OP_AND:
+                stack.setNumber(sp - 2, stack.getInt(sp - 2) & stack.getInt(sp - 1));
+                sp--;
+                break;
+
+
+              case OP_APPEND:
+                JsArray arr = (JsArray) stack.getObject(sp - 2);
+                stack.copy(sp - 1, arr, arr.size());
+                // ((Array)
+                // stack.getObject(sp-2)).addElement(stack.getObject(sp-1));
+                sp--;
+                break;
 
-            case OP_ADD:
-              if (stack.isNumber(sp - 2) && stack.isNumber(sp - 1)) {
+              case OP_ASR:
                 stack.setNumber(sp - 2,
-                    stack.getNumber(sp - 2) + stack.getNumber(sp - 1));
-              } else {
-                stack.setObject(sp - 2,
-                    stack.getString(sp - 2)  +  stack.getString(sp - 1));
-              }
-              sp--;
-              break;
-
-            case OP_AND:
-              stack.setNumber(sp - 2, stack.getInt(sp - 2) & stack.getInt(sp - 1));
-              sp--;
-              break;
-
-
-            case OP_APPEND:
-              JsArray arr = (JsArray) stack.getObject(sp - 2);
-              stack.copy(sp - 1, arr, arr.size());
-              // ((Array)
-              // stack.getObject(sp-2)).addElement(stack.getObject(sp-1));
-              sp--;
-              break;
-
-            case OP_ASR:
-              stack.setNumber(sp - 2,
-                  (stack.getInt(sp - 2) & 0xffffffffL) >>> (stack.getInt(sp - 1) & 0x1f));
-              sp--;
-              break;
-
-            case OP_CTX_GET:
-              context.vmGetOperation(stack, sp - 1, sp - 1);
-              break;
-
-            case OP_CTX_SET:
-              context.vmSetOperation(stack, sp - 1, sp - 2);
-              sp--; // take away name, not value
-              break;
-
-            case OP_CTX:
-              stack.setObject(sp++, context);
-              break;
-
-            case OP_DEC:
-              stack.setNumber(sp - 1, stack.getNumber(sp - 1) - 1);
-              break;
-
-            case OP_DEL:
-              stack.setBoolean(sp - 2,  stack.getJsObject(sp - 2).delete(stack.getString(sp - 1)));
-              sp--;
-              break;
-
-            case OP_DIV:
-              stack.setNumber(sp - 2, stack.getNumber(sp - 2) / stack.getNumber(sp - 1) );
-              sp--;
-              break;
-
-            case OP_DROP:
-              sp--;
-              break;
-
-            case OP_DUP:
-              stack.copy(sp - 1, stack, sp);
-              sp++;
-              break;
+                    (stack.getInt(sp - 2) & 0xffffffffL) >>> (stack.getInt(sp - 1) & 0x1f));
+                sp--;
+                break;
 
-            case OP_DDUP:
-              stack.copy(sp - 2, stack, sp, 2);
-              sp += 2;
-              break;
+              case OP_CTX_GET:
+                context.vmGetOperation(stack, sp - 1, sp - 1);
+                break;
+
+              case OP_CTX_SET:
+                context.vmSetOperation(stack, sp - 1, sp - 2);
+                sp--; // take away name, not value
+                break;
+
+              case OP_CTX:
+                stack.setObject(sp++, context);
+                break;
 
-            case OP_ENUM:
-              stack.setObject(sp-1, ((JsObject) stack.getObject(sp-1)).keys());
-              break;
+              case OP_DEC:
+                stack.setNumber(sp - 1, stack.getNumber(sp - 1) - 1);
+                break;
 
-            case OP_EQEQEQ:
-              if (stack.getType(sp - 2) != stack.getType(sp - 1)){
+              case OP_DEL:
+                stack.setBoolean(sp - 2,  stack.getJsObject(sp - 2).delete(stack.getString(sp - 1)));
                 sp--;
-                stack.setObject(sp - 1, Boolean.FALSE);
                 break;
-              }
-              // fall-trough
 
-            case OP_EQEQ:
-              // System.out.println(""+stack.getObject(sp-2)+ " = "+
-              // stack.getObject(sp-1));
+              case OP_DIV:
+                stack.setNumber(sp - 2, stack.getNumber(sp - 2) / stack.getNumber(sp - 1) );
+                sp--;
+                break;
 
-              int tX = stack.getType(sp - 2);
-              int tY = stack.getType(sp - 1);
+              case OP_DROP:
+                sp--;
+                break;
 
-              if (tX == tY) {
-                switch(tX) {
-                  case TYPE_UNDEFINED:
-                  case TYPE_NULL:
-                    stack.setObject(sp - 2, Boolean.TRUE);
-                    break;
+              case OP_DUP:
+                stack.copy(sp - 1, stack, sp);
+                sp++;
+                break;
 
-                  case TYPE_NUMBER:
-                    stack.setBoolean(sp - 2,
-                        stack.getNumber(sp - 2) == stack.getNumber(sp - 1));
-                    break;
+              case OP_DDUP:
+                stack.copy(sp - 2, stack, sp, 2);
+                sp += 2;
+                break;
+
+              case OP_ENUM:
+                stack.setObject(sp-1, ((JsObject) stack.getObject(sp-1)).keys());
+                break;
 
-                  default:
-                    stack.setBoolean(sp - 2,
-                        stack.getObject(sp - 2).equals(
-                            stack.getObject(sp - 1)));
+              case OP_EQEQEQ:
+                if (stack.getType(sp - 2) != stack.getType(sp - 1)){
+                  sp--;
+                  stack.setObject(sp - 1, Boolean.FALSE);
+                  break;
                 }
-              } else {
-                boolean result;
-                if ((tX == TYPE_UNDEFINED && tY == TYPE_NULL) ||
-                    (tX == TYPE_NULL && tY == TYPE_UNDEFINED)) {
-                  result = true;
-                } else if (tX == TYPE_NUMBER || tY == TYPE_NUMBER) {
-                  result = stack.getNumber(sp - 2) == stack.getNumber(sp - 1);
-                } else if ((tX == TYPE_STRING && tY == TYPE_OBJECT) ||
-                    tX == TYPE_OBJECT && tY == TYPE_STRING) {
-                  result = stack.getString(sp - 2)
-                      .equals(stack.getString(sp - 1));
+                // fall-trough
+
+              case OP_EQEQ:
+                // System.out.println(""+stack.getObject(sp-2)+ " = "+
+                // stack.getObject(sp-1));
+
+                int tX = stack.getType(sp - 2);
+                int tY = stack.getType(sp - 1);
+
+                if (tX == tY) {
+                  switch(tX) {
+                    case TYPE_UNDEFINED:
+                    case TYPE_NULL:
+                      stack.setObject(sp - 2, Boolean.TRUE);
+                      break;
+
+                    case TYPE_NUMBER:
+                      stack.setBoolean(sp - 2,
+                          stack.getNumber(sp - 2) == stack.getNumber(sp - 1));
+                      break;
+
+                    default:
+                      stack.setBoolean(sp - 2,
+                          stack.getObject(sp - 2).equals(
+                              stack.getObject(sp - 1)));
+                  }
                 } else {
-                  result = false;
+                  boolean result;
+                  if ((tX == TYPE_UNDEFINED && tY == TYPE_NULL) ||
+                      (tX == TYPE_NULL && tY == TYPE_UNDEFINED)) {
+                    result = true;
+                  } else if (tX == TYPE_NUMBER || tY == TYPE_NUMBER) {
+                    result = stack.getNumber(sp - 2) == stack.getNumber(sp - 1);
+                  } else if ((tX == TYPE_STRING && tY == TYPE_OBJECT) ||
+                      tX == TYPE_OBJECT && tY == TYPE_STRING) {
+                    result = stack.getString(sp - 2)
+                        .equals(stack.getString(sp - 1));
+                  } else {
+                    result = false;
+                  }
+                  stack.setBoolean(sp - 2, result);
                 }
-                stack.setBoolean(sp - 2, result);
-              }
-              sp--;
-              break;
-
-            case OP_GET:
-              JsObject ctx = stack.getJsObject(sp - 2);
-//          System.out.println("GetMember ctx: "+ctx);
-//          System.out.println("GetMember name: " + stack.getObject(sp - 1));
-              ctx.vmGetOperation(stack, sp - 1, sp - 2);
-              sp--;
-              break;
-
-            case OP_GT:
-              if (stack.isNumber(sp - 2) && stack.isNumber(sp - 1)) {
-                stack.setObject(sp - 2,
-                    stack.getNumber(sp - 2) > stack.getNumber(sp - 1)
-                      ? Boolean.TRUE
-                      : Boolean.FALSE);
-              } else {
-                stack.setObject(sp - 2,
-                    stack.getString(sp - 2).compareTo(stack.getString(sp - 1)) 
-                    > 0 ? Boolean.TRUE : Boolean.FALSE);
-              }
-              sp--;
-              break;
-
-            case OP_IN:
-              Object o = stack.getObject(sp - 1);
-              if (o instanceof JsArray && stack.isNumber(sp - 2)) {
-                int i = stack.getInt(sp - 2);
-                stack.setObject(sp -2,
-                    i >= 0 && i <= ((JsArray) o).size()
-                        ? Boolean.TRUE
-                        : Boolean.FALSE);
                 sp--;
                 break;
-              }
-              if (o instanceof JsObject) {
-                stack.setObject(sp - 2,
-                    ((JsObject) o).getRawInPrototypeChain(stack.getString(sp-2)) == null
+
+              case OP_GET:
+                JsObject ctx = stack.getJsObject(sp - 2);
+  //          System.out.println("GetMember ctx: "+ctx);
+  //          System.out.println("GetMember name: " + stack.getObject(sp - 1));
+                ctx.vmGetOperation(stack, sp - 1, sp - 2);
+                sp--;
+                break;
+
+              case OP_GT:
+                if (stack.isNumber(sp - 2) && stack.isNumber(sp - 1)) {
+                  stack.setObject(sp - 2,
+                      stack.getNumber(sp - 2) > stack.getNumber(sp - 1)
                         ? Boolean.TRUE
                         : Boolean.FALSE);
+                } else {
+                  stack.setObject(sp - 2,
+                      stack.getString(sp - 2).compareTo(stack.getString(sp - 1)) 
+                      > 0 ? Boolean.TRUE : Boolean.FALSE);
+                }
                 sp--;
                 break;
-              }
-              stack.setObject(sp - 2, Boolean.FALSE);
-              sp--;
-              break;
-
-            case OP_INC:
-              stack.setNumber(sp - 1, stack.getNumber(sp - 1) + 1);
-              break;
-
-            case OP_INV:
-              stack.setInt(sp - 1, ~stack.getInt(sp - 1));
-              break;
-
-            case OP_LT:
-              if (stack.isNumber(sp - 2) && stack.isNumber(sp - 1)) {
-                stack.setObject(sp - 2, stack.getNumber(sp - 2) < 
-                    stack.getNumber(sp - 1) ? Boolean.TRUE : Boolean.FALSE);
-              } else {
-                stack.setObject(sp - 2, stack.getString(sp - 2).
-                    compareTo(stack.getString(sp - 1)) < 0
-                    ? Boolean.TRUE : Boolean.FALSE);
-              }
-              sp--;
-              break;
-              
-            case OP_MOD:
-              stack.setNumber(sp - 2,
-                  (stack.getNumber(sp - 2) % (stack.getNumber(sp - 1))));
-              sp--;
-              break;
-
-            case OP_MUL:
-              stack.setNumber(sp - 2, stack.getNumber(sp - 2) * stack
-                  .getNumber(sp - 1));
-              sp--;
-              break;
-
-            case OP_NEW_ARR:
-              stack.setObject(sp++, new JsArray());
-              break;
-
-            case OP_NEW:
-              JsFunction constructor = ((JsFunction) stack.getObject(sp - 1));
-              ctx = constructor.factory.newInstance(constructor.factoryTypeId);
-              stack.setObject(sp - 1, ctx);
-              stack.setObject(sp++, ctx);
-              stack.setObject(sp++, constructor);
-              break;
-
-            case OP_NEW_OBJ:
-              stack.setObject(sp++, new JsObject(OBJECT_PROTOTYPE));
-              break;
-
-            case OP_NEG:
-              stack.setNumber(sp - 1, -stack.getNumber(sp - 1));
-              break;
-
-            case OP_NOT:
-              stack.setObject(sp - 1, stack.getBoolean(sp - 1) ? Boolean.FALSE
-                  : Boolean.TRUE);
-              break;
-
-            case OP_OR:
-              stack.setNumber(sp - 2, stack.getInt(sp - 2) | stack.getInt(sp - 1));
-              sp--;
-              break;
-
-            case OP_PUSH_FALSE:
-              stack.setObject(sp++, Boolean.FALSE);
-              break;
-
-            case OP_PUSH_GLOBAL:
-              stack.setObject(sp++, stack.getObject(0));
-              break;
-
-            case OP_PUSH_NULL:
-              stack.setObject(sp++, JsSystem.JS_NULL);
-              break;
-
-            case OP_PUSH_THIS:
-              stack.setObject(sp++, thisPtr);
-              break;
-
-            case OP_PUSH_TRUE:
-              stack.setObject(sp++, Boolean.TRUE);
-              break;
-
-            case OP_PUSH_UNDEF:
-              stack.setObject(sp++, null);
-              break;
-
-            case OP_RET:
-              // System.out.println("sp: "+sp+" returning:
-              // "+stack.getObject(sp-1));
-              stack.copy(sp - 1, stack, bp - 2);
-              return;
 
-            case OP_ROT:
-              stack.copy(sp - 3, stack, sp - 2, 3);
-              stack.copy(sp, stack, sp - 3);
-              break;
-
-            case OP_SET_KC:
-              // ctx: sp-3
-              // property name: sp-2
-              // value to set: sp-1;
-
-              ctx = stack.getJsObject(sp - 3);
-              ctx.vmSetOperation(stack, sp - 2, sp - 1);
-
-              // key = (String) stack.getObject(sp-2);
-              // Object curr = ctx.getRaw(key);
-              // System.out.println("SetMember KC ctx: "+ctx);
-              // System.out.println("SetMember name: "+stack.getObject(sp-2));
-              // System.out.println("SetMember value: "+stack.getObject(sp-1));
-
-              sp -= 2; // leave value on the stack(!)
-              break;
-
-            case OP_SET:
-              ctx = stack.getJsObject(sp - 2);
-              ctx.vmSetOperation(stack, sp - 1, sp - 3);
-
-              // key = (String) stack.getObject(sp-1);
-              // curr = ctx.getRaw(key);
-
-              // System.out.println("SetMember KV ctx: "+ctx);
-              // System.out.println("SetMember name: "+stack.getObject(sp-1));
-              // System.out.println("SetMember value: "+stack.getObject(sp-3));
-
-              sp -= 2; // leave value on the stack(!)
-              break;
-
-            case OP_SHR:
-              stack.setNumber(sp - 2, stack.getInt(sp - 2) >> (stack.getInt(sp - 1) & 0x1f));
-              sp--;
-              break;
-
-            case OP_SHL:
-              stack.setNumber(sp - 2, stack.getInt(sp - 2) << (stack.getInt(sp - 1) & 0x1f));
-              sp--;
-              break;
-
-            case OP_SUB:
-              stack.setNumber(sp - 2, stack.getNumber(sp - 2) - stack.getNumber(sp - 1));
-              sp--;
-              break;
-
-            case OP_SWAP:
-              stack.swap(sp - 1, sp - 2);
-              break;
-
-            case OP_THROW:
-              // line number is added in try..catch below
-              throw new JsException(stack.getJsObject(sp));
-
-            case OP_WITH_START:
-              JsObject nc = new JsObject((JsObject) stack.getObject(sp - 1));
-              nc.scopeChain = context;
-              context = nc;
-              sp--;
-              break;
-
-            case OP_WITH_END:
-              context = context.scopeChain;
-              break;
-
-            case OP_TYPEOF:
-              stack.setObject(sp - 1, TYPE_NAMES[stack.getType(sp-1)]);
-              break;
-
-            case OP_INSTANCEOF:
-              o = stack.getObject(sp - 2);
-              JsObject p = stack.getJsObject(sp - 1);
-              if (p instanceof JsFunction && o instanceof JsObject) {
-                JsObject j = ((JsObject) o);
-                p = ((JsFunction) p).prototype;
-                while (j.__proto__ != null && j.__proto__ != p){
-                  j = j.__proto__;
+              case OP_IN:
+                Object o = stack.getObject(sp - 1);
+                if (o instanceof JsArray && stack.isNumber(sp - 2)) {
+                  int i = stack.getInt(sp - 2);
+                  stack.setObject(sp -2,
+                      i >= 0 && i <= ((JsArray) o).size()
+                          ? Boolean.TRUE
+                          : Boolean.FALSE);
+                  sp--;
+                  break;
+                }
+                if (o instanceof JsObject) {
+                  stack.setObject(sp - 2,
+                      ((JsObject) o).getRawInPrototypeChain(stack.getString(sp-2)) == null
+                          ? Boolean.TRUE
+                          : Boolean.FALSE);
+                  sp--;
+                  break;
                 }
-                stack.setBoolean(sp - 2, j != null);
-              } else {
                 stack.setObject(sp - 2, Boolean.FALSE);
-              }
-              sp--;
-              break;
+                sp--;
+                break;
 
-            case OP_XOR:
-              stack.setNumber(sp - 2, stack.getInt(sp-2) ^ stack.getInt(sp-1));
-              sp--;
-              break;
+              case OP_INC:
+                stack.setNumber(sp - 1, stack.getNumber(sp - 1) + 1);
+                break;
 
-            default:
-              throw new RuntimeException("Illegal opcode: '" + ((char) opcode)
-                  + "'/" + opcode);
+              case OP_INV:
+                stack.setInt(sp - 1, ~stack.getInt(sp - 1));
+                break;
+
+              case OP_LT:
+                if (stack.isNumber(sp - 2) && stack.isNumber(sp - 1)) {
+                  stack.setObject(sp - 2, stack.getNumber(sp - 2) < 
+                      stack.getNumber(sp - 1) ? Boolean.TRUE : Boolean.FALSE);
+                } else {
+                  stack.setObject(sp - 2, stack.getString(sp - 2).
+                      compareTo(stack.getString(sp - 1)) < 0
+                      ? Boolean.TRUE : Boolean.FALSE);
+                }
+                sp--;
+                break;
+              
+              case OP_MOD:
+                stack.setNumber(sp - 2,
+                    (stack.getNumber(sp - 2) % (stack.getNumber(sp - 1))));
+                sp--;
+                break;
+
+              case OP_MUL:
+                stack.setNumber(sp - 2, stack.getNumber(sp - 2) * stack
+                    .getNumber(sp - 1));
+                sp--;
+                break;
+
+              case OP_NEW_ARR:
+                stack.setObject(sp++, realm.newArray());
+                break;
+
+              case OP_NEW:
+                JsFunction constructor = ((JsFunction) stack.getObject(sp - 1));
+                // scripted functions construct objects in the realm of the caller
+                ctx = (constructor.factory == JsSystem.instance 
+                    ? realm : constructor.factory).newInstance(
+                        constructor.factoryTypeId);
+                stack.setObject(sp - 1, ctx);
+                stack.setObject(sp++, ctx);
+                stack.setObject(sp++, constructor);
+                break;
+
+              case OP_NEW_OBJ:
+                stack.setObject(sp++, realm.newObject());
+                break;
+
+              case OP_NEG:
+                stack.setNumber(sp - 1, -stack.getNumber(sp - 1));
+                break;
+
+              case OP_NOT:
+                stack.setObject(sp - 1, stack.getBoolean(sp - 1) ? Boolean.FALSE
+                    : Boolean.TRUE);
+                break;
+
+              case OP_OR:
+                stack.setNumber(sp - 2, stack.getInt(sp - 2) | stack.getInt(sp - 1));
+                sp--;
+                break;
+
+              case OP_PUSH_FALSE:
+                stack.setObject(sp++, Boolean.FALSE);
+                break;
+
+              case OP_PUSH_GLOBAL:
+                stack.setObject(sp++, stack.getObject(0));
+                break;
+
+              case OP_PUSH_NULL:
+                stack.setObject(sp++, JsSystem.JS_NULL);
+                break;
+
+              case OP_PUSH_THIS:
+                stack.setObject(sp++, thisPtr);
+                break;
+
+              case OP_PUSH_TRUE:
+                stack.setObject(sp++, Boolean.TRUE);
+                break;
+
+              case OP_PUSH_UNDEF:
+                stack.setObject(sp++, null);
+                break;
+
+              case OP_RET:
+                // System.out.println("sp: "+sp+" returning:
+                // "+stack.getObject(sp-1));
+                stack.copy(sp - 1, stack, initialSp);
+                sp = initialSp + 1;
+                pc = end;
+                break;
+
+              case OP_ROT:
+                stack.copy(sp - 3, stack, sp - 2, 3);
+                stack.copy(sp, stack, sp - 3);
+                break;
+
+              case OP_SET_KC:
+                // ctx: sp-3
+                // property name: sp-2
+                // value to set: sp-1;
+
+                ctx = stack.getJsObject(sp - 3);
+                if (realm.accounting) {
+                  int count = ctx.getPropertyCount();
+                  ctx.vmSetOperation(stack, sp - 2, sp - 1);
+                  realm.chargeProperties(ctx, count);
+                } else {
+                  ctx.vmSetOperation(stack, sp - 2, sp - 1);
+                }
+
+                // key = (String) stack.getObject(sp-2);
+                // Object curr = ctx.getRaw(key);
+                // System.out.println("SetMember KC ctx: "+ctx);
+                // System.out.println("SetMember name: "+stack.getObject(sp-2));
+                // System.out.println("SetMember value: "+stack.getObject(sp-1));
+
+                sp -= 2; // leave value on the stack(!)
+                break;
+
+              case OP_SET:
+                ctx = stack.getJsObject(sp - 2);
+                if (realm.accounting) {
+                  int count = ctx.getPropertyCount();
+                  ctx.vmSetOperation(stack, sp - 1, sp - 3);
+                  realm.chargeProperties(ctx, count);
+                } else {
+                  ctx.vmSetOperation(stack, sp - 1, sp - 3);
+                }
+
+                // key = (String) stack.getObject(sp-1);
+                // curr = ctx.getRaw(key);
+
+                // System.out.println("SetMember KV ctx: "+ctx);
+                // System.out.println("SetMember name: "+stack.getObject(sp-1));
+                // System.out.println("SetMember value: "+stack.getObject(sp-3));
+
+                sp -= 2; // leave value on the stack(!)
+                break;
+
+              case OP_SHR:
+                stack.setNumber(sp - 2, stack.getInt(sp - 2) >> (stack.getInt(sp - 1) & 0x1f));
+                sp--;
+                break;
+
+              case OP_SHL:
+                stack.setNumber(sp - 2, stack.getInt(sp - 2) << (stack.getInt(sp - 1) & 0x1f));
+                sp--;
+                break;
+
+              case OP_SUB:
+                stack.setNumber(sp - 2, stack.getNumber(sp - 2) - stack.getNumber(sp - 1));
+                sp--;
+                break;
+
+              case OP_SWAP:
+                stack.swap(sp - 1, sp - 2);
+                break;
+
+              case OP_THROW:
+                thrown = new JsException(stack.getObject(sp - 1), realm);
+                thrown.pc = pc - 1;
+                thrown.lineNumber = fn.getLineNumber(pc - 1);
+                thrown.addStackFrame(fn.name, thrown.lineNumber);
+                if (!hasTryFrame(frameInts, depth)) {
+                  throw thrown;
+                }
+                // unwound at the top of the loop, without a Java exception
+                pc = end;
+                break;
+
+              case OP_WITH_START:
+                JsObject nc = new JsObject((JsObject) stack.getObject(sp - 1));
+                nc.scopeChain = context;
+                context = nc;
+                sp--;
+                break;
+
+              case OP_WITH_END:
+                context = context.scopeChain;
+                break;
+
+              case OP_TYPEOF:
+                stack.setObject(sp - 1, TYPE_NAMES[stack.getType(sp-1)]);
+                break;
+
+              case OP_INSTANCEOF:
+                o = stack.getObject(sp - 2);
+                JsObject p = stack.getJsObject(sp - 1);
+                if (p instanceof JsFunction && o instanceof JsObject) {
+                  JsObject j = ((JsObject) o);
+                  p = ((JsFunction) p).prototype;
+                  while (j.__proto__ != null && j.__proto__ != p){
+                    j = j.__proto__;
+                  }
+                  stack.setBoolean(sp - 2, j != null);
+                } else {
+                  stack.setObject(sp - 2, Boolean.FALSE);
+                }
+                sp--;
+                break;
+
+              case OP_XOR:
+                stack.setNumber(sp - 2, stack.getInt(sp-2) ^ stack.getInt(sp-1));
+                sp--;
+                break;
+
+              default:
+                throw new RuntimeException("Illegal opcode: '" + ((char) opcode)
+                    + "'/" + opcode);
+            }
           }
         }
+      } catch (Exception e) {
+        JsException jse;
+        if (e == thrown) {
+          // thrown by OP_THROW, stack frame already added
+          jse = thrown;
+        } else {
+          if (e instanceof JsException) {
+            jse = (JsException) e;
+          } else {
+            jse = new JsException(e, realm);
+          }
+          if (jse.pc == -1) {
+            jse.pc = pc - 1;
+            jse.lineNumber = fn.getLineNumber(pc - 1);
+          }
+          jse.addStackFrame(fn.name, fn.getLineNumber(pc - 1));
+        }
+        if (!hasTryFrame(frameInts, depth) || jse instanceof JsTerminationException) {
+          while (depth > 0) {
+            depth--;
+            JsFunction caller = (JsFunction) frameObjects[depth * FRAME_OBJECTS];
+            jse.addStackFrame(caller.name,
+                caller.getLineNumber(frameInts[depth * FRAME_INTS] - 1));
+          }
+          throw jse;
+        }
+        // unwound at the top of the loop
+        thrown = jse;
+        pc = end;
       }
-    } catch (Exception e) {
-      JsException jse;
-      if(e instanceof JsException) {
-        jse = (JsException) e;
-      } else {
-        e.printStackTrace();
-        jse = new JsException(e);
-      }
-      if(jse.pc == -1) {
-        jse.pc = pc - 1;
-        jse.lineNumber = getLineNumber(pc - 1);
+    }
+  }
+
+  /**
+   * Charges the memory allocated by a call of a native function to the
+   * realm: properties added to the object the function was called on and
+   * the result if it is a string. Arrays created or grown by native
+   * functions are charged by the arrays themselves.
+   */
+  private static void chargeNativeCall(JsRealm realm, Object result,
+      JsObject target, int propertyCount) {
+    if (target != null) {
+      realm.chargeProperties(target, propertyCount);
+    }
+    realm.chargeString(result);
+  }
+
+  /**
+   * Returns true if one of the given saved frames has called the next one
+   * with XOP_TRY_CALL.
+   */
+  private static boolean hasTryFrame(int[] frameInts, int depth) {
+    for (int i = depth - 1; i >= 0; i--) {
+      if (frameInts[i * FRAME_INTS + 5] != 0) {
+        return true;
       }
-      throw jse;
-    } 
-
-    if (sp == initialSp + 1) {
-//    System.out.println("sp: "+sp+" returning: "+stack.getObject(sp-1));
-      stack.copy(sp - 1, stack, bp - 2);
-    } else if (sp == initialSp) {
-//    System.out.println("sp: "+sp+" returning NULL");
-      stack.setObject(bp - 2, null);
-    } else {
-      throw new RuntimeException("too much or too little on the stack; sp: "
-          + sp + " bp: " + bp + " varCount: " + varCount + " parCount: "
-          + actualParameterCount);
     }
-    return;
+    return false;
   }
 
+  private static void clearFrame(Object[] frameObjects, int depth) {
+    int fo = depth * FRAME_OBJECTS;
+    frameObjects[fo] = frameObjects[fo + 1] = frameObjects[fo + 2] = null;
+  }
+
+  /**
+   * Pads missing parameters with undefined and returns the context for a
+   * call of this (scripted) function. The this-pointer, function object and
+   * parameters are on the stack at sp, sp + 1 and sp + 2 etc.
+   */
+  JsObject enter(JsArray stack, int sp, int actualParameterCount, JsRealm realm) {
+    for (int i = actualParameterCount; i < expectedParameterCount; i++) {
+      stack.setObject(sp + i + 2, null);
+    }
+
+    // note: arguments available here only!
+    if (localNames == null){
+      return this.context;
+    }
+
+    int bp = sp + 2;
+    JsObject context = new JsObject(realm.prototypes[JsRealm.OBJECT]);
+    context.scopeChain = this.context;
+    JsArguments args = new JsArguments(
+        realm.prototypes[JsRealm.ARGUMENTS], this, context);
+    for (int i = 0; i < expectedParameterCount; i++) {
+      context.addVar(localNames[i], stack.getObject(bp + i));
+      args.addVar("" + i, new Integer(i));
+    }
+    for (int i = expectedParameterCount; i < this.localNames.length; i++) {
+      context.addVar(localNames[i], null);
+    }
+    for (int i = expectedParameterCount; i < actualParameterCount; i++) {
+      args.setObject(""+i, stack.getObject(bp+i));
+    }
+    args.setNumber("length", actualParameterCount);
+    args.setObject("callee", this);
+    context.addVar("arguments", args);
+    return context;
+  }
+
+
   int getLineNumber(int pc) {
     if(lineNumbers != null && lineNumbers.length > 0) {
       int i = 0;
@@ -0,0 +1,750 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * Native implementation of JSON.parse() and JSON.stringify().
+ *
+ * JsJson instances are push parsers: the text can be passed in chunks of
+ * any size using feed(), e.g. as it arrives from the network, and finish()
+ * returns the parsed value. The parser does not recurse; open objects and
+ * arrays are kept on an explicit stack, so deeply nested input cannot
+ * overflow the Java stack. Objects and arrays are created in the realm of
+ * the parser, and numbers are stored in the double slots of arrays without
+ * being boxed.
+ *
+ * A parser must not be used after it has thrown an exception.
+ */
+public class JsJson {
+
+  /** Expecting a value. */
+  private static final int S_VALUE = 0;
+  /** After '[': expecting a value or ']'. */
+  private static final int S_FIRST_ELEMENT = 1;
+  /** After '{': expecting a property name or '}'. */
+  private static final int S_FIRST_KEY = 2;
+  /** After ',' in an object: expecting a property name. */
+  private static final int S_KEY = 3;
+  private static final int S_COLON = 4;
+  /** Expecting ',' or the end of the innermost object or array. */
+  private static final int S_AFTER_VALUE = 5;
+  private static final int S_STRING = 6;
+  private static final int S_ESCAPE = 7;
+  private static final int S_UNICODE = 8;
+  private static final int S_NUMBER = 9;
+  private static final int S_LITERAL = 10;
+  /** The top level value is complete; only whitespace may follow. */
+  private static final int S_DONE = 11;
+
+  private static final int CHUNK_SIZE = 4096;
+
+  /** Maximum length of the indentation string of stringify(). */
+  private static final int MAX_GAP = 10;
+
+  private final JsRealm realm;
+  private int state = S_VALUE;
+
+  /** Open objects and arrays, innermost last. */
+  private JsObject[] containers = new JsObject[16];
+  /** Current property names of the open objects. */
+  private String[] keys = new String[16];
+  private int depth;
+
+  /** Characters of the current string, number or literal. */
+  private final StringBuffer token = new StringBuffer();
+  private boolean tokenIsKey;
+  private int unicode;
+  private int unicodeDigits;
+
+  /** Number of characters consumed by previous calls of feed(). */
+  private int position;
+  private Object result;
+
+  /**
+   * Creates a parser creating objects in the given realm.
+   */
+  public JsJson(JsRealm realm) {
+    this.realm = realm;
+  }
+
+  /**
+   * Parses the given JSON text.
+   *
+   * @throws JsException with a SyntaxError if the text is not valid JSON
+   */
+  public static Object parse(String text, JsRealm realm) {
+    JsJson parser = new JsJson(realm);
+    parser.feed(text);
+    return parser.finish();
+  }
+
+  /**
+   * Parses the JSON text read from the given reader, in chunks.
+   */
+  public static Object parse(Reader reader, JsRealm realm) throws IOException {
+    JsJson parser = new JsJson(realm);
+    char[] buf = new char[CHUNK_SIZE];
+    while (true) {
+      int count = reader.read(buf, 0, buf.length);
+      if (count == -1) {
+        break;
+      }
+      parser.feed(buf, 0, count);
+    }
+    return parser.finish();
+  }
+
+  /**
+   * Parses the UTF-8 encoded JSON text read from the given stream, in
+   * chunks. The stream is not closed.
+   */
+  public static Object parse(InputStream in, JsRealm realm) throws IOException {
+    return parse(new InputStreamReader(in, "UTF-8"), realm);
+  }
+
+  /**
+   * Parses the given chunk of JSON text.
+   */
+  public void feed(String chunk) {
+    int len = chunk.length();
+    char[] buf = new char[Math.min(len, CHUNK_SIZE)];
+    for (int pos = 0; pos < len; pos += buf.length) {
+      int count = Math.min(buf.length, len - pos);
+      chunk.getChars(pos, pos + count, buf, 0);
+      feed(buf, 0, count);
+    }
+  }
+
+  /**
+   * Parses the given chunk of JSON text.
+   */
+  public void feed(char[] buf, int off, int len) {
+    int end = off + len;
+    int i = off;
+    while (i < end) {
+      char c = buf[i];
+      switch (state) {
+        case S_VALUE:
+        case S_FIRST_ELEMENT:
+          if (c == '{') {
+            JsObject o = realm.newObject();
+            addValue(o);
+            push(o);
+            state = S_FIRST_KEY;
+          } else if (c == '[') {
+            JsArray a = realm.newArray();
+            addValue(a);
+            push(a);
+            state = S_FIRST_ELEMENT;
+          } else if (c == '"') {
+            token.setLength(0);
+            tokenIsKey = false;
+            state = S_STRING;
+          } else if (c == '-' || (c >= '0' && c <= '9')) {
+            token.setLength(0);
+            token.append(c);
+            state = S_NUMBER;
+          } else if (c == 't' || c == 'f' || c == 'n') {
+            token.setLength(0);
+            token.append(c);
+            state = S_LITERAL;
+          } else if (c == ']' && state == S_FIRST_ELEMENT) {
+            pop();
+          } else if (!isWhitespace(c)) {
+            throw unexpected(c, i - off);
+          }
+          i++;
+          break;
+
+        case S_FIRST_KEY:
+        case S_KEY:
+          if (c == '"') {
+            token.setLength(0);
+            tokenIsKey = true;
+            state = S_STRING;
+          } else if (c == '}' && state == S_FIRST_KEY) {
+            pop();
+          } else if (!isWhitespace(c)) {
+            throw unexpected(c, i - off);
+          }
+          i++;
+          break;
+
+        case S_COLON:
+          if (c == ':') {
+            state = S_VALUE;
+          } else if (!isWhitespace(c)) {
+            throw unexpected(c, i - off);
+          }
+          i++;
+          break;
+
+        case S_AFTER_VALUE:
+          if (c == ',') {
+            state = containers[depth - 1] instanceof JsArray ? S_VALUE : S_KEY;
+          } else if (c == ']' || c == '}') {
+            if ((c == ']') != (containers[depth - 1] instanceof JsArray)) {
+              throw unexpected(c, i - off);
+            }
+            pop();
+          } else if (!isWhitespace(c)) {
+            throw unexpected(c, i - off);
+          }
+          i++;
+          break;
+
+        case S_STRING:
+          // copy runs of plain characters in one go
+          int start = i;
+          while (i < end && (c = buf[i]) != '"' && c != '\\' && c >= ' ') {
+            i++;
+          }
+          token.append(buf, start, i - start);
+          if (i == end) {
+            break;
+          }
+          if (c == '"') {
+            endString();
+          } else if (c == '\\') {
+            state = S_ESCAPE;
+          } else {
+            throw error("Bad control character in string", i - off);
+          }
+          i++;
+          break;
+
+        case S_ESCAPE:
+          switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+              token.append(c);
+              break;
+            case 'b':
+              token.append('\b');
+              break;
+            case 'f':
+              token.append('\f');
+              break;
+            case 'n':
+              token.append('\n');
+              break;
+            case 'r':
+              token.append('\r');
+              break;
+            case 't':
+              token.append('\t');
+              break;
+            case 'u':
+              unicode = 0;
+              unicodeDigits = 0;
+              state = S_UNICODE;
+              i++;
+              continue;
+            default:
+              throw error("Bad escaped character", i - off);
+          }
+          state = S_STRING;
+          i++;
+          break;
+
+        case S_UNICODE:
+          int digit = Character.digit(c, 16);
+          if (digit == -1) {
+            throw error("Bad Unicode escape", i - off);
+          }
+          unicode = unicode * 16 + digit;
+          if (++unicodeDigits == 4) {
+            token.append((char) unicode);
+            state = S_STRING;
+          }
+          i++;
+          break;
+
+        case S_NUMBER:
+          if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E'
+              || c == '+' || c == '-') {
+            token.append(c);
+            i++;
+          } else {
+            // the terminating character is processed in the next state
+            endNumber(i - off);
+          }
+          break;
+
+        case S_LITERAL:
+          if (c >= 'a' && c <= 'z') {
+            token.append(c);
+            i++;
+          } else {
+            endLiteral(i - off);
+          }
+          break;
+
+        case S_DONE:
+          if (!isWhitespace(c)) {
+            throw unexpected(c, i - off);
+          }
+          i++;
+          break;
+      }
+    }
+    position += len;
+  }
+
+  /**
+   * Signals the end of the input and returns the parsed value.
+   *
+   * @throws JsException with a SyntaxError if the input was incomplete
+   */
+  public Object finish() {
+    if (state == S_NUMBER) {
+      endNumber(0);
+    } else if (state == S_LITERAL) {
+      endLiteral(0);
+    }
+    if (state != S_DONE) {
+      throw error("Unexpected end of input", 0);
+    }
+    return result;
+  }
+
+  private void push(JsObject container) {
+    if (depth == containers.length) {
+      JsObject[] newContainers = new JsObject[depth * 2];
+      System.arraycopy(containers, 0, newContainers, 0, depth);
+      containers = newContainers;
+      String[] newKeys = new String[depth * 2];
+      System.arraycopy(keys, 0, newKeys, 0, depth);
+      keys = newKeys;
+    }
+    containers[depth++] = container;
+  }
+
+  private void pop() {
+    depth--;
+    containers[depth] = null;
+    keys[depth] = null;
+    state = depth == 0 ? S_DONE : S_AFTER_VALUE;
+  }
+
+  /**
+   * Adds the given value to the innermost open object or array, or makes
+   * it the result if there is none.
+   */
+  private void addValue(Object value) {
+    if (depth == 0) {
+      result = value;
+      state = S_DONE;
+      return;
+    }
+    JsObject container = containers[depth - 1];
+    if (container instanceof JsArray) {
+      JsArray array = (JsArray) container;
+      array.setObject(array.size, value);
+    } else {
+      if (container.data == null) {
+        container.data = new Hashtable();
+      }
+      container.data.put(keys[depth - 1], value);
+      if (realm.accounting) {
+        realm.charge(JsRealm.PROPERTY_SIZE);
+      }
+    }
+    state = S_AFTER_VALUE;
+  }
+
+  private void addNumber(double d) {
+    if (depth > 0 && containers[depth - 1] instanceof JsArray) {
+      JsArray array = (JsArray) containers[depth - 1];
+      array.setNumber(array.size, d);
+      state = S_AFTER_VALUE;
+    } else {
+      addValue(new Double(d));
+    }
+  }
+
+  private void endString() {
+    String s = token.toString();
+    if (tokenIsKey) {
+      keys[depth - 1] = s;
+      state = S_COLON;
+    } else {
+      if (realm.accounting) {
+        realm.chargeString(s);
+      }
+      addValue(s);
+    }
+  }
+
+  /**
+   * Converts the number in the token buffer. Integers with up to 15 digits
+   * are converted directly; other numbers are validated and converted by
+   * DoubleConversion.
+   */
+  private void endNumber(int offset) {
+    int len = token.length();
+    int i = token.charAt(0) == '-' ? 1 : 0;
+    int start = i;
+    long value = 0;
+    char c;
+    while (i < len && (c = token.charAt(i)) >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      i++;
+    }
+    int digits = i - start;
+    if (digits == 0 || (digits > 1 && token.charAt(start) == '0')) {
+      throw error("Bad number", offset);
+    }
+    if (i == len && digits <= 15) {
+      addNumber(start == 1 ? -(double) value : value);
+      return;
+    }
+    if (i < len && token.charAt(i) == '.') {
+      i = skipDigits(i + 1, len, offset);
+    }
+    if (i < len && (token.charAt(i) == 'e' || token.charAt(i) == 'E')) {
+      i++;
+      if (i < len && (token.charAt(i) == '+' || token.charAt(i) == '-')) {
+        i++;
+      }
+      i = skipDigits(i, len, offset);
+    }
+    if (i != len) {
+      throw error("Bad number", offset);
+    }
+    addNumber(DoubleConversion.parse(token.toString()));
+  }
+
+  /**
+   * Returns the index after the digits starting at i in the token buffer;
+   * throws an exception if there are none.
+   */
+  private int skipDigits(int i, int len, int offset) {
+    int start = i;
+    char c;
+    while (i < len && (c = token.charAt(i)) >= '0' && c <= '9') {
+      i++;
+    }
+    if (i == start) {
+      throw error("Bad number", offset);
+    }
+    return i;
+  }
+
+  private void endLiteral(int offset) {
+    String s = token.toString();
+    if (s.equals("true")) {
+      addValue(Boolean.TRUE);
+    } else if (s.equals("false")) {
+      addValue(Boolean.FALSE);
+    } else if (s.equals("null")) {
+      addValue(JsSystem.JS_NULL);
+    } else {
+      throw error("Unexpected token " + s, offset);
+    }
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  private JsException unexpected(char c, int offset) {
+    return error("Unexpected character '" + c + "'", offset);
+  }
+
+  /**
+   * Creates a SyntaxError for the given offset in the current chunk.
+   */
+  private JsException error(String message, int offset) {
+    return new JsException(new JsError(realm.prototypes[JsRealm.SYNTAX_ERROR],
+        "JSON.parse: " + message + " at position " + (position + offset)));
+  }
+
+  /**
+   * Converts the given value to JSON text. Functions and undefined values
+   * are skipped in objects and converted to null in arrays.
+   *
+   * @param value the value to convert
+   * @param space indentation: a number of spaces, a string, or null for
+   *     no line breaks
+   * @param realm realm for the TypeError thrown for circular structures
+   * @return the JSON text, or null (undefined) if the value is undefined or
+   *     a function
+   */
+  public static String stringify(Object value, Object space, JsRealm realm) {
+    String gap = "";
+    if (space instanceof Double) {
+      int n = Math.min(MAX_GAP, (int) ((Double) space).doubleValue());
+      StringBuffer buf = new StringBuffer();
+      for (int i = 0; i < n; i++) {
+        buf.append(' ');
+      }
+      gap = buf.toString();
+    } else if (space instanceof String) {
+      gap = (String) space;
+      if (gap.length() > MAX_GAP) {
+        gap = gap.substring(0, MAX_GAP);
+      }
+    }
+    StringBuffer buf = new StringBuffer();
+    Stringifier stringifier = new Stringifier(buf, gap, realm);
+    return stringifier.write(value, 0) ? buf.toString() : null;
+  }
+
+  /**
+   * State of a call of stringify().
+   */
+  static class Stringifier {
+    private final StringBuffer buf;
+    private final String gap;
+    private final JsRealm realm;
+    /** Objects and arrays being written, for detecting cycles. */
+    private JsObject[] ancestors = new JsObject[16];
+    private int depth;
+
+    Stringifier(StringBuffer buf, String gap, JsRealm realm) {
+      this.buf = buf;
+      this.gap = gap;
+      this.realm = realm;
+    }
+
+    /**
+     * Writes the given value; returns false if nothing was written
+     * because the value is undefined or a function.
+     */
+    boolean write(Object value, int level) {
+      if (value instanceof JsObject && !(value instanceof JsFunction)) {
+        JsObject o = (JsObject) value;
+        if (o.value != null) {
+          // Number, String and Boolean objects
+          value = o.value;
+        } else if (o instanceof JsDate) {
+          quote(toIsoString((JsDate) o));
+          return true;
+        } else {
+          enter(o);
+          if (o instanceof JsArray) {
+            writeArray((JsArray) o, level);
+          } else {
+            writeObject(o, level);
+          }
+          depth--;
+          ancestors[depth] = null;
+          return true;
+        }
+      }
+      if (value == null || value instanceof JsFunction) {
+        return false;
+      }
+      if (value == JsSystem.JS_NULL) {
+        buf.append("null");
+      } else if (value instanceof Double) {
+        writeNumber(((Double) value).doubleValue());
+      } else if (value instanceof String) {
+        quote((String) value);
+      } else if (value instanceof Boolean || value instanceof Integer) {
+        buf.append(value.toString());
+      } else {
+        quote(value.toString());
+      }
+      return true;
+    }
+
+    private void enter(JsObject o) {
+      for (int i = 0; i < depth; i++) {
+        if (ancestors[i] == o) {
+          throw new JsException(new JsError(realm.prototypes[JsRealm.TYPE_ERROR],
+              "Converting circular structure to JSON"));
+        }
+      }
+      if (depth == ancestors.length) {
+        JsObject[] newAncestors = new JsObject[depth * 2];
+        System.arraycopy(ancestors, 0, newAncestors, 0, depth);
+        ancestors = newAncestors;
+      }
+      ancestors[depth++] = o;
+    }
+
+    private void writeArray(JsArray array, int level) {
+      int size = array.size;
+      if (size == 0) {
+        buf.append("[]");
+        return;
+      }
+      buf.append('[');
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          buf.append(',');
+        }
+        newLine(level + 1);
+        if (array.objects[i] == JsArray.NUMBER_MARKER) {
+          writeNumber(array.numbers[i]);
+        } else if (!write(array.objects[i], level + 1)) {
+          buf.append("null");
+        }
+      }
+      newLine(level);
+      buf.append(']');
+    }
+
+    private void writeObject(JsObject o, int level) {
+      buf.append('{');
+      boolean empty = true;
+      if (o.data != null) {
+        for (Enumeration e = o.data.keys(); e.hasMoreElements();) {
+          String key = (String) e.nextElement();
+          Object value = o.data.get(key);
+          if (value == JsObject.UNDEFINED_PLACEHOLDER || value instanceof JsFunction) {
+            continue;
+          }
+          if (!empty) {
+            buf.append(',');
+          }
+          empty = false;
+          newLine(level + 1);
+          quote(key);
+          buf.append(gap.length() == 0 ? ":" : ": ");
+          write(value, level + 1);
+        }
+      }
+      if (!empty) {
+        newLine(level);
+      }
+      buf.append('}');
+    }
+
+    private void writeNumber(double d) {
+      if (Double.isNaN(d) || Double.isInfinite(d)) {
+        buf.append("null");
+      } else {
+        buf.append(DoubleConversion.toString(d));
+      }
+    }
+
+    private void newLine(int level) {
+      if (gap.length() > 0) {
+        buf.append('\n');
+        for (int i = 0; i < level; i++) {
+          buf.append(gap);
+        }
+      }
+    }
+
+    private void quote(String s) {
+      buf.append('"');
+      int len = s.length();
+      for (int i = 0; i < len; i++) {
+        char c = s.charAt(i);
+        switch (c) {
+          case '"':
+            buf.append("\\\"");
+            break;
+          case '\\':
+            buf.append("\\\\");
+            break;
+          case '\b':
+            buf.append("\\b");
+            break;
+          case '\f':
+            buf.append("\\f");
+            break;
+          case '\n':
+            buf.append("\\n");
+            break;
+          case '\r':
+            buf.append("\\r");
+            break;
+          case '\t':
+            buf.append("\\t");
+            break;
+          default:
+            if (c < ' ') {
+              buf.append("\\u00");
+              buf.append(Character.forDigit(c >> 4, 16));
+              buf.append(Character.forDigit(c & 15, 16));
+            } else {
+              buf.append(c);
+            }
+        }
+      }
+      buf.append('"');
+    }
+
+    /**
+     * Returns the date in the format of Date.prototype.toJSON(), e.g.
+     * 2008-03-01T10:20:30.000Z. The UTC fields are computed from the time
+     * value using the proleptic Gregorian calendar, like in JavaScript.
+     */
+    private static String toIsoString(JsDate date) {
+      long time = date.time.getTime().getTime();
+      long days = time / 86400000L;
+      int millis = (int) (time - days * 86400000L);
+      if (millis < 0) {
+        millis += 86400000;
+        days--;
+      }
+      // civil date of the day number, see days_from_civil() by H. Hinnant
+      long z = days + 719468;
+      long era = (z >= 0 ? z : z - 146096) / 146097;
+      int dayOfEra = (int) (z - era * 146097);
+      int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+          - dayOfEra / 146096) / 365;
+      int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      int mp = (5 * dayOfYear + 2) / 153;
+      int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+      int month = mp < 10 ? mp + 3 : mp - 9;
+      long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+      StringBuffer buf = new StringBuffer(24);
+      if (year >= 0 && year <= 9999) {
+        appendPadded(buf, year, 4);
+      } else {
+        // expanded years
+        buf.append(year < 0 ? '-' : '+');
+        appendPadded(buf, Math.abs(year), 6);
+      }
+      buf.append('-');
+      appendPadded(buf, month, 2);
+      buf.append('-');
+      appendPadded(buf, day, 2);
+      buf.append('T');
+      appendPadded(buf, millis / 3600000, 2);
+      buf.append(':');
+      appendPadded(buf, millis / 60000 % 60, 2);
+      buf.append(':');
+      appendPadded(buf, millis / 1000 % 60, 2);
+      buf.append('.');
+      appendPadded(buf, millis % 1000, 3);
+      buf.append('Z');
+      return buf.toString();
+    }
+
+    private static void appendPadded(StringBuffer buf, long value, int digits) {
+      String s = String.valueOf(value);
+      for (int i = s.length(); i < digits; i++) {
+        buf.append('0');
+      }
+      buf.append(s);
+    }
+  }
+}
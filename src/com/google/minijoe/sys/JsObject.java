@@ -144,6 +144,11 @@ public class JsObject  {
   static final int ID_SQRT1_2_SET = 83;
   static final int ID_SQRT2 = 84;
   static final int ID_SQRT2_SET = 85;
+
+  // JSON
+
+  static final int ID_JSON_PARSE = 86;
+  static final int ID_JSON_STRINGIFY = 87;
   
   public static final int TYPE_UNDEFINED = 0;
   public static final int TYPE_NULL = 1;
@@ -160,7 +165,7 @@ public class JsObject  {
   };
   
   /** Placeholder for Javascript undefined (Java null) values in hashtables */
-  private static final Object UNDEFINED_PLACEHOLDER = new Object();
+  static final Object UNDEFINED_PLACEHOLDER = new Object();
   
   /** Prototype of all Javascript objects */
   public static final JsObject OBJECT_PROTOTYPE = 
@@ -209,16 +214,22 @@ public class JsObject  {
   /** Prototype chain */
   protected JsObject __proto__;
   
-  /** Hashtable holding the reverse mapping for native methods. */
-  private Hashtable natives = new Hashtable(10);
+  /** 
+   * Hashtable holding the reverse mapping for native methods; created on 
+   * demand since most objects don't hold native methods. 
+   */
+  Hashtable natives;
   /** Hashtable holding the properties and values of this object. */
-  private Hashtable data;
+  Hashtable data;
   /** Parent object in scope chain */
   protected JsObject scopeChain;
 
   /** Primitive object value, used for Number and String. */
   Object value;
 
+  /** If true, all modifications of this object are ignored. */
+  boolean frozen;
+
   /** 
    * Constructs a new Javascript object with the given prototype. 
    */
@@ -347,24 +358,39 @@ public class JsObject  {
    * @return this (for chained calls)
    */
   public JsObject addVar(String prop, Object v){
+    if (frozen) {
+      return this;
+    }
     if (data == null){
       data = new Hashtable();
     }
     data.put(prop, v == null ? UNDEFINED_PLACEHOLDER : v);
-    if (v instanceof JsFunction && ((JsFunction) v).index != ID_NOOP) {
-      String key = getNativeKey(((JsFunction) v).factoryTypeId, ((JsFunction) v).index);
-      if(key != null) {
-        if(natives.containsKey(key)) {
-          System.out.println("Duplicate native function ID '" +
-            ((JsFunction) v).index + "' detected for method '" + prop + "'.");
-        } else {
-          natives.put(key, prop);
-        }
-      }
+    if (v instanceof JsFunction) {
+      addNativeName(prop, ((JsFunction) v).factoryTypeId, ((JsFunction) v).index);
     }
     return this;
   }
 
+  /**
+   * Registers the given property name in the reverse mapping for native
+   * methods (see getFunctionName()).
+   */
+  void addNativeName(String prop, int factoryTypeId, int index) {
+    if (index == ID_NOOP) {
+      return;
+    }
+    String key = getNativeKey(factoryTypeId, index);
+    if (natives == null) {
+      natives = new Hashtable(10);
+    }
+    if(natives.containsKey(key)) {
+      System.out.println("Duplicate native function ID '" +
+        index + "' detected for method '" + prop + "'.");
+    } else {
+      natives.put(key, prop);
+    }
+  }
+
   /** 
    * Convenience method for <tt>addVar(prop, new JsFunction(int nativeCallId, int parCount)</tt>
    */
@@ -380,7 +406,7 @@ public class JsObject  {
   }
 
   private String getFunctionNameImpl(String key) {
-    String prop = (String) natives.get(key);
+    String prop = natives == null ? null : (String) natives.get(key);
     if (prop == null && __proto__ != null) {
       prop = __proto__.getFunctionNameImpl(key);
     }
@@ -408,6 +434,9 @@ public class JsObject  {
    * @return this (for chained calls)
    */
   public void setObject(String key, Object v){
+    if (frozen) {
+      return;
+    }
 
     Object old = getRawInPrototypeChain(key);
     if (old instanceof JsFunction 
@@ -432,10 +461,8 @@ public class JsObject  {
    * prototype or scope chain.
    */
   public Enumeration keys(){
-    if(data == null) {
-      data = new Hashtable();
-    }
-    return data.keys();
+    // no lazy initialization here: frozen objects may be shared between threads
+    return data == null ? new Hashtable().keys() : data.keys();
   }
 
   /**
@@ -443,10 +470,7 @@ public class JsObject  {
    * prototype or scope chain.
    */
   public Enumeration elements(){
-    if(data == null) {
-      data = new Hashtable();
-    }
-    return data.elements();
+    return data == null ? new Hashtable().elements() : data.elements();
   }
 
   /**
@@ -460,6 +484,9 @@ public class JsObject  {
    * Delete the given property. Returns true if it was actually deleted.
    */
   public boolean delete(String key){
+    if (frozen) {
+      return false;
+    }
     if (data == null) {
       return true;
     }
@@ -473,7 +500,7 @@ public class JsObject  {
     }
 
     data.remove(key);
-    if(isFunc) {
+    if(isFunc && natives != null) {
         natives.remove(getNativeKey(((JsFunction) old).factoryTypeId, ((JsFunction) old).index));
     }
     return true;
@@ -483,12 +510,47 @@ public class JsObject  {
    * Clears all properties.
    */
   public void clear(){
-    if(data != null) {
+    if(data != null && !frozen) {
       data.clear();
       data = null;
     }
   }
 
+  /**
+   * Prevents all further modifications of this object. Frozen objects can
+   * be shared safely between threads (see JsRealm).
+   *
+   * @return this (for chained calls)
+   */
+  public JsObject freeze() {
+    frozen = true;
+    return this;
+  }
+
+  /**
+   * Returns true if this object has been frozen.
+   */
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Returns the number of own properties, for memory accounting (see
+   * JsRealm.setMemoryLimits()).
+   */
+  int getPropertyCount() {
+    return data == null ? 0 : data.size();
+  }
+
+  /**
+   * Replaces the own properties of this object with a shallow copy of the
+   * own properties of the given object.
+   */
+  void copyOwnProperties(JsObject source) {
+    data = source.data == null ? null : (Hashtable) source.data.clone();
+    natives = source.natives == null ? null : (Hashtable) source.natives.clone();
+  }
+
   /** 
    * Execute java member implementation. Parameters for functions start at 
    * stack[sp+2]. Function and getter results are returned at stack[sp+0].
@@ -513,11 +575,8 @@ public class JsObject  {
           }
           // otherwise, don't do anything -- regular constructor call
         } else {
-          if (obj == null || obj == JsSystem.JS_NULL) {
-            stack.setObject(sp, new JsObject(OBJECT_PROTOTYPE));
-          } else {
-            stack.setObject(sp, JsSystem.toJsObject(obj));
-          }
+          stack.setObject(sp, JsRealm.get(stack).toJsObject(
+              obj == JsSystem.JS_NULL ? null : obj));
         }
         break;
         
@@ -584,7 +643,7 @@ public class JsObject  {
         
       case ID_INIT_ARRAY:
         JsArray array = (isConstruction(stack, sp)
-          ? (JsArray) this : new JsArray());
+          ? (JsArray) this : JsRealm.get(stack).newArray());
         if (parCount == 1 && stack.isNumber(sp + 2)) {
           array.setSize(stack.getInt(sp + 2));
         } else {
@@ -687,11 +746,8 @@ public class JsObject  {
         break;
         
       case ID_PARSE_FLOAT:
-        try {
-          stack.setNumber(sp, Double.parseDouble(stack.getString(sp + 2)));
-        } catch (NumberFormatException e) {
-          stack.setNumber(sp, Double.NaN);
-        }
+        stack.setNumber(sp, 
+            DoubleConversion.parsePrefix(stack.getString(sp + 2)));
         break;
         
       case ID_IS_NAN:
@@ -733,10 +789,21 @@ public class JsObject  {
         break;
 
       case ID_ACOS:
+        stack.setNumber(sp, JsSystem.math.acos(stack.getNumber(sp + 2)));
+        break;
+
       case ID_ASIN:
+        stack.setNumber(sp, JsSystem.math.asin(stack.getNumber(sp + 2)));
+        break;
+
       case ID_ATAN:
+        stack.setNumber(sp, JsSystem.math.atan(stack.getNumber(sp + 2)));
+        break;
+
       case ID_ATAN2:
-        throw new RuntimeException("NYI");
+        stack.setNumber(sp, JsSystem.math.atan2(stack.getNumber(sp + 2), 
+            stack.getNumber(sp + 3)));
+        break;
           
       case ID_CEIL:
         stack.setNumber(sp, Math.ceil(stack.getNumber(sp + 2)));
@@ -747,7 +814,7 @@ public class JsObject  {
         break;
         
       case ID_EXP:
-        stack.setNumber(sp, JsSystem.exp(stack.getNumber(sp + 2)));
+        stack.setNumber(sp, JsSystem.math.exp(stack.getNumber(sp + 2)));
         break;
         
       case ID_FLOOR:
@@ -755,7 +822,7 @@ public class JsObject  {
         break;
         
       case ID_LOG:
-        stack.setNumber(sp, JsSystem.ln(stack.getNumber(sp + 2)));
+        stack.setNumber(sp, JsSystem.math.log(stack.getNumber(sp + 2)));
         break;
         
       case ID_MAX:
@@ -775,12 +842,12 @@ public class JsObject  {
         break;
 
       case ID_POW:
-        stack.setNumber(sp, JsSystem.pow(stack.getNumber(sp + 2), 
+        stack.setNumber(sp, JsSystem.math.pow(stack.getNumber(sp + 2), 
             stack.getNumber(sp + 3)));
         break;
         
       case ID_RANDOM:
-        stack.setNumber(sp, JsSystem.random.nextDouble());
+        stack.setNumber(sp, JsRealm.get(stack).random.nextDouble());
         break;
 
       case ID_ROUND:
@@ -799,6 +866,18 @@ public class JsObject  {
         stack.setNumber(sp, Math.tan(stack.getNumber(sp + 2)));
         break;
 
+      // JSON
+
+      case ID_JSON_PARSE:
+        stack.setObject(sp, JsJson.parse(stack.getString(sp + 2), JsRealm.get(stack)));
+        break;
+
+      case ID_JSON_STRINGIFY:
+        // replacer functions are not supported
+        stack.setObject(sp, JsJson.stringify(stack.getObject(sp + 2),
+            stack.getObject(sp + 4), JsRealm.get(stack)));
+        break;
+
       // string methods
         
       case ID_FROM_CHAR_CODE:
@@ -913,7 +992,7 @@ public class JsObject  {
           limit = Double.MAX_VALUE;
         }
         
-        JsArray a = new JsArray();
+        JsArray a = JsRealm.get(stack).newArray();
         if (sep.length() == 0) {
           if(s.length() < limit) {
             limit = s.length();
@@ -973,7 +1052,9 @@ public class JsObject  {
       case ID_TO_FIXED:
       case ID_TO_PRECISION:
         stack.setObject(sp, JsSystem.formatNumber(index, 
-            stack.getNumber(sp + 2), stack.getNumber(sp + 3)));
+            JsSystem.toNumber(value), 
+            stack.isNull(sp + 2) ? Double.NaN : stack.getNumber(sp + 2),
+            JsRealm.get(stack)));
         break;
         
       case ID_UTC:
@@ -0,0 +1,573 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Random;
+
+/**
+ * An isolated script execution environment, owning its own prototype graph,
+ * global object and random number generator. Scripts running in different
+ * realms do not share any mutable state, so several realms can be used
+ * concurrently from different threads. A single realm must not be used by
+ * more than one thread at a time.
+ *
+ * The built-in methods of the prototypes (e.g. Array.prototype.join) are
+ * native function descriptors holding just an id and a parameter count.
+ * These descriptors are frozen and shared by all realms; only the prototype
+ * objects referencing them are copied for each realm.
+ *
+ * The interpreter determines the realm from the evaluation stack (see
+ * createStack()). Stacks not created by a realm use the default realm, which
+ * is backed by the static prototypes (JsObject.OBJECT_PROTOTYPE etc.), so
+ * existing code keeps working unchanged. Objects must not be passed between
+ * realms; strings, numbers and booleans are immutable and can be shared.
+ */
+public class JsRealm implements JsObjectFactory {
+
+  static final int OBJECT = 0;
+  static final int FUNCTION = 1;
+  static final int BOOLEAN = 2;
+  static final int NUMBER = 3;
+  static final int STRING = 4;
+  static final int ARRAY = 5;
+  static final int DATE = 6;
+  static final int ARGUMENTS = 7;
+  static final int ERROR = 8;
+  static final int EVAL_ERROR = 9;
+  static final int RANGE_ERROR = 10;
+  static final int REFERENCE_ERROR = 11;
+  static final int SYNTAX_ERROR = 12;
+  static final int TYPE_ERROR = 13;
+  static final int URI_ERROR = 14;
+
+  static final int PROTOTYPE_COUNT = 15;
+
+  /**
+   * Number of checkpoints (backward jumps and calls) between two checks of
+   * the step limit, timeout and interrupt flag.
+   */
+  static final int CHECK_INTERVAL = 1024;
+
+  /** Estimated size of an object without properties, in bytes. */
+  static final int OBJECT_SIZE = 32;
+  /** Estimated size of a property (hashtable entry), in bytes. */
+  static final int PROPERTY_SIZE = 32;
+  /** Estimated size of an array slot (object reference and double), in bytes. */
+  static final int ARRAY_SLOT_SIZE = 12;
+  /** Estimated size of a string without its characters, in bytes. */
+  static final int STRING_SIZE = 24;
+  /** Estimated size of a scripted function instance, in bytes. */
+  static final int FUNCTION_SIZE = 64;
+
+  /**
+   * Notified when the soft memory limit of a realm is exceeded.
+   */
+  public interface MemoryListener {
+    /**
+     * Called on the thread running the script when the number of bytes
+     * allocated exceeds the soft limit for the first time after
+     * setMemoryLimits() or resetAllocatedBytes().
+     */
+    void softLimitExceeded(JsRealm realm, long allocated);
+  }
+
+  /** Index of the prototype of each prototype. */
+  private static final int[] PARENTS = {
+    -1, OBJECT, OBJECT, OBJECT, OBJECT, OBJECT, OBJECT, OBJECT, OBJECT,
+    ERROR, ERROR, ERROR, ERROR, ERROR, ERROR
+  };
+
+  /**
+   * Frozen copies of the static prototypes, taken before any script can
+   * modify them.
+   */
+  static final JsObject[] TEMPLATES = new JsObject[PROTOTYPE_COUNT];
+
+  /** The realm backed by the static prototypes. */
+  public static final JsRealm DEFAULT = new JsRealm(new JsObject[] {
+      JsObject.OBJECT_PROTOTYPE,
+      JsFunction.FUNCTION_PROTOTYPE,
+      JsObject.BOOLEAN_PROTOTYPE,
+      JsObject.NUMBER_PROTOTYPE,
+      JsObject.STRING_PROTOTYPE,
+      JsArray.PROTOTYPE,
+      JsDate.DATE_PROTOTYPE,
+      JsArguments.ARGUMENTS_PROTOTYPE,
+      JsError.ERROR_PROTOTYPE,
+      JsError.EVAL_ERROR_PROTOTYPE,
+      JsError.RANGE_ERROR_PROTOTYPE,
+      JsError.REFERENCE_ERROR_PROTOTYPE,
+      JsError.SYNTAX_ERROR_PROTOTYPE,
+      JsError.TYPE_ERROR_PROTOTYPE,
+      JsError.URI_ERROR_PROTOTYPE
+  }, JsSystem.random);
+
+  static {
+    for (int i = 0; i < PROTOTYPE_COUNT; i++) {
+      JsObject template = new JsObject(
+          PARENTS[i] == -1 ? null : TEMPLATES[PARENTS[i]]);
+      template.copyOwnProperties(DEFAULT.prototypes[i]);
+      TEMPLATES[i] = template;
+    }
+    for (int i = 0; i < PROTOTYPE_COUNT; i++) {
+      for (Enumeration e = TEMPLATES[i].elements(); e.hasMoreElements();) {
+        Object value = e.nextElement();
+        if (value instanceof JsFunction) {
+          JsFunction descriptor = (JsFunction) value;
+          descriptor.__proto__ = TEMPLATES[FUNCTION];
+          descriptor.freeze();
+        }
+      }
+    }
+    for (int i = 0; i < PROTOTYPE_COUNT; i++) {
+      TEMPLATES[i].freeze();
+    }
+  }
+
+  /** Prototypes of this realm, indexed by the constants above. */
+  final JsObject[] prototypes;
+
+  /** Random number generator for Math.random() and sorting. */
+  final Random random;
+
+  JsObject global;
+
+  /**
+   * Checkpoints left until the limits are checked again; decremented by the
+   * interpreter on each backward jump and call.
+   */
+  int countdown = CHECK_INTERVAL;
+  private int interval = CHECK_INTERVAL;
+  private long steps;
+  private long stepLimit = -1;
+  private long deadline;
+  private volatile boolean interrupted;
+  private boolean terminationCatchable;
+
+  /** True if the interpreter needs to report allocations (see charge()). */
+  boolean accounting;
+  private long allocated;
+  private long softMemoryLimit = -1;
+  private long hardMemoryLimit = -1;
+  private boolean softLimitReported;
+  private MemoryListener memoryListener;
+
+  private JsRealm(JsObject[] prototypes, Random random) {
+    this.prototypes = prototypes;
+    this.random = random;
+  }
+
+  /**
+   * Creates a new realm with fresh copies of all built-in prototypes and a
+   * new global object.
+   */
+  public JsRealm() {
+    this(new JsObject[PROTOTYPE_COUNT], new Random());
+    createPrototypes(true);
+    global = JsSystem.createGlobal(this);
+  }
+
+  /**
+   * Creates a realm with empty prototypes and without global object, to be 
+   * filled by JsSnapshot.
+   */
+  static JsRealm createEmpty() {
+    JsRealm realm = new JsRealm(new JsObject[PROTOTYPE_COUNT], new Random());
+    realm.createPrototypes(false);
+    return realm;
+  }
+
+  private void createPrototypes(boolean copyTemplates) {
+    for (int i = 0; i < PROTOTYPE_COUNT; i++) {
+      JsObject parent = PARENTS[i] == -1 ? null : prototypes[PARENTS[i]];
+      JsObject prototype = i == DATE ? new JsDate(parent) : new JsObject(parent);
+      if (copyTemplates) {
+        prototype.copyOwnProperties(TEMPLATES[i]);
+      }
+      prototypes[i] = prototype;
+    }
+  }
+
+  /**
+   * Returns the realm of the given evaluation stack; the default realm if the
+   * stack was not created by a realm.
+   */
+  public static JsRealm get(JsArray stack) {
+    JsRealm realm = stack.realm;
+    return realm == null ? DEFAULT : realm;
+  }
+
+  /**
+   * Returns the global object of this realm. For the default realm, a new
+   * global object is created by each call of JsSystem.createGlobal(), so this
+   * method returns null.
+   */
+  public JsObject getGlobal() {
+    return global;
+  }
+
+  public JsObject getObjectPrototype() {
+    return prototypes[OBJECT];
+  }
+
+  public JsObject getFunctionPrototype() {
+    return prototypes[FUNCTION];
+  }
+
+  public JsObject getArrayPrototype() {
+    return prototypes[ARRAY];
+  }
+
+  /**
+   * Creates a new evaluation stack bound to this realm, with the given
+   * context object at index 0.
+   */
+  public JsArray createStack(JsObject context) {
+    JsArray stack = new JsArray(prototypes[ARRAY]);
+    stack.realm = this == DEFAULT ? null : this;
+    stack.setObject(0, context);
+    return stack;
+  }
+
+  /**
+   * Parses the given stream and runs the main function in this realm. If the
+   * context is null, the global object of this realm is used.
+   */
+  public Object exec(DataInputStream dis, JsObject context) throws IOException {
+    return JsFunction.exec(dis, context == null ? global : context, this);
+  }
+
+  /**
+   * Creates a new array in this realm.
+   */
+  public JsArray newArray() {
+    JsArray array = new JsArray(prototypes[ARRAY]);
+    if (accounting) {
+      charge(OBJECT_SIZE + JsArray.INITIAL_SPACE * ARRAY_SLOT_SIZE);
+      array.realm = this;
+    }
+    return array;
+  }
+
+  /**
+   * Creates a new plain object in this realm.
+   */
+  public JsObject newObject() {
+    if (accounting) {
+      charge(OBJECT_SIZE);
+    }
+    return new JsObject(prototypes[OBJECT]);
+  }
+
+  /**
+   * Performs "boxing" for primitive values (string, boolean, number), using
+   * the prototypes of this realm. See JsSystem.toJsObject().
+   */
+  public JsObject toJsObject(Object v) {
+    if (v instanceof JsObject) {
+      return (JsObject) v;
+    }
+    JsObject o;
+    if (v instanceof String) {
+      o = new JsObject(prototypes[STRING]);
+    } else if (v instanceof Boolean) {
+      o = new JsObject(prototypes[BOOLEAN]);
+    } else if (v instanceof Double) {
+      o = new JsObject(prototypes[NUMBER]);
+    } else {
+      return new JsObject(prototypes[OBJECT]);
+    }
+    o.value = v;
+    return o;
+  }
+
+  /**
+   * Creates a JS error object matching the given Java exception.
+   */
+  public JsError newError(Exception e) {
+    return new JsError(getErrorPrototype(e), e.toString());
+  }
+
+  /**
+   * Returns the prototype of the Javascript error best matching the given
+   * Java exception class.
+   */
+  JsObject getErrorPrototype(Exception e) {
+    if (e instanceof NullPointerException) {
+      return prototypes[REFERENCE_ERROR];
+    }
+    if (e instanceof ArrayIndexOutOfBoundsException) {
+      return prototypes[RANGE_ERROR];
+    }
+    if (e instanceof ClassCastException) {
+      return prototypes[TYPE_ERROR];
+    }
+    return prototypes[ERROR];
+  }
+
+  /**
+   * Limits the number of steps scripts may execute in this realm, counted
+   * from now. A step is a backward jump (i.e. a loop iteration) or a
+   * function call. When the limit is reached, the running script is
+   * terminated (see setTerminationCatchable()).
+   *
+   * @param limit the maximum number of steps, or -1 for no limit
+   */
+  public void setStepLimit(long limit) {
+    steps = 0;
+    stepLimit = limit;
+    resetCountdown();
+  }
+
+  /**
+   * Returns the number of steps executed since the last call of
+   * setStepLimit(). Precise only while no script runs in this realm.
+   */
+  public long getStepCount() {
+    return steps + interval - countdown;
+  }
+
+  /**
+   * Terminates scripts running in this realm when the given number of
+   * milliseconds from now have elapsed. The time is checked every
+   * CHECK_INTERVAL steps.
+   *
+   * @param millis the timeout, or 0 for no timeout
+   */
+  public void setTimeout(long millis) {
+    deadline = millis <= 0 ? 0 : System.currentTimeMillis() + millis;
+  }
+
+  /**
+   * Requests termination of the script running in this realm at its next
+   * check of the limits. May be called from any thread. The request is
+   * cleared when the termination is raised.
+   */
+  public void interrupt() {
+    interrupted = true;
+  }
+
+  /**
+   * Determines how scripts are terminated. If true, a RangeError is thrown,
+   * which the script may catch like other runtime errors, i.e. in a calling
+   * function (it will be terminated again at the next check if a limit is
+   * still exceeded). Otherwise (the default), a JsTerminationException is thrown, which
+   * bypasses all catch and finally blocks and propagates to the host.
+   */
+  public void setTerminationCatchable(boolean catchable) {
+    terminationCatchable = catchable;
+  }
+
+  /**
+   * Enables memory accounting for this realm and sets the memory limits. The
+   * interpreter then estimates the number of bytes allocated by scripts for
+   * objects, arrays, functions, strings and added properties and array
+   * elements. This is the allocation volume, not the live heap size: memory
+   * freed by the garbage collector is not subtracted, so hosts running
+   * long-lived scripts typically call resetAllocatedBytes() per task.
+   *
+   * @param softLimit allocation volume at which the memory listener is
+   *     notified, or -1 for no soft limit
+   * @param hardLimit allocation volume at which the running script is
+   *     terminated (see setTerminationCatchable()), or -1 for no hard limit
+   */
+  public void setMemoryLimits(long softLimit, long hardLimit) {
+    softMemoryLimit = softLimit;
+    hardMemoryLimit = hardLimit;
+    softLimitReported = false;
+    accounting = true;
+  }
+
+  /**
+   * Sets the listener notified when the soft memory limit is exceeded.
+   */
+  public void setMemoryListener(MemoryListener listener) {
+    memoryListener = listener;
+  }
+
+  /**
+   * Returns the estimated number of bytes allocated by scripts since memory
+   * accounting was enabled or resetAllocatedBytes() was called.
+   */
+  public long getAllocatedBytes() {
+    return allocated;
+  }
+
+  /**
+   * Resets the allocation count (and the soft limit notification) to zero.
+   */
+  public void resetAllocatedBytes() {
+    allocated = 0;
+    softLimitReported = false;
+  }
+
+  /**
+   * Adds the given number of bytes to the allocation count, notifying the
+   * listener or terminating the script if a limit is exceeded. Does nothing
+   * if accounting is disabled or bytes is not positive.
+   */
+  void charge(long bytes) {
+    if (!accounting || bytes <= 0) {
+      return;
+    }
+    allocated += bytes;
+    if (softMemoryLimit >= 0 && allocated > softMemoryLimit && !softLimitReported) {
+      softLimitReported = true;
+      if (memoryListener != null) {
+        memoryListener.softLimitExceeded(this, allocated);
+      }
+    }
+    if (hardMemoryLimit >= 0 && allocated > hardMemoryLimit) {
+      terminate("memory limit exceeded");
+    }
+  }
+
+  /**
+   * Charges the properties added to the given object since it had the given
+   * number of properties.
+   */
+  void chargeProperties(JsObject o, int countBefore) {
+    charge((long) (o.getPropertyCount() - countBefore) * PROPERTY_SIZE);
+  }
+
+  /**
+   * Charges the given string if it is a string; used for strings created
+   * by the interpreter and by native functions.
+   */
+  void chargeString(Object s) {
+    if (s instanceof String) {
+      charge(STRING_SIZE + 2 * ((String) s).length());
+    }
+  }
+
+  /**
+   * Called by the interpreter when the countdown has expired. Checks the
+   * limits and throws an exception if the script needs to be terminated.
+   */
+  void checkLimits() {
+    steps += interval;
+    String reason = null;
+    if (interrupted) {
+      interrupted = false;
+      reason = "interrupted";
+    } else if (stepLimit >= 0 && steps >= stepLimit) {
+      reason = "step limit exceeded";
+    } else if (deadline != 0 && System.currentTimeMillis() >= deadline) {
+      reason = "timeout";
+    }
+    resetCountdown();
+    if (reason != null) {
+      terminate(reason);
+    }
+  }
+
+  private void terminate(String reason) {
+    if (terminationCatchable) {
+      throw new JsException(new JsError(prototypes[RANGE_ERROR],
+          "Script terminated: " + reason));
+    }
+    throw new JsTerminationException(reason, this);
+  }
+
+  private void resetCountdown() {
+    interval = CHECK_INTERVAL;
+    if (stepLimit >= 0 && stepLimit - steps < CHECK_INTERVAL) {
+      interval = (int) Math.max(1, stepLimit - steps);
+    }
+    countdown = interval;
+  }
+
+  /**
+   * Creates a new instance of a JS object (Date, Object, Array...) in this
+   * realm, depending on the factory id.
+   *
+   * @param type one of the JsSystem.FACTORY_ID_XXX constants
+   * @return the newly created instance
+   */
+  public JsObject newInstance(int type) {
+    if (type == JsSystem.FACTORY_ID_ARRAY) {
+      return newArray();
+    }
+    if (accounting) {
+      charge(OBJECT_SIZE);
+    }
+    switch(type){
+      case JsSystem.FACTORY_ID_OBJECT:
+        return new JsObject(prototypes[OBJECT]);
+      case JsSystem.FACTORY_ID_DATE:
+        return new JsDate(prototypes[DATE]);
+      case JsSystem.FACTORY_ID_BOOLEAN:
+        return new JsObject(prototypes[BOOLEAN]);
+      case JsSystem.FACTORY_ID_NUMBER:
+        return new JsObject(prototypes[NUMBER]);
+      case JsSystem.FACTORY_ID_STRING:
+        return new JsObject(prototypes[STRING]);
+      case JsSystem.FACTORY_ID_ERROR:
+        return new JsError(prototypes[ERROR], null);
+      case JsSystem.FACTORY_ID_EVAL_ERROR:
+        return new JsError(prototypes[EVAL_ERROR], null);
+      case JsSystem.FACTORY_ID_RANGE_ERROR:
+        return new JsError(prototypes[RANGE_ERROR], null);
+      case JsSystem.FACTORY_ID_REFERENCE_ERROR:
+        return new JsError(prototypes[REFERENCE_ERROR], null);
+      case JsSystem.FACTORY_ID_SYNTAX_ERROR:
+        return new JsError(prototypes[SYNTAX_ERROR], null);
+      case JsSystem.FACTORY_ID_TYPE_ERROR:
+        return new JsError(prototypes[TYPE_ERROR], null);
+      case JsSystem.FACTORY_ID_URI_ERROR:
+        return new JsError(prototypes[URI_ERROR], null);
+      case JsSystem.FACTORY_ID_FUNCTION:
+        // this will be overwritten by the eval result in case ID_INIT_FUNCITON in JsObject
+        return adopt(new JsFunction(-1, -1));
+    }
+    throw new IllegalArgumentException();
+  }
+
+  /**
+   * Moves a newly created object graph into this realm: Each object in the
+   * graph that has one of the static prototypes as __proto__ is re-linked to
+   * the corresponding prototype of this realm. Frozen objects are skipped.
+   *
+   * @return the object passed in, for chained calls
+   */
+  public JsObject adopt(JsObject o) {
+    if (this != DEFAULT) {
+      adopt(o, new Hashtable());
+    }
+    return o;
+  }
+
+  private void adopt(JsObject o, Hashtable visited) {
+    if (o.frozen || visited.put(o, o) != null) {
+      return;
+    }
+    for (int i = 0; i < PROTOTYPE_COUNT; i++) {
+      if (o.__proto__ == DEFAULT.prototypes[i]) {
+        o.__proto__ = prototypes[i];
+        break;
+      }
+    }
+    for (Enumeration e = o.elements(); e.hasMoreElements();) {
+      Object value = e.nextElement();
+      if (value instanceof JsObject) {
+        adopt((JsObject) value, visited);
+      }
+    }
+  }
+}
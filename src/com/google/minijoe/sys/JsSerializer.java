@@ -0,0 +1,795 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Binary serializer for graphs of Javascript values (objects, arrays, dates,
+ * errors and functions, including closures). Cycles and shared references
+ * are preserved.
+ *
+ * References to the built-in prototypes are stored symbolically and resolved
+ * against the prototypes of the target realm on reading, so an object graph
+ * can be passed from one realm to another. The same holds for the built-in
+ * native methods, which are stored by prototype and native id.
+ *
+ * Objects are written breadth first: Each object is assigned an id and
+ * written with its immutable header when it is first referenced; its
+ * properties follow later, in id order. This keeps the recursion depth
+ * constant, so long linked structures do not overflow the Java stack.
+ * Numbers in arrays are written from the array's number table, without
+ * boxing.
+ *
+ * Host objects (instances of JsObject subclasses other than the built-in
+ * ones) are not supported.
+ */
+public class JsSerializer {
+
+  static final int MAGIC = 0x4d4a5332; // "MJS2"
+
+  static final int T_UNDEFINED = 0;
+  static final int T_NULL = 1;
+  static final int T_FALSE = 2;
+  static final int T_TRUE = 3;
+  static final int T_NUMBER = 4;
+  static final int T_INTEGER = 5;
+  static final int T_STRING = 6;
+  static final int T_STRING_REF = 7;
+  static final int T_LONG_STRING = 8;
+  static final int T_REF = 9;
+  static final int T_NATIVE = 10;
+  static final int T_OBJECT = 11;
+  static final int T_ARRAY = 12;
+  static final int T_DATE = 13;
+  static final int T_ERROR = 14;
+  static final int T_FUNCTION = 15;
+  static final int T_ARGUMENTS = 16;
+
+  static final int CODE_NONE = 0;
+  static final int CODE_REF = 1;
+  static final int CODE_NEW = 2;
+
+  static final int FACTORY_NONE = 0;
+  static final int FACTORY_SYSTEM = 1;
+  static final int FACTORY_REALM = 2;
+
+  /**
+   * Maximum number of characters written with a single writeUTF() call,
+   * which is limited to 65535 bytes (up to 3 bytes per character).
+   */
+  static final int MAX_UTF_LENGTH = 65535 / 3;
+
+  /** Kind of the nodes for the realm prototypes. */
+  static final int K_PROTOTYPE = -1;
+
+  /** Kind of the last node, holding the root value. */
+  static final int K_ROOT = -2;
+
+  /** Maps shared native descriptors to their prototype index. */
+  private static Hashtable nativePrototypes;
+
+  /** Maps native keys (see nativeKey()) to shared native descriptors. */
+  private static Hashtable nativeDescriptors;
+
+  /**
+   * Writes the given value and everything reachable from it to the given
+   * stream. Writes directly to the stream, so callers should provide a
+   * buffered stream.
+   *
+   * @param realm the realm the value belongs to
+   * @throws IllegalArgumentException if the graph contains values that
+   *     cannot be serialized
+   */
+  public static void write(DataOutputStream out, Object value, JsRealm realm)
+      throws IOException {
+    new Writer(out, realm).write(value, false);
+  }
+
+  /**
+   * Reads a value written by write() and creates its objects in the given
+   * realm.
+   *
+   * @throws IOException if reading fails or the data is corrupt
+   */
+  public static Object read(DataInputStream in, JsRealm realm) throws IOException {
+    Node[] nodes = decode(in);
+    if (nodes[0].loaded) {
+      throw new IOException("Realm snapshot");
+    }
+    return instantiate(nodes, realm);
+  }
+
+  private static long nativeKey(int prototypeIndex, int index) {
+    return ((long) prototypeIndex << 32) | (index & 0xffffffffL);
+  }
+
+  private static synchronized void initNatives() {
+    if (nativePrototypes != null) {
+      return;
+    }
+    Hashtable prototypes = new Hashtable();
+    Hashtable descriptors = new Hashtable();
+    for (int i = 0; i < JsRealm.PROTOTYPE_COUNT; i++) {
+      for (Enumeration e = JsRealm.TEMPLATES[i].elements(); e.hasMoreElements();) {
+        Object value = e.nextElement();
+        if (value instanceof JsFunction) {
+          Integer prototypeIndex = new Integer(i);
+          prototypes.put(value, prototypeIndex);
+          descriptors.put(new Long(nativeKey(i, ((JsFunction) value).index)), value);
+        }
+      }
+    }
+    nativeDescriptors = descriptors;
+    nativePrototypes = prototypes;
+  }
+
+  /**
+   * Writes an object graph. Ids are assigned to objects in the order they are
+   * encountered; ids 0 to JsRealm.PROTOTYPE_COUNT - 1 denote the prototypes.
+   * Strings are written once and referenced by index afterwards.
+   */
+  static class Writer {
+    private final DataOutputStream out;
+    private final JsRealm realm;
+    private final Hashtable ids = new Hashtable();
+    /** Objects in id order. */
+    private final Vector objects = new Vector();
+    private final Hashtable strings = new Hashtable();
+    /** Function literals, identified by their byte code array. */
+    private final Hashtable codes = new Hashtable();
+
+    Writer(DataOutputStream out, JsRealm realm) {
+      this.out = out;
+      this.realm = realm;
+      initNatives();
+    }
+
+    /**
+     * Writes the given root value and the graph reachable from it.
+     *
+     * @param includePrototypes if true, the properties of the realm
+     *     prototypes are written, too
+     */
+    void write(Object root, boolean includePrototypes) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeBoolean(includePrototypes);
+      JsObject[] prototypes = realm.prototypes;
+      for (int i = 0; i < prototypes.length; i++) {
+        // references to the static prototypes are mapped to the realm,
+        // consistent with JsRealm.adopt()
+        Integer id = new Integer(i);
+        ids.put(JsRealm.DEFAULT.prototypes[i], id);
+        ids.put(prototypes[i], id);
+        objects.addElement(prototypes[i]);
+      }
+      writeValue(root);
+      // writing the contents may add further objects
+      for (int i = includePrototypes ? 0 : prototypes.length; i < objects.size(); i++) {
+        writeContents((JsObject) objects.elementAt(i));
+      }
+      out.flush();
+    }
+
+    private void writeValue(Object v) throws IOException {
+      if (v == null || v == JsObject.UNDEFINED_PLACEHOLDER) {
+        out.write(T_UNDEFINED);
+      } else if (v == JsSystem.JS_NULL) {
+        out.write(T_NULL);
+      } else if (v instanceof Boolean) {
+        out.write(((Boolean) v).booleanValue() ? T_TRUE : T_FALSE);
+      } else if (v instanceof Double) {
+        out.write(T_NUMBER);
+        out.writeDouble(((Double) v).doubleValue());
+      } else if (v instanceof Integer) {
+        // used for the parameter indices in arguments objects
+        out.write(T_INTEGER);
+        out.writeInt(((Integer) v).intValue());
+      } else if (v instanceof String) {
+        writeString((String) v);
+      } else if (v instanceof JsObject) {
+        writeObject((JsObject) v);
+      } else {
+        throw new IllegalArgumentException("Unsupported value: " + v);
+      }
+    }
+
+    private void writeString(String s) throws IOException {
+      int length = s.length();
+      if (length > MAX_UTF_LENGTH) {
+        out.write(T_LONG_STRING);
+        out.writeInt(length);
+        for (int i = 0; i < length; i += MAX_UTF_LENGTH) {
+          out.writeUTF(s.substring(i, Math.min(length, i + MAX_UTF_LENGTH)));
+        }
+        return;
+      }
+      Integer index = (Integer) strings.get(s);
+      if (index != null) {
+        out.write(T_STRING_REF);
+        out.writeInt(index.intValue());
+      } else {
+        strings.put(s, new Integer(strings.size()));
+        out.write(T_STRING);
+        out.writeUTF(s);
+      }
+    }
+
+    private void writeStrings(String[] s) throws IOException {
+      if (s == null) {
+        out.writeInt(-1);
+      } else {
+        out.writeInt(s.length);
+        for (int i = 0; i < s.length; i++) {
+          writeString(s[i]);
+        }
+      }
+    }
+
+    /**
+     * Writes a reference to the given object. If the object was not written
+     * before, an id is assigned and the class specific header is written.
+     */
+    private void writeObject(JsObject o) throws IOException {
+      Integer id = (Integer) ids.get(o);
+      if (id != null) {
+        out.write(T_REF);
+        out.writeInt(id.intValue());
+        return;
+      }
+      Integer prototypeIndex = (Integer) nativePrototypes.get(o);
+      if (prototypeIndex != null) {
+        out.write(T_NATIVE);
+        out.write(prototypeIndex.intValue());
+        out.writeInt(((JsFunction) o).index);
+        return;
+      }
+
+      Class c = o.getClass();
+      if (c == JsObject.class) {
+        out.write(T_OBJECT);
+      } else if (c == JsArray.class) {
+        out.write(T_ARRAY);
+      } else if (c == JsDate.class) {
+        out.write(T_DATE);
+        out.writeLong(((JsDate) o).time.getTime().getTime());
+      } else if (c == JsError.class) {
+        out.write(T_ERROR);
+      } else if (c == JsArguments.class) {
+        out.write(T_ARGUMENTS);
+      } else if (c == JsFunction.class) {
+        JsFunction f = (JsFunction) o;
+        out.write(T_FUNCTION);
+        writeCode(f);
+        out.writeInt(f.index);
+        out.writeInt(f.expectedParameterCount);
+        out.writeInt(f.factoryTypeId);
+        if (f.factory == null) {
+          out.write(FACTORY_NONE);
+        } else if (f.factory == JsSystem.instance) {
+          out.write(FACTORY_SYSTEM);
+        } else if (f.factory == realm) {
+          out.write(FACTORY_REALM);
+        } else {
+          throw new IllegalArgumentException("Unsupported factory: " + f.factory);
+        }
+      } else {
+        throw new IllegalArgumentException("Unsupported class: " + c.getName());
+      }
+      ids.put(o, new Integer(objects.size()));
+      objects.addElement(o);
+    }
+
+    /**
+     * Writes the code of a function. Function literals are identified by
+     * their byte code array, which is shared by all closures of a literal.
+     */
+    private void writeCode(JsFunction f) throws IOException {
+      if (f.byteCode == null) {
+        out.write(CODE_NONE);
+        return;
+      }
+      Integer index = (Integer) codes.get(f.byteCode);
+      if (index != null) {
+        out.write(CODE_REF);
+        out.writeInt(index.intValue());
+        return;
+      }
+      codes.put(f.byteCode, new Integer(codes.size()));
+      out.write(CODE_NEW);
+      out.writeInt(f.varCount);
+      out.writeInt(f.expectedParameterCount);
+      out.writeInt(f.byteCode.length);
+      out.write(f.byteCode);
+      writeStrings(f.localNames);
+      writeStrings(f.stringLiterals);
+      double[] numbers = f.numberLiterals;
+      out.writeInt(numbers == null ? -1 : numbers.length);
+      for (int i = 0; numbers != null && i < numbers.length; i++) {
+        out.writeDouble(numbers[i]);
+      }
+      int[] lines = f.lineNumbers;
+      out.writeInt(lines == null ? -1 : lines.length);
+      for (int i = 0; lines != null && i < lines.length; i++) {
+        out.writeInt(lines[i]);
+      }
+      JsFunction[] literals = f.functionLiterals;
+      out.writeInt(literals == null ? -1 : literals.length);
+      for (int i = 0; literals != null && i < literals.length; i++) {
+        writeCode(literals[i]);
+      }
+    }
+
+    /**
+     * Writes the mutable state of an object: prototype, scope chain,
+     * primitive value, properties and class specific fields.
+     */
+    private void writeContents(JsObject o) throws IOException {
+      writeValue(o.__proto__);
+      writeValue(o.scopeChain);
+      writeValue(o.value);
+      out.writeBoolean(o.frozen);
+      Hashtable data = o.data;
+      if (data == null) {
+        out.writeInt(0);
+      } else {
+        out.writeInt(data.size());
+        for (Enumeration e = data.keys(); e.hasMoreElements();) {
+          String key = (String) e.nextElement();
+          writeString(key);
+          writeValue(data.get(key));
+        }
+      }
+
+      if (o instanceof JsArray) {
+        JsArray array = (JsArray) o;
+        int size = array.size;
+        Object[] elements = array.objects;
+        double[] numbers = array.numbers;
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+          if (elements[i] == JsArray.NUMBER_MARKER) {
+            out.write(T_NUMBER);
+            out.writeDouble(numbers[i]);
+          } else {
+            writeValue(elements[i]);
+          }
+        }
+      } else if (o instanceof JsArguments) {
+        writeValue(((JsArguments) o).function);
+        writeValue(((JsArguments) o).context);
+      } else if (o instanceof JsFunction) {
+        writeValue(((JsFunction) o).prototype);
+        writeValue(((JsFunction) o).context);
+      }
+    }
+  }
+
+  /**
+   * Reference to the decoded object with the given id.
+   */
+  static final class Ref {
+    final int id;
+
+    Ref(int id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Decoded object. References to other objects are represented by Ref
+   * instances, so the same nodes can be instantiated for any number of
+   * realms.
+   */
+  static final class Node {
+    final Ref ref;
+    final int kind;
+    /** True if the contents below have been read. */
+    boolean loaded;
+    Object proto;
+    Object scopeChain;
+    Object value;
+    boolean frozen;
+    /** Properties; object references are Ref instances. */
+    Hashtable data;
+    Hashtable natives;
+    /** Keys of the properties referencing objects. */
+    String[] refKeys;
+    /** Array elements, using JsArray.NUMBER_MARKER for numbers. */
+    Object[] elements;
+    double[] numbers;
+    /** Indices of the array elements referencing objects. */
+    int[] elementRefs;
+    long time;
+    /** Code of script functions. */
+    JsFunction code;
+    int index;
+    int parameterCount;
+    int factoryTypeId;
+    int factoryKind;
+    Object prototype;
+    Object function;
+    Object context;
+
+    Node(int id, int kind) {
+      this.ref = new Ref(id);
+      this.kind = kind;
+    }
+  }
+
+  /**
+   * Decodes data written by Writer into an array of nodes. The last node
+   * (kind K_ROOT) holds the root value.
+   *
+   * @throws IOException if reading fails or the data is corrupt
+   */
+  static Node[] decode(DataInputStream in) throws IOException {
+    try {
+      return new Decoder(in).decode();
+    } catch (RuntimeException e) {
+      // e.g. references to unknown ids
+      throw new IOException("Corrupt data: " + e);
+    }
+  }
+
+  static class Decoder {
+    private final DataInputStream in;
+    private final Vector nodes = new Vector();
+    private final Vector strings = new Vector();
+    private final Vector codes = new Vector();
+
+    Decoder(DataInputStream in) {
+      this.in = in;
+      initNatives();
+    }
+
+    Node[] decode() throws IOException {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Bad magic number");
+      }
+      boolean includesPrototypes = in.readBoolean();
+      for (int i = 0; i < JsRealm.PROTOTYPE_COUNT; i++) {
+        nodes.addElement(new Node(i, K_PROTOTYPE));
+      }
+      Node root = new Node(-1, K_ROOT);
+      root.value = readValue(in.read());
+      // reading the contents may add further nodes
+      for (int i = includesPrototypes ? 0 : JsRealm.PROTOTYPE_COUNT;
+          i < nodes.size(); i++) {
+        readContents((Node) nodes.elementAt(i));
+      }
+      nodes.addElement(root);
+
+      Node[] result = new Node[nodes.size()];
+      nodes.copyInto(result);
+      return result;
+    }
+
+    private Object readValue(int tag) throws IOException {
+      switch (tag) {
+        case T_UNDEFINED:
+          return null;
+        case T_NULL:
+          return JsSystem.JS_NULL;
+        case T_FALSE:
+          return Boolean.FALSE;
+        case T_TRUE:
+          return Boolean.TRUE;
+        case T_NUMBER:
+          return new Double(in.readDouble());
+        case T_INTEGER:
+          return new Integer(in.readInt());
+        case T_STRING:
+        case T_STRING_REF:
+        case T_LONG_STRING:
+          return readString(tag);
+        case T_REF:
+          return ((Node) nodes.elementAt(in.readInt())).ref;
+        case T_NATIVE:
+          int prototypeIndex = in.read();
+          Object descriptor = nativeDescriptors.get(
+              new Long(nativeKey(prototypeIndex, in.readInt())));
+          if (descriptor == null) {
+            throw new IOException("Unknown native");
+          }
+          return descriptor;
+        default:
+          return readObject(tag);
+      }
+    }
+
+    private String readString(int tag) throws IOException {
+      switch (tag) {
+        case T_STRING_REF:
+          return (String) strings.elementAt(in.readInt());
+        case T_STRING:
+          String s = in.readUTF();
+          strings.addElement(s);
+          return s;
+        case T_LONG_STRING:
+          int length = in.readInt();
+          StringBuffer buf = new StringBuffer(length);
+          while (buf.length() < length) {
+            buf.append(in.readUTF());
+          }
+          return buf.toString();
+        default:
+          throw new IOException("String expected: " + tag);
+      }
+    }
+
+    private String[] readStrings() throws IOException {
+      int count = in.readInt();
+      if (count == -1) {
+        return null;
+      }
+      String[] s = new String[count];
+      for (int i = 0; i < count; i++) {
+        s[i] = readString(in.read());
+      }
+      return s;
+    }
+
+    /**
+     * Reads the header of an object and registers a new node for it; the
+     * contents are read later.
+     */
+    private Ref readObject(int tag) throws IOException {
+      if (tag < T_OBJECT || tag > T_ARGUMENTS) {
+        throw new IOException("Illegal tag: " + tag);
+      }
+      Node node = new Node(nodes.size(), tag);
+      switch (tag) {
+        case T_DATE:
+          node.time = in.readLong();
+          break;
+        case T_FUNCTION:
+          node.code = readCode();
+          node.index = in.readInt();
+          node.parameterCount = in.readInt();
+          node.factoryTypeId = in.readInt();
+          node.factoryKind = in.read();
+          if (node.factoryKind < FACTORY_NONE || node.factoryKind > FACTORY_REALM) {
+            throw new IOException("Illegal factory");
+          }
+          break;
+      }
+      nodes.addElement(node);
+      return node.ref;
+    }
+
+    /**
+     * Reads the code of a function and returns it as function literal, or
+     * null for native functions.
+     */
+    private JsFunction readCode() throws IOException {
+      switch (in.read()) {
+        case CODE_NONE:
+          return null;
+        case CODE_REF:
+          return (JsFunction) codes.elementAt(in.readInt());
+        case CODE_NEW:
+          break;
+        default:
+          throw new IOException("Illegal code tag");
+      }
+      JsFunction literal = new JsFunction(-1, -1);
+      codes.addElement(literal);
+      literal.varCount = in.readInt();
+      literal.expectedParameterCount = in.readInt();
+      literal.byteCode = new byte[in.readInt()];
+      in.readFully(literal.byteCode);
+      literal.localNames = readStrings();
+      literal.stringLiterals = readStrings();
+      int count = in.readInt();
+      if (count != -1) {
+        literal.numberLiterals = new double[count];
+        for (int i = 0; i < count; i++) {
+          literal.numberLiterals[i] = in.readDouble();
+        }
+      }
+      count = in.readInt();
+      if (count != -1) {
+        literal.lineNumbers = new int[count];
+        for (int i = 0; i < count; i++) {
+          literal.lineNumbers[i] = in.readInt();
+        }
+      }
+      count = in.readInt();
+      if (count != -1) {
+        literal.functionLiterals = new JsFunction[count];
+        for (int i = 0; i < count; i++) {
+          literal.functionLiterals[i] = readCode();
+        }
+      }
+      return literal;
+    }
+
+    private void readContents(Node node) throws IOException {
+      node.loaded = true;
+      node.proto = readValue(in.read());
+      node.scopeChain = readValue(in.read());
+      node.value = readValue(in.read());
+      node.frozen = in.readBoolean();
+      int count = in.readInt();
+      if (count > 0) {
+        // the holder computes the reverse mapping for native methods
+        JsObject holder = new JsObject(null);
+        holder.data = new Hashtable(count * 4 / 3 + 1);
+        Vector refKeys = new Vector();
+        for (int i = 0; i < count; i++) {
+          String key = readString(in.read());
+          Object value = readValue(in.read());
+          holder.data.put(key, value == null ? JsObject.UNDEFINED_PLACEHOLDER : value);
+          if (value instanceof JsFunction) {
+            JsFunction f = (JsFunction) value;
+            holder.addNativeName(key, f.factoryTypeId, f.index);
+          } else if (value instanceof Ref) {
+            refKeys.addElement(key);
+            Node target = (Node) nodes.elementAt(((Ref) value).id);
+            // like the interpreter, don't register script functions as natives
+            if (target.kind == T_FUNCTION && target.code == null) {
+              holder.addNativeName(key, target.factoryTypeId, target.index);
+            }
+          }
+        }
+        node.data = holder.data;
+        node.natives = holder.natives;
+        node.refKeys = new String[refKeys.size()];
+        refKeys.copyInto(node.refKeys);
+      }
+
+      switch (node.kind) {
+        case T_ARRAY:
+          int size = in.readInt();
+          Object[] elements = new Object[size];
+          double[] numbers = new double[size];
+          int[] refs = new int[size];
+          int refCount = 0;
+          for (int i = 0; i < size; i++) {
+            int tag = in.read();
+            if (tag == T_NUMBER) {
+              elements[i] = JsArray.NUMBER_MARKER;
+              numbers[i] = in.readDouble();
+            } else {
+              Object value = readValue(tag);
+              if (value instanceof Ref) {
+                refs[refCount++] = i;
+              }
+              elements[i] = value;
+            }
+          }
+          node.elements = elements;
+          node.numbers = numbers;
+          node.elementRefs = new int[refCount];
+          System.arraycopy(refs, 0, node.elementRefs, 0, refCount);
+          break;
+        case T_ARGUMENTS:
+          node.function = readValue(in.read());
+          node.context = readValue(in.read());
+          break;
+        case T_FUNCTION:
+          node.prototype = readValue(in.read());
+          node.context = readValue(in.read());
+          break;
+      }
+    }
+  }
+
+  /**
+   * Creates the objects described by the given nodes in the given realm and
+   * returns the root value. Nodes of the realm prototypes that have been
+   * loaded replace the contents of the prototypes.
+   */
+  static Object instantiate(Node[] nodes, JsRealm realm) {
+    JsObject[] objects = new JsObject[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      Node node = nodes[i];
+      switch (node.kind) {
+        case K_PROTOTYPE:
+          objects[i] = realm.prototypes[i];
+          break;
+        case T_OBJECT:
+          objects[i] = new JsObject(null);
+          break;
+        case T_ARRAY:
+          objects[i] = new JsArray(null);
+          break;
+        case T_DATE:
+          JsDate date = new JsDate(null);
+          date.time.setTime(new Date(node.time));
+          objects[i] = date;
+          break;
+        case T_ERROR:
+          objects[i] = new JsError((JsObject) null);
+          break;
+        case T_ARGUMENTS:
+          objects[i] = new JsArguments(null, null, null);
+          break;
+        case T_FUNCTION:
+          JsFunction f = new JsFunction(-1, -1);
+          if (node.code != null) {
+            f.setCode(node.code);
+          }
+          f.index = node.index;
+          f.expectedParameterCount = node.parameterCount;
+          f.factoryTypeId = node.factoryTypeId;
+          f.factory = node.factoryKind == FACTORY_SYSTEM ? JsSystem.instance
+              : node.factoryKind == FACTORY_REALM ? realm : null;
+          objects[i] = f;
+          break;
+      }
+    }
+
+    for (int i = 0; i < nodes.length; i++) {
+      Node node = nodes[i];
+      if (!node.loaded) {
+        continue;
+      }
+      JsObject o = objects[i];
+      o.__proto__ = (JsObject) resolve(node.proto, objects);
+      o.scopeChain = (JsObject) resolve(node.scopeChain, objects);
+      o.value = node.value;
+      if (node.data != null) {
+        Hashtable data = (Hashtable) node.data.clone();
+        String[] refKeys = node.refKeys;
+        for (int j = 0; j < refKeys.length; j++) {
+          data.put(refKeys[j], objects[((Ref) data.get(refKeys[j])).id]);
+        }
+        o.data = data;
+        o.natives = node.natives == null ? null : (Hashtable) node.natives.clone();
+      }
+      o.frozen = node.frozen;
+
+      switch (node.kind) {
+        case T_ARRAY:
+          JsArray array = (JsArray) o;
+          int size = node.elements.length;
+          int capacity = Math.max(size, JsArray.INITIAL_SPACE);
+          Object[] elements = new Object[capacity];
+          double[] numbers = new double[capacity];
+          System.arraycopy(node.elements, 0, elements, 0, size);
+          System.arraycopy(node.numbers, 0, numbers, 0, size);
+          int[] refs = node.elementRefs;
+          for (int j = 0; j < refs.length; j++) {
+            elements[refs[j]] = objects[((Ref) elements[refs[j]]).id];
+          }
+          array.objects = elements;
+          array.numbers = numbers;
+          array.size = size;
+          break;
+        case T_ARGUMENTS:
+          ((JsArguments) o).function = (JsFunction) resolve(node.function, objects);
+          ((JsArguments) o).context = (JsObject) resolve(node.context, objects);
+          break;
+        case T_FUNCTION:
+          ((JsFunction) o).prototype = (JsObject) resolve(node.prototype, objects);
+          ((JsFunction) o).context = (JsObject) resolve(node.context, objects);
+          break;
+      }
+    }
+    return resolve(nodes[nodes.length - 1].value, objects);
+  }
+
+  private static Object resolve(Object value, JsObject[] objects) {
+    return value instanceof Ref ? objects[((Ref) value).id] : value;
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Serialized image of the heap of a realm, i.e. its prototypes, its global
+ * object and everything reachable from them, including script functions.
+ * A snapshot is typically taken after running library scripts in a new
+ * realm; restoring it is much cheaper than creating a new realm and running
+ * the scripts again.
+ *
+ * The image is written by JsSerializer and decoded only once; each restore
+ * just creates and links the objects.
+ */
+public class JsSnapshot {
+
+  private final byte[] image;
+  private JsSerializer.Node[] nodes;
+
+  private JsSnapshot(byte[] image) {
+    this.image = image;
+  }
+
+  /**
+   * Captures the current state of the given realm.
+   *
+   * @throws IllegalArgumentException if the realm is the default realm or
+   *     contains objects that cannot be serialized
+   */
+  public static JsSnapshot create(JsRealm realm) {
+    if (realm == JsRealm.DEFAULT) {
+      throw new IllegalArgumentException("Default realm");
+    }
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try {
+      new JsSerializer.Writer(new DataOutputStream(baos), realm)
+          .write(realm.global, true);
+    } catch (IOException e) {
+      // cannot happen for a ByteArrayOutputStream
+      throw new RuntimeException(e.toString());
+    }
+    return new JsSnapshot(baos.toByteArray());
+  }
+
+  /**
+   * Reads a snapshot previously stored with write().
+   *
+   * @throws IOException if reading fails or the image is corrupt
+   */
+  public static JsSnapshot read(DataInputStream dis) throws IOException {
+    byte[] image = new byte[dis.readInt()];
+    dis.readFully(image);
+    JsSnapshot snapshot = new JsSnapshot(image);
+    snapshot.nodes = decode(image);
+    if (!snapshot.nodes[0].loaded) {
+      throw new IOException("Not a snapshot");
+    }
+    return snapshot;
+  }
+
+  /**
+   * Stores this snapshot in the given stream.
+   */
+  public void write(DataOutputStream dos) throws IOException {
+    dos.writeInt(image.length);
+    dos.write(image);
+  }
+
+  /**
+   * Returns the size of the serialized image in bytes.
+   */
+  public int getSize() {
+    return image.length;
+  }
+
+  /**
+   * Creates a new realm from this snapshot. The new realm does not share
+   * any mutable state with the original realm or other restored realms.
+   */
+  public JsRealm restore() {
+    JsRealm realm = JsRealm.createEmpty();
+    realm.global = (JsObject) JsSerializer.instantiate(getNodes(), realm);
+    return realm;
+  }
+
+  /**
+   * Returns the decoded image. The image is decoded only once; the nodes
+   * are not modified afterwards and can be instantiated concurrently.
+   */
+  synchronized JsSerializer.Node[] getNodes() {
+    if (nodes == null) {
+      try {
+        nodes = decode(image);
+      } catch (IOException e) {
+        // cannot happen for images written by create()
+        throw new RuntimeException(e.toString());
+      }
+    }
+    return nodes;
+  }
+
+  private static JsSerializer.Node[] decode(byte[] image) throws IOException {
+    return JsSerializer.decode(new DataInputStream(new ByteArrayInputStream(image)));
+  }
+}
@@ -51,6 +51,7 @@ public class JsSystem implements JsObjectFactory {
  
   static Random random = new Random();
   static JsSystem instance = new JsSystem();
+  static MathAdapter math = MathAdapter.getInstance();
 
   /** 
    * Returns the singleton instance of the factory 
@@ -63,30 +64,40 @@ public class JsSystem implements JsObjectFactory {
    * Returns a new global environment.
    */
   public static JsObject createGlobal(){
+    return createGlobal(JsRealm.DEFAULT);
+  }
+
+  /**
+   * Returns a new global environment for the given realm. The constructors
+   * create instances using the prototypes of the realm.
+   */
+  static JsObject createGlobal(JsRealm realm){
+    JsObject[] prototypes = realm.prototypes;
+    JsObjectFactory factory = realm == JsRealm.DEFAULT ? instance : realm;
     JsObject global = new JsObject(null);
     
-    global.addVar("Date", new JsFunction(instance, JsSystem.FACTORY_ID_DATE, 
-        JsDate.DATE_PROTOTYPE, JsObject.ID_INIT_DATE, 7)
+    global.addVar("Date", new JsFunction(factory, JsSystem.FACTORY_ID_DATE, 
+        prototypes[JsRealm.DATE], JsObject.ID_INIT_DATE, 7)
       .addVar("parse", new JsFunction(JsDate.ID_PARSE, 1))
       .addVar("UTC", new JsFunction(JsDate.ID_UTC, 7)))
-    .addVar("Array", new JsFunction(instance, JsSystem.FACTORY_ID_ARRAY, 
-        JsArray.PROTOTYPE, JsObject.ID_INIT_ARRAY, 1))
-    .addVar("Object", new JsFunction(instance, JsSystem.FACTORY_ID_OBJECT, 
-        JsObject.OBJECT_PROTOTYPE,  JsObject.ID_INIT_OBJECT, 1))
-    .addVar("Boolean", new JsFunction(instance, JsSystem.FACTORY_ID_BOOLEAN,
-        JsObject.BOOLEAN_PROTOTYPE, JsObject.ID_INIT_BOOLEAN, 1))
-    .addVar("Number", new JsFunction(instance, JsSystem.FACTORY_ID_NUMBER,
-        JsObject.NUMBER_PROTOTYPE, JsObject.ID_INIT_NUMBER, 1)
+    .addVar("Array", new JsFunction(factory, JsSystem.FACTORY_ID_ARRAY, 
+        prototypes[JsRealm.ARRAY], JsObject.ID_INIT_ARRAY, 1))
+    .addVar("Object", new JsFunction(factory, JsSystem.FACTORY_ID_OBJECT, 
+        prototypes[JsRealm.OBJECT],  JsObject.ID_INIT_OBJECT, 1))
+    .addVar("Boolean", new JsFunction(factory, JsSystem.FACTORY_ID_BOOLEAN,
+        prototypes[JsRealm.BOOLEAN], JsObject.ID_INIT_BOOLEAN, 1))
+    .addVar("Number", new JsFunction(factory, JsSystem.FACTORY_ID_NUMBER,
+        prototypes[JsRealm.NUMBER], JsObject.ID_INIT_NUMBER, 1)
           .addVar("MAX_VALUE", new Double(Double.MAX_VALUE))
           .addVar("MIN_VALUE", new Double(Double.MIN_VALUE))
           .addVar("NaN", NAN)
           .addVar("NEGATIVE_INFINITY", new Double(Double.NEGATIVE_INFINITY))
           .addVar("POSITIVE_INFINITY", INFINITY))
-    .addVar("String", new JsFunction(instance, JsSystem.FACTORY_ID_STRING,
-        JsObject.STRING_PROTOTYPE, JsObject.ID_INIT_STRING, 1)
+    .addVar("String", new JsFunction(factory, JsSystem.FACTORY_ID_STRING,
+        prototypes[JsRealm.STRING], JsObject.ID_INIT_STRING, 1)
       .addVar("fromCharCode", new JsFunction(JsObject.ID_FROM_CHAR_CODE, 1)))
-    .addVar("Function", new JsFunction(instance, JsSystem.FACTORY_ID_FUNCTION,
-        JsFunction.FUNCTION_PROTOTYPE, JsObject.ID_INIT_FUNCTION, 1)
+    .addVar("Function", new JsFunction(factory, JsSystem.FACTORY_ID_FUNCTION,
+        prototypes[JsRealm.FUNCTION], JsObject.ID_INIT_FUNCTION, 1)
       .addVar("fromCharCode", new JsFunction(JsObject.ID_FROM_CHAR_CODE, 1)))
     .addVar("NaN", NAN)
     .addVar("Infinity", INFINITY)
@@ -102,23 +113,23 @@ public class JsSystem implements JsObjectFactory {
     .addVar("encodeURI", new JsFunction(JsObject.ID_ENCODE_URI, 1))
     .addVar("encodeURIComponent", new JsFunction(
         JsObject.ID_ENCODE_URI_COMPONENT, 1))
-    .addVar("Error", new JsFunction(instance, FACTORY_ID_ERROR, 
-        JsError.ERROR_PROTOTYPE, JsError.ID_INIT_ERROR, 1))
-    .addVar("EvalError", new JsFunction(instance, FACTORY_ID_EVAL_ERROR, 
-        JsError.EVAL_ERROR_PROTOTYPE, JsError.ID_INIT_ERROR, 1))
-    .addVar("RangeError", new JsFunction(instance, FACTORY_ID_RANGE_ERROR, 
-        JsError.RANGE_ERROR_PROTOTYPE, JsError.ID_INIT_ERROR, 1))
-    .addVar("ReferenceError", new JsFunction(instance, 
-        FACTORY_ID_REFERENCE_ERROR, JsError.REFERENCE_ERROR_PROTOTYPE, 
+    .addVar("Error", new JsFunction(factory, FACTORY_ID_ERROR, 
+        prototypes[JsRealm.ERROR], JsError.ID_INIT_ERROR, 1))
+    .addVar("EvalError", new JsFunction(factory, FACTORY_ID_EVAL_ERROR, 
+        prototypes[JsRealm.EVAL_ERROR], JsError.ID_INIT_ERROR, 1))
+    .addVar("RangeError", new JsFunction(factory, FACTORY_ID_RANGE_ERROR, 
+        prototypes[JsRealm.RANGE_ERROR], JsError.ID_INIT_ERROR, 1))
+    .addVar("ReferenceError", new JsFunction(factory, 
+        FACTORY_ID_REFERENCE_ERROR, prototypes[JsRealm.REFERENCE_ERROR], 
         JsError.ID_INIT_ERROR, 1))
-    .addVar("SyntaxError", new JsFunction(instance, FACTORY_ID_SYNTAX_ERROR, 
-        JsError.SYNTAX_ERROR_PROTOTYPE, JsError.ID_INIT_ERROR, 1))
-    .addVar("TypeError", new JsFunction(instance, FACTORY_ID_TYPE_ERROR, 
-        JsError.TYPE_ERROR_PROTOTYPE, JsError.ID_INIT_ERROR, 1))
+    .addVar("SyntaxError", new JsFunction(factory, FACTORY_ID_SYNTAX_ERROR, 
+        prototypes[JsRealm.SYNTAX_ERROR], JsError.ID_INIT_ERROR, 1))
+    .addVar("TypeError", new JsFunction(factory, FACTORY_ID_TYPE_ERROR, 
+        prototypes[JsRealm.TYPE_ERROR], JsError.ID_INIT_ERROR, 1))
     ;
     
     //TODO Math object should be pre-constructed an reused.
-    global.addVar("Math", new JsObject(JsObject.OBJECT_PROTOTYPE)
+    global.addVar("Math", new JsObject(prototypes[JsRealm.OBJECT])
       .addNative("E", JsObject.ID_E, -1)
       .addNative("LN10", JsObject.ID_LN10, -1)
       .addNative("LN2", JsObject.ID_LN2, -1)
@@ -145,7 +156,12 @@ public class JsSystem implements JsObjectFactory {
       .addNative("sin", JsObject.ID_SIN, 1)
       .addNative("sqrt", JsObject.ID_SQRT, 1)
       .addNative("tan", JsObject.ID_TAN, 1));
+
+    global.addVar("JSON", new JsObject(prototypes[JsRealm.OBJECT])
+      .addNative("parse", JsObject.ID_JSON_PARSE, 1)
+      .addNative("stringify", JsObject.ID_JSON_STRINGIFY, 3));
     
+    realm.adopt(global);
     return global;
   }
   
@@ -168,12 +184,7 @@ public class JsSystem implements JsObjectFactory {
       return "null";
     }
     if (o instanceof Double) {
-      Double d = (Double) o;
-      if (d.doubleValue() == (long) d.doubleValue()) {
-        return Long.toString((long) d.doubleValue());
-      } else {
-        return Double.toString(d.doubleValue());
-      }
+      return DoubleConversion.toString(((Double) o).doubleValue());
     }
     
     //TODO if(o instanceof JsObject) {...}
@@ -194,11 +205,7 @@ public class JsSystem implements JsObjectFactory {
       return 0;
     }
     if (o instanceof String) {
-      try {
-        return Double.parseDouble((String) o);
-      } catch (NumberFormatException e) {
-        return Double.NaN;
-      }
+      return DoubleConversion.parse((String) o);
     }
     if (o instanceof Boolean) {
       return ((Boolean) o).booleanValue() ? 1 : 0;
@@ -232,26 +239,7 @@ public class JsSystem implements JsObjectFactory {
    * and undefined.
    */
   public static JsObject toJsObject(Object v){
-    if (v instanceof JsObject) {
-      return (JsObject) v;
-    }
-    if (v instanceof String) {
-      JsObject o = new JsObject(JsObject.STRING_PROTOTYPE);
-      o.value = v;
-      return o;
-    }
-    if (v instanceof Boolean) {
-      JsObject o = new JsObject(JsObject.BOOLEAN_PROTOTYPE);
-      o.value = v;
-      return o;
-    }
-    if (v instanceof Double) {
-      JsObject o = new JsObject(JsObject.NUMBER_PROTOTYPE);
-      o.value = v;
-      return o;
-    }
-    //TODO
-    return new JsObject(JsObject.OBJECT_PROTOTYPE);
+    return JsRealm.DEFAULT.toJsObject(v);
   }
   
   /**
@@ -262,41 +250,12 @@ public class JsSystem implements JsObjectFactory {
    * @return the newly created instance
    */
   public JsObject newInstance(int type) {
-    switch(type){
-      case JsSystem.FACTORY_ID_OBJECT: 
-        return new JsObject( JsObject.OBJECT_PROTOTYPE);
-      case JsSystem.FACTORY_ID_ARRAY: 
-        return new JsArray();
-      case JsSystem.FACTORY_ID_DATE: 
-        return new JsDate(JsDate.DATE_PROTOTYPE);
-      case JsSystem.FACTORY_ID_BOOLEAN:
-        return new JsObject(JsObject.BOOLEAN_PROTOTYPE);
-      case JsSystem.FACTORY_ID_NUMBER:
-        return new JsObject(JsObject.NUMBER_PROTOTYPE);
-      case JsSystem.FACTORY_ID_STRING:
-        return new JsObject(JsObject.STRING_PROTOTYPE);
-      case JsSystem.FACTORY_ID_ERROR:
-        return new JsError(JsError.ERROR_PROTOTYPE, null);
-      case JsSystem.FACTORY_ID_EVAL_ERROR:
-        return new JsError(JsError.EVAL_ERROR_PROTOTYPE, null);
-      case JsSystem.FACTORY_ID_RANGE_ERROR:
-        return new JsError(JsError.RANGE_ERROR_PROTOTYPE, null);
-      case JsSystem.FACTORY_ID_REFERENCE_ERROR:
-        return new JsError(JsError.REFERENCE_ERROR_PROTOTYPE, null);
-      case JsSystem.FACTORY_ID_SYNTAX_ERROR:
-        return new JsError(JsError.SYNTAX_ERROR_PROTOTYPE, null);
-      case JsSystem.FACTORY_ID_TYPE_ERROR:
-        return new JsError(JsError.TYPE_ERROR_PROTOTYPE, null);
-      case JsSystem.FACTORY_ID_URI_ERROR:
-        return new JsError(JsError.URI_ERROR_PROTOTYPE, null);
-      case JsSystem.FACTORY_ID_FUNCTION:
-        // this will be overwritten by the eval result in case ID_INIT_FUNCITON in JsObject
-        return new JsFunction(-1, -1);
-    }
-    throw new IllegalArgumentException();
+    return JsRealm.DEFAULT.newInstance(type);
   }
 
-  //TODO: Check whether NaN/Inf is covered correctly in ln, exp, pow
+  // Portable implementations for CLDC 1.1, which lacks Math.exp, Math.log 
+  // and Math.pow. Special cases (NaN, infinities, over- and underflow) are 
+  // handled in MathAdapter.
   
   /**
    * source: http://en.wikipedia.org/wiki/Exponential_function
@@ -317,14 +276,46 @@ public class JsSystem implements JsObjectFactory {
     
   }
   
-  /** Number of bits for the ln implementation (see ln) */
-  private static final int M = 62;  // m*ln(2)
+  /** 2^54, used to scale subnormal numbers in ln */
+  private static final double TWO_54 = 18014398509481984.0;
   
   /** 
-   * Calculates logarithm to the basis e for x. Algorithm from Wikipedia.
+   * Calculates logarithm to the basis e for x. The argument is split into
+   * m * 2^k with sqrt(1/2) &lt;= m &lt; sqrt(2); ln(m) is calculated using 
+   * the series for 2 * atanh((m - 1) / (m + 1)).
    */
   public static double ln(double x){
-    return Math.PI / (2.0 * avg(1.0, 4.0 / (x * (1L<<M)))) - LN2 * M;
+    if (!(x > 0)) {
+      return x == 0 ? Double.NEGATIVE_INFINITY : Double.NaN;
+    }
+    if (Double.isInfinite(x)) {
+      return x;
+    }
+    long bits = Double.doubleToLongBits(x);
+    int k = (int) (bits >>> 52) - 1023;
+    if (k == -1023) {
+      bits = Double.doubleToLongBits(x * TWO_54);
+      k = (int) (bits >>> 52) - 1023 - 54;
+    }
+    double m = Double.longBitsToDouble(
+        (bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L);
+    if (m > 1.4142135623730951) {
+      m /= 2;
+      k++;
+    }
+    double s = (m - 1) / (m + 1);
+    double s2 = s * s;
+    double term = s;
+    double sum = s;
+    for (int i = 3; i < 40; i += 2) {
+      term *= s2;
+      double t = term / i;
+      sum += t;
+      if (t < 1e-17 && t > -1e-17) {
+        break;
+      }
+    }
+    return 2 * sum + k * LN2;
   }
   
   /** 
@@ -332,8 +323,17 @@ public class JsSystem implements JsObjectFactory {
    * exp(y * ln(x)) is calculated.
    */
   public static double pow(double x, double y){
+    // beyond 2^53, y is an even integer; halve it to avoid overflowing n
+    while (y >= 4.611686018427388E18 || y <= -4.611686018427388E18) {
+      x *= x;
+      y /= 2;
+    }
     long n = (long) y;
-    if (y > 0 && y == n) {
+    if (y == n) {
+      boolean negative = n < 0;
+      if (negative) {
+        n = -n;
+      }
       double result = 1;
       while (n > 0) {
         if ((n & 1) != 0) {
@@ -343,130 +343,58 @@ public class JsSystem implements JsObjectFactory {
         x *= x;
         n >>= 1;
       }
-      return result;
+      return negative ? 1 / result : result;
     }
     return exp(y * JsSystem.ln(x));
   }
   
   /**
-   * Converts a double to a string. This method is based on extracting the
-   * decimal mantisse and exponent from toString(), this should probably
-   * be replaced by a more elegant method... 
+   * Implements Number.prototype.toFixed, toExponential and toPrecision,
+   * depending on op. If digitsRaw is NaN, the default for the given operation
+   * is used. Throws a RangeError for digit counts out of the range permitted
+   * by ECMA 262.
    */
   public static String formatNumber(int op, double d, double digitsRaw){
-    String s = Double.toString(d);
-    
-    if (Double.isInfinite(d) || Double.isNaN(d) 
-        || (op == JsObject.ID_TO_PRECISION && Double.isNaN(digitsRaw))) { 
-      return s;
-    }
-    
+    return formatNumber(op, d, digitsRaw, JsRealm.DEFAULT);
+  }
+
+  /**
+   * Implements Number.prototype.toFixed, toExponential and toPrecision; 
+   * RangeErrors are created with the prototype of the given realm.
+   */
+  static String formatNumber(int op, double d, double digitsRaw, 
+      JsRealm realm) {
     int digits = (int) digitsRaw;
-    
-    StringBuffer buf = new StringBuffer();
-    boolean neg = false;
-    boolean negExp = false;
-    
-    long value = 0;
-    int exp = 0;
-    long subExp = 0;
-    int part = 0;  
-    
-    for (int i = 0; i < s.length(); i++){
-      char c = s.charAt(i);
-      switch(c){
-      case '-': 
-        if (part == 2){
-          negExp = true;
-        } else {
-          neg = true; 
+    switch (op) {
+      case JsObject.ID_TO_EXPONENTIAL:
+        if (d != d || Double.isInfinite(d)) {
+          return DoubleConversion.toString(d);
         }
-        break;
-      case 'e':
-      case 'E':
-        part = 2;
-        break;
-        
-      case '.':
-        part = 1;
-        break;
-      
+        if (Double.isNaN(digitsRaw)) {
+          return DoubleConversion.toExponential(d, -1);
+        }
+        checkRange(realm, "toExponential", digits, 0, 20);
+        return DoubleConversion.toExponential(d, digits);
+      case JsObject.ID_TO_PRECISION:
+        if (Double.isNaN(digitsRaw) || d != d || Double.isInfinite(d)) {
+          return DoubleConversion.toString(d);
+        }
+        checkRange(realm, "toPrecision", digits, 1, 21);
+        return DoubleConversion.toPrecision(d, digits);
       default:
-        if (part == 2) {
-          exp = exp * 10 + (c - 48);
-        } else {
-          buf.append(c);
-          if (part == 1){
-            subExp ++;
-          }
+        if (Double.isNaN(digitsRaw)) {
+          digits = 0;
         }
-      }
+        checkRange(realm, "toFixed", digits, 0, 20);
+        return DoubleConversion.toFixed(d, digits);
     }
-    
-    while (buf.length() > 1 && buf.charAt(0) == '0'){
-      buf.deleteCharAt(0);
-    }
-
-    if (negExp){
-      exp = -exp;
-    }
-    exp -= subExp;
+  }
 
-    System.out.println(neg ? "-" : "" + buf + "E" + exp);
-    
-    if (op == JsObject.ID_TO_PRECISION) {
-      if (exp < -6 || exp >= digits) {
-        digits = Math.max(0, digits - 1);
-        op = JsObject.ID_TO_EXPONENTIAL;
-      } else {
-        op = JsObject.ID_TO_FIXED;
-        digits = digits + Math.min(exp, 0);
-      }
-    }
-    
-    if (digits < 0){
-      digits = 0;
-    }
-    
-    if (op == JsObject.ID_TO_EXPONENTIAL) {
-      while(buf.length() > digits){
-        exp += buf.length() - digits;
-        buf.setLength(digits + 1);
-        long l = Long.parseLong(buf.toString());
-        l = (l + 5) / 10;
-        buf.setLength(0);
-        buf.append(l);
-      }
-      if (buf.length() > 1){
-        buf.insert(1, ".");
-      }
-      exp += buf.length() - 1;
-      return (neg ? "" : "-") + value + "E" + exp;
-    } else {
-      int delta = digits + exp; // 2 digits, exp -5 -> 3 to cut off
-      System.out.println("delta: " + delta);
-      if (delta < 0) {
-        delta = -delta; // delta = digits to cut off
-        if (buf.length() - delta + 1 <= 0){
-          buf.setLength(0);
-        } else {
-          buf.setLength(buf.length() - delta + 1);
-          long l = Long.parseLong(buf.toString());
-          l = (l + 5) / 10;
-          buf.setLength(0);
-          buf.append(l);
-        }
-        while (buf.length() < digits + 1){
-          buf.insert(0, '0');
-        }
-      } else while (delta > 0){
-        buf.append('0');
-        delta--;
-      }
-      
-      buf.insert(buf.length() - digits, '.');
-      
-      return buf.toString();
+  private static void checkRange(JsRealm realm, String name, int value, 
+      int min, int max) {
+    if (value < min || value > max) {
+      throw new JsException(new JsError(realm.prototypes[JsRealm.RANGE_ERROR],
+          name + "() argument must be between " + min + " and " + max));
     }
   }
   
@@ -0,0 +1,39 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+/**
+ * Thrown when a script is terminated because it has exceeded the step limit,
+ * timeout or memory limit of its realm, or because the realm was
+ * interrupted. Unlike other exceptions, it cannot be caught by the script:
+ * the interpreter passes it through all try blocks to the host.
+ */
+public class JsTerminationException extends JsException {
+
+  private final String reason;
+
+  JsTerminationException(String reason, JsRealm realm) {
+    super("Script terminated: " + reason, realm);
+    this.reason = reason;
+  }
+
+  /**
+   * Returns "interrupted", "step limit exceeded", "timeout" or "memory
+   * limit exceeded".
+   */
+  public String getReason() {
+    return reason;
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+/**
+ * Creates the threads running scripts, e.g. the threads of event loops
+ * started with JsEventLoop.start(JsThreadFactory).
+ *
+ * This class creates regular threads. If the platform supports virtual
+ * threads (Java 21 and later), getInstance() returns a
+ * JvmVirtualThreadFactory instead, so a server can run one event loop per
+ * script instance without a thread pool. JvmVirtualThreadFactory is only
+ * loaded by name, so it can be left out of CLDC builds.
+ */
+public class JsThreadFactory {
+
+  private static final String VIRTUAL_FACTORY_CLASS =
+      "com.google.minijoe.sys.JvmVirtualThreadFactory";
+
+  private static JsThreadFactory instance;
+
+  /**
+   * Returns the best available implementation for the current platform.
+   */
+  public static synchronized JsThreadFactory getInstance() {
+    if (instance == null) {
+      try {
+        instance = (JsThreadFactory) Class.forName(VIRTUAL_FACTORY_CLASS).newInstance();
+      } catch (Throwable t) {
+        // Class not available or no virtual threads
+        instance = new JsThreadFactory();
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Returns true if this factory creates virtual threads.
+   */
+  public boolean isVirtual() {
+    return false;
+  }
+
+  /**
+   * Returns a new thread running the given task. The thread is not started.
+   */
+  public Thread newThread(Runnable task) {
+    return new Thread(task);
+  }
+}
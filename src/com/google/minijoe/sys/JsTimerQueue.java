@@ -0,0 +1,262 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.util.Hashtable;
+
+/**
+ * Timer queue backing setTimeout(), setInterval(), clearTimeout() and
+ * clearInterval(). Timers are kept in a binary heap ordered by deadline, so
+ * scheduling and cancelling take O(log n). The thread dispatching the timers
+ * sleeps until the earliest deadline instead of polling.
+ *
+ * Intervals are rescheduled relative to their previous deadline, so they
+ * do not drift by the time needed for the callbacks. If the dispatching
+ * thread falls behind by more than one interval, missed calls are dropped
+ * rather than run in a burst, and the next call keeps the original phase.
+ */
+public class JsTimerQueue {
+
+  /** Minimum period of intervals, avoiding busy loops for setInterval(f, 0). */
+  static final int MIN_INTERVAL = 5;
+
+  static final class Timer {
+    final int id;
+    final JsFunction function;
+    /** Period for intervals; 0 for timeouts. */
+    final int interval;
+    long deadline;
+    /** Insertion sequence number, ordering timers with the same deadline. */
+    long sequence;
+    /** Position in the heap, or -1 if not scheduled. */
+    int index = -1;
+
+    Timer(int id, JsFunction function, int interval) {
+      this.id = id;
+      this.function = function;
+      this.interval = interval;
+    }
+  }
+
+  private Timer[] heap = new Timer[16];
+  private int size;
+  private final Hashtable timers = new Hashtable();
+  private int lastId;
+  private long sequence;
+  private boolean closed;
+
+  /**
+   * Schedules a call of the given function.
+   *
+   * @param function function to be called
+   * @param delay delay in milliseconds; negative values are treated as 0
+   * @param repeat if true, calls are repeated with the given delay as period
+   * @return an id that can be passed to cancel()
+   */
+  public synchronized int schedule(JsFunction function, int delay, boolean repeat) {
+    delay = Math.max(delay, 0);
+    Timer timer = new Timer(++lastId, function,
+        repeat ? Math.max(delay, MIN_INTERVAL) : 0);
+    timer.deadline = currentTimeMillis() + delay;
+    timers.put(new Integer(timer.id), timer);
+    insert(timer);
+    return timer.id;
+  }
+
+  /**
+   * Cancels the timer with the given id. Unknown ids (including those of
+   * timeouts that have already fired) are ignored.
+   *
+   * @return true if a timer was cancelled
+   */
+  public synchronized boolean cancel(int id) {
+    Timer timer = (Timer) timers.remove(new Integer(id));
+    if (timer == null) {
+      return false;
+    }
+    remove(timer.index);
+    return true;
+  }
+
+  /**
+   * Returns the number of pending timers.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns the deadline of the earliest timer, or Long.MAX_VALUE if no
+   * timer is pending.
+   */
+  public synchronized long getNextDeadline() {
+    return size == 0 ? Long.MAX_VALUE : heap[0].deadline;
+  }
+
+  /**
+   * Waits until the earliest timer is due and returns its function. A
+   * timeout is removed from the queue; an interval is rescheduled before it
+   * is returned, so it can be cancelled from its own callback.
+   *
+   * @return the function to call, or null if the queue has been closed
+   */
+  public synchronized JsFunction next() throws InterruptedException {
+    while (!closed) {
+      long now = currentTimeMillis();
+      if (size > 0 && heap[0].deadline <= now) {
+        return poll(now);
+      }
+      // schedule() and close() notify, so a new earliest deadline is observed
+      if (size == 0) {
+        wait();
+      } else {
+        wait(heap[0].deadline - now);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes and returns the function of the earliest timer if it is due at
+   * the given time, without blocking; null otherwise.
+   */
+  public synchronized JsFunction poll(long now) {
+    if (size == 0 || heap[0].deadline > now) {
+      return null;
+    }
+    Timer timer = heap[0];
+    if (timer.interval == 0) {
+      timers.remove(new Integer(timer.id));
+      remove(0);
+    } else {
+      long deadline = timer.deadline + timer.interval;
+      if (deadline <= now) {
+        // skip the missed periods, keeping the phase
+        deadline += ((now - deadline) / timer.interval + 1) * timer.interval;
+      }
+      timer.deadline = deadline;
+      remove(0);
+      insert(timer);
+    }
+    return timer.function;
+  }
+
+  /**
+   * Removes all timers and makes next() return null.
+   */
+  public synchronized void close() {
+    closed = true;
+    clear();
+    notifyAll();
+  }
+
+  /**
+   * Removes all timers.
+   */
+  public synchronized void clear() {
+    for (int i = 0; i < size; i++) {
+      heap[i].index = -1;
+      heap[i] = null;
+    }
+    size = 0;
+    timers.clear();
+  }
+
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private void insert(Timer timer) {
+    if (size == heap.length) {
+      Timer[] newHeap = new Timer[size * 2];
+      System.arraycopy(heap, 0, newHeap, 0, size);
+      heap = newHeap;
+    }
+    timer.sequence = sequence++;
+    heap[size] = timer;
+    timer.index = size;
+    siftUp(size++);
+    if (timer.index == 0) {
+      deadlineChanged();
+    }
+  }
+
+  /**
+   * Called with the lock of this queue held when a timer with a new
+   * earliest deadline has been inserted. Wakes up next() by default.
+   */
+  void deadlineChanged() {
+    notifyAll();
+  }
+
+  private void remove(int i) {
+    Timer removed = heap[i];
+    removed.index = -1;
+    size--;
+    if (i == size) {
+      heap[size] = null;
+      return;
+    }
+    Timer last = heap[size];
+    heap[size] = null;
+    heap[i] = last;
+    last.index = i;
+    siftDown(i);
+    if (last.index == i) {
+      siftUp(i);
+    }
+  }
+
+  private static boolean before(Timer a, Timer b) {
+    return a.deadline < b.deadline
+        || (a.deadline == b.deadline && a.sequence < b.sequence);
+  }
+
+  private void siftUp(int i) {
+    Timer timer = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >> 1;
+      if (!before(timer, heap[parent])) {
+        break;
+      }
+      heap[i] = heap[parent];
+      heap[i].index = i;
+      i = parent;
+    }
+    heap[i] = timer;
+    timer.index = i;
+  }
+
+  private void siftDown(int i) {
+    Timer timer = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && before(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!before(heap[child], timer)) {
+        break;
+      }
+      heap[i] = heap[child];
+      heap[i].index = i;
+      i = child;
+    }
+    heap[i] = timer;
+    timer.index = i;
+  }
+}
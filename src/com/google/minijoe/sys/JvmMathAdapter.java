@@ -0,0 +1,70 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+/**
+ * MathAdapter delegating to the java.lang.Math methods of J2SE. This class
+ * must not be referenced directly, since it does not link on CLDC; it is
+ * instantiated by name in MathAdapter.getInstance().
+ */
+public class JvmMathAdapter extends MathAdapter {
+
+  /**
+   * Creates a new instance. Throws an Error if the platform lacks any of
+   * the required methods.
+   */
+  public JvmMathAdapter() {
+    if (Math.exp(Math.log(1)) != 1 || Math.atan2(Math.asin(0),
+        Math.acos(1)) != 0 || Math.pow(Math.atan(0), 0) != 1) {
+      throw new RuntimeException("Unexpected java.lang.Math behavior");
+    }
+  }
+
+  public boolean isNative() {
+    return true;
+  }
+
+  public double exp(double x) {
+    return Math.exp(x);
+  }
+
+  public double log(double x) {
+    return Math.log(x);
+  }
+
+  public double pow(double x, double y) {
+    // ECMA 262 differs from Java for (+/-1)^(+/-Infinity)
+    if (Double.isInfinite(y) && (x == 1 || x == -1)) {
+      return Double.NaN;
+    }
+    return Math.pow(x, y);
+  }
+
+  public double atan(double x) {
+    return Math.atan(x);
+  }
+
+  public double atan2(double y, double x) {
+    return Math.atan2(y, x);
+  }
+
+  public double asin(double x) {
+    return Math.asin(x);
+  }
+
+  public double acos(double x) {
+    return Math.acos(x);
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * JsThreadFactory creating virtual threads. This class must not be
+ * referenced directly, since it does not link on CLDC; it is instantiated
+ * by name in JsThreadFactory.getInstance(). The Java 21 API is called
+ * reflectively, so the class also compiles for older platforms.
+ */
+public class JvmVirtualThreadFactory extends JsThreadFactory {
+
+  private final Object builder;
+  private final Method unstarted;
+
+  /**
+   * Creates a new instance. Throws an exception if the platform lacks
+   * virtual threads.
+   */
+  public JvmVirtualThreadFactory() throws Exception {
+    builder = Thread.class.getMethod("ofVirtual", new Class[0]).invoke(null, new Object[0]);
+    unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted",
+        new Class[] {Runnable.class});
+  }
+
+  public boolean isVirtual() {
+    return true;
+  }
+
+  public Thread newThread(Runnable task) {
+    try {
+      return (Thread) unstarted.invoke(builder, new Object[] {task});
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(e.getTargetException().toString());
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e.toString());
+    }
+  }
+}
@@ -0,0 +1,196 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+/**
+ * Implementation of the Math functions that are not available in CLDC 1.1
+ * (exp, log, pow and the inverse trigonometric functions), including the
+ * special cases required by ECMA 262, 15.8.2.
+ *
+ * This class contains portable implementations built on the CLDC subset of
+ * java.lang.Math. If the platform provides the full java.lang.Math API,
+ * getInstance() returns a JvmMathAdapter instead, which delegates to the
+ * (usually intrinsic) platform implementations. JvmMathAdapter is only
+ * loaded by name, so it can be left out of CLDC builds.
+ */
+public class MathAdapter {
+
+  static final double PI_2 = Math.PI / 2;
+  static final double PI_4 = Math.PI / 4;
+
+  private static final String JVM_ADAPTER_CLASS =
+      "com.google.minijoe.sys.JvmMathAdapter";
+
+  private static MathAdapter instance;
+
+  /**
+   * Returns the best available implementation for the current platform.
+   */
+  public static MathAdapter getInstance() {
+    if (instance == null) {
+      try {
+        instance = (MathAdapter) Class.forName(JVM_ADAPTER_CLASS).newInstance();
+      } catch (Throwable t) {
+        // Class not available or java.lang.Math lacks the required methods
+        instance = new MathAdapter();
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Returns true if this implementation delegates to the platform.
+   */
+  public boolean isNative() {
+    return false;
+  }
+
+  public double exp(double x) {
+    if (x != x) {
+      return x;
+    }
+    if (x > 709.782712893384) {
+      return Double.POSITIVE_INFINITY;
+    }
+    if (x < -745.1332191019412) {
+      return 0;
+    }
+    if (x < -708) {
+      // result is subnormal; avoid underflowing the exponent bits in exp()
+      return JsSystem.exp(x + 708) * JsSystem.exp(-708);
+    }
+    return JsSystem.exp(x);
+  }
+
+  public double log(double x) {
+    return JsSystem.ln(x);
+  }
+
+  public double pow(double x, double y) {
+    if (y != y) {
+      return y;
+    }
+    if (y == 0) {
+      return 1;
+    }
+    if (x != x) {
+      return x;
+    }
+    if (Double.isInfinite(y)) {
+      double ax = Math.abs(x);
+      if (ax == 1) {
+        return Double.NaN;
+      }
+      return (ax > 1) == (y > 0) ? Double.POSITIVE_INFINITY : 0;
+    }
+    if (y == (long) y || Math.abs(y) >= 9007199254740992.0) {
+      // integer exponent (all doubles beyond 2^53 are integers)
+      return JsSystem.pow(x, y);
+    }
+    if (Double.isInfinite(x)) {
+      return y > 0 ? Double.POSITIVE_INFINITY : 0;
+    }
+    if (x < 0) {
+      return Double.NaN;
+    }
+    if (x == 0) {
+      return y > 0 ? 0 : Double.POSITIVE_INFINITY;
+    }
+    return exp(y * JsSystem.ln(x));
+  }
+
+  /**
+   * Arc tangent, using the identity atan(x) = 2 atan(x / (1 + sqrt(1 + x^2)))
+   * twice to reduce the argument before evaluating the Taylor series.
+   */
+  public double atan(double x) {
+    if (x != x) {
+      return x;
+    }
+    boolean negative = x < 0;
+    if (negative) {
+      x = -x;
+    }
+    boolean inverse = x > 1;
+    if (inverse) {
+      x = 1 / x;
+    }
+
+    x = x / (1 + Math.sqrt(1 + x * x));
+    x = x / (1 + Math.sqrt(1 + x * x));
+
+    double x2 = x * x;
+    double term = x;
+    double sum = x;
+    for (int i = 3; i < 60; i += 2) {
+      term *= -x2;
+      double t = term / i;
+      sum += t;
+      if (Math.abs(t) < 1e-18) {
+        break;
+      }
+    }
+    double result = 4 * sum;
+    if (inverse) {
+      result = PI_2 - result;
+    }
+    return negative ? -result : result;
+  }
+
+  public double atan2(double y, double x) {
+    if (x != x || y != y) {
+      return Double.NaN;
+    }
+    boolean yNegative = y < 0 || (y == 0 && 1 / y < 0);
+    if (y == 0) {
+      if (x > 0 || (x == 0 && 1 / x > 0)) {
+        return y;
+      }
+      return yNegative ? -Math.PI : Math.PI;
+    }
+    if (Double.isInfinite(x) && !Double.isInfinite(y)) {
+      if (x > 0) {
+        return yNegative ? -0.0 : 0.0;
+      }
+      return yNegative ? -Math.PI : Math.PI;
+    }
+    if (x == 0 || (Double.isInfinite(y) && !Double.isInfinite(x))) {
+      return yNegative ? -PI_2 : PI_2;
+    }
+    if (Double.isInfinite(x)) {
+      double r = x > 0 ? PI_4 : 3 * PI_4;
+      return yNegative ? -r : r;
+    }
+    double r = atan(y / x);
+    if (x < 0) {
+      r += yNegative ? -Math.PI : Math.PI;
+    }
+    return r;
+  }
+
+  public double asin(double x) {
+    if (!(x >= -1 && x <= 1)) {
+      return Double.NaN;
+    }
+    return atan2(x, Math.sqrt((1 - x) * (1 + x)));
+  }
+
+  public double acos(double x) {
+    if (!(x >= -1 && x <= 1)) {
+      return Double.NaN;
+    }
+    return atan2(Math.sqrt((1 - x) * (1 + x)), x);
+  }
+}
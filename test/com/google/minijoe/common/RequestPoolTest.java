@@ -0,0 +1,269 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.common;
+
+import j2meunit.framework.TestCase;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Tests for RequestPool, using a stand-in server that serves each request
+ * with a fixed latency and records the number of concurrent connections.
+ */
+public class RequestPoolTest extends TestCase {
+
+  /**
+   * Stand-in for an HTTP server. Serving a request blocks for the latency
+   * or until the connection is closed.
+   */
+  static class StubServer {
+    final int latency;
+    final Hashtable connections = new Hashtable();
+    final Vector log = new Vector();
+    int maxTotal;
+    int total;
+    Hashtable maxPerHost = new Hashtable();
+
+    StubServer(int latency) {
+      this.latency = latency;
+    }
+
+    synchronized int connect(String url) {
+      String host = Util.getHost(url);
+      Integer count = (Integer) connections.get(host);
+      int n = count == null ? 1 : count.intValue() + 1;
+      connections.put(host, new Integer(n));
+      Integer max = (Integer) maxPerHost.get(host);
+      if (max == null || max.intValue() < n) {
+        maxPerHost.put(host, new Integer(n));
+      }
+      total++;
+      maxTotal = Math.max(maxTotal, total);
+      log.addElement(url);
+      return n;
+    }
+
+    synchronized void disconnect(String url) {
+      String host = Util.getHost(url);
+      int n = ((Integer) connections.get(host)).intValue();
+      connections.put(host, new Integer(n - 1));
+      total--;
+      notifyAll();
+    }
+
+    /**
+     * Serves the given request. Returns false if the request was
+     * cancelled before the response was complete.
+     */
+    boolean serve(StubRequest request) throws InterruptedException {
+      connect(request.url);
+      try {
+        long end = System.currentTimeMillis() + latency;
+        synchronized (request) {
+          while (!request.closed) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+              return true;
+            }
+            request.wait(remaining);
+          }
+        }
+        return false;
+      } finally {
+        disconnect(request.url);
+      }
+    }
+
+    synchronized int getMaxPerHost(String host) {
+      Integer max = (Integer) maxPerHost.get(host);
+      return max == null ? 0 : max.intValue();
+    }
+
+    synchronized String getLog() {
+      return log.toString();
+    }
+  }
+
+  static class StubRequest extends RequestPool.Request {
+    final StubServer server;
+    final String url;
+    boolean closed;
+    boolean completed;
+    boolean aborted;
+
+    StubRequest(StubServer server, String url, int priority) {
+      super(url, priority);
+      this.server = server;
+      this.url = url;
+    }
+
+    public void run() {
+      try {
+        boolean ok = server.serve(this);
+        synchronized (this) {
+          completed = ok && !isCancelled();
+          notifyAll();
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e.toString());
+      }
+    }
+
+    protected synchronized void abort() {
+      aborted = true;
+      closed = true;
+      notifyAll();
+    }
+  }
+
+  public RequestPoolTest() {
+    super();
+  }
+
+  public RequestPoolTest(String name) {
+    super(name);
+  }
+
+  static void awaitCompletion(RequestPool pool, int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 5000;
+    while (pool.getCompletedCount() < count && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    assertEquals(count, pool.getCompletedCount());
+  }
+
+  public void testGetHost() {
+    assertEquals("acme.com:8080", Util.getHost("http://Acme.com:8080/index.html"));
+    assertEquals("acme.com", Util.getHost("https://user:pw@acme.com?q=a@b"));
+    assertEquals("acme.com", Util.getHost("http://acme.com"));
+    assertEquals("", Util.getHost("file.html"));
+  }
+
+  public void testLimits() throws InterruptedException {
+    StubServer server = new StubServer(30);
+    RequestPool pool = new RequestPool(4, 2);
+    // 80 images from three hosts
+    for (int i = 0; i < 80; i++) {
+      pool.submit(new StubRequest(server, "http://host" + (i % 3) + "/img" + i + ".png",
+          RequestPool.PRIORITY_IMAGE));
+    }
+    assertTrue(pool.getThreadCount() <= 4);
+    assertTrue(pool.getMaxQueueDepth() >= 70);
+    awaitCompletion(pool, 80);
+    pool.shutdown();
+
+    assertEquals(4, server.maxTotal);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(2, server.getMaxPerHost("host" + i));
+    }
+    assertEquals(0, pool.getQueueDepth());
+    assertEquals(0, pool.getActiveCount());
+  }
+
+  public void testThroughput() throws InterruptedException {
+    StubServer server = new StubServer(20);
+    RequestPool pool = new RequestPool(4, 4);
+    long t0 = System.currentTimeMillis();
+    for (int i = 0; i < 40; i++) {
+      pool.submit(new StubRequest(server, "http://host" + (i % 4) + "/" + i,
+          RequestPool.PRIORITY_IMAGE));
+    }
+    awaitCompletion(pool, 40);
+    long dt = System.currentTimeMillis() - t0;
+    pool.shutdown();
+    // 10 rounds of 4 parallel requests; serially, this would take 800ms
+    assertTrue("" + dt, dt >= 190 && dt < 600);
+  }
+
+  public void testPriorities() throws InterruptedException {
+    StubServer server = new StubServer(20);
+    RequestPool pool = new RequestPool(1, 1);
+    StubRequest blocker = new StubRequest(server, "http://a/blocker", RequestPool.PRIORITY_IMAGE);
+    pool.submit(blocker);
+    while (pool.getActiveCount() == 0) {
+      Thread.sleep(1);
+    }
+    pool.submit(new StubRequest(server, "http://a/image1", RequestPool.PRIORITY_IMAGE));
+    pool.submit(new StubRequest(server, "http://a/script", RequestPool.PRIORITY_SCRIPT));
+    pool.submit(new StubRequest(server, "http://a/image2", RequestPool.PRIORITY_IMAGE));
+    pool.submit(new StubRequest(server, "http://a/style", RequestPool.PRIORITY_STYLESHEET));
+    pool.submit(new StubRequest(server, "http://a/doc", RequestPool.PRIORITY_DOCUMENT));
+    assertEquals(5, pool.getQueueDepth());
+    assertEquals(2, pool.getQueueDepth(RequestPool.PRIORITY_IMAGE));
+    awaitCompletion(pool, 6);
+    pool.shutdown();
+    assertEquals("[http://a/blocker, http://a/doc, http://a/style, http://a/script, "
+        + "http://a/image1, http://a/image2]", server.getLog());
+  }
+
+  public void testHostLimitDoesNotBlockOtherHosts() throws InterruptedException {
+    StubServer server = new StubServer(50);
+    RequestPool pool = new RequestPool(3, 1);
+    pool.submit(new StubRequest(server, "http://a/1", RequestPool.PRIORITY_DOCUMENT));
+    pool.submit(new StubRequest(server, "http://a/2", RequestPool.PRIORITY_DOCUMENT));
+    pool.submit(new StubRequest(server, "http://b/1", RequestPool.PRIORITY_IMAGE));
+    Thread.sleep(25);
+    assertEquals(2, pool.getActiveCount());
+    assertEquals(1, pool.getActiveCount("a"));
+    assertEquals(1, pool.getActiveCount("b"));
+    assertEquals(1, pool.getQueueDepth());
+    awaitCompletion(pool, 3);
+    pool.shutdown();
+  }
+
+  public void testCancel() throws InterruptedException {
+    StubServer server = new StubServer(10000);
+    RequestPool pool = new RequestPool(1, 1);
+    StubRequest running = new StubRequest(server, "http://a/running", RequestPool.PRIORITY_IMAGE);
+    StubRequest queued = new StubRequest(server, "http://a/queued", RequestPool.PRIORITY_IMAGE);
+    pool.submit(running);
+    pool.submit(queued);
+    while (pool.getActiveCount() == 0) {
+      Thread.sleep(1);
+    }
+    assertEquals(1, pool.getQueueDepth());
+
+    assertTrue(queued.cancel());
+    assertFalse(queued.cancel());
+    assertTrue(queued.isCancelled());
+    assertEquals(0, pool.getQueueDepth());
+    assertFalse(queued.aborted);
+
+    long t0 = System.currentTimeMillis();
+    assertTrue(running.cancel());
+    assertTrue(running.aborted);
+    awaitCompletion(pool, 1);
+    assertTrue(System.currentTimeMillis() - t0 < 1000);
+    assertFalse(running.completed);
+    assertFalse(running.cancel());
+    assertEquals(2, pool.getCancelledCount());
+    assertEquals("[http://a/running]", server.getLog());
+
+    // cancelled before submission
+    StubRequest early = new StubRequest(server, "http://a/early", RequestPool.PRIORITY_IMAGE);
+    assertTrue(early.cancel());
+    pool.submit(early);
+    assertEquals(0, pool.getQueueDepth());
+
+    pool.shutdown();
+    try {
+      pool.submit(new StubRequest(server, "http://a/late", RequestPool.PRIORITY_IMAGE));
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import com.google.minijoe.html.gfx.Font;
+import com.google.minijoe.html.gfx.HeadlessToolkit;
+import com.google.minijoe.html.gfx.Toolkit;
+import com.google.minijoe.html.uibase.Widget;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Tests for the incremental layout of BlockWidget.
+ */
+public class BlockWidgetTest extends TestCase {
+
+  static final String IMAGE_URL = "http://example.com/a.png";
+
+  public BlockWidgetTest() {
+    super();
+  }
+
+  public BlockWidgetTest(String name) {
+    super(name);
+  }
+
+  public void setUp() {
+    Toolkit.setInstance(new HeadlessToolkit());
+  }
+
+  public void tearDown() {
+    Toolkit.setInstance(null);
+  }
+
+  static HtmlWidget createWidget(String html, boolean withImage) throws Exception {
+    HtmlWidget widget = TestWidgets.createWidget();
+    if (withImage) {
+      widget.addResource(IMAGE_URL, Toolkit.getInstance().createImage(20, 30),
+          SystemRequestHandler.TYPE_IMAGE);
+    }
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    widget.doLayout(240);
+    return widget;
+  }
+
+  /**
+   * Returns the block widget for the element with the given id.
+   */
+  static BlockWidget find(BlockWidget block, String id) {
+    if (id.equals(block.getElement().getAttributeValue("id"))) {
+      return block;
+    }
+    for (int i = 0; i < block.children.size(); i++) {
+      Object child = block.children.elementAt(i);
+      if (child instanceof BlockWidget) {
+        BlockWidget result = find((BlockWidget) child, id);
+        if (result != null) {
+          return result;
+        }
+      }
+    }
+    return null;
+  }
+
+  static void collectBounds(Widget w, StringBuffer buf) {
+    buf.append(w.getX() + "," + w.getY() + "," + w.getWidth() + "," + w.getHeight() + ";");
+    for (int i = 0; i < w.getChildCount(); i++) {
+      collectBounds(w.getChild(i), buf);
+    }
+  }
+
+  static String getBounds(Widget w) {
+    StringBuffer buf = new StringBuffer();
+    collectBounds(w, buf);
+    return buf.toString();
+  }
+
+  public void testImageArrival() throws Exception {
+    String html = "<html><body><div id='a'><p>text</p><div id='c'>"
+        + "<img src='a.png'></div></div><div id='b'><p>more text</p></div>"
+        + "<div style='float:left'>float</div></body></html>";
+    HtmlWidget widget = createWidget(html, false);
+    BlockWidget b = find(widget, "b");
+    int y = b.getY();
+    // moved by a layout of b only
+    Widget marker = b.getChild(0);
+    marker.setX(marker.getX() + 1);
+
+    widget.addResource(IMAGE_URL, Toolkit.getInstance().createImage(20, 30),
+        SystemRequestHandler.TYPE_IMAGE);
+    assertTrue(widget.layoutValid);
+    assertFalse(widget.childLayoutValid);
+    assertTrue(find(widget, "a").layoutValid);
+    assertFalse(find(widget, "c").childLayoutValid);
+    assertTrue(b.layoutValid && b.childLayoutValid);
+
+    widget.doLayout(240);
+    assertTrue(widget.childLayoutValid);
+    assertEquals(y + 30, b.getY());
+    // b was moved, but not laid out again
+    marker.setX(marker.getX() - 1);
+    assertEquals(getBounds(createWidget(html, true)), getBounds(widget));
+  }
+
+  public void testLayoutInPlace() throws Exception {
+    String html = "<html><body><div id='a'><p>text</p><div id='c'>"
+        + "<img src='a.png' width='20' height='30'></div></div><div id='b'>more</div>"
+        + "</body></html>";
+    HtmlWidget widget = createWidget(html, false);
+    BlockWidget a = find(widget, "a");
+    int y = find(widget, "b").getY();
+    Widget marker = a.getChild(0);
+    marker.setX(marker.getX() + 1);
+
+    widget.addResource(IMAGE_URL, Toolkit.getInstance().createImage(20, 30),
+        SystemRequestHandler.TYPE_IMAGE);
+    widget.doLayout(240);
+    // the size of the image was known; neither a nor its siblings are laid out
+    marker.setX(marker.getX() - 1);
+    assertEquals(y, find(widget, "b").getY());
+    assertEquals(getBounds(createWidget(html, true)), getBounds(widget));
+  }
+
+  public void testStyleChange() throws Exception {
+    String html = "<html><body><div id='a'><span id='s'>span</span> text</div>"
+        + "<div id='b'><p>more text</p></div></body></html>";
+    HtmlWidget widget = createWidget(html, false);
+    BlockWidget a = find(widget, "a");
+    BlockWidget b = find(widget, "b");
+
+    // the span becomes a block: only the widget of its parent is rebuilt
+    widget.getElementById("s").setAttribute("style", "display: block; margin: 5px");
+    widget.applyStyle();
+    assertSame(a, find(widget, "a"));
+    assertSame(b, find(widget, "b"));
+    assertNotNull(find(widget, "s"));
+    assertTrue(b.layoutValid);
+    widget.doLayout(240);
+    String expected = "<html><body><div id='a'><span id='s' style='display: block; "
+        + "margin: 5px'>span</span> text</div><div id='b'><p>more text</p></div>"
+        + "</body></html>";
+    assertEquals(getBounds(createWidget(expected, false)), getBounds(widget));
+
+    // other changes only invalidate the widgets of the changed elements
+    BlockWidget s = find(widget, "s");
+    widget.getElementById("s").setAttribute("style", "display: block; margin: 10px");
+    widget.applyStyle();
+    assertSame(s, find(widget, "s"));
+    assertFalse(s.layoutValid);
+    assertTrue(b.layoutValid);
+    widget.doLayout(240);
+    expected = "<html><body><div id='a'><span id='s' style='display: block; "
+        + "margin: 10px'>span</span> text</div><div id='b'><p>more text</p></div>"
+        + "</body></html>";
+    assertEquals(getBounds(createWidget(expected, false)), getBounds(widget));
+  }
+
+  public void testWidthChange() throws Exception {
+    String html = "<html><body><div id='a'><p>some text that needs to be wrapped "
+        + "in a narrow viewport</p></div><div style='width:50%'>half</div></body></html>";
+    HtmlWidget widget = createWidget(html, false);
+    String bounds = getBounds(widget);
+    int height = find(widget, "a").getHeight();
+    widget.doLayout(100);
+    assertTrue(find(widget, "a").getHeight() > height);
+    widget.doLayout(240);
+    assertEquals(bounds, getBounds(widget));
+  }
+
+  public void testTextMeasurement() throws Exception {
+    HtmlWidget widget = createWidget("<html><body><p id='a'>ab-cd (ef) \u0436\u4e00"
+        + "</p></body></html>", false);
+    TextFragmentWidget fragment = (TextFragmentWidget) find(widget, "a").children.elementAt(0);
+    String text = fragment.text;
+    assertEquals("ab-cd (ef) \u0436\u4e00", text);
+
+    int[] breaks = fragment.getBreakPositions();
+    assertEquals(4, breaks.length);
+    assertEquals(3, breaks[0]);
+    assertEquals(6, breaks[1]);
+    assertEquals(7, breaks[2]);
+    assertEquals(11, breaks[3]);
+
+    int[] widths = fragment.getPrefixWidths();
+    assertEquals(text.length() + 1, widths.length);
+    Font font = fragment.getFont();
+    assertEquals(font.stringWidth(text), widths[text.length()]);
+    assertEquals(font.substringWidth(text, 6, 4), fragment.getTextWidth(6, 4));
+    for (int i = 0; i < text.length(); i++) {
+      assertEquals(font.charWidth(text.charAt(i)), font.getAdvance(text.charAt(i)));
+    }
+  }
+}
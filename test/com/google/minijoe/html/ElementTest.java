@@ -0,0 +1,275 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import com.google.minijoe.html.css.Style;
+import com.google.minijoe.html.css.StyleSheet;
+import com.google.minijoe.html.gfx.Toolkit;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.util.Vector;
+
+/**
+ * Tests for the incremental style computation of Element.
+ */
+public class ElementTest extends TestCase {
+
+  HtmlWidget widget;
+
+  public ElementTest() {
+    super();
+  }
+
+  public ElementTest(String name) {
+    super(name);
+  }
+
+  public void setUp() throws Exception {
+    widget = TestWidgets.createWidget();
+    String html = "<html><head><style>.red { color: #f00 } .red span { color: #00f }"
+        + ".hidden { display: none }</style></head><body>"
+        + "<div id='a'><span>a</span></div><div id='b'><span>b</span></div></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+  }
+
+  public void tearDown() {
+    Toolkit.setInstance(null);
+  }
+
+  Element get(int index) {
+    return widget.getElement().getElement(index);
+  }
+
+  public void testAttributeChange() {
+    Element a = get(0);
+    Element b = get(1);
+    Style aStyle = a.getComputedStyle();
+    Style bStyle = b.getComputedStyle();
+    Style bSpanStyle = b.getElement(0).getComputedStyle();
+
+    a.setAttribute("class", "red");
+    widget.applyStyle();
+    assertEquals(0xffff0000, a.getComputedStyle().getValue(Style.COLOR));
+    // matched by the descendant selector
+    assertEquals(0xff0000ff, a.getElement(0).getComputedStyle().getValue(Style.COLOR));
+    assertTrue(aStyle != a.getComputedStyle());
+    // the clean subtree is not touched
+    assertSame(bStyle, b.getComputedStyle());
+    assertSame(bSpanStyle, b.getElement(0).getComputedStyle());
+    assertFalse(widget.needsBuild);
+
+    a.setAttribute("class", null);
+    widget.applyStyle();
+    assertTrue(aStyle.equalValues(a.getComputedStyle()));
+  }
+
+  public void testInheritance() {
+    Element b = get(1);
+    Style spanStyle = b.getElement(0).getComputedStyle();
+    b.setAttribute("style", "color: #0f0");
+    widget.applyStyle();
+    assertEquals(0xff00ff00, b.getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff00ff00, b.getElement(0).getComputedStyle().getValue(Style.COLOR));
+    assertTrue(spanStyle != b.getElement(0).getComputedStyle());
+
+    // same values: the styles are kept
+    Style style = b.getComputedStyle();
+    spanStyle = b.getElement(0).getComputedStyle();
+    b.setAttribute("style", "color: #00ff00");
+    widget.applyStyle();
+    assertSame(style, b.getComputedStyle());
+    assertSame(spanStyle, b.getElement(0).getComputedStyle());
+  }
+
+  public void testStyleCacheBounded() {
+    Element a = get(0);
+    for (int i = 0; i < 2000; i++) {
+      a.setAttribute("style", "margin-left: " + i + "px");
+      widget.applyStyle();
+      assertTrue(widget.styleCache.size() <= StyleCache.MAX_SIZE);
+    }
+    assertEquals(1999, a.getComputedStyle().getPx(Style.MARGIN_LEFT));
+  }
+
+  public void testStyleSharing() throws Exception {
+    StringBuffer sb = new StringBuffer("<html><body><table border='1'>");
+    for (int i = 0; i < 100; i++) {
+      sb.append("<tr><td>a</td><td><b>b</b></td><td align='right'>c</td></tr>");
+    }
+    sb.append("</table><table><tr><td>d</td></tr></table></body></html>");
+    widget.load(new ByteArrayInputStream(sb.toString().getBytes("UTF-8")), "UTF-8");
+
+    Element table = get(0);
+    Element row = table.getElement(0);
+    Element last = table.getElement(99);
+    assertSame(row.getComputedStyle(), last.getComputedStyle());
+    assertSame(row.getElement(0).getComputedStyle(), last.getElement(0).getComputedStyle());
+    assertSame(row.getElement(1).getElement(0).getComputedStyle(),
+        last.getElement(1).getElement(0).getComputedStyle());
+    assertTrue(row.getElement(0).getComputedStyle() != row.getElement(2).getComputedStyle());
+    assertEquals(Style.RIGHT, row.getElement(2).getComputedStyle().getEnum(Style.TEXT_ALIGN));
+    assertTrue(widget.styleCache.size() < 20);
+
+    // the border attribute of the table is taken into account for its cells
+    Style cell = get(1).getElement(0).getElement(0).getComputedStyle();
+    assertEquals(0, cell.getPx(Style.BORDER_TOP_WIDTH));
+    assertTrue(row.getElement(0).getComputedStyle().getPx(Style.BORDER_TOP_WIDTH) > 0);
+
+    // modifying a shared style is not visible in other elements
+    last.getElement(0).setAttribute("style", "color: #f00");
+    widget.applyStyle();
+    assertEquals(0xffff0000, last.getElement(0).getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff000000, row.getElement(0).getComputedStyle().getValue(Style.COLOR));
+  }
+
+  public void testSelectors() throws Exception {
+    String html = "<html><head><style>.x .y { color: #f00 } #c > p { color: #0f0 }"
+        + "div.z em { color: #00f }</style></head><body>"
+        + "<div class='x w'><div><p class='v y'>a</p></div></div>"
+        + "<div id='c'><p>b</p><div><p>c</p></div></div>"
+        + "<div><p><em>d</em></p></div></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    Element a = get(0).getElement(0).getElement(0);
+    Element b = get(1).getElement(0);
+    Element c = get(1).getElement(1).getElement(0);
+    Element d = get(2).getElement(0).getElement(0);
+    assertEquals(0xffff0000, a.getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff00ff00, b.getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff000000, c.getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff000000, d.getComputedStyle().getValue(Style.COLOR));
+
+    assertEquals(2, a.getClassNames().length);
+    assertEquals("y", a.getClassNames()[1]);
+    long bit = StyleSheet.getBloomFilterBit("y");
+    assertEquals(bit, get(0).getSubtreeBloomFilter() & bit);
+
+    // elements added or changed later are taken into account
+    get(2).setAttribute("class", "z");
+    a.setAttribute("class", "v");
+    widget.applyStyle();
+    assertEquals(1, a.getClassNames().length);
+    assertEquals(0xff000000, a.getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff0000ff, d.getComputedStyle().getValue(Style.COLOR));
+
+    Element e = new Element(widget, "p");
+    e.setAttribute("class", "y");
+    get(0).addElement(e);
+    widget.applyStyle();
+    assertEquals(0xffff0000, e.getComputedStyle().getValue(Style.COLOR));
+  }
+
+  public void testCompactStorage() throws Exception {
+    String html = "<html><body><p a='1' b='2' c='3'>x &amp; y<br/>z</p></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    Element p = get(0);
+    assertEquals("1", p.getAttributeValue("a"));
+    assertEquals("3", p.getAttributeValue("c"));
+    p.setAttribute("a", null);
+    assertNull(p.getAttributeValue("a"));
+    assertEquals("2", p.getAttributeValue("b"));
+    assertEquals("3", p.getAttributeValue("c"));
+    p.setAttribute("d", "4");
+    p.setAttribute("e", "5");
+    p.setAttribute("c", "6");
+    assertEquals("4", p.getAttributeValue("d"));
+    assertEquals("5", p.getAttributeValue("e"));
+    assertEquals("6", p.getAttributeValue("c"));
+    // element names and attribute names are shared
+    assertSame("p", p.getName());
+
+    // consecutive text and entities are merged into a single text node
+    assertEquals(3, p.getChildCount());
+    assertEquals("x & y", p.getText(0));
+    assertEquals(Element.ELEMENT, p.getChildType(1));
+    p.remove(1);
+    assertEquals(2, p.getChildCount());
+    assertEquals("z", p.getText(1));
+    try {
+      p.getText(2);
+      fail();
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+  static String generateDocument(int sections, int rows) {
+    StringBuffer sb = new StringBuffer("<html><head><style>");
+    for (int i = 0; i < 50; i++) {
+      sb.append(".c" + i + " td { padding: " + i + "px }");
+      sb.append("#s" + i + " p.x { color: #0000" + (10 + i) + " }");
+    }
+    sb.append("</style></head><body>");
+    for (int i = 0; i < sections; i++) {
+      sb.append("<div id='s" + (i % 60) + "' class='c" + (i % 70) + "'><p class='x'>t</p><table>");
+      for (int j = 0; j < rows; j++) {
+        sb.append("<tr><td>a</td><td align='right'><b>b</b></td><td class='x'>c</td></tr>");
+      }
+      sb.append("</table></div>");
+    }
+    sb.append("</body></html>");
+    return sb.toString();
+  }
+
+  static void collectStyles(Element e, Vector result) {
+    result.addElement(e.getComputedStyle());
+    for (int i = 0; i < e.getChildCount(); i++) {
+      if (e.getChildType(i) == Element.ELEMENT) {
+        collectStyles(e.getElement(i), result);
+      }
+    }
+  }
+
+  public void testParallel() throws Exception {
+    String html = generateDocument(40, 5);
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    Vector expected = new Vector();
+    collectStyles(widget.getElement(), expected);
+
+    widget.setStyleThreadCount(3);
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    Vector actual = new Vector();
+    collectStyles(widget.getElement(), actual);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(((Style) expected.elementAt(i)).equalValues((Style) actual.elementAt(i)));
+    }
+
+    // incremental updates work in parallel mode, too
+    Element p = widget.getElement().getElement(7).getElement(0);
+    assertEquals(0xff000017, p.getComputedStyle().getValue(Style.COLOR));
+    widget.getElement().getElement(7).setAttribute("id", "s8");
+    widget.applyStyle();
+    assertEquals(0xff000018, p.getComputedStyle().getValue(Style.COLOR));
+  }
+
+  public void testRebuild() {
+    Element a = get(0);
+    int count = widget.children.size();
+    a.setAttribute("class", "hidden");
+    widget.applyStyle();
+    assertEquals(Style.NONE, a.getComputedStyle().getEnum(Style.DISPLAY));
+    assertTrue(widget.children.size() < count);
+
+    Element c = new Element(widget, "div");
+    c.addText("c");
+    widget.getElement().addElement(c);
+    assertNull(c.getComputedStyle());
+    widget.applyStyle();
+    assertNotNull(c.getComputedStyle());
+    assertEquals(count, widget.children.size());
+  }
+}
@@ -0,0 +1,302 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import com.google.minijoe.common.RequestPool;
+import com.google.minijoe.compiler.Eval;
+import com.google.minijoe.html.css.Style;
+import com.google.minijoe.html.gfx.Toolkit;
+import com.google.minijoe.html.js.XMLHttpRequestObject;
+import com.google.minijoe.html5.js.JsWindow;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.util.Vector;
+
+/**
+ * Tests for loading documents into HtmlWidget.
+ */
+public class HtmlWidgetTest extends TestCase {
+
+  HtmlWidget widget;
+
+  public HtmlWidgetTest() {
+    super();
+  }
+
+  public HtmlWidgetTest(String name) {
+    super(name);
+  }
+
+  public void setUp() {
+    widget = TestWidgets.createWidget();
+  }
+
+  public void tearDown() {
+    Toolkit.setInstance(null);
+  }
+
+  /**
+   * Delivers a document in small chunks, recording the state of the widget
+   * when half of the document has been read.
+   */
+  class SlowInputStream extends ByteArrayInputStream {
+    int halfway;
+    int widgetCount = -1;
+    int scriptCount = -1;
+    Style firstStyle;
+
+    SlowInputStream(byte[] data) {
+      super(data);
+      halfway = data.length / 2;
+    }
+
+    public synchronized int read(byte[] buf, int off, int len) {
+      if (pos >= halfway && widgetCount == -1) {
+        widgetCount = widget.children.size();
+        scriptCount = widget.deferredScripts.size();
+        firstStyle = widget.getElement().getElement(1).getComputedStyle();
+        widget.doLayout(240);
+      }
+      return super.read(buf, off, Math.min(len, 64));
+    }
+
+    public synchronized int available() {
+      // no read ahead
+      return 0;
+    }
+  }
+
+  public void testProgressiveRendering() throws Exception {
+    StringBuffer sb = new StringBuffer("<html><head><style>p { color: #f00 }</style>"
+        + "</head><body><script>var x = 1;</script>");
+    for (int i = 0; i < 200; i++) {
+      sb.append("<p>Paragraph " + i + "</p>");
+    }
+    sb.append("<style>body p { color: #00f }</style></body></html>");
+
+    SlowInputStream is = new SlowInputStream(sb.toString().getBytes("UTF-8"));
+    widget.setProgressiveRendering(1000, 0);
+    widget.load(is, "UTF-8");
+
+    assertTrue(is.widgetCount > 50);
+    assertTrue(is.widgetCount < 150);
+    assertEquals(1, is.scriptCount);
+    assertEquals(0xffff0000, is.firstStyle.getValue(Style.COLOR));
+    assertNull(widget.deferredScripts);
+
+    // all paragraphs are shown, restyled by the style element at the end
+    assertEquals(200, widget.children.size());
+    assertEquals(0xff0000ff,
+        widget.getElement().getElement(200).getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff0000ff,
+        widget.getElement().getElement(1).getComputedStyle().getValue(Style.COLOR));
+  }
+
+  /**
+   * A style sheet arriving while the document is parsed is not applied by
+   * the thread delivering it, but by load().
+   */
+  public void testStyleSheetWhileLoading() throws Exception {
+    StringBuffer sb = new StringBuffer("<html><head><style>p { color: #f00 }</style>"
+        + "</head><body>");
+    for (int i = 0; i < 200; i++) {
+      sb.append("<p>Paragraph " + i + "</p>");
+    }
+    sb.append("</body></html>");
+
+    final Style[] styles = new Style[1];
+    ByteArrayInputStream is = new ByteArrayInputStream(sb.toString().getBytes("UTF-8")) {
+      public synchronized int read(byte[] buf, int off, int len) {
+        if (pos >= count / 2 && styles[0] == null) {
+          widget.addResource("http://example.com/a.css", "body p { color: #0f0 }",
+              SystemRequestHandler.TYPE_STYLESHEET);
+          styles[0] = widget.getElement().getElement(1).getComputedStyle();
+        }
+        return super.read(buf, off, Math.min(len, 64));
+      }
+
+      public synchronized int available() {
+        return 0;
+      }
+    };
+    widget.setProgressiveRendering(1000, 0);
+    widget.load(is, "UTF-8");
+
+    assertEquals(0xffff0000, styles[0].getValue(Style.COLOR));
+    assertEquals(0xff00ff00,
+        widget.getElement().getElement(1).getComputedStyle().getValue(Style.COLOR));
+    assertEquals(0xff00ff00,
+        widget.getElement().getElement(199).getComputedStyle().getValue(Style.COLOR));
+  }
+
+  public void testElementIndex() throws Exception {
+    String html = "<html><body><div id='a' class='x'><p id='b' class='x y'>b</p></div>"
+        + "<div id='c'><p class='y'><span id='d'>d</span></p></div></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    Element body = widget.getElement();
+    Element a = body.getElement(0);
+    Element c = body.getElement(1);
+    Element d = widget.getElementById("d");
+    assertEquals("span", d.getName());
+    assertSame(d, body.getChildById("d"));
+    assertSame(d, c.getChildById("d"));
+    assertNull(a.getChildById("d"));
+    assertNull(widget.getElementById("e"));
+
+    assertEquals(2, widget.getElementsByClassName("x").length);
+    assertSame(a, widget.getElementsByClassName("x")[0]);
+    assertEquals(1, widget.getElementsByClassName("y  x").length);
+    assertEquals("b", widget.getElementsByClassName("y x")[0].getAttributeValue("id"));
+    assertEquals(2, widget.getElementsByTagName("P").length);
+    Element[] all = widget.getElementsByTagName("*");
+    assertEquals(7, all.length);
+    assertEquals("html", all[0].getName());
+    assertSame(body, all[1]);
+    assertSame(d, all[6]);
+
+    // attribute changes
+    d.setAttribute("id", "e");
+    assertNull(widget.getElementById("d"));
+    assertSame(d, widget.getElementById("e"));
+    a.setAttribute("class", null);
+    assertEquals(1, widget.getElementsByClassName("x").length);
+
+    // elements added in the middle of the document are kept in document order
+    Element p = new Element(widget, "p");
+    p.setAttribute("class", "y");
+    Element span = new Element(widget, "span");
+    span.setAttribute("id", "e");
+    p.addElement(span);
+    a.addElement(p);
+    Element[] ps = widget.getElementsByTagName("p");
+    assertEquals(3, ps.length);
+    assertSame(p, ps[1]);
+    assertSame(p, widget.getElementsByClassName("y")[1]);
+    // the first element with a duplicate id is found
+    assertSame(span, widget.getElementById("e"));
+
+    // removed subtrees are no longer found
+    a.remove(a.getChildCount() - 1);
+    assertSame(d, widget.getElementById("e"));
+    assertEquals(2, widget.getElementsByTagName("p").length);
+    body.remove(1);
+    assertNull(widget.getElementById("e"));
+    assertEquals(0, widget.getElementsByTagName("span").length);
+
+    // implied html and body elements
+    html = "<div id='x'>x</div><p>p</p>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    assertSame(widget.getElement().getElement(0), widget.getElementById("x"));
+    assertEquals(1, widget.getElementsByTagName("body").length);
+    assertSame(widget.getElement(), widget.getElementsByTagName("body")[0]);
+    assertEquals(1, widget.getElementsByTagName("p").length);
+  }
+
+  /**
+   * Each lookup of an element returns the same script object.
+   */
+  public void testScriptObjects() throws Exception {
+    String html = "<html><body><div id='a' class='x'>a</div><p>p</p></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    synchronized (widget.globalScope.getEventLock()) {
+      Eval.eval("var a = document.getElementById('a');"
+          + "var all = document.getElementsByTagName('*');"
+          + "a.foo = 1;"
+          + "var same = a === document.getElementsByClassName('x')[0]"
+          + "    && a === document.getElementsByTagName('div')[0]"
+          + "    && a === all[2]"
+          + "    && document.getElementById('a').foo == 1;"
+          + "var tags = '';"
+          + "for (var i = 0; i < all.length; i++) tags += all[i].tagName + ' ';",
+          widget.globalScope);
+      assertEquals(Boolean.TRUE, widget.globalScope.getObject("same"));
+      assertEquals("HTML BODY DIV P ", widget.globalScope.getObject("tags"));
+    }
+  }
+
+  /**
+   * Scripts found while parsing run after the document has been loaded, so
+   * they never see a partially built element tree.
+   */
+  public void testScriptsRunAfterLoad() throws Exception {
+    String html = "<html><body><p>a</p>"
+        + "<script>var log = document.getElementsByTagName('p').length + '';</script>"
+        + "<p>b</p></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    assertNull(widget.deferredScripts);
+    waitForLog("2");
+  }
+
+  /**
+   * A document script doing a synchronous request is suspended until the
+   * request completes (here: is aborted); the next script waits for it.
+   */
+  public void testSynchronousRequest() throws Exception {
+    final Vector requests = new Vector();
+    RequestPool pool = new RequestPool(1, 1) {
+      public synchronized void submit(RequestPool.Request request) {
+        // never answered
+        requests.addElement(request);
+      }
+    };
+    final JsWindow window = widget.globalScope;
+    window.addVar("xhr", new XMLHttpRequestObject(window, window.getEventLoop(), pool));
+
+    String html = "<html><body><script>"
+        + "var log = 'start';"
+        + "xhr.open('GET', 'http://example.com/data', false);"
+        + "var caught;"
+        + "[2, 1].sort(function(a, b) {"
+        + "  try { xhr.send(); } catch (e) { caught = e.message; }"
+        + "  return a - b;"
+        + "});"
+        + "log += ', ' + caught;"
+        + "try { xhr.send(); } catch (e) { log += ', ' + e.message; }"
+        + "log += ', resumed';"
+        + "</script><script>log += ', next';</script></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+
+    waitForLog("start, Cannot suspend a script called by a native function");
+    assertEquals(1, requests.size());
+
+    window.getEventLoop().post(new Runnable() {
+      public void run() {
+        try {
+          Eval.eval("xhr.abort()", window);
+        } catch (Exception e) {
+          throw new RuntimeException(e.toString());
+        }
+      }
+    });
+    waitForLog("start, Cannot suspend a script called by a native function, "
+        + "NetworkError: request aborted, resumed, next");
+  }
+
+  void waitForLog(String expected) throws InterruptedException {
+    String log = null;
+    for (int i = 0; i < 100; i++) {
+      synchronized (widget.globalScope.getEventLock()) {
+        log = widget.globalScope.getString("log");
+      }
+      if (expected.equals(log)) {
+        return;
+      }
+      Thread.sleep(50);
+    }
+    assertEquals(expected, log);
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Measures full style passes over a large generated document with 1, 2, 4
+ * and 8 style threads. Run with the test classpath; prints milliseconds per
+ * pass. The speedup depends on the number of available cores.
+ */
+public class StylePassBenchmark {
+  static final int ROUNDS = 5;
+  static final int PASSES = 10;
+  static final int[] THREADS = {1, 2, 4, 8};
+
+  public static void main(String[] args) throws Exception {
+    HtmlWidget widget = TestWidgets.createWidget();
+
+    String html = ElementTest.generateDocument(500, 20);
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+
+    for (int round = 0; round < ROUNDS; round++) {
+      StringBuffer buf = new StringBuffer();
+      for (int t = 0; t < THREADS.length; t++) {
+        widget.setStyleThreadCount(THREADS[t]);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < PASSES; i++) {
+          // restyle everything, without shared styles from the previous pass
+          widget.styleCache.clear();
+          widget.getElement().invalidateStyle(Element.STYLE_DIRTY_TREE);
+          widget.applyStyle();
+        }
+        buf.append("  threads " + THREADS[t] + ": "
+            + (System.currentTimeMillis() - start) / PASSES + "ms");
+      }
+      System.out.println(buf);
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html;
+
+import com.google.minijoe.html.gfx.HeadlessToolkit;
+import com.google.minijoe.html.gfx.Toolkit;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Creates document widgets for tests and benchmarks, rendering with the
+ * headless toolkit.
+ */
+public class TestWidgets {
+
+  /** Request handler ignoring all requests. */
+  public static final SystemRequestHandler IGNORE_REQUESTS = new SystemRequestHandler() {
+    public void requestResource(HtmlWidget source, int requestMethod, String url,
+        int expectedContentType, byte[] data) {
+    }
+
+    public void requestPopup(InputWidget source, Vector options, int selectedIndex) {
+    }
+
+    public void requestTextInput(InputWidget source, String text, int constraints,
+        boolean multiline) {
+    }
+  };
+
+  /**
+   * Installs a new headless toolkit and creates an empty document widget for
+   * http://example.com/ that ignores all requests. Reset the toolkit with
+   * Toolkit.setInstance(null) in tearDown().
+   */
+  public static HtmlWidget createWidget() {
+    Toolkit.setInstance(new HeadlessToolkit());
+    return new HtmlWidget(IGNORE_REQUESTS, "http://example.com/", new Hashtable(), false);
+  }
+}
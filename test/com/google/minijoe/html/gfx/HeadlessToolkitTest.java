@@ -0,0 +1,157 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.html.gfx;
+
+import com.google.minijoe.html.HtmlWidget;
+import com.google.minijoe.html.TestWidgets;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Tests for the headless rendering backend, including layout and painting
+ * of a document without MIDP.
+ */
+public class HeadlessToolkitTest extends TestCase {
+
+  static final int WHITE = 0xffffffff;
+  static final int RED = 0xffff0000;
+
+  public HeadlessToolkitTest() {
+    super();
+  }
+
+  public HeadlessToolkitTest(String name) {
+    super(name);
+  }
+
+  public void setUp() {
+    Toolkit.setInstance(new HeadlessToolkit());
+  }
+
+  public void tearDown() {
+    Toolkit.setInstance(null);
+  }
+
+  static int count(HeadlessImage image, int argb) {
+    int n = 0;
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        if (image.getPixel(x, y) == argb) {
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  public void testFillAndClip() {
+    HeadlessImage image = (HeadlessImage) Image.createImage(20, 10);
+    assertEquals(200, count(image, WHITE));
+    Graphics g = image.getGraphics();
+    g.setColor(0xff0000);
+    g.translate(2, 1);
+    g.clipRect(0, 0, 10, 5);
+    assertEquals(0, g.getClipX());
+    assertEquals(10, g.getClipWidth());
+    g.fillRect(-5, -5, 100, 100);
+    assertEquals(50, count(image, RED));
+    assertEquals(RED, image.getPixel(2, 1));
+    assertEquals(WHITE, image.getPixel(1, 1));
+
+    g.setClip(-2, -1, 20, 10);
+    g.setColor(0);
+    g.drawRect(0, 0, 3, 3);
+    // the outline covers 4 x 4 pixels
+    assertEquals(12, count(image, 0xff000000));
+    g.drawLine(10, 6, 15, 6);
+    assertEquals(18, count(image, 0xff000000));
+    g.fillTriangle(0, 0, 0, 0, 0, 0);
+    assertEquals(0, g.getColor());
+  }
+
+  public void testImages() {
+    HeadlessImage target = (HeadlessImage) Image.createImage(4, 4);
+    Image half = Image.createRGBImage(new int[] {0x80ff0000, 0x80ff0000}, 2, 1, true);
+    Image opaque = Image.createRGBImage(new int[] {0x000000ff}, 1, 1, false);
+    assertFalse(half.isMutable());
+    Graphics g = target.getGraphics();
+    g.drawImage(half, 4, 4, Graphics.BOTTOM | Graphics.RIGHT);
+    g.drawImage(opaque, 0, 0, Graphics.TOP | Graphics.LEFT);
+    assertEquals(0xffff7f7f, target.getPixel(2, 3));
+    assertEquals(0xffff7f7f, target.getPixel(3, 3));
+    assertEquals(0xff0000ff, target.getPixel(0, 0));
+    try {
+      half.getGraphics();
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // only the size is read from encoded images
+    byte[] png = {(byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10, 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+        0, 0, 1, 2, 0, 0, 0, 3};
+    Image image = Image.createImage(png, 0, png.length);
+    assertEquals(258, image.getWidth());
+    assertEquals(3, image.getHeight());
+    byte[] gif = {'G', 'I', 'F', '8', '9', 'a', 16, 0, 8, 0};
+    assertEquals(16, Image.createImage(gif, 0, gif.length).getWidth());
+    try {
+      Image.createImage(new byte[10], 0, 10);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testFonts() {
+    Font small = Font.getFont(Font.FACE_PROPORTIONAL, Font.STYLE_PLAIN, Font.SIZE_SMALL);
+    Font bold = Font.getFont(Font.FACE_PROPORTIONAL, Font.STYLE_BOLD, Font.SIZE_SMALL);
+    assertSame(small, Font.getFont(Font.FACE_PROPORTIONAL, Font.STYLE_PLAIN, Font.SIZE_SMALL));
+    assertEquals(12, small.getHeight());
+    assertTrue(small.charWidth('m') > small.charWidth('i'));
+    assertEquals(small.stringWidth("mi") + 2, bold.stringWidth("mi"));
+    assertEquals(small.stringWidth("ill"), small.substringWidth("will", 1, 3));
+
+    HeadlessImage image = (HeadlessImage) Image.createImage(40, 20);
+    Graphics g = image.getGraphics();
+    g.setFont(small);
+    g.drawString("a b", 40, 0, Graphics.TOP | Graphics.RIGHT);
+    // two glyph boxes, no box for the space
+    int glyph = (small.charWidth('a') - 1) * (small.getBaselinePosition() - 2);
+    assertEquals(2 * glyph, count(image, 0xff000000));
+  }
+
+  public void testDocument() throws Exception {
+    HtmlWidget widget = TestWidgets.createWidget();
+    String html = "<html><head><style>.box { background-color: #f00 }</style></head><body>"
+        + "<h1>Title</h1><p>Some text that is long enough to be broken into several lines.</p>"
+        + "<div class='box'>box</div></body></html>";
+    widget.load(new ByteArrayInputStream(html.getBytes("UTF-8")), "UTF-8");
+    widget.doLayout(120);
+    int height = widget.getHeight();
+    assertTrue(height > 3 * 12);
+
+    HeadlessImage image = (HeadlessImage) Image.createImage(120, height);
+    widget.drawTree(image.getGraphics(), 0, 0, 0, 0, 120, height);
+    assertTrue(count(image, RED) > 0);
+    assertTrue(count(image, 0xff000000) > 0);
+
+    // the layout does not depend on the platform
+    widget.doLayout(240);
+    assertTrue(widget.getHeight() < height);
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import j2meunit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for number to string and string to number conversion. The expected
+ * strings are the results of current JavaScript engines.
+ */
+public class DoubleConversionTest extends TestCase {
+
+  static final int SAMPLES = 100000;
+
+  public DoubleConversionTest() {
+    super();
+  }
+
+  public DoubleConversionTest(String name) {
+    super(name);
+  }
+
+  public void testToString() {
+    assertEquals("0", JsSystem.toString(new Double(-0.0)));
+    assertEquals("42", JsSystem.toString(new Double(42)));
+    assertEquals("0.1", JsSystem.toString(new Double(0.1)));
+    assertEquals("-1.5e-10", JsSystem.toString(new Double(-1.5e-10)));
+    assertEquals("0.000001", JsSystem.toString(new Double(1e-6)));
+    assertEquals("1e-7", JsSystem.toString(new Double(1e-7)));
+    assertEquals("100000000000000000000", JsSystem.toString(new Double(1e20)));
+    assertEquals("1e+21", JsSystem.toString(new Double(1e21)));
+    assertEquals("5e-324", JsSystem.toString(new Double(Double.MIN_VALUE)));
+    assertEquals("4.35e-322", JsSystem.toString(new Double(4.35e-322)));
+    assertEquals("1.7976931348623157e+308",
+        JsSystem.toString(new Double(Double.MAX_VALUE)));
+    assertEquals("-Infinity",
+        JsSystem.toString(new Double(Double.NEGATIVE_INFINITY)));
+    assertEquals("NaN", JsSystem.toString(new Double(Double.NaN)));
+  }
+
+  public void testLargeIntegers() {
+    // shortest digits, padded with zeros
+    assertEquals("161601140914943600", DoubleConversion.toString(1.61601140914943616E17));
+    assertEquals("1152921504606847000", DoubleConversion.toString(1152921504606846976.0));
+    assertEquals("9007199254740994", DoubleConversion.toString(9007199254740994.0));
+    assertEquals("123456789012345680000",
+        DoubleConversion.toString(123456789012345678901.0));
+    assertEquals("1.5e+300", DoubleConversion.toString(1.5e300));
+  }
+
+  /**
+   * Checks that random numbers round-trip and that no shorter digit
+   * sequence reads back to the same number.
+   */
+  public void testShortest() {
+    Random random = new Random(0);
+    for (int i = 0; i < SAMPLES; i++) {
+      double d;
+      switch (i % 3) {
+        case 0:
+          d = Double.longBitsToDouble(random.nextLong());
+          break;
+        case 1:
+          // integers >= 2^53
+          d = (1.0 + random.nextDouble()) * (1L << (53 + random.nextInt(10)));
+          break;
+        default:
+          // subnormals
+          d = Double.longBitsToDouble(random.nextLong() & 0x000FFFFFFFFFFFFFL);
+      }
+      if (Double.isNaN(d) || Double.isInfinite(d) || d == 0) {
+        continue;
+      }
+      d = Math.abs(d);
+      String s = DoubleConversion.toString(d);
+      assertEquals(s, d, Double.parseDouble(s), 0);
+
+      int[] point = new int[1];
+      String digits = getDigits(s, point);
+      if (digits.length() > 1) {
+        // d is strictly between the truncated digits t and t + 1, so if a
+        // shorter representation existed, it would be one of them
+        long t = Long.parseLong(digits.substring(0, digits.length() - 1));
+        int exp = point[0] - digits.length() + 1;
+        assertTrue(s, Double.parseDouble(t + "e" + exp) != d);
+        assertTrue(s, Double.parseDouble((t + 1) + "e" + exp) != d);
+      }
+    }
+  }
+
+  /**
+   * Returns the significant digits of the number string s; point[0] is set
+   * to the position of the decimal point relative to the first digit.
+   */
+  static String getDigits(String s, int[] point) {
+    StringBuffer digits = new StringBuffer();
+    boolean dot = false;
+    point[0] = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == 'e') {
+        point[0] += Integer.parseInt(s.substring(s.charAt(i + 1) == '+' ? i + 2 : i + 1));
+        break;
+      } else if (c == '.') {
+        dot = true;
+      } else if (digits.length() == 0 && c == '0') {
+        if (dot) {
+          point[0]--;
+        }
+      } else {
+        digits.append(c);
+        if (!dot) {
+          point[0]++;
+        }
+      }
+    }
+    String result = digits.toString();
+    while (result.endsWith("0")) {
+      result = result.substring(0, result.length() - 1);
+    }
+    return result;
+  }
+
+  public void testFormatNumber() {
+    assertEquals("12.35", JsSystem.formatNumber(JsObject.ID_TO_FIXED, 12.3456789, 2));
+    assertEquals("12000.00", JsSystem.formatNumber(JsObject.ID_TO_FIXED, 12000, 2));
+    assertEquals("0.01", JsSystem.formatNumber(JsObject.ID_TO_FIXED, 0.012345, 2));
+    assertEquals("0.0", JsSystem.formatNumber(JsObject.ID_TO_FIXED, 0.000012345, 1));
+    assertEquals("10.0", JsSystem.formatNumber(JsObject.ID_TO_FIXED, 9.99, 1));
+    assertEquals("1.23e+5", JsSystem.formatNumber(JsObject.ID_TO_EXPONENTIAL, 123456, 2));
+    assertEquals("1.5e+0", JsSystem.formatNumber(JsObject.ID_TO_EXPONENTIAL, 1.5, Double.NaN));
+    assertEquals("123.5", JsSystem.formatNumber(JsObject.ID_TO_PRECISION, 123.456, 4));
+    assertEquals("1.2e+5", JsSystem.formatNumber(JsObject.ID_TO_PRECISION, 123456, 2));
+    assertEquals("0.00012", JsSystem.formatNumber(JsObject.ID_TO_PRECISION, 0.000123, 2));
+  }
+
+  public void testExactRounding() {
+    // 1.005 is 1.00499999999999989...
+    assertEquals("1.00", DoubleConversion.toFixed(1.005, 2));
+    assertEquals("1.4", DoubleConversion.toFixed(1.45, 1));
+    assertEquals("1000.00", DoubleConversion.toFixed(999.995, 2));
+    assertEquals("3", DoubleConversion.toFixed(2.5, 0));
+    assertEquals("0.001", DoubleConversion.toFixed(0.0005, 3));
+    assertEquals("-0.00", DoubleConversion.toFixed(-0.0001, 2));
+    assertEquals("0.10000000000000000555", DoubleConversion.toFixed(0.1, 20));
+    assertEquals("100000000000000000000.00", DoubleConversion.toFixed(1e20, 2));
+    assertEquals("1.00", DoubleConversion.toPrecision(1.005, 3));
+    assertEquals("100", DoubleConversion.toPrecision(99.95, 3));
+    assertEquals("0.100000000000000005551", DoubleConversion.toPrecision(0.1, 21));
+    assertEquals("1.3e+0", DoubleConversion.toExponential(1.25, 1));
+    assertEquals("4.941e-324", DoubleConversion.toExponential(Double.MIN_VALUE, 3));
+    assertEquals("1.23456000000000003070e+2", DoubleConversion.toExponential(123.456, 20));
+  }
+
+  public void testRangeError() {
+    assertRangeError(JsObject.ID_TO_FIXED, 21);
+    assertRangeError(JsObject.ID_TO_FIXED, -1);
+    assertRangeError(JsObject.ID_TO_EXPONENTIAL, 21);
+    assertRangeError(JsObject.ID_TO_PRECISION, 0);
+    assertRangeError(JsObject.ID_TO_PRECISION, 22);
+    // no range check for NaN and Infinity, except for toFixed
+    assertEquals("NaN", JsSystem.formatNumber(JsObject.ID_TO_PRECISION, Double.NaN, 0));
+    assertEquals("Infinity",
+        JsSystem.formatNumber(JsObject.ID_TO_EXPONENTIAL, Double.POSITIVE_INFINITY, 50));
+  }
+
+  void assertRangeError(int op, int digits) {
+    try {
+      JsSystem.formatNumber(op, 1.5, digits);
+      fail("RangeError expected for " + digits);
+    } catch (JsException e) {
+      assertEquals("RangeError", e.getError().getString("name"));
+    }
+  }
+
+  public void testToNumber() {
+    assertEquals(0, JsSystem.toNumber(""), 0);
+    assertEquals(0, JsSystem.toNumber(" \t\n "), 0);
+    assertEquals(12, JsSystem.toNumber(" 12 "), 0);
+    assertEquals(31, JsSystem.toNumber("0x1F"), 0);
+    assertEquals(50, JsSystem.toNumber("+.5e2"), 0);
+    assertEquals(0.1, JsSystem.toNumber("0.1"), 0);
+    assertEquals(Double.NEGATIVE_INFINITY, JsSystem.toNumber("-Infinity"), 0);
+    assertEquals(Double.MIN_VALUE, JsSystem.toNumber("5e-324"), 0);
+    assertEquals(1.61601140914943616E17, JsSystem.toNumber("161601140914943600"), 0);
+    assertTrue(Double.isNaN(JsSystem.toNumber("12abc")));
+    assertTrue(Double.isNaN(JsSystem.toNumber("1e")));
+    assertTrue(Double.isNaN(JsSystem.toNumber("-0x10")));
+    assertEquals(12, DoubleConversion.parsePrefix("12abc"), 0);
+    assertEquals(1, DoubleConversion.parsePrefix("1e+"), 0);
+  }
+}
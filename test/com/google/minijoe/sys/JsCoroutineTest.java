@@ -0,0 +1,182 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import com.google.minijoe.compiler.Eval;
+
+import j2meunit.framework.TestCase;
+
+import java.util.Vector;
+
+/**
+ * Tests for JsCoroutine. Scripts call a native function wait(), which
+ * suspends them; the test resumes the suspended coroutines.
+ */
+public class JsCoroutineTest extends TestCase {
+
+  JsObject global;
+  Vector waiting = new Vector();
+
+  public JsCoroutineTest() {
+    super();
+  }
+
+  public JsCoroutineTest(String name) {
+    super(name);
+  }
+
+  public void setUp() {
+    global = Eval.createGlobal();
+    global.addVar("wait", new JsFunction(0, 0) {
+      public void eval(JsArray stack, int sp, int parCount) {
+        JsCoroutine.suspend(stack, sp, new JsCoroutine.Wait() {
+          protected void start(JsCoroutine coroutine) {
+            waiting.addElement(coroutine);
+          }
+        });
+      }
+    });
+  }
+
+  JsCoroutine start(String function, Object[] args) {
+    JsArray stack = new JsArray();
+    stack.setObject(0, global);
+    JsCoroutine coroutine = new JsCoroutine(stack, (JsFunction) global.getObject(function),
+        global, args);
+    coroutine.start();
+    return coroutine;
+  }
+
+  JsCoroutine next() {
+    assertTrue(waiting.size() > 0);
+    JsCoroutine coroutine = (JsCoroutine) waiting.elementAt(0);
+    waiting.removeElementAt(0);
+    return coroutine;
+  }
+
+  public void testResume() throws Exception {
+    Eval.eval("function f(a) { var x = wait(); var y = wait(); return a + x + y; }", global);
+    JsCoroutine co = start("f", new Object[] {"a"});
+    assertTrue(co.isSuspended());
+    assertNull(co.getResult());
+    next().resume("b");
+    assertTrue(co.isSuspended());
+    next().resume("c");
+    assertTrue(co.isDone());
+    assertEquals("abc", co.getResult());
+    assertEquals(0, waiting.size());
+  }
+
+  public void testNestedCalls() throws Exception {
+    Eval.eval("function leaf(n) { return wait() * n; }"
+        + "function mid(n) { var r = 0; for (var i = 1; i <= n; i++) { r += leaf(i); } return r; }"
+        + "function top() { return mid(3) + 1; }", global);
+    JsCoroutine co = start("top", new Object[0]);
+    for (int i = 0; i < 3; i++) {
+      next().resume(new Double(10));
+    }
+    assertEquals(new Double(61), co.getResult());
+  }
+
+  public void testResumeWithError() throws Exception {
+    Eval.eval("function caught() { try { wait(); return 'no'; } catch (e) { return 'caught ' + e.message; } }"
+        + "function uncaught() { inner(); } function inner() { wait(); }", global);
+    JsCoroutine co = start("caught", new Object[0]);
+    next().resumeWithError("io");
+    assertEquals("caught io", co.getResult());
+
+    co = start("uncaught", new Object[0]);
+    try {
+      next().resumeWithError("io");
+      fail();
+    } catch (JsException e) {
+      assertEquals("io", e.getError().getString("message"));
+    }
+    assertTrue(co.isDone());
+    assertNull(co.getResult());
+  }
+
+  public void testInterleaved() throws Exception {
+    Eval.eval("var log = ''; function worker(name) { for (var i = 0; i < 2; i++) {"
+        + "var v = wait(); log += name + v; } return name; }", global);
+    JsCoroutine[] workers = new JsCoroutine[50];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = start("worker", new Object[] {"w" + i});
+    }
+    assertEquals(50, waiting.size());
+    // the suspended workers are resumed from the end of the queue, so the
+    // first round runs backwards and the second round forwards
+    for (int round = 0; round < 2; round++) {
+      for (int i = workers.length - 1; i >= 0; i--) {
+        ((JsCoroutine) waiting.elementAt(i)).resume(new Double(round));
+        waiting.removeElementAt(i);
+      }
+    }
+    for (int i = 0; i < workers.length; i++) {
+      assertEquals("w" + i, workers[i].getResult());
+    }
+    String log = (String) global.getObject("log");
+    assertTrue(log.startsWith("w490w480"));
+    assertTrue(log.endsWith("w481w491"));
+  }
+
+  public void testSuspendInNativeCallback() throws Exception {
+    Eval.eval("function f() { try { [2, 1].sort(function(a, b) { wait(); return a - b; }); }"
+        + "catch (e) { return e.message; } }", global);
+    JsCoroutine co = start("f", new Object[0]);
+    assertEquals("Cannot suspend a script called by a native function", co.getResult());
+    assertEquals(0, waiting.size());
+
+    // caught by a try statement in the callback
+    Eval.eval("function g() { var m; [2, 1].sort(function(a, b) {"
+        + "try { wait(); } catch (e) { m = e.message; } return a - b; }); return m; }", global);
+    co = start("g", new Object[0]);
+    assertEquals("Cannot suspend a script called by a native function", co.getResult());
+    assertEquals(0, waiting.size());
+  }
+
+  public void testEventLoop() throws Exception {
+    final JsEventLoop loop = new JsEventLoop(global);
+    Eval.eval("var result = '', other = 0; function f(a) { result = a + wait(); }"
+        + "function g() { other++; }", global);
+    Thread thread = new Thread(loop);
+    thread.start();
+    try {
+      loop.post((JsFunction) global.getObject("f"), null, new Object[] {"x"});
+      long end = System.currentTimeMillis() + 2000;
+      while (waiting.size() == 0 && System.currentTimeMillis() < end) {
+        Thread.sleep(5);
+      }
+      final JsCoroutine co = next();
+      // other calls run while f is suspended
+      loop.post((JsFunction) global.getObject("g"), null, null);
+      loop.postCompletion(new Runnable() {
+        public void run() {
+          co.resume("y");
+        }
+      });
+      while (!co.isDone() && System.currentTimeMillis() < end) {
+        Thread.sleep(5);
+      }
+      assertEquals("xy", global.getObject("result"));
+      while (global.getNumber("other") == 0 && System.currentTimeMillis() < end) {
+        Thread.sleep(5);
+      }
+      assertEquals(1, global.getNumber("other"), 0);
+    } finally {
+      loop.stop();
+    }
+  }
+}
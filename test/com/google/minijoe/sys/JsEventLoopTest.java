@@ -0,0 +1,327 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import com.google.minijoe.compiler.Eval;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.Vector;
+
+/**
+ * Tests for JsEventLoop. The loop runs on a separate thread; tests post
+ * their tasks and wait for the listener.
+ */
+public class JsEventLoopTest extends TestCase {
+
+  JsObject global;
+  JsEventLoop loop;
+  Vector log = new Vector();
+  int batches;
+  Thread thread;
+
+  public JsEventLoopTest() {
+    super();
+  }
+
+  public JsEventLoopTest(String name) {
+    super(name);
+  }
+
+  public void setUp() {
+    global = JsSystem.createGlobal();
+    loop = new JsEventLoop(global);
+    loop.setListener(new JsEventLoop.Listener() {
+      public void tasksDone() {
+        synchronized (log) {
+          batches++;
+          log.notifyAll();
+        }
+      }
+
+      public void taskFailed(Exception e) {
+        log("failed " + e.getMessage());
+      }
+    });
+  }
+
+  public void tearDown() {
+    loop.stop();
+  }
+
+  void start() {
+    thread = new Thread(loop);
+    thread.start();
+  }
+
+  Runnable logTask(final String s) {
+    return new Runnable() {
+      public void run() {
+        log(s);
+      }
+    };
+  }
+
+  void log(String s) {
+    synchronized (log) {
+      log.addElement(s);
+      log.notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the log has the given number of entries.
+   */
+  void awaitLog(int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 2000;
+    synchronized (log) {
+      while (log.size() < count && System.currentTimeMillis() < end) {
+        log.wait(end - System.currentTimeMillis());
+      }
+    }
+    assertEquals(log.toString(), count, log.size());
+  }
+
+  /**
+   * Waits until the listener has been notified the given number of times.
+   */
+  void awaitBatches(int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + 2000;
+    synchronized (log) {
+      while (batches < count && System.currentTimeMillis() < end) {
+        log.wait(end - System.currentTimeMillis());
+      }
+      assertEquals(count, batches);
+    }
+  }
+
+  String logString() {
+    synchronized (log) {
+      return log.toString();
+    }
+  }
+
+  public void testOrder() throws InterruptedException {
+    // queued before the loop starts, so they form a single batch
+    loop.post(logTask("task1"));
+    loop.postCompletion(logTask("io"));
+    loop.post(new Runnable() {
+      public void run() {
+        log("task2");
+        loop.queueMicrotask(logTask("micro1"));
+        loop.queueMicrotask(new Runnable() {
+          public void run() {
+            log("micro2");
+            loop.queueMicrotask(logTask("micro3"));
+          }
+        });
+      }
+    });
+    loop.post(logTask("task3"));
+    start();
+    awaitLog(7);
+    assertEquals("[io, task1, task2, micro1, micro2, micro3, task3]", logString());
+    awaitBatches(1);
+    Thread.sleep(50);
+    synchronized (log) {
+      assertEquals(1, batches);
+    }
+  }
+
+  public void testCallFunction() throws Exception {
+    Eval.eval("var calls = 0; function f(a, b) { calls += a + b; }", global);
+    JsFunction f = (JsFunction) global.getObject("f");
+    loop.post(f, null, new Object[] {new Double(2), new Double(3)});
+    loop.post(logTask("done"));
+    start();
+    awaitLog(1);
+    assertEquals(5.0, ((Double) global.getObject("calls")).doubleValue(), 0);
+  }
+
+  public void testTimers() throws Exception {
+    Eval.eval("var n = 0; function tick() { n++; }", global);
+    JsFunction tick = (JsFunction) global.getObject("tick");
+    start();
+    long t0 = System.currentTimeMillis();
+    // the loop is already waiting; scheduling must wake it up
+    loop.getTimers().schedule(tick, 50, false);
+    loop.getTimers().schedule(new JsFunction(0, 0) {
+      public void eval(JsArray stack, int sp, int parCount) {
+        log("timer");
+      }
+    }, 60, false);
+    awaitLog(1);
+    assertTrue(System.currentTimeMillis() - t0 >= 55);
+    assertEquals(1.0, ((Double) global.getObject("n")).doubleValue(), 0);
+    assertEquals(0, loop.getTimers().size());
+  }
+
+  public void testExceptionDoesNotStopLoop() throws InterruptedException {
+    start();
+    loop.post(new Runnable() {
+      public void run() {
+        throw new RuntimeException("boom");
+      }
+    });
+    loop.post(logTask("after"));
+    awaitLog(2);
+    assertEquals("[failed boom, after]", logString());
+  }
+
+  public void testPostFromOtherThreads() throws InterruptedException {
+    start();
+    final int threads = 4;
+    final int count = 50;
+    for (int t = 0; t < threads; t++) {
+      new Thread() {
+        public void run() {
+          for (int i = 0; i < count; i++) {
+            loop.post(new Runnable() {
+              public void run() {
+                assertTrue(loop.isLoopThread());
+                log("x");
+              }
+            });
+          }
+        }
+      }.start();
+    }
+    awaitLog(threads * count);
+    assertFalse(loop.isLoopThread());
+  }
+
+  public void testStop() throws InterruptedException {
+    loop.getTimers().schedule(new JsFunction(0, 0), 10000, true);
+    start();
+    loop.stop();
+    thread.join(2000);
+    assertFalse(thread.isAlive());
+    assertEquals(0, loop.getTimers().size());
+  }
+
+  public void testOnDemand() throws Exception {
+    loop.post(logTask("before start"));
+    loop.start(JsThreadFactory.getInstance());
+    awaitLog(1);
+    loop.getTimers().schedule(new JsFunction(0, 0) {
+      public void eval(JsArray stack, int sp, int parCount) {
+        log("timer " + loop.isLoopThread());
+      }
+    }, 50, false);
+    loop.post(logTask("task"));
+    awaitLog(3);
+    assertEquals("[before start, task, timer true]", logString());
+    assertFalse(loop.isLoopThread());
+    // the thread terminates when the loop is idle
+    long end = System.currentTimeMillis() + 2000;
+    while (loop.isRunning() && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    assertFalse(loop.isRunning());
+    loop.post(logTask("again"));
+    awaitLog(4);
+    try {
+      loop.run();
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Load test: many script instances waiting for I/O at the same time. The
+   * idle loops hold no threads; they continue when their I/O completes.
+   */
+  public void testManyIdleScripts() throws Exception {
+    final int count = 10000;
+    final JsCoroutine[] waiting = new JsCoroutine[count];
+    final int[] waitingCount = new int[1];
+    global.addVar("fetch", new JsFunction(0, 0) {
+      public void eval(JsArray stack, int sp, int parCount) {
+        final int id = stack.getInt(sp + 2);
+        JsCoroutine.suspend(stack, sp, new JsCoroutine.Wait() {
+          protected void start(JsCoroutine coroutine) {
+            synchronized (waiting) {
+              waiting[id] = coroutine;
+              waitingCount[0]++;
+              waiting.notifyAll();
+            }
+          }
+        });
+      }
+    });
+    ByteArrayOutputStream code = new ByteArrayOutputStream();
+    Eval.compile("var result; function handle(id) { result = 'r' + fetch(id); }", code);
+
+    JsThreadFactory threads = JsThreadFactory.getInstance();
+    JsEventLoop[] loops = new JsEventLoop[count];
+    JsObject[] scopes = new JsObject[count];
+    long t0 = System.currentTimeMillis();
+    try {
+      for (int i = 0; i < count; i++) {
+        // each instance has its own scope; the global is only read
+        scopes[i] = new JsObject(global);
+        JsFunction.exec(new DataInputStream(new ByteArrayInputStream(code.toByteArray())),
+            scopes[i]);
+        loops[i] = new JsEventLoop(scopes[i]);
+        loops[i].start(threads);
+        loops[i].post((JsFunction) scopes[i].getObject("handle"), null,
+            new Object[] {new Double(i)});
+      }
+      synchronized (waiting) {
+        long end = System.currentTimeMillis() + 30000;
+        while (waitingCount[0] < count && System.currentTimeMillis() < end) {
+          waiting.wait(end - System.currentTimeMillis());
+        }
+        assertEquals(count, waitingCount[0]);
+      }
+      long end = System.currentTimeMillis() + 10000;
+      for (int i = 0; i < count; i++) {
+        while (loops[i].isRunning() && System.currentTimeMillis() < end) {
+          Thread.sleep(5);
+        }
+        assertFalse(loops[i].isRunning());
+      }
+
+      for (int i = 0; i < count; i++) {
+        final JsCoroutine coroutine = waiting[i];
+        final Double response = new Double(i);
+        loops[i].postCompletion(new Runnable() {
+          public void run() {
+            coroutine.resume(response);
+          }
+        });
+      }
+      end = System.currentTimeMillis() + 30000;
+      for (int i = 0; i < count; i++) {
+        while (!waiting[i].isDone() && System.currentTimeMillis() < end) {
+          Thread.sleep(5);
+        }
+        assertEquals("r" + i, scopes[i].getObject("result"));
+      }
+      System.out.println(count + " idle scripts on " + (threads.isVirtual() ? "virtual" : "regular")
+          + " threads: " + (System.currentTimeMillis() - t0) + "ms");
+    } finally {
+      for (int i = 0; i < count; i++) {
+        if (loops[i] != null) {
+          loops[i].stop();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import com.google.minijoe.compiler.Eval;
+
+import j2meunit.framework.TestCase;
+
+/**
+ * Tests for calls between scripted functions, which are executed without
+ * recursion on the Java stack.
+ */
+public class JsFunctionTest extends TestCase {
+
+  JsObject global = Eval.createGlobal();
+
+  public JsFunctionTest() {
+    super();
+  }
+
+  public JsFunctionTest(String name) {
+    super(name);
+  }
+
+  Object eval(String code) throws Exception {
+    return Eval.eval(code, global);
+  }
+
+  public void testCalls() throws Exception {
+    assertEquals(new Double(610),
+        eval("function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); } fib(15)"));
+    assertEquals(new Double(3), eval(
+        "function mk() { var c = 0; return function() { return ++c; }; }"
+        + "var counter = mk(); counter(); counter(); counter()"));
+    assertEquals("3:b", eval(
+        "function args() { return arguments.length + ':' + arguments[1]; } args(1, 'b', 3)"));
+    assertEquals(new Double(21), eval("function P(x) { this.x = x; } var p = new P(21); p.x"));
+    assertEquals(new Double(4),
+        eval("var o = {x: 2, get: function() { return this.x * 2; }}; o.get()"));
+    assertNull(eval("function noReturn() { var a = 1; } noReturn()"));
+    // scripted function called from a native function
+    assertEquals("1,2,3",
+        eval("[3, 1, 2].sort(function(a, b) { return a - b; }).join(',')"));
+  }
+
+  public void testDeepRecursion() throws Exception {
+    assertEquals(new Double(50000),
+        eval("function deep(n) { return n == 0 ? 0 : 1 + deep(n - 1); } deep(50000)"));
+    assertEquals("Maximum call stack size exceeded", eval(
+        "function endless(n) { return 1 + endless(n + 1); }"
+        + "var msg; try { endless(0); } catch (e) { msg = e.message; } msg"));
+  }
+
+  public void testExceptions() throws Exception {
+    // thrown in a nested call, caught in an outer frame
+    assertEquals("caught", eval(
+        "function thr(n) { if (n == 0) throw 'bottom'; return thr(n - 1); }"
+        + "var caught; try { thr(100); caught = 'no'; } catch (e) { caught = 'caught'; } caught"));
+    assertEquals(new Double(2), eval(
+        "function nested() { try { try { throw 1; } catch (e) { throw e + 1; } }"
+        + "catch (e2) { return e2; } } nested()"));
+    assertEquals(new Double(11),
+        eval("function t() { try { return 1; } catch (e) { return 2; } } t() + 10"));
+
+    // uncaught exceptions propagate to the caller of eval()
+    try {
+      eval("function f() { g(); } function g() { throw 'x'; } f()");
+      fail();
+    } catch (JsException e) {
+      assertEquals(1, e.getLineNumber());
+    }
+    // the interpreter is still usable afterwards
+    assertEquals(new Double(6), eval("function add(a, b) { return a + b; } add(2, 4)"));
+  }
+
+  public void testThrownValue() throws Exception {
+    // values other than errors are caught unchanged in outer frames
+    assertEquals("bottom", eval(
+        "function thr(n) { if (n == 0) throw 'bottom'; return thr(n - 1); }"
+        + "var v; try { thr(10); } catch (e) { v = e; } v"));
+    assertEquals("number:1", eval(
+        "function one() { throw 1; } var v; try { one(); } catch (e) { v = typeof e + ':' + e; } v"));
+    assertEquals(new Double(1), eval(
+        "function obj() { throw {a: 1}; } var v; try { obj(); } catch (e) { v = e.a; } v"));
+    assertEquals("RangeError", eval(
+        "function err() { throw new RangeError('r'); } var v;"
+        + "try { err(); } catch (e) { v = e.name; } v"));
+    // thrown through a native function
+    assertEquals("cmp", eval(
+        "var v; try { [2, 1].sort(function(a, b) { throw 'cmp'; }); }"
+        + "catch (e) { v = e; } v"));
+    // uncaught primitive values are available to Java callers
+    try {
+      eval("function f() { throw 42; } f()");
+      fail();
+    } catch (JsException e) {
+      assertEquals(new Double(42), e.getValue());
+      assertEquals("42", e.getError().getString("message"));
+    }
+  }
+
+  public void testScriptStackTrace() throws Exception {
+    try {
+      eval("function f() {\n  g();\n}\nfunction g() {\n  throw 'x';\n}\nf();");
+      fail();
+    } catch (JsException e) {
+      assertEquals(5, e.getLineNumber());
+      assertEquals("  at g (line 5)\n  at f (line 2)\n  at line 7\n",
+          e.getScriptStackTrace());
+    }
+    try {
+      eval("var h = function() {\n  throw 'y';\n};\nh();");
+      fail();
+    } catch (JsException e) {
+      assertEquals("  at line 2\n  at line 4\n", e.getScriptStackTrace());
+    }
+  }
+}
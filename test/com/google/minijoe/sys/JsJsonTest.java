@@ -0,0 +1,162 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import com.google.minijoe.compiler.Eval;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Tests for the native JSON object.
+ */
+public class JsJsonTest extends TestCase {
+
+  static final String SAMPLE = "{\"name\": \"caf\\u00e9 \\\"du\\\" \\n\", \"list\": [1, -2.5e3, "
+      + "true, false, null, {}, []], \"nested\": {\"a\": {\"b\": [0.125]}}}";
+
+  JsObject global = Eval.createGlobal();
+
+  public JsJsonTest() {
+    super();
+  }
+
+  public JsJsonTest(String name) {
+    super(name);
+  }
+
+  Object eval(String code) throws Exception {
+    return Eval.eval(code, global);
+  }
+
+  void checkSample(Object value) {
+    JsObject o = (JsObject) value;
+    assertEquals("caf\u00e9 \"du\" \n", o.getObject("name"));
+    JsArray list = (JsArray) o.getObject("list");
+    assertEquals(7, list.size());
+    assertEquals(1, list.getNumber(0), 0);
+    assertEquals(-2500, list.getNumber(1), 0);
+    assertSame(JsArray.NUMBER_MARKER, list.objects[1]);
+    assertEquals(Boolean.TRUE, list.getObject(2));
+    assertEquals(Boolean.FALSE, list.getObject(3));
+    assertSame(JsSystem.JS_NULL, list.getObject(4));
+    assertEquals(0, ((JsArray) list.getObject(6)).size());
+    JsArray b = (JsArray) ((JsObject) ((JsObject) o.getObject("nested")).getObject("a"))
+        .getObject("b");
+    assertEquals(0.125, b.getNumber(0), 0);
+  }
+
+  public void testParse() throws Exception {
+    checkSample(JsJson.parse(SAMPLE, JsRealm.DEFAULT));
+    assertEquals(new Double(42), JsJson.parse(" 42 ", JsRealm.DEFAULT));
+    assertEquals("x", JsJson.parse("\"x\"", JsRealm.DEFAULT));
+    assertEquals(new Double(-0.0), JsJson.parse("-0", JsRealm.DEFAULT));
+    assertEquals(new Double(12345678901234567890.0),
+        JsJson.parse("12345678901234567890", JsRealm.DEFAULT));
+
+    assertEquals("3:b", eval("var o = JSON.parse('{\"a\": [1, 2, 3], \"b\": \"b\"}');"
+        + "o.a.length + ':' + o.b"));
+  }
+
+  public void testChunks() {
+    // split the sample at every position
+    for (int i = 0; i <= SAMPLE.length(); i++) {
+      JsJson parser = new JsJson(JsRealm.DEFAULT);
+      parser.feed(SAMPLE.substring(0, i));
+      parser.feed(SAMPLE.substring(i));
+      checkSample(parser.finish());
+    }
+    // one character at a time
+    JsJson parser = new JsJson(JsRealm.DEFAULT);
+    char[] chars = SAMPLE.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      parser.feed(chars, i, 1);
+    }
+    checkSample(parser.finish());
+  }
+
+  public void testStream() throws Exception {
+    StringBuffer buf = new StringBuffer("[");
+    for (int i = 0; i < 10000; i++) {
+      buf.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"s\":\"\u00fc\"}");
+    }
+    buf.append("]");
+    JsArray a = (JsArray) JsJson.parse(
+        new ByteArrayInputStream(buf.toString().getBytes("UTF-8")), JsRealm.DEFAULT);
+    assertEquals(10000, a.size());
+    JsObject last = (JsObject) a.getObject(9999);
+    assertEquals(new Double(9999), last.getObject("id"));
+    assertEquals("\u00fc", last.getObject("s"));
+  }
+
+  public void testDeepNesting() {
+    int depth = 100000;
+    StringBuffer buf = new StringBuffer();
+    for (int i = 0; i < depth; i++) {
+      buf.append('[');
+    }
+    for (int i = 0; i < depth; i++) {
+      buf.append(']');
+    }
+    Object o = JsJson.parse(buf.toString(), JsRealm.DEFAULT);
+    for (int i = 1; i < depth; i++) {
+      o = ((JsArray) o).getObject(0);
+    }
+    assertEquals(0, ((JsArray) o).size());
+  }
+
+  public void testErrors() throws Exception {
+    String[] bad = {"", "[1,]", "{\"a\" 1}", "{'a': 1}", "01", "1.", "-", "1e", "tru",
+        "nul", "[1] 2", "\"a", "\"\\x\"", "\"\\u12g4\"", "{\"a\": 1]", "[\"\t\"]", "+1"};
+    for (int i = 0; i < bad.length; i++) {
+      try {
+        JsJson.parse(bad[i], JsRealm.DEFAULT);
+        fail(bad[i]);
+      } catch (JsException e) {
+        assertSame(JsError.SYNTAX_ERROR_PROTOTYPE, e.getError().__proto__);
+      }
+    }
+    assertEquals("SyntaxError: JSON.parse: Unexpected character 'x' at position 4", eval(
+        "var m; try { JSON.parse('[1, x]'); } catch (e) { m = '' + e; } m"));
+  }
+
+  public void testStringify() throws Exception {
+    assertEquals("[1,\"a\\\"\\u0001\",null,null,null,true,{\"b\":[]}]", eval(
+        "JSON.stringify([1, 'a\"\\u0001', null, undefined, NaN, true, {b: []}])"));
+    assertEquals("{\"a\":1}", eval("JSON.stringify({a: 1, f: function() {}, u: undefined})"));
+    assertEquals("\"x\"", eval("JSON.stringify(new String('x'))"));
+    assertEquals("undefined", eval("typeof JSON.stringify(function() {})"));
+    assertEquals("{\n  \"a\": [\n    1,\n    2\n  ]\n}", eval("JSON.stringify({a: [1, 2]}, null, 2)"));
+    assertEquals("[\n--{}\n]", eval("JSON.stringify([{}], null, '--')"));
+    assertEquals("TypeError", eval(
+        "var a = [1]; a.push({x: a}); var m; try { JSON.stringify(a); } catch (e) { m = e.name; } m"));
+    // the same object twice is not a cycle
+    assertEquals("[{},{}]", eval("var o = {}; JSON.stringify([o, o])"));
+    assertEquals("{\"a\":[1,{\"b\":\"c\"}]}", eval(
+        "JSON.stringify(JSON.parse('{\"a\": [1, {\"b\": \"c\"}]}'))"));
+
+    // dates: 1-based months, padded UTC fields, proleptic Gregorian calendar
+    assertEquals("\"1970-01-01T00:00:00.000Z\"", eval("JSON.stringify(new Date(0))"));
+    assertEquals("[\"2020-12-31T23:59:05.007Z\"]",
+        eval("JSON.stringify([new Date(1609459145007)])"));
+    assertEquals("{\"d\":\"1969-12-31T23:59:59.999Z\"}",
+        eval("JSON.stringify({d: new Date(-1)})"));
+    assertEquals("\"0005-04-19T09:46:40.000Z\"",
+        eval("JSON.stringify(new Date(-62000000000000))"));
+    assertEquals("\"+275760-09-13T00:00:00.000Z\"",
+        eval("JSON.stringify(new Date(8.64e15))"));
+  }
+}
@@ -0,0 +1,250 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import com.google.minijoe.compiler.Eval;
+
+import j2meunit.framework.TestCase;
+
+/**
+ * Checks that scripts running in different realms cannot observe each
+ * other, including when running concurrently.
+ */
+public class JsRealmTest extends TestCase {
+
+  public JsRealmTest() {
+    super();
+  }
+
+  public JsRealmTest(String name) {
+    super(name);
+  }
+
+  static Object eval(JsRealm realm, String code) {
+    try {
+      return Eval.eval(code, new Eval(realm), realm);
+    } catch (Exception e) {
+      throw new RuntimeException(e.toString());
+    }
+  }
+
+  public void testPrototypeIsolation() {
+    JsRealm a = new JsRealm();
+    JsRealm b = new JsRealm();
+
+    assertEquals(new Double(42), eval(a, "Array.prototype.foo = 42; [].foo"));
+    assertNull(eval(b, "[].foo"));
+    assertNull(JsArray.PROTOTYPE.getObject("foo"));
+
+    assertEquals(new Double(42), eval(a, "'a,b'.split(',').foo"));
+    assertEquals(new Double(42), eval(a, "[1].concat([2]).foo"));
+    assertEquals(new Double(42), eval(a, "new Array(3).foo"));
+
+    assertEquals("x3", eval(a,
+        "String.prototype.x = function() { return 'x' + this.length }; 'abc'.x()"));
+    assertEquals("undefined", eval(b, "typeof 'abc'.x"));
+  }
+
+  public void testSharedNatives() {
+    JsRealm a = new JsRealm();
+    JsRealm b = new JsRealm();
+
+    Object joinA = a.getArrayPrototype().getRawInPrototypeChain("join");
+    Object joinB = b.getArrayPrototype().getRawInPrototypeChain("join");
+    assertSame(joinA, joinB);
+    assertSame(joinA, JsArray.PROTOTYPE.getRawInPrototypeChain("join"));
+    assertTrue(((JsObject) joinA).isFrozen());
+
+    assertNull(eval(a, "[].join.foo = 1; [].join.foo"));
+    assertEquals("3-1-2", eval(b, "[3, 1, 2].join('-')"));
+  }
+
+  public void testErrors() {
+    JsRealm a = new JsRealm();
+    assertEquals("TypeErrortrue", eval(a,
+        "var x; try { throw new TypeError('m') } "
+        + "catch(e) { x = e.name + (e instanceof Error) } x"));
+    assertEquals(Boolean.TRUE, eval(a,
+        "Error.prototype.tag = true; new RangeError('r').tag"));
+    assertNull(eval(new JsRealm(), "new RangeError('r').tag"));
+  }
+
+  public void testConcurrentRealms() throws InterruptedException {
+    final int count = 4;
+    final Object[] results = new Object[count];
+    Thread[] threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      final int id = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            results[id] = eval(new JsRealm(), "Object.prototype.id = " + id
+                + "; var s = 0; for (var i = 0; i < 20000; i++) { s += {}.id } s");
+          } catch (Throwable t) {
+            results[id] = t;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (int i = 0; i < count; i++) {
+      threads[i].join();
+      assertEquals(new Double(20000 * i), results[i]);
+    }
+  }
+
+  static Object exec(JsRealm realm, String code) throws Exception {
+    return Eval.eval(code, new Eval(realm), realm);
+  }
+
+  public void testStepLimit() throws Exception {
+    JsRealm realm = new JsRealm();
+    realm.setStepLimit(10000);
+    assertEquals(new Double(100), exec(realm, "var n = 0; while (n < 100) n++; n"));
+    try {
+      exec(realm, "while (true) {}");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals("step limit exceeded", e.getReason());
+      assertEquals(10000, realm.getStepCount());
+    }
+    // do-while loops and recursion are counted, too
+    realm.setStepLimit(5000);
+    try {
+      exec(realm, "do {} while (true)");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals(5000, realm.getStepCount());
+    }
+    realm.setStepLimit(5000);
+    try {
+      exec(realm, "function f(n) { return n < 2 ? n : f(n - 1) + f(n - 2); } f(30)");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals(5000, realm.getStepCount());
+    }
+    realm.setStepLimit(-1);
+    assertEquals(new Double(610), exec(realm, "f(15)"));
+  }
+
+  public void testTerminationIsUncatchable() throws Exception {
+    JsRealm realm = new JsRealm();
+    realm.setTimeout(100);
+    long t0 = System.currentTimeMillis();
+    try {
+      exec(realm, "var caught = 0; function spin() { while (true) {} }"
+          + "while (true) { try { spin(); } catch (e) { caught++; } finally { caught++; } }");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals("timeout", e.getReason());
+    }
+    assertTrue(System.currentTimeMillis() - t0 < 2000);
+    realm.setTimeout(0);
+    assertEquals(new Double(0), exec(realm, "caught"));
+
+    // also when the script was called from a native function
+    realm.setStepLimit(1000);
+    try {
+      exec(realm, "try { [2, 1].sort(function(a, b) { while (true) {} }); } catch (e) {}");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals("step limit exceeded", e.getReason());
+    }
+  }
+
+  public void testCatchableTermination() throws Exception {
+    JsRealm realm = new JsRealm();
+    realm.setTerminationCatchable(true);
+    realm.setStepLimit(2000);
+    assertEquals("RangeError: Script terminated: step limit exceeded", exec(realm,
+        "function spin() { while (true) {} }"
+        + "var msg; try { spin(); } catch (e) { msg = '' + e; } msg"));
+  }
+
+  public void testInterrupt() throws Exception {
+    final JsRealm realm = new JsRealm();
+    new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        realm.interrupt();
+      }
+    }.start();
+    try {
+      exec(realm, "while (true) {}");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals("interrupted", e.getReason());
+    }
+    // the interrupt request has been consumed
+    assertEquals(new Double(3), exec(realm, "1 + 2"));
+  }
+
+  public void testMemoryAccounting() throws Exception {
+    JsRealm realm = new JsRealm();
+    realm.setMemoryLimits(-1, -1);
+    exec(realm, "var a = []; for (var i = 0; i < 1000; i++) a.push(i);");
+    long allocated = realm.getAllocatedBytes();
+    assertTrue("" + allocated, allocated >= 1000 * JsRealm.ARRAY_SLOT_SIZE);
+
+    realm.resetAllocatedBytes();
+    exec(realm, "var o = {}; for (var i = 0; i < 100; i++) o['p' + i] = i;");
+    allocated = realm.getAllocatedBytes();
+    assertTrue("" + allocated, allocated >= 100 * JsRealm.PROPERTY_SIZE);
+
+    realm.resetAllocatedBytes();
+    exec(realm, "var s = 'x'; for (var i = 0; i < 10; i++) s = s + s; s.toUpperCase();");
+    allocated = realm.getAllocatedBytes();
+    // the last concatenation and toUpperCase() each produce 1024 characters
+    assertTrue("" + allocated, allocated >= 2 * 2 * 1024);
+  }
+
+  public void testMemoryLimits() throws Exception {
+    final JsRealm realm = new JsRealm();
+    final long[] reported = new long[2];
+    realm.setMemoryListener(new JsRealm.MemoryListener() {
+      public void softLimitExceeded(JsRealm r, long allocated) {
+        assertSame(realm, r);
+        reported[0]++;
+        reported[1] = allocated;
+      }
+    });
+    realm.setMemoryLimits(10000, 1000000);
+    try {
+      exec(realm, "var s = 'x'; while (true) { try { s = s + s; } catch (e) {} }");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals("memory limit exceeded", e.getReason());
+    }
+    assertEquals(1, reported[0]);
+    assertTrue(reported[1] > 10000);
+    assertTrue(realm.getAllocatedBytes() > 1000000);
+
+    // huge arrays are rejected before they are allocated
+    realm.resetAllocatedBytes();
+    try {
+      exec(realm, "var a = []; a[100000000] = 1;");
+      fail();
+    } catch (JsTerminationException e) {
+      assertEquals("memory limit exceeded", e.getReason());
+    }
+
+    realm.setMemoryLimits(-1, -1);
+    assertEquals(new Double(3), exec(realm, "[1, 2, 3].length"));
+  }
+}
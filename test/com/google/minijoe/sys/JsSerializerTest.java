@@ -0,0 +1,117 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Round trip tests for JsSerializer, transferring values between realms.
+ */
+public class JsSerializerTest extends TestCase {
+
+  public JsSerializerTest() {
+    super();
+  }
+
+  public JsSerializerTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Evaluates the given code in the source realm, transfers the result to
+   * a new realm and stores it there as global variable "v".
+   */
+  static JsRealm transfer(String code) throws IOException {
+    JsRealm source = new JsRealm();
+    Object value = JsSnapshotTest.eval(source, code);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    JsSerializer.write(new DataOutputStream(baos), value, source);
+    JsRealm target = new JsRealm();
+    target.getGlobal().setObject("v", JsSerializer.read(
+        new DataInputStream(new ByteArrayInputStream(baos.toByteArray())), target));
+    return target;
+  }
+
+  public void testPrimitives() throws IOException {
+    assertEquals("abc", JsSnapshotTest.eval(transfer("'abc'"), "v"));
+    assertEquals(new Double(-1.5), JsSnapshotTest.eval(transfer("-1.5"), "v"));
+    assertEquals(Boolean.TRUE, JsSnapshotTest.eval(transfer("true"), "v"));
+    assertEquals(Boolean.TRUE, JsSnapshotTest.eval(transfer("null"), "v === null"));
+    assertEquals("undefined", JsSnapshotTest.eval(transfer("undefined"), "typeof v"));
+  }
+
+  public void testGraph() throws IOException {
+    JsRealm realm = transfer(
+        "var shared = {n: 1}; var o = {a: shared, b: [shared, 2, 'x', null]};"
+        + "o.self = o; o.b[4] = o.b; o.d = new Date(42); o.e = new TypeError('t'); o");
+    assertEquals(Boolean.TRUE, JsSnapshotTest.eval(realm,
+        "v.self === v && v.a === v.b[0] && v.b[4] === v.b"));
+    assertEquals(new Double(5), JsSnapshotTest.eval(realm, "v.b.length"));
+    assertEquals("2x", JsSnapshotTest.eval(realm, "v.b[1] + v.b[2]"));
+    assertEquals(new Double(42), JsSnapshotTest.eval(realm, "v.d.getTime()"));
+    assertEquals("TypeError: t", JsSnapshotTest.eval(realm, "v.e.name + ': ' + v.e.message"));
+
+    // prototypes and natives are resolved in the target realm
+    assertEquals(Boolean.TRUE, JsSnapshotTest.eval(realm,
+        "v instanceof Object && v.b instanceof Array && v.e instanceof Error"));
+    assertEquals(new Double(13), JsSnapshotTest.eval(realm, "v.b.push(7) + v.b.pop()"));
+  }
+
+  public void testFunctions() throws IOException {
+    JsRealm realm = transfer(
+        "function counter() { var c = 10; return function() { return ++c } }"
+        + "({next: counter(), join: [].join, max: Math.max})");
+    assertEquals(new Double(12), JsSnapshotTest.eval(realm, "v.next(); v.next()"));
+    assertEquals(Boolean.TRUE, JsSnapshotTest.eval(realm, "v.join === [].join"));
+    assertEquals(new Double(3), JsSnapshotTest.eval(realm, "v.max(1, 3)"));
+  }
+
+  public void testLargeGraph() throws IOException {
+    // deep enough to overflow the stack with a recursive implementation
+    JsRealm realm = transfer(
+        "var list = null; for (var i = 0; i < 50000; i++) list = {v: i, next: list};"
+        + "var nums = []; for (var i = 0; i < 10000; i++) nums[i] = i / 4;"
+        + "var s = 'x'; for (var i = 0; i < 16; i++) s += s;"
+        + "({list: list, nums: nums, s: s + 'ä'})");
+    assertEquals(new Double(49999 * 25000), JsSnapshotTest.eval(realm,
+        "var n = 0, l = v.list; while (l) { n += l.v; l = l.next } n"));
+    assertEquals(new Double(2499.75), JsSnapshotTest.eval(realm, "v.nums[9999]"));
+    assertEquals(new Double(65537), JsSnapshotTest.eval(realm, "v.s.length"));
+    assertEquals("ä", JsSnapshotTest.eval(realm, "v.s.charAt(65536)"));
+  }
+
+  public void testErrors() throws IOException {
+    try {
+      JsSerializer.write(new DataOutputStream(new ByteArrayOutputStream()),
+          new JsObject(new JsObject(null)) {}, JsRealm.DEFAULT);
+      fail("IllegalArgumentException expected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      JsSerializer.read(new DataInputStream(
+          new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5})), new JsRealm());
+      fail("IOException expected");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import com.google.minijoe.compiler.Eval;
+
+import j2meunit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Checks that realms restored from a snapshot behave like the original
+ * realm, and that they are isolated from each other.
+ */
+public class JsSnapshotTest extends TestCase {
+
+  static final String PRELUDE =
+      "var lib = { count: 0, list: [1, 'two', null, true, {x: [5, 6]}] };"
+      + "lib.inc = function(n) { this.count += n; return this.count };"
+      + "lib.me = lib;"
+      + "lib.when = new Date(1234567);"
+      + "lib.err = new RangeError('boom');"
+      + "Array.prototype.sum = function() {"
+      + "  var s = 0; for (var i = 0; i < this.length; i++) s += this[i]; return s };"
+      + "function counter() { var c = 0; return function() { return ++c } }"
+      + "var next = counter();"
+      + "function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2) }";
+
+  public JsSnapshotTest() {
+    super();
+  }
+
+  public JsSnapshotTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Evaluates the given code in the global object of the given realm, so
+   * declarations become part of the realm state.
+   */
+  static Object eval(JsRealm realm, String code) {
+    try {
+      return Eval.eval(code, null, realm);
+    } catch (Exception e) {
+      throw new RuntimeException(e.toString());
+    }
+  }
+
+  static JsSnapshot createSnapshot() {
+    JsRealm realm = new JsRealm();
+    eval(realm, PRELUDE);
+    return JsSnapshot.create(realm);
+  }
+
+  static void checkPrelude(JsRealm realm) {
+    assertEquals(new Double(5), eval(realm, "lib.inc(2) + lib.inc(1)"));
+    assertEquals(new Double(6), eval(realm, "[1, 2, 3].sum()"));
+    assertEquals(new Double(610), eval(realm, "fib(15)"));
+    assertEquals("6two", eval(realm, "lib.list[4].x[1] + lib.list[1]"));
+    assertEquals(Boolean.TRUE, eval(realm, "lib.me === lib"));
+    assertEquals(new Double(1234567), eval(realm, "lib.when.getTime()"));
+    assertEquals("RangeError:boomtrue", eval(realm,
+        "lib.err.name + ':' + lib.err.message + (lib.err instanceof Error)"));
+    assertEquals(new Double(2), eval(realm, "next(); next()"));
+    assertEquals("function5", eval(realm, "typeof parseInt + Math.max(1, 5)"));
+  }
+
+  public void testRestore() {
+    JsSnapshot snapshot = createSnapshot();
+    checkPrelude(snapshot.restore());
+    checkPrelude(snapshot.restore());
+  }
+
+  public void testIsolation() {
+    JsSnapshot snapshot = createSnapshot();
+    JsRealm a = snapshot.restore();
+    JsRealm b = snapshot.restore();
+
+    eval(a, "lib.inc(10); next(); Array.prototype.foo = 1");
+    assertEquals(new Double(0), eval(b, "lib.count"));
+    assertEquals(new Double(1), eval(b, "next()"));
+    assertEquals("undefined", eval(b, "typeof [].foo"));
+    assertTrue(a.getArrayPrototype() != b.getArrayPrototype());
+
+    // native methods are shared, script functions are not
+    assertSame(a.getArrayPrototype().getRawInPrototypeChain("join"),
+        b.getArrayPrototype().getRawInPrototypeChain("join"));
+    assertTrue(a.getGlobal().getObject("fib") != b.getGlobal().getObject("fib"));
+  }
+
+  public void testWriteRead() throws IOException {
+    JsSnapshot snapshot = createSnapshot();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    snapshot.write(new DataOutputStream(baos));
+    JsSnapshot copy = JsSnapshot.read(
+        new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+    assertEquals(snapshot.getSize(), copy.getSize());
+    checkPrelude(copy.restore());
+  }
+
+  public void testEnginePool() throws InterruptedException {
+    final JsEnginePool pool = new JsEnginePool(createSnapshot(), 2);
+    pool.prewarm(2);
+    assertEquals(2, pool.getIdleCount());
+
+    JsRealm a = pool.borrow();
+    JsRealm b = pool.borrow();
+    assertEquals(2, pool.getBorrowedCount());
+    assertEquals(0, pool.getIdleCount());
+    eval(a, "lib.inc(3)");
+
+    final JsRealm[] result = new JsRealm[1];
+    Thread waiting = new Thread() {
+      public void run() {
+        try {
+          result[0] = pool.borrow();
+        } catch (InterruptedException e) {
+          // result stays null
+        }
+      }
+    };
+    waiting.start();
+    waiting.join(100);
+    assertNull(result[0]);
+
+    pool.giveBack(a);
+    waiting.join();
+    assertNotNull(result[0]);
+    assertTrue(a != result[0]);
+    assertEquals(new Double(0), eval(result[0], "lib.count"));
+    pool.giveBack(b);
+    pool.giveBack(result[0]);
+    assertEquals(0, pool.getBorrowedCount());
+    assertEquals(2, pool.getIdleCount());
+
+    // realms given back twice or not borrowed from the pool are rejected
+    try {
+      pool.giveBack(b);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      pool.giveBack(new JsRealm());
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(0, pool.getBorrowedCount());
+  }
+}
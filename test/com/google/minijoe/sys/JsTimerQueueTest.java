@@ -0,0 +1,157 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import j2meunit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for JsTimerQueue, mostly using a manually advanced clock.
+ */
+public class JsTimerQueueTest extends TestCase {
+
+  static class ManualClockQueue extends JsTimerQueue {
+    long now = 1000;
+
+    long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  ManualClockQueue queue = new ManualClockQueue();
+
+  public JsTimerQueueTest() {
+    super();
+  }
+
+  public JsTimerQueueTest(String name) {
+    super(name);
+  }
+
+  static JsFunction f(int i) {
+    return new JsFunction(i, 0);
+  }
+
+  public void testOrder() {
+    Random random = new Random(0);
+    for (int i = 0; i < 500; i++) {
+      queue.schedule(f(i), random.nextInt(1000), false);
+    }
+    // same deadline: insertion order
+    JsFunction a = f(-1);
+    JsFunction b = f(-2);
+    queue.schedule(a, 2000, false);
+    queue.schedule(b, 2000, false);
+
+    queue.now = 2000;
+    int last = -1;
+    for (int i = 0; i < 500; i++) {
+      JsFunction next = queue.poll(queue.now);
+      assertNotNull(next);
+      assertTrue(queue.getNextDeadline() >= last);
+      last = (int) queue.getNextDeadline();
+    }
+    assertNull(queue.poll(queue.now));
+    queue.now = 3000;
+    assertSame(a, queue.poll(queue.now));
+    assertSame(b, queue.poll(queue.now));
+    assertEquals(0, queue.size());
+  }
+
+  public void testCancel() {
+    int[] ids = new int[100];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = queue.schedule(f(i), i, false);
+    }
+    for (int i = 0; i < ids.length; i += 2) {
+      assertTrue(queue.cancel(ids[i]));
+    }
+    assertFalse(queue.cancel(ids[0]));
+    assertFalse(queue.cancel(12345));
+    assertEquals(50, queue.size());
+
+    queue.now = 2000;
+    for (int i = 1; i < ids.length; i += 2) {
+      assertEquals(i, queue.poll(queue.now).index);
+    }
+    assertNull(queue.poll(queue.now));
+    // fired timeouts cannot be cancelled
+    assertFalse(queue.cancel(ids[1]));
+  }
+
+  public void testInterval() {
+    JsFunction tick = f(1);
+    int id = queue.schedule(tick, 100, true);
+    queue.now = 1100;
+    assertSame(tick, queue.poll(queue.now));
+    // rescheduled relative to the previous deadline, not to the actual time
+    queue.now = 1130;
+    assertEquals(1200, queue.getNextDeadline());
+    queue.now = 1200;
+    assertSame(tick, queue.poll(queue.now));
+    assertEquals(1300, queue.getNextDeadline());
+
+    // missed periods are skipped
+    queue.now = 1750;
+    assertSame(tick, queue.poll(queue.now));
+    assertEquals(1800, queue.getNextDeadline());
+    assertNull(queue.poll(queue.now));
+
+    assertTrue(queue.cancel(id));
+    assertEquals(0, queue.size());
+
+    queue.schedule(tick, 0, true);
+    assertSame(tick, queue.poll(queue.now));
+    assertEquals(queue.now + JsTimerQueue.MIN_INTERVAL, queue.getNextDeadline());
+  }
+
+  public void testNext() throws InterruptedException {
+    final JsTimerQueue timers = new JsTimerQueue();
+    JsFunction late = f(1);
+    JsFunction early = f(2);
+    long t0 = System.currentTimeMillis();
+    timers.schedule(late, 200, false);
+
+    // an earlier timer scheduled while next() is waiting is observed
+    new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        timers.schedule(f(2), 30, false);
+      }
+    }.start();
+    assertEquals(early.index, timers.next().index);
+    long dt = System.currentTimeMillis() - t0;
+    assertTrue("" + dt, dt >= 45 && dt < 190);
+    assertSame(late, timers.next());
+    assertTrue(System.currentTimeMillis() - t0 >= 195);
+
+    new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        timers.close();
+      }
+    }.start();
+    assertNull(timers.next());
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import java.util.Random;
+
+/**
+ * Measures the throughput of the portable and the platform MathAdapter
+ * implementations. Run with the test classpath; prints nanoseconds per call.
+ */
+public class MathAdapterBenchmark {
+  static final int COUNT = 1000000;
+  static final int ROUNDS = 5;
+
+  static final String[] NAMES = {"exp", "log", "pow", "atan", "asin"};
+
+  static double sink;
+
+  public static void main(String[] args) {
+    double[] x = new double[COUNT];
+    double[] y = new double[COUNT];
+    Random random = new Random(0);
+    for (int i = 0; i < COUNT; i++) {
+      x[i] = random.nextDouble() * 100;
+      y[i] = (random.nextDouble() - 0.5) * 20;
+    }
+
+    MathAdapter[] adapters = {new MathAdapter(), new JvmMathAdapter()};
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int a = 0; a < adapters.length; a++) {
+        StringBuffer buf = new StringBuffer(a == 0 ? "cldc:" : "jvm: ");
+        for (int f = 0; f < NAMES.length; f++) {
+          long start = System.currentTimeMillis();
+          sink += run(adapters[a], f, x, y);
+          long ns = (System.currentTimeMillis() - start) * 1000000L / COUNT;
+          buf.append("  " + NAMES[f] + " " + ns + "ns");
+        }
+        System.out.println(buf);
+      }
+    }
+  }
+
+  static double run(MathAdapter m, int function, double[] x, double[] y) {
+    double sum = 0;
+    for (int i = 0; i < COUNT; i++) {
+      switch (function) {
+        case 0:
+          sum += m.exp(y[i]);
+          break;
+        case 1:
+          sum += m.log(x[i]);
+          break;
+        case 2:
+          sum += m.pow(x[i], y[i]);
+          break;
+        case 3:
+          sum += m.atan(y[i]);
+          break;
+        default:
+          sum += m.asin(y[i] / 10);
+      }
+    }
+    return sum;
+  }
+}
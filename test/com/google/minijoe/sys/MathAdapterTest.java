@@ -0,0 +1,149 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.minijoe.sys;
+
+import j2meunit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Compares the portable CLDC implementations in MathAdapter with the
+ * platform implementations in JvmMathAdapter across the full double range,
+ * and checks the ECMA 262 special cases for both.
+ */
+public class MathAdapterTest extends TestCase {
+  static final int SAMPLES = 200000;
+
+  /** Smallest normal double; errors in the subnormal range are absolute. */
+  static final double MIN_NORMAL = 2.2250738585072014E-308;
+
+  MathAdapter cldc = new MathAdapter();
+  MathAdapter jvm = new JvmMathAdapter();
+  Random random = new Random(0);
+
+  public MathAdapterTest() {
+    super();
+  }
+
+  public MathAdapterTest(String name) {
+    super(name);
+  }
+
+  /** 
+   * Returns a random double with a uniformly distributed bit pattern, 
+   * i.e. covering all magnitudes. 
+   */
+  double randomDouble() {
+    double d;
+    do {
+      d = Double.longBitsToDouble(random.nextLong());
+    } while (Double.isNaN(d) || Double.isInfinite(d));
+    return d;
+  }
+
+  void assertClose(String what, double x, double expected, double actual, 
+      double maxRelativeError) {
+    if (Double.isNaN(expected) || Double.isInfinite(expected) 
+        || expected == 0) {
+      assertEquals(what + "(" + x + ")", expected, actual, 0);
+      return;
+    }
+    double error = Math.abs(actual - expected) 
+        / Math.max(Math.abs(expected), MIN_NORMAL);
+    assertTrue(what + "(" + x + "): " + actual + " expected: " + expected, 
+        error <= maxRelativeError);
+  }
+
+  public void testGetInstance() {
+    assertTrue(MathAdapter.getInstance().isNative());
+    assertTrue(JsSystem.math.isNative());
+  }
+
+  public void testExp() {
+    for (int i = 0; i < SAMPLES; i++) {
+      double x = (random.nextDouble() - 0.5) * 1500;
+      assertClose("exp", x, jvm.exp(x), cldc.exp(x), 1e-12);
+    }
+  }
+
+  public void testLog() {
+    for (int i = 0; i < SAMPLES; i++) {
+      double x = Math.abs(randomDouble());
+      assertClose("log", x, jvm.log(x), cldc.log(x), 1e-14);
+      x = 1 + (random.nextDouble() - 0.5) * 1e-6;
+      assertClose("log", x, jvm.log(x), cldc.log(x), 1e-9);
+    }
+  }
+
+  public void testPow() {
+    for (int i = 0; i < SAMPLES; i++) {
+      double x = random.nextDouble() * 100;
+      double y = (random.nextDouble() - 0.5) * 100;
+      assertClose("pow", x, jvm.pow(x, y), cldc.pow(x, y), 1e-11);
+      y = random.nextInt(60) - 30;
+      x = -x;
+      assertClose("pow", x, jvm.pow(x, y), cldc.pow(x, y), 1e-13);
+    }
+  }
+
+  public void testInverseTrigonometric() {
+    for (int i = 0; i < SAMPLES; i++) {
+      double x = randomDouble();
+      assertClose("atan", x, jvm.atan(x), cldc.atan(x), 1e-14);
+      double y = randomDouble();
+      assertClose("atan2", x, jvm.atan2(y, x), cldc.atan2(y, x), 1e-14);
+      x = random.nextDouble() * 2 - 1;
+      assertClose("asin", x, jvm.asin(x), cldc.asin(x), 1e-13);
+      assertClose("acos", x, jvm.acos(x), cldc.acos(x), 1e-13);
+    }
+  }
+
+  public void testSpecialCases() {
+    MathAdapter[] adapters = {cldc, jvm};
+    double inf = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < adapters.length; i++) {
+      MathAdapter m = adapters[i];
+      assertTrue(Double.isNaN(m.exp(Double.NaN)));
+      assertEquals(inf, m.exp(1000), 0);
+      assertEquals(0, m.exp(-1000), 0);
+      assertEquals(0, m.exp(-inf), 0);
+      assertTrue(Double.isNaN(m.log(-1)));
+      assertEquals(-inf, m.log(0), 0);
+      assertEquals(inf, m.log(inf), 0);
+      assertTrue(Double.isNaN(m.pow(1, inf)));
+      assertTrue(Double.isNaN(m.pow(-1, -inf)));
+      assertTrue(Double.isNaN(m.pow(-8, 1.0 / 3)));
+      assertEquals(1, m.pow(Double.NaN, 0), 0);
+      assertEquals(0.25, m.pow(2, -2), 0);
+      assertEquals(inf, m.pow(0, -1), 0);
+      assertEquals(-inf, m.pow(-0.0, -3), 0);
+      assertEquals(0, m.pow(0.5, inf), 0);
+      assertEquals(inf, m.pow(-inf, 0.5), 0);
+      assertTrue(Double.isNaN(m.asin(2)));
+      assertEquals(Math.PI, m.atan2(0, -0.0), 0);
+      assertEquals(-Math.PI / 2, m.atan2(-inf, 3), 0);
+      assertEquals(3 * Math.PI / 4, m.atan2(inf, -inf), 1e-15);
+      assertEquals(Double.doubleToLongBits(0.0), Double.doubleToLongBits(m.atan2(5, inf)));
+      assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(m.atan2(-5, inf)));
+      assertEquals(Math.PI, m.atan2(5, -inf), 0);
+      assertEquals(-Math.PI, m.atan2(-5, -inf), 0);
+      assertEquals(0, m.pow(2, -9223372036854775808.0), 0);
+      assertEquals(inf, m.pow(2, 9223372036854775808.0), 0);
+      assertEquals(1, m.pow(-1, 9223372036854775808.0), 0);
+      assertEquals(1, m.pow(-1, -9223372036854775808.0), 0);
+      assertEquals(inf, m.pow(-0.5, -1e300), 0);
+    }
+  }
+}